@@ -0,0 +1,25 @@
+package su.sue.aiproject.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 流式对话配置类
+ */
+@Configuration
+public class ChatStreamConfig {
+
+    /**
+     * 流式对话专用的有界调度器
+     * 计费、落库等阻塞操作在此执行，不占用Netty事件循环线程，也不依赖公共ForkJoinPool的大小
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler chatStreamScheduler(
+            @Value("${app.chat.stream.scheduler.thread-cap:64}") int threadCap,
+            @Value("${app.chat.stream.scheduler.queue-cap:10000}") int queueCap) {
+        return Schedulers.newBoundedElastic(threadCap, queueCap, "chat-stream");
+    }
+}
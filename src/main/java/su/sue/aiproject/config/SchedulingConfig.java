@@ -0,0 +1,13 @@
+package su.sue.aiproject.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * 定时任务配置类
+ * 线程池大小由 spring.task.scheduling.pool.size 配置；耗时的任务（如全文索引更新）只在定时线程上提交，在各自的线程中执行
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -10,6 +10,7 @@ import java.time.Duration;
 
 /**
  * WebClient配置类
+ * 只提供共享的 WebClient.Builder 模板，调用方通过 ProviderWebClientRegistry 取得按主机池化连接的 WebClient
  */
 @Configuration
 public class WebClientConfig {
@@ -29,9 +30,4 @@ public class WebClientConfig {
                     configurer.defaultCodecs().enableLoggingRequestDetails(true);
                 });
     }
-    
-    @Bean
-    public WebClient webClient(WebClient.Builder webClientBuilder) {
-        return webClientBuilder.build();
-    }
 }
@@ -4,11 +4,12 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import su.sue.aiproject.domain.dto.ChatCompletionRequest;
 import su.sue.aiproject.domain.dto.ChatCompletionResponse;
 import su.sue.aiproject.domain.dto.GenerateTitleRequest;
@@ -31,6 +32,12 @@ public class AiChatController {
     private final AiChatManagerService aiChatManagerService;
     private final QwenTitleGeneratorService qwenTitleGeneratorService;
     
+    /**
+     * 流式响应模式：reactive（响应式透传）/ relay（字节透传）/ emitter（SseEmitter）
+     */
+    @Value("${app.chat.stream.mode:reactive}")
+    private String streamMode;
+    
     @PostMapping(value = "/completions", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
     @Operation(summary = "聊天完成接口", description = "兼容OpenAI格式的聊天完成接口，支持同步和流式响应")
     public Object chatCompletions(
@@ -52,24 +59,21 @@ public class AiChatController {
             
             // 根据是否流式响应选择不同的处理方式
             if (Boolean.TRUE.equals(request.getStream())) {
-                // 流式响应 - 直接返回SseEmitter，不包装在ResponseEntity中
-                SseEmitter emitter = aiChatManagerService.chatStream(request, userId);
+                if ("reactive".equalsIgnoreCase(streamMode)) {
+                    // 响应式流式响应 - 直接返回Flux，由Spring MVC负责按需写出
+                    return aiChatManagerService.chatStreamReactive(request, userId);
+                }
+                if ("relay".equalsIgnoreCase(streamMode)) {
+                    // 字节透传流式响应 - 上游SSE帧原样写出
+                    ResponseBodyEmitter relayEmitter = aiChatManagerService.chatStreamRelay(request, userId);
+                    return ResponseEntity.ok()
+                            .contentType(MediaType.TEXT_EVENT_STREAM)
+                            .body(relayEmitter);
+                }
                 
-                // 设置错误处理
-                emitter.onError(error -> {
-                    log.error("SSE流发生错误: {}", error.getMessage(), error);
-                });
-                
-                emitter.onTimeout(() -> {
-                    log.warn("SSE流超时");
-                    emitter.complete();
-                });
-                
-                emitter.onCompletion(() -> {
-                    log.debug("SSE流正常完成");
-                });
-                
-                return emitter;
+                // 流式响应 - 直接返回SseEmitter，不包装在ResponseEntity中
+                // 超时、出错和完成回调由服务层注册，用于取消上游请求，这里不能再覆盖
+                return aiChatManagerService.chatStream(request, userId);
             } else {
                 // 同步响应
                 ChatCompletionResponse response = aiChatManagerService.chat(request, userId);
@@ -13,10 +13,15 @@ import org.springframework.util.StringUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import su.sue.aiproject.domain.*;
+import su.sue.aiproject.service.AiModelEndpointsService;
 import su.sue.aiproject.service.AiModelsService;
+import su.sue.aiproject.service.ai.AiModelRegistry;
+import su.sue.aiproject.service.ai.ModelCallPlanCache;
+import su.sue.aiproject.service.ai.ModelEndpointBalancer;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/admin/ai-models")
@@ -26,6 +31,10 @@ import java.util.List;
 public class AiModelAdminController {
 
     private final AiModelsService aiModelsService;
+    private final AiModelRegistry aiModelRegistry;
+    private final ModelCallPlanCache modelCallPlanCache;
+    private final AiModelEndpointsService aiModelEndpointsService;
+    private final ModelEndpointBalancer modelEndpointBalancer;
 
     @PostMapping
     @Operation(summary = "添加AI模型", description = "添加新的AI模型")
@@ -55,6 +64,7 @@ public class AiModelAdminController {
         
         boolean saved = aiModelsService.save(aiModel);
         if (saved) {
+            aiModelRegistry.refresh(aiModel.getId());
             return ResponseEntity.ok(ApiResponse.success("AI模型添加成功", aiModel));
         } else {
             return ResponseEntity.internalServerError()
@@ -101,6 +111,15 @@ public class AiModelAdminController {
         
         existingModel.setCostPer1kTokens(request.getCostPer1kTokens());
         existingModel.setRateLimitPerMinute(request.getRateLimitPerMinute());
+        if (request.getHedgeEnabled() != null) {
+            existingModel.setHedgeEnabled(request.getHedgeEnabled());
+        }
+        if (request.getTokenizer() != null) {
+            existingModel.setTokenizer(request.getTokenizer().isEmpty() ? null : request.getTokenizer());
+        }
+        if (request.getContextWindow() != null) {
+            existingModel.setContextWindow(request.getContextWindow());
+        }
         existingModel.setIsEnabled(request.getIsEnabled());
         existingModel.setUpdatedAt(LocalDateTime.now());
         
@@ -114,6 +133,7 @@ public class AiModelAdminController {
         
         boolean updated = aiModelsService.updateById(existingModel);
         if (updated) {
+            aiModelRegistry.refresh(id);
             return ResponseEntity.ok(ApiResponse.success("AI模型更新成功", existingModel));
         } else {
             return ResponseEntity.internalServerError()
@@ -134,6 +154,14 @@ public class AiModelAdminController {
 
         boolean deleted = aiModelsService.removeById(id);
         if (deleted) {
+            // 同时删除模型的端点池
+            QueryWrapper<AiModelEndpoints> endpointsWrapper = new QueryWrapper<>();
+            endpointsWrapper.eq("model_id", id);
+            aiModelEndpointsService.remove(endpointsWrapper);
+            
+            aiModelRegistry.evict(id);
+            modelEndpointBalancer.evict(id);
+            modelCallPlanCache.evict(id);
             return ResponseEntity.ok(ApiResponse.<Void>success("AI模型删除成功", null));
         } else {
             return ResponseEntity.internalServerError()
@@ -196,6 +224,7 @@ public class AiModelAdminController {
         boolean updated = aiModelsService.updateById(aiModel);
         
         if (updated) {
+            aiModelRegistry.refresh(id);
             String status = aiModel.getIsEnabled() ? "启用" : "禁用";
             return ResponseEntity.ok(ApiResponse.success("AI模型" + status + "成功", aiModel));
         } else {
@@ -210,4 +239,113 @@ public class AiModelAdminController {
         List<AiModels> models = aiModelsService.list();
         return ResponseEntity.ok(ApiResponse.success("获取所有AI模型成功", models));
     }
+
+    @GetMapping("/{id}/endpoints")
+    @Operation(summary = "获取模型端点池", description = "获取指定模型配置的所有额外端点（模型自身的端点不在列表中）")
+    public ResponseEntity<ApiResponse<List<AiModelEndpoints>>> getAiModelEndpoints(
+            @Parameter(description = "模型ID") @PathVariable Integer id) {
+        
+        if (aiModelsService.getById(id) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        List<AiModelEndpoints> endpoints = aiModelEndpointsService.listByModelId(id);
+        return ResponseEntity.ok(ApiResponse.success("获取模型端点池成功", endpoints));
+    }
+
+    @GetMapping("/{id}/endpoints/status")
+    @Operation(summary = "获取模型端点池运行状态", description = "查看各端点的进行中请求数、延迟、摘除状态等")
+    public ResponseEntity<ApiResponse<List<Map<String, Object>>>> getAiModelEndpointsStatus(
+            @Parameter(description = "模型ID") @PathVariable Integer id) {
+        
+        if (aiModelsService.getById(id) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        return ResponseEntity.ok(ApiResponse.success("获取模型端点池运行状态成功", modelEndpointBalancer.snapshot(id)));
+    }
+
+    @PostMapping("/{id}/endpoints")
+    @Operation(summary = "添加模型端点", description = "为指定模型添加一组端点和密钥，请求会在端点池内负载均衡")
+    public ResponseEntity<ApiResponse<AiModelEndpoints>> addAiModelEndpoint(
+            @Parameter(description = "模型ID") @PathVariable Integer id,
+            @Validated @RequestBody AiModelEndpointRequest request) {
+        
+        if (aiModelsService.getById(id) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!StringUtils.hasText(request.getApiKey())) {
+            return ResponseEntity.badRequest()
+                .body(ApiResponse.error("API密钥不能为空"));
+        }
+        
+        AiModelEndpoints endpoint = new AiModelEndpoints();
+        BeanUtils.copyProperties(request, endpoint);
+        endpoint.setModelId(id);
+        endpoint.setCreatedAt(LocalDateTime.now());
+        endpoint.setUpdatedAt(LocalDateTime.now());
+        
+        boolean saved = aiModelEndpointsService.save(endpoint);
+        if (saved) {
+            modelEndpointBalancer.refresh(id);
+            return ResponseEntity.ok(ApiResponse.success("模型端点添加成功", endpoint));
+        } else {
+            return ResponseEntity.internalServerError()
+                .body(ApiResponse.error("模型端点添加失败"));
+        }
+    }
+
+    @PutMapping("/{id}/endpoints/{endpointId}")
+    @Operation(summary = "更新模型端点", description = "更新指定模型端点，密钥留空表示不修改")
+    public ResponseEntity<ApiResponse<AiModelEndpoints>> updateAiModelEndpoint(
+            @Parameter(description = "模型ID") @PathVariable Integer id,
+            @Parameter(description = "端点ID") @PathVariable Integer endpointId,
+            @Validated @RequestBody AiModelEndpointRequest request) {
+        
+        AiModelEndpoints endpoint = aiModelEndpointsService.getById(endpointId);
+        if (endpoint == null || !id.equals(endpoint.getModelId())) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        endpoint.setApiEndpoint(request.getApiEndpoint());
+        endpoint.setWeight(request.getWeight());
+        endpoint.setIsEnabled(request.getIsEnabled());
+        endpoint.setUpdatedAt(LocalDateTime.now());
+        
+        // 只在提供新密钥时才更新
+        if (StringUtils.hasText(request.getApiKey())) {
+            endpoint.setApiKey(request.getApiKey());
+        }
+        
+        boolean updated = aiModelEndpointsService.updateById(endpoint);
+        if (updated) {
+            modelEndpointBalancer.refresh(id);
+            return ResponseEntity.ok(ApiResponse.success("模型端点更新成功", endpoint));
+        } else {
+            return ResponseEntity.internalServerError()
+                .body(ApiResponse.error("模型端点更新失败"));
+        }
+    }
+
+    @DeleteMapping("/{id}/endpoints/{endpointId}")
+    @Operation(summary = "删除模型端点", description = "从模型端点池中删除指定端点")
+    public ResponseEntity<ApiResponse<Void>> deleteAiModelEndpoint(
+            @Parameter(description = "模型ID") @PathVariable Integer id,
+            @Parameter(description = "端点ID") @PathVariable Integer endpointId) {
+        
+        AiModelEndpoints endpoint = aiModelEndpointsService.getById(endpointId);
+        if (endpoint == null || !id.equals(endpoint.getModelId())) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        boolean deleted = aiModelEndpointsService.removeById(endpointId);
+        if (deleted) {
+            modelEndpointBalancer.refresh(id);
+            modelCallPlanCache.evict(id, endpointId);
+            return ResponseEntity.ok(ApiResponse.<Void>success("模型端点删除成功", null));
+        } else {
+            return ResponseEntity.internalServerError()
+                .body(ApiResponse.error("模型端点删除失败"));
+        }
+    }
 }
@@ -17,10 +17,13 @@ import su.sue.aiproject.domain.dto.ConversationListResponse;
 import su.sue.aiproject.domain.dto.UpdateConversationTitleRequest;
 import su.sue.aiproject.domain.dto.CreateNewConversationRequest;
 import su.sue.aiproject.domain.dto.ConversationSearchResponse;
+import su.sue.aiproject.domain.dto.CursorPageResponse;
+import su.sue.aiproject.domain.dto.MessageDetailResponse;
 import su.sue.aiproject.security.UserPrincipal;
 import su.sue.aiproject.service.ConversationManagementService;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import java.util.Date;
 import java.util.List;
@@ -74,6 +77,30 @@ public class ConversationController {
         }
     }
     
+    @GetMapping("/cursor")
+    @Operation(summary = "游标分页获取对话列表", description = "按最后活动时间倒序，用上一页返回的 nextCursor 获取下一页，默认不统计总数")
+    public ResponseEntity<ApiResponse<CursorPageResponse<ConversationListResponse>>> getConversationsByCursor(
+            @Parameter(description = "上一页返回的游标，第一页不传")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "每页大小", example = "20")
+            @RequestParam(defaultValue = "20") @Min(value = 1, message = "每页大小最小为1")
+            @Max(value = 100, message = "每页大小最大为100") Integer size,
+            @Parameter(description = "是否返回总数", example = "false")
+            @RequestParam(defaultValue = "false") Boolean withTotal,
+            Authentication authentication) {
+        
+        try {
+            Long userId = getUserId(authentication);
+            CursorPageResponse<ConversationListResponse> conversations =
+                    conversationManagementService.getUserConversationsByCursor(userId, cursor, size, withTotal);
+            return ResponseEntity.ok(ApiResponse.success("获取对话列表成功", conversations));
+        } catch (Exception e) {
+            log.error("游标分页获取对话列表失败", e);
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("获取对话列表失败: " + e.getMessage()));
+        }
+    }
+    
     @GetMapping("/search")
     @Operation(summary = "搜索历史对话", description = "根据关键词搜索用户的历史对话消息")
     public ResponseEntity<ApiResponse<Page<ConversationSearchResponse>>> searchConversations(
@@ -83,11 +110,14 @@ public class ConversationController {
             @RequestParam(defaultValue = "1") @Min(value = 1, message = "页数最小为1") Long current,
             @Parameter(description = "每页大小", example = "20")
             @RequestParam(defaultValue = "20") @Min(value = 1, message = "每页大小最小为1") Long size,
+            @Parameter(description = "是否返回消息完整内容，为false时只返回摘要和高亮", example = "true")
+            @RequestParam(defaultValue = "true") Boolean includeContent,
             Authentication authentication) {
         
         try {
             Long userId = getUserId(authentication);
-            Page<ConversationSearchResponse> searchResults = conversationManagementService.searchConversations(userId, keyword, current, size);
+            Page<ConversationSearchResponse> searchResults = conversationManagementService.searchConversations(
+                    userId, keyword, current, size, includeContent);
             return ResponseEntity.ok(ApiResponse.success("搜索历史对话成功", searchResults));
         } catch (Exception e) {
             log.error("搜索历史对话失败, keyword: {}", keyword, e);
@@ -137,6 +167,32 @@ public class ConversationController {
         }
     }
     
+    @GetMapping("/{conversationId}/messages/cursor")
+    @Operation(summary = "游标分页获取对话消息", description = "按时间正序，用上一页返回的 nextCursor 获取下一页，默认不统计总数")
+    public ResponseEntity<ApiResponse<CursorPageResponse<MessageDetailResponse>>> getConversationMessagesByCursor(
+            @Parameter(description = "对话ID", example = "1")
+            @PathVariable Long conversationId,
+            @Parameter(description = "上一页返回的游标，第一页不传")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "每页大小", example = "50")
+            @RequestParam(defaultValue = "50") @Min(value = 1, message = "每页大小最小为1")
+            @Max(value = 200, message = "每页大小最大为200") Integer size,
+            @Parameter(description = "是否返回总消息数", example = "false")
+            @RequestParam(defaultValue = "false") Boolean withTotal,
+            Authentication authentication) {
+        
+        try {
+            Long userId = getUserId(authentication);
+            CursorPageResponse<MessageDetailResponse> messages = conversationManagementService
+                    .getConversationMessagesByCursor(conversationId, userId, cursor, size, withTotal);
+            return ResponseEntity.ok(ApiResponse.success("获取对话消息成功", messages));
+        } catch (Exception e) {
+            log.error("游标分页获取对话消息失败, conversationId: {}", conversationId, e);
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("获取对话消息失败: " + e.getMessage()));
+        }
+    }
+    
     @PutMapping("/{conversationId}/title")
     @Operation(summary = "更新对话标题", description = "更新指定对话的标题")
     public ResponseEntity<ApiResponse<String>> updateConversationTitle(
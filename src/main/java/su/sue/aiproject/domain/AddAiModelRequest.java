@@ -7,6 +7,7 @@ import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.PositiveOrZero;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Pattern;
 import java.math.BigDecimal;
 
 @Data
@@ -50,6 +51,17 @@ public class AddAiModelRequest {
     @Schema(description = "每分钟请求限制", example = "60")
     private Integer rateLimitPerMinute = 60;
 
+    @Schema(description = "同步请求是否启用对冲（需要配置端点池）", example = "false")
+    private Boolean hedgeEnabled = false;
+
+    @Pattern(regexp = "^$|^(cl100k_base|o200k_base|qwen|heuristic)$", message = "不支持的分词器")
+    @Schema(description = "上游未返回usage时估算token数使用的分词器，为空时按模型名推断", example = "cl100k_base")
+    private String tokenizer;
+
+    @Min(value = 1, message = "上下文窗口至少为1")
+    @Schema(description = "上下文窗口token数，服务端组装上下文时使用，为空时使用默认值", example = "32768")
+    private Integer contextWindow;
+
     @Schema(description = "是否启用", example = "false")
     private Boolean isEnabled = false;
 }
@@ -0,0 +1,26 @@
+package su.sue.aiproject.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+
+@Data
+@Schema(description = "添加/更新AI模型端点请求")
+public class AiModelEndpointRequest {
+
+    @NotBlank(message = "API端点不能为空")
+    @Schema(description = "API端点", example = "https://api.openai.com/v1/chat/completions")
+    private String apiEndpoint;
+
+    @Schema(description = "API密钥，更新时留空表示不修改", example = "sk-xxxxxxxxxxxxxxxxxxxxxxxxx")
+    private String apiKey;
+
+    @Min(value = 1, message = "权重至少为1")
+    @Schema(description = "权重，按比例分配请求", example = "1")
+    private Integer weight = 1;
+
+    @Schema(description = "是否启用", example = "true")
+    private Boolean isEnabled = true;
+}
@@ -0,0 +1,75 @@
+package su.sue.aiproject.domain;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.LocalDateTime;
+import lombok.Data;
+
+/**
+ * AI模型端点实体类
+ * 同一个逻辑模型下的一组API端点和密钥
+ * @TableName ai_model_endpoints
+ */
+@TableName(value ="ai_model_endpoints")
+@Data
+@Schema(description = "AI模型端点信息")
+public class AiModelEndpoints {
+    /**
+     * 端点唯一标识
+     */
+    @TableId(type = IdType.AUTO)
+    @Schema(description = "端点ID", example = "1")
+    private Integer id;
+
+    /**
+     * 所属模型ID
+     */
+    @Schema(description = "所属模型ID", example = "1")
+    @TableField("model_id")
+    private Integer modelId;
+
+    /**
+     * API端点
+     */
+    @Schema(description = "API端点", example = "https://api.openai.com/v1/chat/completions")
+    @TableField("api_endpoint")
+    private String apiEndpoint;
+
+    /**
+     * API密钥
+     */
+    @Schema(description = "API密钥", example = "sk-xxxxxxxxxxxxxxxxxxxxxxxxx")
+    @TableField("api_key")
+    private String apiKey;
+
+    /**
+     * 权重
+     */
+    @Schema(description = "权重，按比例分配请求", example = "1")
+    private Integer weight;
+
+    /**
+     * 是否启用
+     */
+    @Schema(description = "是否启用", example = "true")
+    @TableField("is_enabled")
+    private Boolean isEnabled;
+
+    /**
+     * 创建时间
+     */
+    @Schema(description = "创建时间")
+    @TableField("created_at")
+    private LocalDateTime createdAt;
+
+    /**
+     * 更新时间
+     */
+    @Schema(description = "更新时间")
+    @TableField("updated_at")
+    private LocalDateTime updatedAt;
+
+}
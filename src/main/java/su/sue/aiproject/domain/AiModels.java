@@ -1,5 +1,6 @@
 package su.sue.aiproject.domain;
 
+import com.baomidou.mybatisplus.annotation.FieldStrategy;
 import com.baomidou.mybatisplus.annotation.IdType;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
@@ -87,6 +88,27 @@ public class AiModels {
     @TableField("rate_limit_per_minute")
     private Integer rateLimitPerMinute;
 
+    /**
+     * 同步请求是否启用对冲（首个请求超过延迟分位数未返回时向端点池中的另一个端点再发一次）
+     */
+    @Schema(description = "同步请求是否启用对冲", example = "false")
+    @TableField("hedge_enabled")
+    private Boolean hedgeEnabled;
+
+    /**
+     * 估算token数使用的分词器（cl100k_base、o200k_base、qwen、heuristic），为空时按模型名推断
+     */
+    @Schema(description = "估算token数使用的分词器，为空时按模型名推断", example = "cl100k_base")
+    @TableField(value = "tokenizer", updateStrategy = FieldStrategy.ALWAYS)
+    private String tokenizer;
+
+    /**
+     * 上下文窗口（token数），服务端组装上下文时按此裁剪历史消息，为空时使用默认值
+     */
+    @Schema(description = "上下文窗口token数", example = "32768")
+    @TableField(value = "context_window", updateStrategy = FieldStrategy.ALWAYS)
+    private Integer contextWindow;
+
     /**
      * 是否启用
      */
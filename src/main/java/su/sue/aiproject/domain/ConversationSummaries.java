@@ -0,0 +1,59 @@
+package su.sue.aiproject.domain;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.util.Date;
+import lombok.Data;
+
+/**
+ * 会话摘要检查点实体类
+ * 只追加：每次压缩在上一份摘要的基础上合并新增的消息，生成新的一行
+ * @TableName conversation_summaries
+ */
+@TableName(value ="conversation_summaries")
+@Data
+public class ConversationSummaries {
+
+    /**
+     * 摘要唯一标识
+     */
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 会话ID
+     */
+    @TableField("conversation_id")
+    private Long conversationId;
+
+    /**
+     * 截至 coveredMessageId（含）的对话摘要
+     */
+    private String summary;
+
+    /**
+     * 摘要覆盖到的最后一条消息ID
+     */
+    @TableField("covered_message_id")
+    private Long coveredMessageId;
+
+    /**
+     * 摘要的token数
+     */
+    @TableField("summary_tokens")
+    private Integer summaryTokens;
+
+    /**
+     * 生成摘要使用的模型ID
+     */
+    @TableField("model_id")
+    private Integer modelId;
+
+    /**
+     * 创建时间
+     */
+    @TableField("created_at")
+    private Date createdAt;
+}
@@ -0,0 +1,101 @@
+package su.sue.aiproject.domain;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.math.BigDecimal;
+import java.util.Date;
+import lombok.Data;
+
+/**
+ * 积分流水实体类
+ * 只追加，不修改金额；status 标记该流水是否已合并进用户余额
+ * @TableName credit_ledger
+ */
+@TableName(value ="credit_ledger")
+@Data
+public class CreditLedger {
+
+    /**
+     * 待合并到用户余额
+     */
+    public static final int STATUS_PENDING = 0;
+
+    /**
+     * 已合并，或变更时已直接写入用户余额
+     */
+    public static final int STATUS_FOLDED = 1;
+
+    /**
+     * 预留尚未结算或退还
+     */
+    public static final int HOLD_OPEN = 0;
+
+    /**
+     * 预留已结算或已退还
+     */
+    public static final int HOLD_CLOSED = 1;
+
+    /**
+     * 流水唯一标识
+     */
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 事件ID，重放日志时用于去重
+     */
+    @TableField("event_id")
+    private String eventId;
+
+    /**
+     * 预留ID，预留流水及其结算/退还流水共用
+     */
+    @TableField("hold_id")
+    private String holdId;
+
+    /**
+     * 仅预留流水：0 未关闭, 1 已结算或已退还
+     */
+    @TableField("hold_state")
+    private Integer holdState;
+
+    /**
+     * 用户ID
+     */
+    @TableField("user_id")
+    private Long userId;
+
+    /**
+     * 积分变化量，负数为扣除
+     */
+    private BigDecimal amount;
+
+    /**
+     * 变更类型：reserve/settle/release/deduct/add/adjust
+     */
+    private String type;
+
+    /**
+     * 变更描述
+     */
+    private String description;
+
+    /**
+     * 0: 待合并到余额, 1: 已合并或已直接生效
+     */
+    private Integer status;
+
+    /**
+     * 合并批次ID
+     */
+    @TableField("fold_id")
+    private String foldId;
+
+    /**
+     * 创建时间
+     */
+    @TableField("created_at")
+    private Date createdAt;
+}
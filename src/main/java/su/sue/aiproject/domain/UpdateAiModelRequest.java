@@ -7,6 +7,7 @@ import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.PositiveOrZero;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Pattern;
 import java.math.BigDecimal;
 
 @Data
@@ -53,6 +54,17 @@ public class UpdateAiModelRequest {
     @Schema(description = "每分钟请求限制", example = "60")
     private Integer rateLimitPerMinute;
 
+    @Schema(description = "同步请求是否启用对冲（需要配置端点池，不填表示不更新）", example = "false")
+    private Boolean hedgeEnabled;
+
+    @Pattern(regexp = "^$|^(cl100k_base|o200k_base|qwen|heuristic)$", message = "不支持的分词器")
+    @Schema(description = "估算token数使用的分词器（不填表示不更新，空字符串表示按模型名推断）", example = "cl100k_base")
+    private String tokenizer;
+
+    @Min(value = 1, message = "上下文窗口至少为1")
+    @Schema(description = "上下文窗口token数（不填表示不更新）", example = "32768")
+    private Integer contextWindow;
+
     @Schema(description = "是否启用", example = "true")
     private Boolean isEnabled;
 }
@@ -19,9 +19,15 @@ public class ChatCompletionRequest {
     @Schema(description = "会话ID（必填）", example = "123", required = true)
     private Long conversationId;
     
-    @Schema(description = "消息列表")
+    @Schema(description = "消息列表；serverContext 为 true 时只需包含本轮消息")
     private List<ChatMessage> messages;
     
+    @Schema(description = "是否由服务端组装历史上下文（按会话ID读取历史消息，按模型上下文窗口裁剪）", example = "false")
+    private Boolean serverContext = false;
+    
+    @Schema(description = "是否使用响应缓存（仅 temperature 为 0 时生效），相同请求直接返回缓存的回复并按折扣计费", example = "false")
+    private Boolean cache = false;
+    
     @Schema(description = "是否流式响应", example = "true")
     private Boolean stream = false;
     
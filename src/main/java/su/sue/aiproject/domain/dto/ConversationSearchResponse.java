@@ -4,6 +4,7 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Data;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * 对话搜索结果响应DTO
@@ -24,9 +25,18 @@ public class ConversationSearchResponse {
     @Schema(description = "消息角色", example = "user")
     private String messageRole;
     
-    @Schema(description = "消息内容", example = "一句话介绍你自己")
+    @Schema(description = "消息完整内容，includeContent=false 时不返回", example = "一句话介绍你自己")
     private String messageContent;
     
+    @Schema(description = "命中位置附近的内容摘要", example = "一句话介绍你自己")
+    private String snippet;
+    
+    @Schema(description = "摘要在消息中的起始字符偏移，0表示从开头开始", example = "0")
+    private Integer snippetStart;
+    
+    @Schema(description = "摘要中的高亮区间")
+    private List<HighlightRange> highlights;
+    
     @Schema(description = "消息创建时间")
     private LocalDateTime messageCreatedAt;
     
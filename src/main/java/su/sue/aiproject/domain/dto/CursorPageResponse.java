@@ -0,0 +1,26 @@
+package su.sue.aiproject.domain.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页响应DTO
+ */
+@Data
+@Schema(description = "游标分页响应")
+public class CursorPageResponse<T> {
+
+    @Schema(description = "本页记录")
+    private List<T> records;
+
+    @Schema(description = "下一页游标，没有更多数据时为空", example = "MjAyNS0wNy0wN1QxNDozOTo0OCwxMjM")
+    private String nextCursor;
+
+    @Schema(description = "是否还有更多数据", example = "true")
+    private Boolean hasMore;
+
+    @Schema(description = "总记录数，仅在 withTotal=true 时返回", example = "100")
+    private Long total;
+}
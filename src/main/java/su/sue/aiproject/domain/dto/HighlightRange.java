@@ -0,0 +1,22 @@
+package su.sue.aiproject.domain.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 摘要中的高亮区间
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "摘要中的高亮区间")
+public class HighlightRange {
+
+    @Schema(description = "在摘要中的起始下标（UTF-16）", example = "12")
+    private Integer start;
+
+    @Schema(description = "在摘要中的结束下标（不含，UTF-16）", example = "16")
+    private Integer end;
+}
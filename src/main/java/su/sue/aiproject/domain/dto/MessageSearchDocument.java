@@ -0,0 +1,18 @@
+package su.sue.aiproject.domain.dto;
+
+import lombok.Data;
+
+/**
+ * 建立全文索引时读取的消息
+ */
+@Data
+public class MessageSearchDocument {
+
+    private Long messageId;
+
+    private Long conversationId;
+
+    private Long userId;
+
+    private String content;
+}
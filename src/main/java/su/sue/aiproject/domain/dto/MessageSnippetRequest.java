@@ -0,0 +1,24 @@
+package su.sue.aiproject.domain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 按消息截取摘要的位置，由全文索引中的命中位置计算得到
+ */
+@Data
+@AllArgsConstructor
+public class MessageSnippetRequest {
+
+    private Long messageId;
+
+    /**
+     * 摘要起始字符偏移（从0开始）
+     */
+    private Integer start;
+
+    /**
+     * 摘要字符数
+     */
+    private Integer length;
+}
@@ -0,0 +1,52 @@
+package su.sue.aiproject.domain.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * 游标分页的位置：上一页最后一条记录的排序时间和ID
+ * 对客户端是不透明的字符串，下一页从该位置之后继续，不需要OFFSET扫描，也不受翻页期间新增数据的影响
+ *
+ * @param time 排序时间
+ * @param id   记录ID，排序时间相同时的第二排序键
+ */
+public record PageCursor(LocalDateTime time, Long id) {
+
+    /**
+     * 编码为URL安全的游标字符串
+     */
+    public String encode() {
+        String raw = time + "," + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标字符串
+     *
+     * @param cursor 游标，为空表示第一页
+     * @return 游标位置，第一页返回null
+     */
+    public static PageCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
+        }
+        int separator = raw.lastIndexOf(',');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+        try {
+            return new PageCursor(LocalDateTime.parse(raw.substring(0, separator)),
+                    Long.parseLong(raw.substring(separator + 1)));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
+        }
+    }
+}
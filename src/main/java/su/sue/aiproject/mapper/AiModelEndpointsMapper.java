@@ -0,0 +1,12 @@
+package su.sue.aiproject.mapper;
+
+import su.sue.aiproject.domain.AiModelEndpoints;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+
+/**
+* @description 针对表【ai_model_endpoints】的数据库操作Mapper
+* @Entity su.sue.aiproject.domain.AiModelEndpoints
+*/
+public interface AiModelEndpointsMapper extends BaseMapper<AiModelEndpoints> {
+
+}
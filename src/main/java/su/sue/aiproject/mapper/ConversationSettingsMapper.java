@@ -0,0 +1,12 @@
+package su.sue.aiproject.mapper;
+
+import su.sue.aiproject.domain.ConversationSettings;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+
+/**
+* @description 针对表【conversation_settings】的数据库操作Mapper
+* @Entity su.sue.aiproject.domain.ConversationSettings
+*/
+public interface ConversationSettingsMapper extends BaseMapper<ConversationSettings> {
+
+}
@@ -0,0 +1,25 @@
+package su.sue.aiproject.mapper;
+
+import su.sue.aiproject.domain.ConversationSummaries;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+/**
+* @description 针对表【conversation_summaries】的数据库操作Mapper
+* @Entity su.sue.aiproject.domain.ConversationSummaries
+*/
+public interface ConversationSummariesMapper extends BaseMapper<ConversationSummaries> {
+
+    /**
+     * 会话最新的摘要检查点，没有时返回 null
+     */
+    @Select("""
+        SELECT id, conversation_id, summary, covered_message_id, summary_tokens, model_id, created_at
+        FROM conversation_summaries
+        WHERE conversation_id = #{conversationId}
+        ORDER BY id DESC
+        LIMIT 1
+        """)
+    ConversationSummaries findLatest(@Param("conversationId") Long conversationId);
+}
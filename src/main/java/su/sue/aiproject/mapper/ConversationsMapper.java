@@ -3,12 +3,16 @@ package su.sue.aiproject.mapper;
 import su.sue.aiproject.domain.Conversations;
 import su.sue.aiproject.domain.dto.ConversationListResponse;
 import su.sue.aiproject.domain.dto.ConversationDetailResponse;
+import su.sue.aiproject.domain.dto.ConversationSearchResponse;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 import org.apache.ibatis.annotations.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -25,8 +29,118 @@ public interface ConversationsMapper extends BaseMapper<Conversations> {
     @Update("UPDATE conversations SET model_id = #{modelId} WHERE id = #{conversationId}")
     int updateModelId(@Param("conversationId") Long conversationId, @Param("modelId") Integer modelId);
 
+    /**
+     * 合并写入一批新消息后的会话摘要
+     * 消息数和token数累加；最后一条消息只在比已有的更新时覆盖，重放溢出文件等乱序写入不会回退
+     * 注意 MySQL 按书写顺序执行赋值，预览必须在 last_message_at 之前更新
+     */
+    @Update("""
+        UPDATE conversations SET
+            model_id = COALESCE(#{modelId}, model_id),
+            message_count = COALESCE(message_count, 0) + #{messageCount},
+            total_tokens = COALESCE(total_tokens, 0) + #{tokens},
+            last_message_preview = IF(last_message_at IS NULL OR last_message_at <= #{lastMessageAt},
+                #{lastMessagePreview}, last_message_preview),
+            last_message_at = IF(last_message_at IS NULL OR last_message_at <= #{lastMessageAt},
+                #{lastMessageAt}, last_message_at)
+        WHERE id = #{conversationId}
+        """)
+    int applyMessageSummary(@Param("conversationId") Long conversationId,
+                            @Param("modelId") Integer modelId,
+                            @Param("messageCount") int messageCount,
+                            @Param("tokens") long tokens,
+                            @Param("lastMessageAt") Date lastMessageAt,
+                            @Param("lastMessagePreview") String lastMessagePreview);
+
+    /**
+     * 从messages重新计算一段ID范围内会话的摘要，用于回填和修正
+     */
+    @Update("""
+        UPDATE conversations c
+        LEFT JOIN (
+            SELECT conversation_id,
+                   COUNT(*) AS message_count,
+                   COALESCE(SUM(COALESCE(total_tokens, tokens_consumed, 0)), 0) AS total_tokens,
+                   MAX(created_at) AS last_message_at
+            FROM messages
+            WHERE conversation_id > #{afterId} AND conversation_id <= #{toId}
+            GROUP BY conversation_id
+        ) s ON s.conversation_id = c.id
+        SET c.message_count = COALESCE(s.message_count, 0),
+            c.total_tokens = COALESCE(s.total_tokens, 0),
+            c.last_message_at = s.last_message_at,
+            c.last_message_preview = (
+                SELECT LEFT(m.content, 200)
+                FROM messages m
+                WHERE m.conversation_id = c.id
+                ORDER BY m.created_at DESC, m.id DESC
+                LIMIT 1
+            )
+        WHERE c.id > #{afterId} AND c.id <= #{toId}
+        """)
+    int recomputeSummaries(@Param("afterId") Long afterId, @Param("toId") Long toId);
+
+    /**
+     * 从指定ID之后取第N个会话的ID，用于分批回填时确定批次上界
+     */
+    @Select("""
+        SELECT id FROM conversations
+        WHERE id > #{afterId}
+        ORDER BY id
+        LIMIT 1 OFFSET #{offset}
+        """)
+    Long findIdAfter(@Param("afterId") Long afterId, @Param("offset") int offset);
+
+    /**
+     * 最大会话ID
+     */
+    @Select("SELECT MAX(id) FROM conversations")
+    Long findMaxId();
+
+    /**
+     * 获取未删除会话的归属用户，会话不存在或已删除时返回 null
+     */
+    @Select("SELECT user_id FROM conversations WHERE id = #{conversationId} AND COALESCE(status, 'active') != 'deleted'")
+    Long findActiveOwner(@Param("conversationId") Long conversationId);
+
+    /**
+     * 从给定会话ID中筛选出属于该用户且未删除的会话
+     */
+    @Select("""
+        <script>
+        SELECT id FROM conversations
+        WHERE user_id = #{userId}
+            AND COALESCE(status, 'active') != 'deleted'
+            AND id IN
+            <foreach collection="conversationIds" item="id" open="(" separator="," close=")">
+                #{id}
+            </foreach>
+        </script>
+        """)
+    List<Long> findActiveIds(@Param("userId") Long userId, @Param("conversationIds") Collection<Long> conversationIds);
+
+    /**
+     * 标题包含关键词的未删除会话及其最新一条消息ID，按最近活跃排序
+     * 全文索引只覆盖消息内容，标题命中由此补充
+     */
+    @Select("""
+        SELECT
+            c.id as conversationId,
+            c.title as conversationTitle,
+            (SELECT MAX(m.id) FROM messages m WHERE m.conversation_id = c.id) as messageId
+        FROM conversations c
+        WHERE c.user_id = #{userId}
+            AND COALESCE(c.status, 'active') != 'deleted'
+            AND c.title LIKE CONCAT('%', #{keyword}, '%')
+        ORDER BY c.last_activity_at DESC
+        LIMIT #{limit}
+        """)
+    List<ConversationSearchResponse> findTitleMatches(@Param("userId") Long userId, @Param("keyword") String keyword,
+                                                      @Param("limit") int limit);
+
     /**
      * 获取用户的对话列表，包含最后一条消息信息
+     * 读取会话表上的摘要列，按 idx_conversations_user_activity 索引排序
      */
     @Select("""
         SELECT 
@@ -35,37 +149,17 @@ public interface ConversationsMapper extends BaseMapper<Conversations> {
             COALESCE(c.status, 'active') as status,
             c.model_id as modelId,
             am.model_name as modelName,
-            COALESCE(msg_stats.messageCount, 0) as messageCount,
-            COALESCE(msg_stats.totalTokens, 0) as totalTokens,
-            lm.content as lastMessageContent,
-            lm.created_at as lastMessageTime,
+            COALESCE(c.message_count, 0) as messageCount,
+            COALESCE(c.total_tokens, 0) as totalTokens,
+            c.last_message_preview as lastMessageContent,
+            c.last_message_at as lastMessageTime,
             c.created_at as createdAt,
             c.updated_at as updatedAt
         FROM conversations c
         LEFT JOIN ai_models am ON c.model_id = am.id
-        LEFT JOIN (
-            SELECT 
-                m1.conversation_id,
-                m1.content,
-                m1.created_at
-            FROM messages m1
-            INNER JOIN (
-                SELECT conversation_id, MAX(created_at) as max_created_at
-                FROM messages
-                GROUP BY conversation_id
-            ) m2 ON m1.conversation_id = m2.conversation_id AND m1.created_at = m2.max_created_at
-        ) lm ON c.id = lm.conversation_id
-        LEFT JOIN (
-            SELECT 
-                conversation_id,
-                COUNT(*) as messageCount,
-                COALESCE(SUM(COALESCE(total_tokens, tokens_consumed, 0)), 0) as totalTokens
-            FROM messages
-            GROUP BY conversation_id
-        ) msg_stats ON c.id = msg_stats.conversation_id
         WHERE c.user_id = #{userId}
             AND COALESCE(c.status, 'active') != 'deleted'
-        ORDER BY COALESCE(lm.created_at, c.created_at) DESC
+        ORDER BY c.last_activity_at DESC
         """)
     List<ConversationListResponse> findConversationsByUserId(@Param("userId") Long userId);
 
@@ -79,40 +173,65 @@ public interface ConversationsMapper extends BaseMapper<Conversations> {
             COALESCE(c.status, 'active') as status,
             c.model_id as modelId,
             am.model_name as modelName,
-            COALESCE(msg_stats.messageCount, 0) as messageCount,
-            COALESCE(msg_stats.totalTokens, 0) as totalTokens,
-            lm.content as lastMessageContent,
-            lm.created_at as lastMessageTime,
+            COALESCE(c.message_count, 0) as messageCount,
+            COALESCE(c.total_tokens, 0) as totalTokens,
+            c.last_message_preview as lastMessageContent,
+            c.last_message_at as lastMessageTime,
             c.created_at as createdAt,
             c.updated_at as updatedAt
         FROM conversations c
         LEFT JOIN ai_models am ON c.model_id = am.id
-        LEFT JOIN (
-            SELECT 
-                m1.conversation_id,
-                m1.content,
-                m1.created_at
-            FROM messages m1
-            INNER JOIN (
-                SELECT conversation_id, MAX(created_at) as max_created_at
-                FROM messages
-                GROUP BY conversation_id
-            ) m2 ON m1.conversation_id = m2.conversation_id AND m1.created_at = m2.max_created_at
-        ) lm ON c.id = lm.conversation_id
-        LEFT JOIN (
-            SELECT 
-                conversation_id,
-                COUNT(*) as messageCount,
-                COALESCE(SUM(COALESCE(total_tokens, tokens_consumed, 0)), 0) as totalTokens
-            FROM messages
-            GROUP BY conversation_id
-        ) msg_stats ON c.id = msg_stats.conversation_id
         WHERE c.user_id = #{userId}
             AND COALESCE(c.status, 'active') != 'deleted'
-        ORDER BY COALESCE(lm.created_at, c.created_at) DESC
+        ORDER BY c.last_activity_at DESC
         """)
     Page<ConversationListResponse> findConversationsByUserIdWithPage(Page<ConversationListResponse> page, @Param("userId") Long userId);
 
+    /**
+     * 游标分页获取用户的对话列表，从游标位置之后取，不执行COUNT
+     * 排序键 (last_activity_at, id) 由 idx_conversations_user_activity 覆盖
+     */
+    @Select("""
+        <script>
+        SELECT 
+            c.id,
+            c.title,
+            COALESCE(c.status, 'active') as status,
+            c.model_id as modelId,
+            am.model_name as modelName,
+            COALESCE(c.message_count, 0) as messageCount,
+            COALESCE(c.total_tokens, 0) as totalTokens,
+            c.last_message_preview as lastMessageContent,
+            c.last_message_at as lastMessageTime,
+            c.created_at as createdAt,
+            c.updated_at as updatedAt
+        FROM conversations c
+        LEFT JOIN ai_models am ON c.model_id = am.id
+        WHERE c.user_id = #{userId}
+            AND COALESCE(c.status, 'active') != 'deleted'
+            <if test="cursorTime != null">
+            AND (c.last_activity_at &lt; #{cursorTime}
+                OR (c.last_activity_at = #{cursorTime} AND c.id &lt; #{cursorId}))
+            </if>
+        ORDER BY c.last_activity_at DESC, c.id DESC
+        LIMIT #{limit}
+        </script>
+        """)
+    List<ConversationListResponse> findConversationsByUserIdAfter(@Param("userId") Long userId,
+                                                                  @Param("cursorTime") LocalDateTime cursorTime,
+                                                                  @Param("cursorId") Long cursorId,
+                                                                  @Param("limit") int limit);
+
+    /**
+     * 统计用户未删除的对话数
+     */
+    @Select("""
+        SELECT COUNT(*) FROM conversations
+        WHERE user_id = #{userId}
+            AND COALESCE(status, 'active') != 'deleted'
+        """)
+    long countConversationsByUserId(@Param("userId") Long userId);
+
     /**
      * 获取对话详情（不包含消息）
      */
@@ -123,20 +242,12 @@ public interface ConversationsMapper extends BaseMapper<Conversations> {
             COALESCE(c.status, 'active') as status,
             c.model_id as modelId,
             am.model_name as modelName,
-            COALESCE(msg_stats.messageCount, 0) as messageCount,
-            COALESCE(msg_stats.totalTokens, 0) as totalTokens,
+            COALESCE(c.message_count, 0) as messageCount,
+            COALESCE(c.total_tokens, 0) as totalTokens,
             c.created_at as createdAt,
             c.updated_at as updatedAt
         FROM conversations c
         LEFT JOIN ai_models am ON c.model_id = am.id
-        LEFT JOIN (
-            SELECT 
-                conversation_id,
-                COUNT(*) as messageCount,
-                COALESCE(SUM(COALESCE(total_tokens, tokens_consumed, 0)), 0) as totalTokens
-            FROM messages
-            GROUP BY conversation_id
-        ) msg_stats ON c.id = msg_stats.conversation_id
         WHERE c.id = #{conversationId} 
             AND c.user_id = #{userId}
             AND COALESCE(c.status, 'active') != 'deleted'
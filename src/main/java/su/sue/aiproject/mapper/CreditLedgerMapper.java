@@ -0,0 +1,82 @@
+package su.sue.aiproject.mapper;
+
+import su.sue.aiproject.domain.CreditLedger;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+* @description 针对表【credit_ledger】的数据库操作Mapper
+* @Entity su.sue.aiproject.domain.CreditLedger
+*/
+public interface CreditLedgerMapper extends BaseMapper<CreditLedger> {
+
+    /**
+     * 批量写入流水，event_id 已存在的记录被忽略，重放日志是幂等的
+     */
+    @Insert("""
+        <script>
+        INSERT IGNORE INTO credit_ledger (event_id, hold_id, hold_state, user_id, amount, type, description, status, created_at)
+        VALUES
+        <foreach collection="entries" item="e" separator=",">
+            (#{e.eventId}, #{e.holdId}, #{e.holdState}, #{e.userId}, #{e.amount}, #{e.type}, #{e.description},
+             #{e.status}, #{e.createdAt})
+        </foreach>
+        </script>
+        """)
+    int insertIgnoreBatch(@Param("entries") List<CreditLedger> entries);
+
+    /**
+     * 用户尚未合并到余额的流水之和
+     */
+    @Select("SELECT COALESCE(SUM(amount), 0) FROM credit_ledger WHERE user_id = #{userId} AND status = 0")
+    BigDecimal sumPendingByUserId(@Param("userId") Long userId);
+
+    /**
+     * 认领一批待合并的流水，UPDATE 为当前读，多个实例同时合并也不会重复认领
+     */
+    @Update("UPDATE credit_ledger SET status = 1, fold_id = #{foldId} WHERE status = 0 ORDER BY id LIMIT #{limit}")
+    int claimPending(@Param("foldId") String foldId, @Param("limit") int limit);
+
+    /**
+     * 认领某个用户全部待合并的流水
+     */
+    @Update("UPDATE credit_ledger SET status = 1, fold_id = #{foldId} WHERE user_id = #{userId} AND status = 0")
+    int claimPendingByUserId(@Param("foldId") String foldId, @Param("userId") Long userId);
+
+    /**
+     * 按用户汇总某个合并批次的变化量
+     */
+    @Select("SELECT user_id AS userId, SUM(amount) AS amount FROM credit_ledger WHERE fold_id = #{foldId} GROUP BY user_id")
+    List<CreditLedger> sumByFoldId(@Param("foldId") String foldId);
+
+    /**
+     * 把预留流水标记为已关闭
+     */
+    @Update("""
+        <script>
+        UPDATE credit_ledger SET hold_state = 1
+        WHERE type = 'reserve' AND hold_state = 0 AND hold_id IN
+        <foreach collection="holdIds" item="holdId" open="(" separator="," close=")">#{holdId}</foreach>
+        </script>
+        """)
+    int closeHolds(@Param("holdIds") List<String> holdIds);
+
+    /**
+     * 创建时间早于 before 且仍未关闭的预留流水
+     */
+    @Select("""
+        SELECT id, event_id, hold_id, hold_state, user_id, amount, type, description, status, created_at
+        FROM credit_ledger
+        WHERE hold_state = 0 AND created_at < #{before}
+        ORDER BY created_at
+        LIMIT #{limit}
+        """)
+    List<CreditLedger> findOpenHolds(@Param("before") Date before, @Param("limit") int limit);
+}
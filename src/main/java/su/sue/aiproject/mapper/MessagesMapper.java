@@ -3,11 +3,15 @@ package su.sue.aiproject.mapper;
 import su.sue.aiproject.domain.Messages;
 import su.sue.aiproject.domain.dto.MessageDetailResponse;
 import su.sue.aiproject.domain.dto.ConversationSearchResponse;
+import su.sue.aiproject.domain.dto.MessageSearchDocument;
+import su.sue.aiproject.domain.dto.MessageSnippetRequest;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -72,6 +76,44 @@ public interface MessagesMapper extends BaseMapper<Messages> {
         """)
     Page<MessageDetailResponse> findMessagesByConversationIdWithPage(Page<MessageDetailResponse> page, @Param("conversationId") Long conversationId);
 
+    /**
+     * 游标分页获取对话的消息列表，从游标位置之后取，不执行COUNT
+     * 排序键 (created_at, id) 由 idx_messages_conversation_created 覆盖（二级索引隐含主键id）
+     */
+    @Select("""
+        <script>
+        SELECT 
+            m.id,
+            m.role,
+            m.content,
+            m.name,
+            m.model_id as modelId,
+            am.model_name as modelName,
+            COALESCE(m.tokens_consumed, 0) as tokensConsumed,
+            m.prompt_tokens as promptTokens,
+            m.completion_tokens as completionTokens,
+            m.total_tokens as totalTokens,
+            m.finish_reason as finishReason,
+            m.tool_calls as toolCalls,
+            m.tool_call_id as toolCallId,
+            m.system_fingerprint as systemFingerprint,
+            m.created_at as createdAt
+        FROM messages m
+        LEFT JOIN ai_models am ON m.model_id = am.id
+        WHERE m.conversation_id = #{conversationId}
+            <if test="cursorTime != null">
+            AND (m.created_at &gt; #{cursorTime}
+                OR (m.created_at = #{cursorTime} AND m.id &gt; #{cursorId}))
+            </if>
+        ORDER BY m.created_at ASC, m.id ASC
+        LIMIT #{limit}
+        </script>
+        """)
+    List<MessageDetailResponse> findMessagesByConversationIdAfter(@Param("conversationId") Long conversationId,
+                                                                  @Param("cursorTime") LocalDateTime cursorTime,
+                                                                  @Param("cursorId") Long cursorId,
+                                                                  @Param("limit") int limit);
+
     /**
      * 搜索用户的历史对话消息
      */
@@ -101,8 +143,97 @@ public interface MessagesMapper extends BaseMapper<Messages> {
                                                            @Param("userId") Long userId, 
                                                            @Param("keyword") String keyword);
 
-}
+    /**
+     * 按ID顺序读取消息用于建立全文索引
+     */
+    @Select("""
+        SELECT 
+            m.id as messageId,
+            m.conversation_id as conversationId,
+            c.user_id as userId,
+            m.content
+        FROM messages m
+        INNER JOIN conversations c ON m.conversation_id = c.id
+        WHERE m.id > #{afterId}
+        ORDER BY m.id ASC
+        LIMIT #{limit}
+        """)
+    List<MessageSearchDocument> findMessagesForIndex(@Param("afterId") Long afterId, @Param("limit") int limit);
 
+    /**
+     * 按消息ID批量获取搜索结果，只返回当前用户未删除会话中的消息
+     * 每条消息只截取摘要窗口内的内容；includeContent 为 false 时不读取完整内容
+     */
+    @Select("""
+        <script>
+        SELECT 
+            c.id as conversationId,
+            c.title as conversationTitle,
+            m.id as messageId,
+            m.role as messageRole,
+            <if test="includeContent">
+            m.content as messageContent,
+            </if>
+            CASE m.id
+            <foreach collection="snippets" item="s">
+                WHEN #{s.messageId} THEN SUBSTRING(m.content, #{s.start} + 1, #{s.length})
+            </foreach>
+            END as snippet,
+            m.created_at as messageCreatedAt,
+            m.model_id as modelId,
+            am.model_name as modelName
+        FROM messages m
+        INNER JOIN conversations c ON m.conversation_id = c.id
+        LEFT JOIN ai_models am ON m.model_id = am.id
+        WHERE c.user_id = #{userId}
+            AND COALESCE(c.status, 'active') != 'deleted'
+            AND m.id IN
+            <foreach collection="snippets" item="s" open="(" separator="," close=")">
+                #{s.messageId}
+            </foreach>
+        </script>
+        """)
+    List<ConversationSearchResponse> findSearchResultsByIds(@Param("userId") Long userId,
+                                                           @Param("snippets") List<MessageSnippetRequest> snippets,
+                                                           @Param("includeContent") boolean includeContent);
 
+    /**
+     * 获取会话最近的消息，从新到旧，用于服务端组装上下文
+     * 按 (created_at, id) 倒序，走 idx_messages_conversation_created 索引
+     */
+    @Select("""
+        SELECT id, role, content, created_at as createdAt
+        FROM messages
+        WHERE conversation_id = #{conversationId}
+        ORDER BY created_at DESC, id DESC
+        LIMIT #{limit}
+        """)
+    List<Messages> findRecentMessages(@Param("conversationId") Long conversationId, @Param("limit") int limit);
 
+    /**
+     * 按ID顺序获取会话中指定ID之后的消息，用于增量压缩摘要
+     */
+    @Select("""
+        SELECT id, role, content
+        FROM messages
+        WHERE conversation_id = #{conversationId} AND id > #{afterId}
+        ORDER BY id ASC
+        LIMIT #{limit}
+        """)
+    List<Messages> findMessagesAfter(@Param("conversationId") Long conversationId, @Param("afterId") Long afterId,
+                                     @Param("limit") int limit);
 
+    /**
+     * 多行INSERT批量保存消息，VALUES 的顺序即自增ID的顺序
+     */
+    @Insert("""
+        <script>
+        INSERT INTO messages (conversation_id, role, content, model_id, tokens_consumed, created_at)
+        VALUES
+        <foreach collection="messages" item="m" separator=",">
+            (#{m.conversationId}, #{m.role}, #{m.content}, #{m.modelId}, #{m.tokensConsumed}, #{m.createdAt})
+        </foreach>
+        </script>
+        """)
+    int insertBatch(@Param("messages") List<Messages> messages);
+}
@@ -2,6 +2,10 @@ package su.sue.aiproject.mapper;
 
 import su.sue.aiproject.domain.Users;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
+
+import java.math.BigDecimal;
 
 /**
 * @author Akaio
@@ -11,6 +15,32 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 */
 public interface UsersMapper extends BaseMapper<Users> {
 
+    /**
+     * 余额足够时扣除积分，余额检查和扣除在同一条语句中完成
+     *
+     * @return 影响行数，余额不足或用户不存在时为0
+     */
+    @Update("UPDATE users SET credit_balance = credit_balance - #{amount} WHERE id = #{userId} AND credit_balance >= #{amount}")
+    int deductCreditIfEnough(@Param("userId") Long userId, @Param("amount") BigDecimal amount);
+
+    /**
+     * 预留积分：credit_balance 加上调用方给出的待合并变化量足够时扣除
+     *
+     * @param pending 尚未计入 credit_balance 的变化量，负数表示已产生但未合并的扣费
+     * @return 影响行数，余额不足或用户不存在时为0
+     */
+    @Update("UPDATE users SET credit_balance = credit_balance - #{amount} "
+            + "WHERE id = #{userId} AND credit_balance + #{pending} >= #{amount}")
+    int reserveCreditIfEnough(@Param("userId") Long userId, @Param("amount") BigDecimal amount,
+                              @Param("pending") BigDecimal pending);
+
+    /**
+     * 调整积分余额，amount 为负数时表示扣除
+     *
+     * @return 影响行数，用户不存在时为0
+     */
+    @Update("UPDATE users SET credit_balance = credit_balance + #{amount} WHERE id = #{userId}")
+    int addCredit(@Param("userId") Long userId, @Param("amount") BigDecimal amount);
 }
 
 
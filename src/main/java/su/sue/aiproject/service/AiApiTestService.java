@@ -1,6 +1,5 @@
 package su.sue.aiproject.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
@@ -11,6 +10,9 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.service.ai.ModelCallPlan;
+import su.sue.aiproject.service.ai.ModelCallPlanCache;
+import su.sue.aiproject.service.ai.ProviderWebClientRegistry;
 
 import java.time.Duration;
 import java.util.HashMap;
@@ -25,7 +27,8 @@ import java.util.Map;
 public class AiApiTestService {
 
     private final ObjectMapper objectMapper;
-    private final WebClient.Builder webClientBuilder;
+    private final ProviderWebClientRegistry webClientRegistry;
+    private final ModelCallPlanCache modelCallPlanCache;
 
     /**
      * 测试AI模型API连接
@@ -35,7 +38,8 @@ public class AiApiTestService {
     public String testApiConnection(AiModels model) {
         try {
             // 构建WebClient
-            WebClient webClient = webClientBuilder
+            WebClient webClient = webClientRegistry.forEndpoint(model.getApiEndpoint())
+                    .mutate()
                     .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                     .build();
 
@@ -82,33 +86,11 @@ public class AiApiTestService {
             requestBody.put("max_tokens", 10);
             requestBody.put("temperature", 0.1);
 
-            // 构建请求头
+            // 请求头（认证、组织/项目、额外请求头）使用预编译的调用计划，不再每次解析 extraHeaders
+            ModelCallPlan plan = modelCallPlanCache.get(model);
             WebClient.RequestBodySpec request = webClient.post()
-                    .uri(model.getApiEndpoint())
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + model.getApiKey());
-
-            // 添加组织ID（如果有）
-            if (model.getOrganizationId() != null && !model.getOrganizationId().trim().isEmpty()) {
-                request.header("OpenAI-Organization", model.getOrganizationId());
-            }
-
-            // 添加项目ID（如果有）
-            if (model.getProjectId() != null && !model.getProjectId().trim().isEmpty()) {
-                request.header("OpenAI-Project", model.getProjectId());
-            }
-
-            // 添加额外请求头（如果有）
-            if (model.getExtraHeaders() != null && !model.getExtraHeaders().trim().isEmpty()) {
-                try {
-                    Map<String, String> extraHeaders = objectMapper.readValue(
-                            model.getExtraHeaders(), 
-                            new TypeReference<Map<String, String>>() {}
-                    );
-                    extraHeaders.forEach(request::header);
-                } catch (Exception e) {
-                    log.warn("解析额外请求头失败: {}", e.getMessage());
-                }
-            }
+                    .uri(plan.getUri())
+                    .headers(plan::applyHeaders);
 
             // 发送请求
             String response = request
@@ -0,0 +1,25 @@
+package su.sue.aiproject.service;
+
+import su.sue.aiproject.domain.AiModelEndpoints;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+import java.util.List;
+
+/**
+* @description 针对表【ai_model_endpoints】的数据库操作Service
+*/
+public interface AiModelEndpointsService extends IService<AiModelEndpoints> {
+
+    /**
+     * 获取模型下的所有端点（含已禁用）
+     * @param modelId 模型ID
+     * @return 端点列表
+     */
+    List<AiModelEndpoints> listByModelId(Integer modelId);
+
+    /**
+     * 获取所有已启用的端点
+     * @return 端点列表
+     */
+    List<AiModelEndpoints> listEnabled();
+}
@@ -4,6 +4,8 @@ import su.sue.aiproject.domain.Conversations;
 import su.sue.aiproject.domain.dto.ConversationListResponse;
 import su.sue.aiproject.domain.dto.ConversationDetailResponse;
 import su.sue.aiproject.domain.dto.ConversationSearchResponse;
+import su.sue.aiproject.domain.dto.CursorPageResponse;
+import su.sue.aiproject.domain.dto.MessageDetailResponse;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 
 import java.util.List;
@@ -31,6 +33,18 @@ public interface ConversationManagementService {
      */
     Page<ConversationListResponse> getUserConversationsWithPage(Long userId, long current, long size);
 
+    /**
+     * 游标分页获取用户的对话列表，按最后活动时间倒序
+     *
+     * @param userId    用户ID
+     * @param cursor    上一页返回的游标，为空表示第一页
+     * @param size      每页大小
+     * @param withTotal 是否返回总数（需要额外的COUNT查询）
+     * @return 游标分页对话列表
+     */
+    CursorPageResponse<ConversationListResponse> getUserConversationsByCursor(Long userId, String cursor, int size,
+                                                                            boolean withTotal);
+
     /**
      * 获取对话详情
      *
@@ -51,6 +65,19 @@ public interface ConversationManagementService {
      */
     ConversationDetailResponse getConversationDetailWithPagedMessages(Long conversationId, Long userId, long messageCurrent, long messageSize);
 
+    /**
+     * 游标分页获取对话的消息，按时间正序
+     *
+     * @param conversationId 对话ID
+     * @param userId         用户ID
+     * @param cursor         上一页返回的游标，为空表示第一页
+     * @param size           每页大小
+     * @param withTotal      是否返回总消息数（取自会话摘要，不执行COUNT）
+     * @return 游标分页消息列表
+     */
+    CursorPageResponse<MessageDetailResponse> getConversationMessagesByCursor(Long conversationId, Long userId,
+                                                                             String cursor, int size, boolean withTotal);
+
     /**
      * 删除对话（软删除）
      *
@@ -94,7 +121,9 @@ public interface ConversationManagementService {
      * @param keyword  搜索关键词
      * @param current  当前页数
      * @param size     每页大小
+     * @param includeContent 是否返回消息完整内容，为 false 时只返回摘要和高亮
      * @return 搜索结果
      */
-    Page<ConversationSearchResponse> searchConversations(Long userId, String keyword, long current, long size);
+    Page<ConversationSearchResponse> searchConversations(Long userId, String keyword, long current, long size,
+                                                         boolean includeContent);
 }
@@ -0,0 +1,61 @@
+package su.sue.aiproject.service;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一次对话预留的积分
+ * 预留时已从余额中扣除，结束时按实际费用结算（多退少补），失败时全额退还
+ * 结算和退还只有第一次生效，流式请求的多个结束路径可以放心重复调用
+ * 预留ID记录在预留流水上，进程重启后未关闭的预留由 CreditHoldSweeper 超时退还
+ */
+public final class CreditHold {
+
+    private final String holdId;
+    private final Long userId;
+    private final BigDecimal amount;
+    private final String description;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    public CreditHold(String holdId, Long userId, BigDecimal amount, String description) {
+        this.holdId = holdId;
+        this.userId = userId;
+        this.amount = amount;
+        this.description = description;
+    }
+
+    /**
+     * 预留ID，对应预留流水的 hold_id
+     */
+    public String getHoldId() {
+        return holdId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    /**
+     * 预留的积分数量
+     */
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * 标记为已结算或已退还
+     *
+     * @return 第一次调用返回true，之后返回false
+     */
+    public boolean close() {
+        return closed.compareAndSet(false, true);
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+}
@@ -41,4 +41,43 @@ public interface CreditService {
      * @return 是否足够
      */
     boolean hasEnoughCredit(Long userId, BigDecimal amount);
+    
+    /**
+     * 把用户余额调整为指定值（管理员编辑）
+     * 按包含待合并流水的实际余额计算差额，追加一条 adjust 流水，不直接覆盖 credit_balance
+     * 
+     * @param userId 用户ID
+     * @param balance 调整后的余额
+     * @param description 调整描述
+     * @return 调整的差额
+     */
+    BigDecimal adjustCreditTo(Long userId, BigDecimal balance, String description);
+    
+    /**
+     * 预留积分：在一条条件UPDATE中检查余额并扣除预估费用
+     * 余额不足预估费用时改为预留最低费用，仍不足则抛出异常
+     * 
+     * @param userId 用户ID
+     * @param amount 预估费用
+     * @param minimum 最低费用
+     * @param description 预留描述
+     * @return 预留凭据，结束时必须结算或退还
+     */
+    CreditHold reserveCredit(Long userId, BigDecimal amount, BigDecimal minimum, String description);
+    
+    /**
+     * 按实际费用结算预留的积分，退还多预留的部分，实际费用超过预留时补扣差额
+     * 
+     * @param hold 预留凭据
+     * @param actualCost 实际费用
+     */
+    void settleCredit(CreditHold hold, BigDecimal actualCost);
+    
+    /**
+     * 全额退还预留的积分，用于请求失败的情况
+     * 多在错误处理路径上调用，退还失败时只记录日志，不抛出异常
+     * 
+     * @param hold 预留凭据
+     */
+    void releaseCredit(CreditHold hold);
 }
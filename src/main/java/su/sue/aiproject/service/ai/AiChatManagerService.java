@@ -2,13 +2,24 @@ package su.sue.aiproject.service.ai;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
 import su.sue.aiproject.domain.dto.ChatCompletionRequest;
 import su.sue.aiproject.domain.dto.ChatCompletionResponse;
 import su.sue.aiproject.domain.AiModels;
-import su.sue.aiproject.service.AiModelsService;
+import su.sue.aiproject.service.ai.cache.CachedResponse;
+import su.sue.aiproject.service.ai.cache.ResponseCache;
+import su.sue.aiproject.service.ai.cache.ResponseCacheKey;
+import su.sue.aiproject.service.ai.cache.ResponseReplayService;
+import su.sue.aiproject.service.ai.impl.ChatCompletionEngine;
+import su.sue.aiproject.service.ai.provider.ProviderCodec;
+import su.sue.aiproject.service.ai.provider.ProviderCodecRegistry;
+import su.sue.aiproject.service.ai.stream.InFlightStreamRegistry;
+import su.sue.aiproject.service.message.ConversationContextService;
 
 /**
  * AI聊天管理服务
@@ -18,16 +29,29 @@ import su.sue.aiproject.service.AiModelsService;
 @Slf4j
 public class AiChatManagerService {
     
-    @Qualifier("deepseekChatService")
-    private final AiChatService deepseekChatService;
+    private final ChatCompletionEngine chatCompletionEngine;
     
-    @Qualifier("qwenChatService")
-    private final AiChatService qwenChatService;
+    private final ProviderCodecRegistry providerCodecRegistry;
     
-    @Qualifier("genericOpenAiChatService")
-    private final AiChatService genericOpenAiChatService;
+    private final AiModelRegistry aiModelRegistry;
     
-    private final AiModelsService aiModelsService;
+    private final ModelRateLimiter modelRateLimiter;
+    
+    private final ModelEndpointBalancer modelEndpointBalancer;
+    
+    private final ConversationContextService conversationContextService;
+    
+    private final ResponseCache responseCache;
+    
+    private final ResponseReplayService responseReplayService;
+    
+    private final InFlightStreamRegistry inFlightStreamRegistry;
+    
+    /**
+     * 是否合并重复的进行中流式请求（同一用户、同一会话、相同请求）
+     */
+    @Value("${app.chat.single-flight.enabled:true}")
+    private boolean singleFlightEnabled;
     
     /**
      * 统一聊天接口 - 同步模式
@@ -37,10 +61,21 @@ public class AiChatManagerService {
             log.info("收到同步聊天请求: modelId={}, userId={}, conversationId={}", 
                     request.getId(), userId, request.getConversationId());
             
-            AiChatService chatService = getServiceByModelId(request.getId());
-            log.debug("使用聊天服务: {}", chatService.getClass().getSimpleName());
+            ProviderCodec codec = getCodecByModelId(request.getId());
+            log.debug("使用提供商编解码器: {}", codec.provider());
+            
+            prepareContext(request, userId);
+            
+            // 命中响应缓存时直接回放，不经过限流和上游
+            CachedResponse cached = lookupCache(request, userId);
+            if (cached != null) {
+                return responseReplayService.chat(aiModelRegistry.get(request.getId()), userId, request, cached);
+            }
             
-            return chatService.chat(request, userId);
+            // 按模型限流，超出限额时排队或拒绝
+            acquireRateLimit(request.getId());
+            
+            return chatCompletionEngine.chat(request, userId);
         } catch (Exception e) {
             log.error("同步聊天请求失败: modelId={}, userId={}, error={}", 
                     request.getId(), userId, e.getMessage(), e);
@@ -56,10 +91,21 @@ public class AiChatManagerService {
             log.info("收到流式聊天请求: modelId={}, userId={}, conversationId={}", 
                     request.getId(), userId, request.getConversationId());
             
-            AiChatService chatService = getServiceByModelId(request.getId());
-            log.debug("使用聊天服务: {}", chatService.getClass().getSimpleName());
+            ProviderCodec codec = getCodecByModelId(request.getId());
+            log.debug("使用提供商编解码器: {}", codec.provider());
+            
+            prepareContext(request, userId);
+            
+            // 命中响应缓存时直接回放，不经过限流和上游
+            CachedResponse cached = lookupCache(request, userId);
+            if (cached != null) {
+                return responseReplayService.chatStream(aiModelRegistry.get(request.getId()), userId, request, cached);
+            }
             
-            return chatService.chatStream(request, userId);
+            // 按模型限流，超出限额时排队或拒绝
+            acquireRateLimit(request.getId());
+            
+            return chatCompletionEngine.chatStream(request, userId);
         } catch (Exception e) {
             log.error("流式聊天请求失败: modelId={}, userId={}, error={}", 
                     request.getId(), userId, e.getMessage(), e);
@@ -68,71 +114,115 @@ public class AiChatManagerService {
     }
     
     /**
-     * 根据模型提供商获取对应的服务
+     * 统一聊天接口 - 响应式流式模式
      */
-    private AiChatService getServiceByProvider(String provider) {
-        if (provider == null) {
-            throw new RuntimeException("模型提供商不能为空");
-        }
-        
-        // 根据提供商标识判断使用哪个服务
-        switch (provider.toLowerCase()) {
-            case "deepseek":
-                return deepseekChatService;
-            case "qwen":
-                return qwenChatService;
-            case "other":
-                return genericOpenAiChatService;
-            // TODO: 添加其他AI服务商的支持
-            // case "openai":
-            //     return openaiChatService;
-            // case "anthropic":
-            //     return anthropicChatService;
-            default:
-                log.warn("未知提供商 '{}', 使用通用OpenAI兼容服务", provider);
-                return genericOpenAiChatService;
+    public Flux<ServerSentEvent<String>> chatStreamReactive(ChatCompletionRequest request, Long userId) {
+        try {
+            log.info("收到响应式流式聊天请求: modelId={}, userId={}, conversationId={}", 
+                    request.getId(), userId, request.getConversationId());
+            
+            ProviderCodec codec = getCodecByModelId(request.getId());
+            log.debug("使用提供商编解码器: {}", codec.provider());
+            
+            prepareContext(request, userId);
+            
+            // 命中响应缓存时直接回放，不经过限流和上游
+            CachedResponse cached = lookupCache(request, userId);
+            if (cached != null) {
+                return responseReplayService.chatStreamReactive(aiModelRegistry.get(request.getId()), userId, request, cached);
+            }
+            
+            if (!singleFlightEnabled) {
+                acquireRateLimit(request.getId());
+                return chatCompletionEngine.chatStreamReactive(request, userId);
+            }
+            
+            // 相同请求仍在进行中时挂到同一个上游流上，只有发起上游调用的请求参与限流
+            String key = userId + ":" + request.getConversationId() + ":"
+                    + ResponseCacheKey.of(aiModelRegistry.get(request.getId()), null, request);
+            return inFlightStreamRegistry.join(key, () -> {
+                // 按模型限流，超出限额时排队或拒绝
+                acquireRateLimit(request.getId());
+                return chatCompletionEngine.chatStreamReactive(request, userId);
+            });
+        } catch (Exception e) {
+            log.error("响应式流式聊天请求失败: modelId={}, userId={}, error={}", 
+                    request.getId(), userId, e.getMessage(), e);
+            throw e;
         }
     }
     
     /**
-     * 根据模型名称获取对应的服务（兼容旧接口）
+     * 字节透传流式聊天接口
      */
-    private AiChatService getServiceByModel(String modelName) {
-        // 兼容性：根据模型名称推断提供商
-        if (modelName.startsWith("deepseek") || modelName.contains("deepseek")) {
-            return deepseekChatService;
+    public ResponseBodyEmitter chatStreamRelay(ChatCompletionRequest request, Long userId) {
+        try {
+            log.info("收到透传流式聊天请求: modelId={}, userId={}, conversationId={}", 
+                    request.getId(), userId, request.getConversationId());
+            
+            ProviderCodec codec = getCodecByModelId(request.getId());
+            log.debug("使用提供商编解码器: {}", codec.provider());
+            
+            prepareContext(request, userId);
+            
+            // 命中响应缓存时直接回放，不经过限流和上游
+            CachedResponse cached = lookupCache(request, userId);
+            if (cached != null) {
+                return responseReplayService.chatStreamRelay(aiModelRegistry.get(request.getId()), userId, request, cached);
+            }
+            
+            // 按模型限流，超出限额时排队或拒绝
+            acquireRateLimit(request.getId());
+            
+            return chatCompletionEngine.chatStreamRelay(request, userId);
+        } catch (Exception e) {
+            log.error("透传流式聊天请求失败: modelId={}, userId={}, error={}", 
+                    request.getId(), userId, e.getMessage(), e);
+            throw e;
         }
-        
-        if (modelName.startsWith("qwen") || modelName.contains("qwen")) {
-            return qwenChatService;
+    }
+    
+    /**
+     * 请求要求服务端组装上下文时，用会话历史补全消息列表
+     */
+    private void prepareContext(ChatCompletionRequest request, Long userId) {
+        if (Boolean.TRUE.equals(request.getServerContext())) {
+            request.setMessages(conversationContextService.assemble(aiModelRegistry.get(request.getId()), userId, request));
         }
-        
-        throw new RuntimeException("无法从模型名称推断提供商: " + modelName);
     }
     
     /**
-     * 根据模型ID获取对应的服务
+     * 可缓存的请求（cache=true 且 temperature=0）先查响应缓存，模型已停用时不使用缓存
+     */
+    private CachedResponse lookupCache(ChatCompletionRequest request, Long userId) {
+        AiModels model = aiModelRegistry.get(request.getId());
+        return Boolean.TRUE.equals(model.getIsEnabled()) ? responseCache.lookup(model, userId, request) : null;
+    }
+    
+    /**
+     * 按模型限流，限额按端点池大小放大；具体端点由聊天引擎通过 {@link ModelEndpointBalancer} 选择
+     */
+    private void acquireRateLimit(Integer modelId) {
+        modelRateLimiter.acquire(aiModelRegistry.get(modelId), modelEndpointBalancer.poolSize(modelId));
+    }
+    
+    /**
+     * 根据模型ID获取对应提供商的编解码器
      */
-    private AiChatService getServiceByModelId(Integer modelId) {
+    private ProviderCodec getCodecByModelId(Integer modelId) {
         if (modelId == null) {
             throw new RuntimeException("模型ID不能为空");
         }
         
-        AiModels aiModel = aiModelsService.getById(modelId);
+        AiModels aiModel = aiModelRegistry.get(modelId);
         if (aiModel == null) {
             throw new RuntimeException("模型不存在: " + modelId);
         }
         
-        log.debug("获取模型服务: modelId={}, provider={}, modelName={}", 
+        log.debug("获取模型编解码器: modelId={}, provider={}, modelName={}", 
                 modelId, aiModel.getProvider(), aiModel.getModelName());
         
-        // 优先使用provider字段，如果为空则降级到modelName推断
-        if (aiModel.getProvider() != null && !aiModel.getProvider().trim().isEmpty()) {
-            return getServiceByProvider(aiModel.getProvider());
-        } else {
-            log.warn("模型 {} 的provider字段为空，使用modelName推断: {}", modelId, aiModel.getModelName());
-            return getServiceByModel(aiModel.getModelName());
-        }
+        return providerCodecRegistry.forModel(aiModel);
     }
     
     /**
@@ -140,7 +230,7 @@ public class AiChatManagerService {
      */
     public boolean isModelSupported(Integer modelId) {
         try {
-            getServiceByModelId(modelId);
+            getCodecByModelId(modelId);
             return true;
         } catch (Exception e) {
             return false;
@@ -152,7 +242,7 @@ public class AiChatManagerService {
      */
     public boolean isModelSupported(String modelName) {
         try {
-            getServiceByModel(modelName);
+            providerCodecRegistry.forModelName(modelName);
             return true;
         } catch (Exception e) {
             return false;
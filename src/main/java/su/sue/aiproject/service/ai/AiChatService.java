@@ -1,6 +1,9 @@
 package su.sue.aiproject.service.ai;
 
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
 import su.sue.aiproject.domain.dto.ChatCompletionRequest;
 import su.sue.aiproject.domain.dto.ChatCompletionResponse;
 
@@ -28,10 +31,22 @@ public interface AiChatService {
     SseEmitter chatStream(ChatCompletionRequest request, Long userId);
     
     /**
-     * 检查是否支持指定的模型
+     * 响应式流式聊天接口
+     * 上游响应直接以Flux透传给客户端，背压和连接生命周期由Spring MVC管理
      * 
-     * @param modelName 模型名称
-     * @return 是否支持
+     * @param request 聊天请求
+     * @param userId 用户ID
+     * @return SSE事件流
+     */
+    Flux<ServerSentEvent<String>> chatStreamReactive(ChatCompletionRequest request, Long userId);
+    
+    /**
+     * 字节透传流式聊天接口
+     * 上游SSE帧按原始字节转发，内容和usage由字节扫描器增量统计
+     * 
+     * @param request 聊天请求
+     * @param userId 用户ID
+     * @return 响应体发射器
      */
-    boolean supportsModel(String modelName);
+    ResponseBodyEmitter chatStreamRelay(ChatCompletionRequest request, Long userId);
 }
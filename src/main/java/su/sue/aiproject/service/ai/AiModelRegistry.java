@@ -0,0 +1,176 @@
+package su.sue.aiproject.service.ai;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.service.AiModelsService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * AI模型注册表
+ * 启动时全量加载 ai_models，聊天路由直接读内存，不再访问数据库
+ * 写操作采用写时复制：每次修改生成新的不可变Map并整体替换，读路径无锁
+ * 管理端增删改后主动刷新；多节点部署时由定时对账兜底
+ * 不存在的模型ID短时间内记为缺失，重复查询不再回源数据库，也不进入全局锁
+ * 返回的实例为共享对象，调用方不得修改
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AiModelRegistry {
+
+    private final AiModelsService aiModelsService;
+
+    /**
+     * 缺失模型ID的最大记录数，超过后整体清空，防止伪造ID撑大内存
+     */
+    static final int MAX_MISSING = 10_000;
+
+    private volatile Map<Integer, AiModels> models = Collections.emptyMap();
+
+    /**
+     * 数据库中不存在的模型ID及其过期时刻（纳秒）
+     */
+    private final Map<Integer, Long> missing = new ConcurrentHashMap<>();
+
+    /**
+     * 不存在的模型ID的缓存时间
+     */
+    @Value("${app.ai-models.registry.negative-ttl-ms:5000}")
+    private long negativeTtlMs;
+
+    /**
+     * 时钟，测试时可替换
+     */
+    LongSupplier nanoClock = System::nanoTime;
+
+    /**
+     * 应用启动完成后全量加载
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            reload();
+        } catch (Exception e) {
+            // 数据库暂不可用时不影响启动，首次访问时按需加载
+            log.error("加载AI模型注册表失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 根据ID获取模型，未命中时回源数据库并写入注册表；近期确认不存在的ID直接返回null
+     *
+     * @param modelId 模型ID
+     * @return 模型信息，不存在时返回null
+     */
+    public AiModels get(Integer modelId) {
+        if (modelId == null) {
+            return null;
+        }
+        AiModels model = models.get(modelId);
+        if (model != null) {
+            return model;
+        }
+        Long expiresAt = missing.get(modelId);
+        if (expiresAt != null && nanoClock.getAsLong() - expiresAt < 0) {
+            return null;
+        }
+        return refresh(modelId);
+    }
+
+    /**
+     * 从数据库重新加载单个模型，模型已删除时移出注册表
+     *
+     * @param modelId 模型ID
+     * @return 最新的模型信息，不存在时返回null
+     */
+    public synchronized AiModels refresh(Integer modelId) {
+        AiModels latest = aiModelsService.getById(modelId);
+        if (latest == null) {
+            if (missing.size() >= MAX_MISSING) {
+                missing.clear();
+            }
+            missing.put(modelId, nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(negativeTtlMs));
+        } else {
+            missing.remove(modelId);
+        }
+        if (latest != null || models.containsKey(modelId)) {
+            Map<Integer, AiModels> next = new HashMap<>(models);
+            if (latest == null) {
+                next.remove(modelId);
+            } else {
+                next.put(modelId, latest);
+            }
+            models = Collections.unmodifiableMap(next);
+        }
+        log.debug("刷新AI模型注册表: modelId={}, exists={}", modelId, latest != null);
+        return latest;
+    }
+
+    /**
+     * 移除单个模型
+     *
+     * @param modelId 模型ID
+     */
+    public synchronized void evict(Integer modelId) {
+        if (!models.containsKey(modelId)) {
+            return;
+        }
+        Map<Integer, AiModels> next = new HashMap<>(models);
+        next.remove(modelId);
+        models = Collections.unmodifiableMap(next);
+        log.debug("移除AI模型注册表项: modelId={}", modelId);
+    }
+
+    /**
+     * 全量重新加载
+     * 内容未变化的模型保留原实例，依赖实例身份的下游缓存不会被无谓地失效
+     */
+    public synchronized void reload() {
+        List<AiModels> latest = aiModelsService.list();
+        Map<Integer, AiModels> current = models;
+        Map<Integer, AiModels> next = new HashMap<>(latest.size() * 2);
+        int changed = 0;
+        for (AiModels model : latest) {
+            AiModels existing = current.get(model.getId());
+            if (existing != null && Objects.equals(existing, model)) {
+                next.put(model.getId(), existing);
+            } else {
+                next.put(model.getId(), model);
+                changed++;
+            }
+        }
+        int removed = (int) current.keySet().stream().filter(id -> !next.containsKey(id)).count();
+        models = Collections.unmodifiableMap(next);
+        missing.keySet().removeAll(next.keySet());
+        if (changed > 0 || removed > 0) {
+            log.info("AI模型注册表已更新: total={}, changed={}, removed={}", next.size(), changed, removed);
+        }
+    }
+
+    /**
+     * 定时对账，覆盖其他节点修改模型配置的情况
+     */
+    @Scheduled(initialDelayString = "${app.ai-models.registry.reconcile-interval-ms:60000}",
+            fixedDelayString = "${app.ai-models.registry.reconcile-interval-ms:60000}")
+    public void reconcile() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.warn("AI模型注册表对账失败: {}", e.getMessage());
+        }
+    }
+}
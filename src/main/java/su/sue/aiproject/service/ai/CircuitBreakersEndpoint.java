@@ -0,0 +1,26 @@
+package su.sue.aiproject.service.ai;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 上游端点熔断器状态的actuator端点
+ * 通过 /actuator/circuitbreakers 查看每个模型端点的熔断状态、窗口内调用数、失败率和慢调用率
+ */
+@Component
+@Endpoint(id = "circuitbreakers")
+@RequiredArgsConstructor
+public class CircuitBreakersEndpoint {
+
+    private final ModelEndpointBalancer modelEndpointBalancer;
+
+    @ReadOperation
+    public List<Map<String, Object>> circuitBreakers() {
+        return modelEndpointBalancer.circuitBreakers();
+    }
+}
@@ -0,0 +1,168 @@
+package su.sue.aiproject.service.ai;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatCompletionResponse;
+import su.sue.aiproject.domain.dto.ChatMessage;
+import su.sue.aiproject.service.ai.provider.ProviderCodec;
+import su.sue.aiproject.service.ai.provider.ProviderCodecRegistry;
+import su.sue.aiproject.service.ai.tokenizer.TokenizerRegistry;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 对话摘要生成服务，用于长会话的上下文压缩
+ * 把已有摘要和新增的消息交给模型，生成合并后的新摘要；只处理增量，不重新阅读已被摘要覆盖的消息
+ * 调用与聊天引擎的同步请求走同一条路径：按模型限流，经 {@link HedgedRequestExecutor} 从端点池选择端点
+ * （熔断、负载均衡、对冲），请求编码和响应解码交给模型提供商的编解码器；不计入用户的积分消费
+ * 提示词不能超过摘要模型的上下文窗口减去摘要的最大输出，调用方按 {@link #maxInputTokens}、{@link #baseTokens}
+ * 和 {@link #messageTokens} 把待合并的消息分批
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ConversationSummarizer {
+
+    private final ModelCallPlanCache modelCallPlanCache;
+    private final ModelEndpointBalancer modelEndpointBalancer;
+    private final HedgedRequestExecutor hedgedRequestExecutor;
+    private final ModelRateLimiter modelRateLimiter;
+    private final ProviderCodecRegistry providerCodecRegistry;
+    private final TokenizerRegistry tokenizerRegistry;
+
+    private static final String SYSTEM_PROMPT = "你是对话摘要助手。请把新增的对话内容合并到已有摘要中，输出一份完整的新摘要。"
+            + "保留事实、数据、结论、用户的偏好和要求以及尚未完成的事项，省略寒暄和重复内容，"
+            + "使用简洁的要点，不要编造对话中没有的信息，只输出摘要本身。";
+
+    /**
+     * 摘要的最大输出token数
+     */
+    @Value("${app.chat.compaction.summary-max-tokens:800}")
+    private int summaryMaxTokens;
+
+    /**
+     * 每条消息写入提示词的最大字符数，超出部分截断
+     */
+    @Value("${app.chat.compaction.max-message-chars:4000}")
+    private int maxMessageChars;
+
+    /**
+     * 模型未配置 context_window 时使用的上下文窗口
+     */
+    @Value("${app.chat.context.default-window-tokens:8192}")
+    private int defaultWindowTokens;
+
+    /**
+     * 提示词可用的token数：模型的上下文窗口减去摘要的最大输出
+     */
+    public int maxInputTokens(AiModels model) {
+        int window = model.getContextWindow() != null ? model.getContextWindow() : defaultWindowTokens;
+        return window - summaryMaxTokens;
+    }
+
+    /**
+     * 不含新增消息时提示词的token数：系统提示词、模板和已有摘要
+     */
+    public int baseTokens(AiModels model, String previousSummary) {
+        return tokenizerRegistry.countPrompt(model, prompt(previousSummary, List.of(), maxMessageChars));
+    }
+
+    /**
+     * 一条消息截断后在提示词中占用的token数
+     */
+    public int messageTokens(AiModels model, Messages message) {
+        return tokenizerRegistry.countText(model, line(message, maxMessageChars));
+    }
+
+    /**
+     * 生成合并后的摘要
+     *
+     * @param model           用于生成摘要的模型
+     * @param previousSummary 已有摘要，没有时为 null
+     * @param messages        需要合并进摘要的新消息，按时间顺序
+     * @return 新摘要
+     */
+    public String summarize(AiModels model, String previousSummary, List<Messages> messages) throws Exception {
+        int budget = maxInputTokens(model) - baseTokens(model, previousSummary);
+        if (budget <= 0) {
+            throw new RuntimeException("摘要模型的上下文窗口不足以容纳已有摘要: modelId=" + model.getId());
+        }
+        int messageTokens = 0;
+        int longest = 0;
+        for (Messages message : messages) {
+            messageTokens += messageTokens(model, message);
+            longest = Math.max(longest, message.getContent() != null
+                    ? Math.min(message.getContent().length(), maxMessageChars) : 0);
+        }
+        // 调用方按预算分批；单条消息本身超出预算时按比例缩短消息，留一成余量
+        int maxChars = messageTokens > budget
+                ? Math.max(1, (int) ((long) longest * budget * 9 / 10 / messageTokens))
+                : maxMessageChars;
+
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(prompt(previousSummary, messages, maxChars));
+        request.setMaxTokens(summaryMaxTokens);
+        request.setTemperature(0.3);
+
+        modelRateLimiter.acquire(model, modelEndpointBalancer.poolSize(model.getId()));
+        ProviderCodec codec = providerCodecRegistry.forModel(model);
+        String response = hedgedRequestExecutor.execute(model, lease -> {
+            // 调用计划编译或请求编码失败时，执行器会归还端点占用
+            ModelCallPlan plan = modelCallPlanCache.get(model, lease.getEndpoint());
+            return plan.getWebClient().post()
+                    .uri(plan.getUri())
+                    .headers(plan::applyHeaders)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .bodyValue(codec.encodeRequest(plan, request, false))
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .timeout(Duration.ofSeconds(60));
+        }).block();
+
+        ChatCompletionResponse chatResponse = codec.decodeResponse(response);
+        if (chatResponse.getChoices() == null || chatResponse.getChoices().isEmpty()
+                || chatResponse.getChoices().get(0).getMessage() == null
+                || chatResponse.getChoices().get(0).getMessage().getContent() == null
+                || chatResponse.getChoices().get(0).getMessage().getContent().isBlank()) {
+            throw new RuntimeException("摘要模型未返回内容");
+        }
+        return chatResponse.getChoices().get(0).getMessage().getContent().trim();
+    }
+
+    private List<ChatMessage> prompt(String previousSummary, List<Messages> messages, int maxChars) {
+        ChatMessage system = new ChatMessage();
+        system.setRole("system");
+        system.setContent(SYSTEM_PROMPT);
+
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("已有摘要：\n")
+                .append(previousSummary != null ? previousSummary : "（无）")
+                .append("\n\n新增对话：\n");
+        for (Messages message : messages) {
+            prompt.append(line(message, maxChars));
+        }
+        prompt.append("\n请输出合并后的完整摘要：");
+        ChatMessage user = new ChatMessage();
+        user.setRole("user");
+        user.setContent(prompt.toString());
+        return List.of(system, user);
+    }
+
+    private static String line(Messages message, int maxChars) {
+        String role = "user".equals(message.getRole()) ? "用户"
+                : "assistant".equals(message.getRole()) ? "助手" : message.getRole();
+        String content = message.getContent() != null ? message.getContent() : "";
+        if (content.length() > maxChars) {
+            content = content.substring(0, maxChars) + "...";
+        }
+        return role + ": " + content + '\n';
+    }
+}
@@ -0,0 +1,274 @@
+package su.sue.aiproject.service.ai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单个上游端点的熔断器
+ * 关闭状态下按滚动时间窗口统计失败率和慢调用率，超过阈值后打开；
+ * 打开状态下直接拒绝调用（只读一个volatile字段，不加锁、不发请求），等待时间到后进入半开；
+ * 半开状态只放行少量试探请求，全部成功则关闭，任一失败或过慢则重新打开
+ * 状态判断无锁，只有记录调用结果和状态切换时短暂加锁
+ */
+@Slf4j
+public final class EndpointCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 获取调用许可的结果
+     */
+    public enum Permission {
+        /**
+         * 熔断中，拒绝调用
+         */
+        DENIED,
+        /**
+         * 正常放行
+         */
+        PERMITTED,
+        /**
+         * 半开状态下的试探调用
+         */
+        TRIAL
+    }
+
+    /**
+     * 熔断器参数
+     *
+     * @param windowMs                滚动窗口长度
+     * @param windowBuckets           窗口内的分桶数量
+     * @param minimumCalls            窗口内至少多少次调用才计算失败率
+     * @param failureRateThreshold    失败率阈值（百分比）
+     * @param slowCallThresholdMs     超过该耗时（同步为整体耗时，流式为首字节耗时）视为慢调用
+     * @param slowCallRateThreshold   慢调用率阈值（百分比）
+     * @param openDurationMs          打开状态持续时间
+     * @param halfOpenPermittedCalls  半开状态放行的试探请求数
+     */
+    public record Config(long windowMs, int windowBuckets, int minimumCalls, int failureRateThreshold,
+                         long slowCallThresholdMs, int slowCallRateThreshold, long openDurationMs,
+                         int halfOpenPermittedCalls) {
+    }
+
+    private final String name;
+    private final Config config;
+    private final long bucketNanos;
+    private final long slowCallThresholdNanos;
+
+    private final long[] bucketEpochs;
+    private final int[] bucketCalls;
+    private final int[] bucketFailures;
+    private final int[] bucketSlowCalls;
+
+    private volatile State state = State.CLOSED;
+    private volatile long openUntil;
+    private final AtomicInteger halfOpenPermits = new AtomicInteger();
+    private int halfOpenSuccesses;
+
+    public EndpointCircuitBreaker(String name, Config config) {
+        this.name = name;
+        this.config = config;
+        int buckets = Math.max(1, config.windowBuckets());
+        this.bucketNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(config.windowMs()) / buckets);
+        this.slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.slowCallThresholdMs());
+        this.bucketEpochs = new long[buckets];
+        this.bucketCalls = new int[buckets];
+        this.bucketFailures = new int[buckets];
+        this.bucketSlowCalls = new int[buckets];
+        Arrays.fill(bucketEpochs, Long.MIN_VALUE);
+    }
+
+    /**
+     * 只读判断当前是否可能放行，用于端点选择，不占用半开许可
+     */
+    public boolean allowsCalls(long now) {
+        State current = state;
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            return now - openUntil >= 0;
+        }
+        return halfOpenPermits.get() > 0;
+    }
+
+    /**
+     * 获取调用许可，打开状态下无锁快速拒绝
+     */
+    public Permission tryAcquire(long now) {
+        State current = state;
+        if (current == State.CLOSED) {
+            return Permission.PERMITTED;
+        }
+        if (current == State.OPEN) {
+            if (now - openUntil < 0) {
+                return Permission.DENIED;
+            }
+            synchronized (this) {
+                if (state == State.OPEN && now - openUntil >= 0) {
+                    transitionTo(State.HALF_OPEN, now);
+                }
+                current = state;
+            }
+            if (current == State.CLOSED) {
+                return Permission.PERMITTED;
+            }
+            if (current == State.OPEN) {
+                return Permission.DENIED;
+            }
+        }
+        while (true) {
+            int permits = halfOpenPermits.get();
+            if (permits <= 0) {
+                return Permission.DENIED;
+            }
+            if (halfOpenPermits.compareAndSet(permits, permits - 1)) {
+                return Permission.TRIAL;
+            }
+        }
+    }
+
+    /**
+     * 记录一次调用结果
+     *
+     * @param now          当前时间
+     * @param latencyNanos 耗时（同步为整体耗时，流式为首字节耗时）
+     * @param failure      是否为端点故障（5xx、连接失败、超时）
+     * @param trial        是否为半开状态的试探调用
+     */
+    public synchronized void record(long now, long latencyNanos, boolean failure, boolean trial) {
+        boolean slow = latencyNanos >= slowCallThresholdNanos;
+        if (state == State.HALF_OPEN) {
+            if (!trial) {
+                // 打开之前发出的请求晚到的结果不影响试探判断
+                return;
+            }
+            if (failure || slow) {
+                transitionTo(State.OPEN, now);
+            } else if (++halfOpenSuccesses >= config.halfOpenPermittedCalls()) {
+                transitionTo(State.CLOSED, now);
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+
+        int index = bucketFor(now);
+        bucketCalls[index]++;
+        if (failure) {
+            bucketFailures[index]++;
+        }
+        if (slow) {
+            bucketSlowCalls[index]++;
+        }
+
+        int[] totals = totals(now);
+        int calls = totals[0];
+        if (calls < config.minimumCalls()) {
+            return;
+        }
+        if (totals[1] * 100 >= config.failureRateThreshold() * calls
+                || totals[2] * 100 >= config.slowCallRateThreshold() * calls) {
+            transitionTo(State.OPEN, now);
+        }
+    }
+
+    /**
+     * 调用被取消，试探调用归还许可
+     */
+    public void release(boolean trial) {
+        if (trial && state == State.HALF_OPEN) {
+            halfOpenPermits.incrementAndGet();
+        }
+    }
+
+    /**
+     * 判断错误是否计为端点故障
+     * 429、401/403 由端点摘除处理，其他4xx是请求本身的问题，都不计入熔断
+     */
+    public static boolean isFailure(Throwable error) {
+        if (error instanceof WebClientResponseException response) {
+            return response.getStatusCode().is5xxServerError();
+        }
+        return error instanceof WebClientRequestException || error instanceof TimeoutException;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 熔断器状态快照，供actuator查看
+     */
+    public synchronized Map<String, Object> snapshot(long now) {
+        int[] totals = totals(now);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("name", name);
+        result.put("state", state);
+        result.put("calls", totals[0]);
+        result.put("failureRate", totals[0] == 0 ? 0.0 : totals[1] * 100.0 / totals[0]);
+        result.put("slowCallRate", totals[0] == 0 ? 0.0 : totals[2] * 100.0 / totals[0]);
+        result.put("openRemainingMs", state == State.OPEN && now - openUntil < 0
+                ? TimeUnit.NANOSECONDS.toMillis(openUntil - now) : 0L);
+        result.put("halfOpenPermits", state == State.HALF_OPEN ? halfOpenPermits.get() : 0);
+        return result;
+    }
+
+    private void transitionTo(State next, long now) {
+        State previous = state;
+        switch (next) {
+            case OPEN -> openUntil = now + TimeUnit.MILLISECONDS.toNanos(config.openDurationMs());
+            case HALF_OPEN -> {
+                halfOpenSuccesses = 0;
+                halfOpenPermits.set(config.halfOpenPermittedCalls());
+            }
+            case CLOSED -> Arrays.fill(bucketEpochs, Long.MIN_VALUE);
+        }
+        state = next;
+        if (next == State.OPEN) {
+            log.warn("熔断器打开: {}，{}ms 内直接拒绝请求", name, config.openDurationMs());
+        } else {
+            log.info("熔断器状态变化: {} {} -> {}", name, previous, next);
+        }
+    }
+
+    private int bucketFor(long now) {
+        long epoch = Math.floorDiv(now, bucketNanos);
+        int index = (int) Math.floorMod(epoch, (long) bucketEpochs.length);
+        if (bucketEpochs[index] != epoch) {
+            bucketEpochs[index] = epoch;
+            bucketCalls[index] = 0;
+            bucketFailures[index] = 0;
+            bucketSlowCalls[index] = 0;
+        }
+        return index;
+    }
+
+    /**
+     * 汇总窗口内的调用数、失败数、慢调用数
+     */
+    private int[] totals(long now) {
+        long currentEpoch = Math.floorDiv(now, bucketNanos);
+        int[] totals = new int[3];
+        for (int i = 0; i < bucketEpochs.length; i++) {
+            long epoch = bucketEpochs[i];
+            if (epoch != Long.MIN_VALUE && currentEpoch - epoch < bucketEpochs.length) {
+                totals[0] += bucketCalls[i];
+                totals[1] += bucketFailures[i];
+                totals[2] += bucketSlowCalls[i];
+            }
+        }
+        return totals;
+    }
+}
@@ -0,0 +1,108 @@
+package su.sue.aiproject.service.ai;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import su.sue.aiproject.domain.AiModelEndpoints;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一次上游调用对端点池成员的占用
+ * 请求结束时必须归还（完成、失败或取消），三种归还方式都是幂等的，只有第一次生效
+ * 同步调用记录整体耗时，流式调用记录首字节耗时，作为选择端点的延迟依据
+ */
+public final class EndpointLease {
+
+    private final ModelEndpointBalancer balancer;
+    private final Integer modelId;
+    private final ModelEndpointBalancer.Member member;
+    /**
+     * 是否为熔断器半开状态下的试探调用
+     */
+    private final boolean trial;
+    private final long startNanos;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+    private volatile long firstByteNanos = -1;
+
+    EndpointLease(ModelEndpointBalancer balancer, Integer modelId, ModelEndpointBalancer.Member member,
+                  boolean trial) {
+        this.balancer = balancer;
+        this.modelId = modelId;
+        this.member = member;
+        this.trial = trial;
+        this.startNanos = balancer.nanoClock.getAsLong();
+    }
+
+    /**
+     * 选中的端点配置，null 表示使用模型自身的端点和密钥
+     */
+    public AiModelEndpoints getEndpoint() {
+        return member.endpoint;
+    }
+
+    ModelEndpointBalancer.Member member() {
+        return member;
+    }
+
+    /**
+     * 收到上游第一个数据块
+     */
+    public void onFirstByte() {
+        if (firstByteNanos < 0) {
+            firstByteNanos = balancer.nanoClock.getAsLong() - startNanos;
+        }
+    }
+
+    /**
+     * 上游调用成功结束
+     */
+    public void onComplete() {
+        if (released.compareAndSet(false, true)) {
+            member.outstanding.decrementAndGet();
+            long latency = firstByteNanos >= 0 ? firstByteNanos : balancer.nanoClock.getAsLong() - startNanos;
+            balancer.onSuccess(member, latency, trial);
+        }
+    }
+
+    /**
+     * 上游调用失败，429/5xx等错误会导致端点被摘除，5xx、连接失败和超时计入熔断统计
+     */
+    public void onError(Throwable error) {
+        if (released.compareAndSet(false, true)) {
+            member.outstanding.decrementAndGet();
+            long latency = balancer.nanoClock.getAsLong() - startNanos;
+            balancer.onFailure(modelId, member, error, latency, trial);
+        }
+    }
+
+    /**
+     * 调用被取消或未发出，只归还占用，不影响端点状态
+     */
+    public void onCancel() {
+        if (released.compareAndSet(false, true)) {
+            member.outstanding.decrementAndGet();
+            balancer.onRelease(member, trial);
+        }
+    }
+
+    /**
+     * 跟踪同步调用的结果
+     */
+    public <T> Mono<T> track(Mono<T> upstream) {
+        return upstream
+                .doOnSuccess(value -> onComplete())
+                .doOnError(this::onError)
+                .doOnCancel(this::onCancel);
+    }
+
+    /**
+     * 跟踪流式调用的结果，第一个元素到达时记录首字节耗时
+     */
+    public <T> Flux<T> track(Flux<T> upstream) {
+        return upstream
+                .doOnNext(value -> onFirstByte())
+                .doOnComplete(this::onComplete)
+                .doOnError(this::onError)
+                .doOnCancel(this::onCancel);
+    }
+}
@@ -0,0 +1,266 @@
+package su.sue.aiproject.service.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import su.sue.aiproject.domain.AiModels;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 同步请求的对冲执行器
+ * 所有同步调用都经过这里：从端点池选择端点发出请求，并把成功调用的耗时记入该模型的实时延迟直方图
+ * 模型启用对冲（ai_models.hedge_enabled）时，首个请求在延迟分位数（默认p95）内未返回，
+ * 就向端点池中的另一个端点/密钥再发一次相同的请求，先返回者胜出，另一个立即取消；
+ * 只有胜出的响应会返回给调用方，因此计费只覆盖胜出的那次调用
+ * 对冲预算是令牌桶：每个同步请求积累 max-ratio 个令牌、上限为 burst 个，每次对冲消耗一个，
+ * 因此对冲数只受最近请求数约束，长时间健康运行后上游变慢时也不会把负载放大一倍
+ * 指标：ai.chat.hedge.requests（按结果统计对冲率）、ai.chat.hedge.latency（启用对冲后的端到端延迟）、
+ * ai.chat.attempt.latency（单次调用延迟，即不对冲时的延迟分布），对比两者的p99即可得到对冲的收益
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class HedgedRequestExecutor {
+
+    private final ModelEndpointBalancer modelEndpointBalancer;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Integer, ModelLatency> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * 全局开关，关闭后所有模型都不对冲
+     */
+    @Value("${app.chat.hedge.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 对冲延迟取单次调用延迟的哪个分位数
+     */
+    @Value("${app.chat.hedge.quantile:0.95}")
+    private double quantile;
+
+    /**
+     * 样本不足时使用的对冲延迟
+     */
+    @Value("${app.chat.hedge.default-delay-ms:5000}")
+    private long defaultDelayMs;
+
+    /**
+     * 对冲延迟下限
+     */
+    @Value("${app.chat.hedge.min-delay-ms:100}")
+    private long minDelayMs;
+
+    /**
+     * 计算分位数所需的最少样本数
+     */
+    @Value("${app.chat.hedge.min-samples:20}")
+    private int minSamples;
+
+    /**
+     * 对冲请求数占同步请求数的上限
+     */
+    @Value("${app.chat.hedge.max-ratio:0.1}")
+    private double maxRatio;
+
+    /**
+     * 对冲令牌桶的容量，即一段时间没有对冲后最多可连续发出的对冲请求数
+     */
+    @Value("${app.chat.hedge.burst:3}")
+    private int burst;
+
+    /**
+     * 延迟直方图的滚动窗口
+     */
+    @Value("${app.chat.hedge.histogram-window-ms:60000}")
+    private long histogramWindowMs;
+
+    /**
+     * 一次上游调用
+     */
+    @FunctionalInterface
+    public interface Attempt<T> {
+
+        /**
+         * 向租约选中的端点构建请求，返回的Mono订阅时才真正发出
+         */
+        Mono<T> call(EndpointLease lease) throws Exception;
+    }
+
+    /**
+     * 执行同步调用
+     *
+     * @param model   模型配置
+     * @param attempt 针对某个端点构建上游请求
+     * @return 胜出请求的响应
+     */
+    public <T> Mono<T> execute(AiModels model, Attempt<T> attempt) {
+        ModelLatency stats = latencies.computeIfAbsent(model.getId(),
+                id -> new ModelLatency(new LatencyHistogram(TimeUnit.MILLISECONDS.toNanos(histogramWindowMs),
+                        System.nanoTime())));
+        EndpointLease primary = modelEndpointBalancer.acquire(model);
+        Mono<T> first = run(model, attempt, primary, stats);
+        if (!enabled || !Boolean.TRUE.equals(model.getHedgeEnabled())) {
+            return first;
+        }
+
+        stats.earnHedgeBudget(maxRatio, burst);
+        long delayNanos = hedgeDelay(stats);
+        long start = System.nanoTime();
+        AtomicReference<Throwable> primaryError = new AtomicReference<>();
+        AtomicReference<Throwable> hedgeError = new AtomicReference<>();
+        AtomicBoolean hedgeFired = new AtomicBoolean(false);
+        Sinks.One<Boolean> primaryFailed = Sinks.one();
+
+        // 首个请求失败时：对冲尚未发出则不再发出，直接返回错误；对冲已发出则等待对冲结果
+        Mono<Outcome<T>> primaryMono = first
+                .map(value -> new Outcome<>(value, false))
+                .onErrorResume(error -> {
+                    primaryError.set(error);
+                    if (!hedgeFired.get()) {
+                        primaryFailed.tryEmitValue(Boolean.TRUE);
+                    }
+                    return Mono.empty();
+                });
+
+        Mono<Outcome<T>> hedgeMono = Mono.delay(Duration.ofNanos(delayNanos))
+                .flatMap(tick -> {
+                    if (primaryError.get() != null || !stats.tryAcquireHedge()) {
+                        return Mono.<Outcome<T>>empty();
+                    }
+                    EndpointLease alternative = modelEndpointBalancer.acquireAlternative(model, primary);
+                    if (alternative == null) {
+                        // 没有可用的其他端点，未发出的对冲不消耗预算
+                        stats.refundHedge();
+                        return Mono.<Outcome<T>>empty();
+                    }
+                    hedgeFired.set(true);
+                    log.debug("模型 {} 的同步请求 {}ms 未返回，发出对冲请求", model.getId(),
+                            TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                    return run(model, attempt, alternative, stats).map(value -> new Outcome<>(value, true));
+                })
+                .onErrorResume(error -> {
+                    hedgeError.set(error);
+                    return Mono.empty();
+                })
+                .takeUntilOther(primaryFailed.asMono());
+
+        // 先返回者胜出，另一个请求被取消，其端点占用随取消归还
+        return Mono.firstWithValue(primaryMono, hedgeMono)
+                .onErrorMap(NoSuchElementException.class, e -> {
+                    Throwable error = primaryError.get() != null ? primaryError.get() : hedgeError.get();
+                    return error != null ? error : e;
+                })
+                .doOnSuccess(outcome -> recordOutcome(model, outcome, hedgeFired.get(), start))
+                .map(Outcome::value);
+    }
+
+    private <T> Mono<T> run(AiModels model, Attempt<T> attempt, EndpointLease lease, ModelLatency stats) {
+        Mono<T> call;
+        try {
+            call = attempt.call(lease);
+        } catch (Exception e) {
+            // 请求未能构建，没有发出，归还端点占用
+            lease.onCancel();
+            return Mono.error(e);
+        }
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnSuccess(value -> {
+                long latency = System.nanoTime() - start;
+                stats.histogram.record(latency, System.nanoTime());
+                Timer.builder("ai.chat.attempt.latency")
+                        .description("单次同步上游调用的延迟")
+                        .tag("modelId", String.valueOf(model.getId()))
+                        .publishPercentiles(0.5, 0.95, 0.99)
+                        .register(meterRegistry)
+                        .record(latency, TimeUnit.NANOSECONDS);
+            });
+        }).transform(lease::track);
+    }
+
+    /**
+     * 对冲延迟：最近窗口内单次调用延迟的分位数，样本不足时使用默认值
+     */
+    long hedgeDelay(ModelLatency stats) {
+        long now = System.nanoTime();
+        long minDelay = TimeUnit.MILLISECONDS.toNanos(minDelayMs);
+        if (stats.histogram.count(now) < minSamples) {
+            return Math.max(minDelay, TimeUnit.MILLISECONDS.toNanos(defaultDelayMs));
+        }
+        return Math.max(minDelay, stats.histogram.percentile(quantile, now));
+    }
+
+    private void recordOutcome(AiModels model, Outcome<?> outcome, boolean hedgeFired, long start) {
+        if (outcome == null) {
+            return;
+        }
+        String result = !hedgeFired ? "not_fired" : outcome.hedge() ? "hedge_won" : "primary_won";
+        String modelId = String.valueOf(model.getId());
+        Counter.builder("ai.chat.hedge.requests")
+                .description("启用对冲的同步请求数，按对冲结果分类")
+                .tag("modelId", modelId)
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+        Timer.builder("ai.chat.hedge.latency")
+                .description("启用对冲的同步请求端到端延迟")
+                .tag("modelId", modelId)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private record Outcome<T>(T value, boolean hedge) {
+    }
+
+    /**
+     * 单个模型的延迟直方图和对冲预算
+     */
+    static final class ModelLatency {
+
+        /**
+         * 一个对冲令牌的微单位数，按整数累加避免 0.1 这类比例的浮点误差
+         */
+        private static final long TOKEN = 1_000_000L;
+
+        final LatencyHistogram histogram;
+        private long hedgeTokens;
+
+        ModelLatency(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        /**
+         * 每个启用对冲的同步请求积累 maxRatio 个令牌，总数不超过 burst 个
+         */
+        synchronized void earnHedgeBudget(double maxRatio, int burst) {
+            hedgeTokens = Math.min(Math.max(1, burst) * TOKEN, hedgeTokens + Math.round(maxRatio * TOKEN));
+        }
+
+        synchronized boolean tryAcquireHedge() {
+            if (hedgeTokens < TOKEN) {
+                return false;
+            }
+            hedgeTokens -= TOKEN;
+            return true;
+        }
+
+        synchronized void refundHedge() {
+            hedgeTokens += TOKEN;
+        }
+    }
+}
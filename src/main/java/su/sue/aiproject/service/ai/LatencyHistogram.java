@@ -0,0 +1,109 @@
+package su.sue.aiproject.service.ai;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 实时延迟直方图
+ * 按对数刻度分桶（1ms 起，每桶放大20%，覆盖到约10分钟），记录只是一次原子自增
+ * 数据按时间窗口轮换，只保留当前窗口和上一个窗口，分位数始终反映最近的上游表现
+ * 分位数精度为一个桶宽（约20%），用于计算对冲延迟足够
+ */
+public final class LatencyHistogram {
+
+    private static final double GROWTH = 1.2;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    private static final int BUCKETS = 75;
+    private static final long MIN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long windowNanos;
+
+    private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+    private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+    private volatile long windowStart;
+
+    public LatencyHistogram(long windowNanos, long now) {
+        this.windowNanos = windowNanos;
+        this.windowStart = now;
+    }
+
+    /**
+     * 记录一次延迟
+     */
+    public void record(long latencyNanos, long now) {
+        rotateIfNeeded(now);
+        current.incrementAndGet(bucketOf(latencyNanos));
+    }
+
+    /**
+     * 最近两个窗口内的样本数
+     */
+    public long count(long now) {
+        rotateIfNeeded(now);
+        AtomicLongArray cur = current;
+        AtomicLongArray prev = previous;
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += cur.get(i) + prev.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * 计算分位数，返回所在桶的上界
+     *
+     * @param quantile 分位（0-1）
+     * @return 延迟纳秒数，没有样本时返回-1
+     */
+    public long percentile(double quantile, long now) {
+        rotateIfNeeded(now);
+        AtomicLongArray cur = current;
+        AtomicLongArray prev = previous;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = cur.get(i) + prev.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int bucketOf(long latencyNanos) {
+        if (latencyNanos <= MIN_NANOS) {
+            return 0;
+        }
+        int index = (int) Math.ceil(Math.log((double) latencyNanos / MIN_NANOS) / LOG_GROWTH);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    static long upperBound(int bucket) {
+        return (long) (MIN_NANOS * Math.pow(GROWTH, bucket));
+    }
+
+    private void rotateIfNeeded(long now) {
+        if (now - windowStart < windowNanos) {
+            return;
+        }
+        synchronized (this) {
+            long elapsed = now - windowStart;
+            if (elapsed < windowNanos) {
+                return;
+            }
+            // 超过两个窗口没有轮换时，上一个窗口也已过期
+            previous = elapsed < 2 * windowNanos ? current : new AtomicLongArray(BUCKETS);
+            current = new AtomicLongArray(BUCKETS);
+            windowStart = now;
+        }
+    }
+}
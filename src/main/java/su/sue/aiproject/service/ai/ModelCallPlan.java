@@ -0,0 +1,171 @@
+package su.sue.aiproject.service.ai;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClient;
+import su.sue.aiproject.domain.AiModelEndpoints;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatMessage;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 模型调用计划
+ * 针对一行 ai_models 预先编译好的出站请求：解析后的URI、认证头、组织/项目头、额外请求头，
+ * 以及请求体中不随请求变化的JSON前缀；每次请求只需拼接消息列表和采样参数
+ * 模型配置了端点池时，每个端点各自编译一份计划，端点和密钥取自端点配置，其余部分取自模型
+ * 实例不可变，模型配置变化时由 {@link ModelCallPlanCache} 重新编译
+ */
+@Slf4j
+public final class ModelCallPlan {
+
+    private static final TypeReference<Map<String, String>> HEADER_MAP_TYPE = new TypeReference<>() {};
+    private static final TypeReference<List<ChatMessage>> MESSAGE_LIST_TYPE = new TypeReference<>() {};
+
+    /**
+     * 编译来源的模型实例，用于判断计划是否过期
+     */
+    @Getter
+    private final AiModels model;
+
+    /**
+     * 编译来源的端点配置，null 表示使用模型自身的端点
+     */
+    @Getter
+    private final AiModelEndpoints endpoint;
+
+    @Getter
+    private final URI uri;
+
+    @Getter
+    private final WebClient webClient;
+
+    private final HttpHeaders staticHeaders;
+    private final String syncPrefix;
+    private final String streamPrefix;
+    private final ObjectWriter messagesWriter;
+    private final ObjectWriter stopWriter;
+
+    private ModelCallPlan(AiModels model, AiModelEndpoints endpoint, URI uri, WebClient webClient,
+                          HttpHeaders staticHeaders, String syncPrefix, String streamPrefix,
+                          ObjectWriter messagesWriter, ObjectWriter stopWriter) {
+        this.model = model;
+        this.endpoint = endpoint;
+        this.uri = uri;
+        this.webClient = webClient;
+        this.staticHeaders = staticHeaders;
+        this.syncPrefix = syncPrefix;
+        this.streamPrefix = streamPrefix;
+        this.messagesWriter = messagesWriter;
+        this.stopWriter = stopWriter;
+    }
+
+    /**
+     * 编译模型调用计划
+     *
+     * @param model        模型配置
+     * @param webClient    该模型上游主机对应的WebClient
+     * @param objectMapper JSON序列化器
+     * @return 编译好的调用计划
+     */
+    public static ModelCallPlan compile(AiModels model, WebClient webClient, ObjectMapper objectMapper) {
+        return compile(model, null, webClient, objectMapper);
+    }
+
+    /**
+     * 编译端点池中某个端点的调用计划
+     *
+     * @param model        模型配置
+     * @param endpoint     端点配置，null 表示使用模型自身的端点
+     * @param webClient    该端点上游主机对应的WebClient
+     * @param objectMapper JSON序列化器
+     * @return 编译好的调用计划
+     */
+    public static ModelCallPlan compile(AiModels model, AiModelEndpoints endpoint,
+                                        WebClient webClient, ObjectMapper objectMapper) {
+        String apiEndpoint = endpoint != null ? endpoint.getApiEndpoint() : model.getApiEndpoint();
+        String apiKey = endpoint != null ? endpoint.getApiKey() : model.getApiKey();
+        if (apiEndpoint == null || apiEndpoint.trim().isEmpty()) {
+            throw new RuntimeException("模型 ID:" + model.getId() + " 未配置API端点");
+        }
+        URI uri = URI.create(apiEndpoint.trim());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey);
+        if (model.getOrganizationId() != null && !model.getOrganizationId().trim().isEmpty()) {
+            headers.set("OpenAI-Organization", model.getOrganizationId());
+        }
+        if (model.getProjectId() != null && !model.getProjectId().trim().isEmpty()) {
+            headers.set("OpenAI-Project", model.getProjectId());
+        }
+        if (model.getExtraHeaders() != null && !model.getExtraHeaders().trim().isEmpty()) {
+            try {
+                Map<String, String> extraHeaders = objectMapper.readValue(model.getExtraHeaders(), HEADER_MAP_TYPE);
+                extraHeaders.forEach(headers::set);
+            } catch (Exception e) {
+                log.warn("解析模型 {} 的额外请求头失败: {}", model.getId(), e.getMessage());
+            }
+        }
+
+        String syncPrefix;
+        String streamPrefix;
+        try {
+            String modelName = objectMapper.writeValueAsString(model.getModelName());
+            syncPrefix = "{\"model\":" + modelName + ",\"stream\":false,\"messages\":";
+            streamPrefix = "{\"model\":" + modelName + ",\"stream\":true,\"messages\":";
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("编译模型调用计划失败: " + e.getMessage());
+        }
+
+        return new ModelCallPlan(model, endpoint, uri, webClient, HttpHeaders.readOnlyHttpHeaders(headers),
+                syncPrefix, streamPrefix,
+                objectMapper.writerFor(MESSAGE_LIST_TYPE),
+                objectMapper.writerFor(new TypeReference<List<String>>() {}));
+    }
+
+    /**
+     * 写入预先解析好的请求头（认证、组织/项目、额外请求头）
+     */
+    public void applyHeaders(HttpHeaders target) {
+        target.addAll(staticHeaders);
+    }
+
+    /**
+     * 构建请求体：静态前缀 + 消息列表 + 采样参数
+     */
+    public String buildRequestBody(ChatCompletionRequest request, boolean stream) throws JsonProcessingException {
+        String messages = messagesWriter.writeValueAsString(request.getMessages());
+        StringBuilder body = new StringBuilder(streamPrefix.length() + messages.length() + 128);
+        body.append(stream ? streamPrefix : syncPrefix).append(messages);
+
+        appendNumber(body, "temperature", request.getTemperature());
+        appendNumber(body, "max_tokens", request.getMaxTokens());
+        appendNumber(body, "top_p", request.getTopP());
+        appendNumber(body, "frequency_penalty", request.getFrequencyPenalty());
+        appendNumber(body, "presence_penalty", request.getPresencePenalty());
+        if (request.getStop() != null) {
+            body.append(",\"stop\":").append(stopWriter.writeValueAsString(request.getStop()));
+        }
+
+        return body.append('}').toString();
+    }
+
+    private static void appendNumber(StringBuilder body, String name, Number value) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Double d && (d.isNaN() || d.isInfinite())) {
+            // 与Jackson默认行为保持一致，非有限数值不写出
+            return;
+        }
+        body.append(",\"").append(name).append("\":").append(value);
+    }
+}
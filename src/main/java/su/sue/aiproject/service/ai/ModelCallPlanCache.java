@@ -0,0 +1,88 @@
+package su.sue.aiproject.service.ai;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.AiModelEndpoints;
+import su.sue.aiproject.domain.AiModels;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 模型调用计划缓存
+ * 以（模型ID, 端点ID）为键，模型或端点实例变化（注册表刷新出新实例）时重新编译
+ */
+@Component
+@RequiredArgsConstructor
+public class ModelCallPlanCache {
+
+    private final ProviderWebClientRegistry webClientRegistry;
+    private final ObjectMapper objectMapper;
+
+    private final Map<Long, ModelCallPlan> plans = new ConcurrentHashMap<>();
+
+    /**
+     * 获取模型自身端点的调用计划
+     *
+     * @param model 模型配置
+     * @return 调用计划
+     */
+    public ModelCallPlan get(AiModels model) {
+        return get(model, null);
+    }
+
+    /**
+     * 获取模型在指定端点上的调用计划
+     * {@link AiModelRegistry} 对内容未变化的模型保留原实例，热路径上只需比较实例身份；
+     * 其他来源的实例（如管理端测试连接）按内容比较，内容一致时同样复用
+     *
+     * @param model    模型配置
+     * @param endpoint 端点池中的端点，null 表示模型自身的端点
+     * @return 调用计划
+     */
+    public ModelCallPlan get(AiModels model, AiModelEndpoints endpoint) {
+        if (model.getId() == null || (endpoint != null && endpoint.getId() == null)) {
+            return compile(model, endpoint);
+        }
+        long key = key(model.getId(), endpoint);
+        ModelCallPlan plan = plans.get(key);
+        if (isCurrent(plan, model, endpoint)) {
+            return plan;
+        }
+        return plans.compute(key,
+                (k, existing) -> isCurrent(existing, model, endpoint) ? existing : compile(model, endpoint));
+    }
+
+    /**
+     * 模型被删除时移除该模型所有端点的调用计划
+     */
+    public void evict(Integer modelId) {
+        plans.keySet().removeIf(key -> (int) (key >>> 32) == modelId);
+    }
+
+    /**
+     * 端点被删除时移除对应的调用计划
+     */
+    public void evict(Integer modelId, Integer endpointId) {
+        plans.remove(((long) modelId << 32) | (endpointId & 0xFFFFFFFFL));
+    }
+
+    private static long key(Integer modelId, AiModelEndpoints endpoint) {
+        // 模型自身端点占用端点ID 0，自增ID从1开始不会冲突
+        int endpointId = endpoint == null ? 0 : endpoint.getId();
+        return ((long) modelId << 32) | (endpointId & 0xFFFFFFFFL);
+    }
+
+    private static boolean isCurrent(ModelCallPlan plan, AiModels model, AiModelEndpoints endpoint) {
+        return plan != null
+                && (plan.getModel() == model || plan.getModel().equals(model))
+                && (plan.getEndpoint() == endpoint || Objects.equals(plan.getEndpoint(), endpoint));
+    }
+
+    private ModelCallPlan compile(AiModels model, AiModelEndpoints endpoint) {
+        String apiEndpoint = endpoint != null ? endpoint.getApiEndpoint() : model.getApiEndpoint();
+        return ModelCallPlan.compile(model, endpoint, webClientRegistry.forEndpoint(apiEndpoint), objectMapper);
+    }
+}
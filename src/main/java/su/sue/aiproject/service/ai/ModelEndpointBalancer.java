@@ -0,0 +1,564 @@
+package su.sue.aiproject.service.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import su.sue.aiproject.domain.AiModelEndpoints;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.service.AiModelEndpointsService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 模型端点负载均衡器
+ * 一个逻辑模型可以在 ai_model_endpoints 中配置多组端点+密钥，与模型自身的端点一起组成端点池，
+ * 单个密钥的上游限额不再限制整个模型的吞吐
+ * 选择策略为 P2C（随机取两个，选得分低者），得分 = (进行中请求数 + 1) × 首字节延迟EWMA / 有效权重
+ * 返回 429/5xx/401/403 或连接失败的成员会被摘除，摘除时间按连续摘除次数指数退避（遵循 Retry-After），
+ * 恢复后在慢启动窗口内逐步提升权重；池内成员全部被摘除时选择最早恢复的成员，不会直接拒绝
+ * 每个成员另有一个 {@link EndpointCircuitBreaker}：端点持续故障或过慢时熔断，
+ * 池内所有成员都处于熔断状态时直接拒绝请求，不再等待上游超时
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ModelEndpointBalancer {
+
+    private static final long NOT_EJECTED = Long.MIN_VALUE;
+
+    private final AiModelEndpointsService aiModelEndpointsService;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Integer, Pool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * 模型自身的端点是否作为池成员参与分发
+     */
+    @Value("${app.ai-models.endpoints.include-primary:true}")
+    private boolean includePrimary;
+
+    /**
+     * 首次摘除时长，连续摘除时翻倍
+     */
+    @Value("${app.ai-models.endpoints.ejection-base-ms:5000}")
+    private long ejectionBaseMs;
+
+    /**
+     * 最长摘除时长
+     */
+    @Value("${app.ai-models.endpoints.ejection-max-ms:300000}")
+    private long ejectionMaxMs;
+
+    /**
+     * 恢复后的慢启动窗口，窗口内权重从10%线性升到100%
+     */
+    @Value("${app.ai-models.endpoints.slow-start-ms:30000}")
+    private long slowStartMs;
+
+    /**
+     * 延迟EWMA的平滑系数
+     */
+    @Value("${app.ai-models.endpoints.latency-ewma-alpha:0.3}")
+    private double latencyEwmaAlpha;
+
+    /**
+     * 熔断器滚动窗口长度及分桶数量
+     */
+    @Value("${app.ai-models.circuit-breaker.window-ms:30000}")
+    private long breakerWindowMs;
+
+    @Value("${app.ai-models.circuit-breaker.window-buckets:10}")
+    private int breakerWindowBuckets;
+
+    /**
+     * 窗口内至少多少次调用才计算失败率
+     */
+    @Value("${app.ai-models.circuit-breaker.minimum-calls:10}")
+    private int breakerMinimumCalls;
+
+    /**
+     * 失败率阈值（百分比），5xx、连接失败、超时计为失败
+     */
+    @Value("${app.ai-models.circuit-breaker.failure-rate-threshold:50}")
+    private int breakerFailureRateThreshold;
+
+    /**
+     * 慢调用阈值及慢调用率阈值（百分比）
+     */
+    @Value("${app.ai-models.circuit-breaker.slow-call-threshold-ms:20000}")
+    private long breakerSlowCallThresholdMs;
+
+    @Value("${app.ai-models.circuit-breaker.slow-call-rate-threshold:80}")
+    private int breakerSlowCallRateThreshold;
+
+    /**
+     * 熔断打开的持续时间，之后进入半开状态
+     */
+    @Value("${app.ai-models.circuit-breaker.open-duration-ms:30000}")
+    private long breakerOpenDurationMs;
+
+    /**
+     * 半开状态放行的试探请求数
+     */
+    @Value("${app.ai-models.circuit-breaker.half-open-permitted-calls:3}")
+    private int breakerHalfOpenPermittedCalls;
+
+    /**
+     * 时钟，测试时可替换
+     */
+    LongSupplier nanoClock = System::nanoTime;
+
+    /**
+     * 应用启动完成后全量加载
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            reload();
+        } catch (Exception e) {
+            // 加载失败时各模型只使用自身端点，等待下次对账
+            log.error("加载模型端点池失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 为一次调用选择端点并占用
+     * 返回的租约必须在请求结束时通过 onComplete/onError/onCancel 归还
+     *
+     * @param model 模型配置
+     * @return 端点租约，getEndpoint() 为null时表示使用模型自身的端点
+     * @throws RuntimeException 池内所有端点都处于熔断状态时立即抛出
+     */
+    public EndpointLease acquire(AiModels model) {
+        long now = nanoClock.getAsLong();
+        Member member = select(poolFor(model.getId()), now, null);
+        EndpointCircuitBreaker.Permission permission = member == null
+                ? EndpointCircuitBreaker.Permission.DENIED
+                : member.breaker.tryAcquire(now);
+        if (permission == EndpointCircuitBreaker.Permission.DENIED) {
+            Counter.builder("ai.chat.circuit.rejected")
+                    .description("熔断器直接拒绝的请求数")
+                    .tag("modelId", String.valueOf(model.getId()))
+                    .register(meterRegistry)
+                    .increment();
+            throw new RuntimeException("模型 ID:" + model.getId() + " 的上游服务暂时不可用，请稍后重试");
+        }
+        member.outstanding.incrementAndGet();
+        return new EndpointLease(this, model.getId(), member,
+                permission == EndpointCircuitBreaker.Permission.TRIAL);
+    }
+
+    /**
+     * 选择与已有租约不同的另一个端点，用于对冲请求
+     *
+     * @param model   模型配置
+     * @param exclude 首个请求的租约
+     * @return 另一个端点的租约，池内没有其他可用端点时返回null
+     */
+    public EndpointLease acquireAlternative(AiModels model, EndpointLease exclude) {
+        long now = nanoClock.getAsLong();
+        Member member = select(poolFor(model.getId()), now, exclude.member());
+        if (member == null || isEjected(member, now)) {
+            // 对冲只发往健康的端点，不使用被摘除的兜底成员
+            return null;
+        }
+        EndpointCircuitBreaker.Permission permission = member.breaker.tryAcquire(now);
+        if (permission == EndpointCircuitBreaker.Permission.DENIED) {
+            return null;
+        }
+        member.outstanding.incrementAndGet();
+        return new EndpointLease(this, model.getId(), member,
+                permission == EndpointCircuitBreaker.Permission.TRIAL);
+    }
+
+    /**
+     * 模型端点池的成员数量，用于按池大小放大模型级限额
+     */
+    public int poolSize(Integer modelId) {
+        return poolFor(modelId).members.length;
+    }
+
+    /**
+     * 从数据库重新加载单个模型的端点池
+     */
+    public synchronized void refresh(Integer modelId) {
+        List<AiModelEndpoints> endpoints = aiModelEndpointsService.listByModelId(modelId).stream()
+                .filter(endpoint -> Boolean.TRUE.equals(endpoint.getIsEnabled()))
+                .toList();
+        pools.put(modelId, buildPool(modelId, pools.get(modelId), endpoints));
+        log.debug("刷新模型端点池: modelId={}, endpoints={}", modelId, endpoints.size());
+    }
+
+    /**
+     * 模型被删除时移除端点池
+     */
+    public void evict(Integer modelId) {
+        pools.remove(modelId);
+    }
+
+    /**
+     * 全量重新加载，内容未变化的成员保留运行时状态（延迟、摘除）
+     */
+    public synchronized void reload() {
+        Map<Integer, List<AiModelEndpoints>> byModel = new HashMap<>();
+        for (AiModelEndpoints endpoint : aiModelEndpointsService.listEnabled()) {
+            byModel.computeIfAbsent(endpoint.getModelId(), id -> new ArrayList<>()).add(endpoint);
+        }
+        for (Integer modelId : pools.keySet()) {
+            byModel.putIfAbsent(modelId, Collections.emptyList());
+        }
+        byModel.forEach((modelId, endpoints) -> pools.put(modelId, buildPool(modelId, pools.get(modelId), endpoints)));
+    }
+
+    /**
+     * 定时对账，覆盖其他节点修改端点配置的情况
+     */
+    @Scheduled(initialDelayString = "${app.ai-models.registry.reconcile-interval-ms:60000}",
+            fixedDelayString = "${app.ai-models.registry.reconcile-interval-ms:60000}")
+    public void reconcile() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.warn("模型端点池对账失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 所有端点的熔断器状态，供actuator查看
+     */
+    public List<Map<String, Object>> circuitBreakers() {
+        long now = nanoClock.getAsLong();
+        List<Map<String, Object>> result = new ArrayList<>();
+        pools.forEach((modelId, pool) -> {
+            for (Member member : pool.members) {
+                Map<String, Object> item = member.breaker.snapshot(now);
+                item.put("modelId", modelId);
+                item.put("endpointId", member.endpoint == null ? null : member.endpoint.getId());
+                result.add(item);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 端点池运行状态，供管理端查看
+     */
+    public List<Map<String, Object>> snapshot(Integer modelId) {
+        long now = nanoClock.getAsLong();
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Member member : poolFor(modelId).members) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("endpointId", member.endpoint == null ? null : member.endpoint.getId());
+            item.put("apiEndpoint", member.endpoint == null ? "(模型自身端点)" : member.endpoint.getApiEndpoint());
+            item.put("weight", member.weight);
+            item.put("effectiveWeight", effectiveWeight(member, now));
+            item.put("outstanding", member.outstanding.get());
+            item.put("latencyMs", member.latencyNanos() / 1_000_000.0);
+            long ejectedUntil = member.ejectedUntil;
+            item.put("ejected", ejectedUntil != NOT_EJECTED && now < ejectedUntil);
+            item.put("ejectedRemainingMs", ejectedUntil != NOT_EJECTED && now < ejectedUntil
+                    ? TimeUnit.NANOSECONDS.toMillis(ejectedUntil - now) : 0L);
+            item.put("consecutiveEjections", member.consecutiveEjections.get());
+            item.put("circuitState", member.breaker.getState());
+            result.add(item);
+        }
+        return result;
+    }
+
+    private Pool poolFor(Integer modelId) {
+        Pool pool = pools.get(modelId);
+        if (pool != null) {
+            return pool;
+        }
+        // 未配置额外端点的模型只有自身端点一个成员
+        return pools.computeIfAbsent(modelId, id -> buildPool(id, null, Collections.emptyList()));
+    }
+
+    private Pool buildPool(Integer modelId, Pool previous, List<AiModelEndpoints> endpoints) {
+        List<Member> members = new ArrayList<>(endpoints.size() + 1);
+        Member primary = previous != null ? previous.primary : new Member(null, 1, newBreaker(modelId, null));
+        if (includePrimary || endpoints.isEmpty()) {
+            members.add(primary);
+        }
+        for (AiModelEndpoints endpoint : endpoints) {
+            Member existing = previous == null ? null : previous.find(endpoint.getId());
+            if (existing != null && Objects.equals(existing.endpoint, endpoint)) {
+                members.add(existing);
+            } else {
+                int weight = endpoint.getWeight() == null ? 1 : Math.max(1, endpoint.getWeight());
+                members.add(new Member(endpoint, weight, newBreaker(modelId, endpoint)));
+            }
+        }
+        return new Pool(primary, members.toArray(new Member[0]));
+    }
+
+    private EndpointCircuitBreaker newBreaker(Integer modelId, AiModelEndpoints endpoint) {
+        String name = "model-" + modelId + "/" + (endpoint == null ? "primary" : "endpoint-" + endpoint.getId());
+        return new EndpointCircuitBreaker(name, new EndpointCircuitBreaker.Config(
+                breakerWindowMs, breakerWindowBuckets, breakerMinimumCalls, breakerFailureRateThreshold,
+                breakerSlowCallThresholdMs, breakerSlowCallRateThreshold, breakerOpenDurationMs,
+                breakerHalfOpenPermittedCalls));
+    }
+
+    /**
+     * P2C选择：随机取两个可用成员，选得分低者
+     * 熔断中的成员和被排除的成员不参与选择，没有可选成员时返回null
+     */
+    Member select(Pool pool, long now, Member excluded) {
+        Member[] members = pool.members;
+        if (members.length == 1) {
+            Member only = members[0];
+            return only != excluded && only.breaker.allowsCalls(now) ? only : null;
+        }
+
+        int[] available = new int[members.length];
+        int count = 0;
+        Member earliest = null;
+        for (int i = 0; i < members.length; i++) {
+            Member member = members[i];
+            if (member == excluded || !member.breaker.allowsCalls(now)) {
+                continue;
+            }
+            if (!isEjected(member, now)) {
+                available[count++] = i;
+            } else if (earliest == null || member.ejectedUntil < earliest.ejectedUntil) {
+                earliest = member;
+            }
+        }
+        if (count == 0) {
+            // 未熔断的成员全部被摘除时选择最早恢复的成员，由上游决定是否仍然失败
+            return earliest;
+        }
+        if (count == 1) {
+            return members[available[0]];
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(count);
+        int b = random.nextInt(count - 1);
+        if (b >= a) {
+            b++;
+        }
+        Member first = members[available[a]];
+        Member second = members[available[b]];
+        double defaultLatency = averageLatency(members);
+        return score(first, now, defaultLatency) <= score(second, now, defaultLatency) ? first : second;
+    }
+
+    private double score(Member member, long now, double defaultLatency) {
+        double latency = member.latencyNanos();
+        if (latency <= 0) {
+            // 还没有延迟样本的成员按池内平均值估计，避免新成员被瞬间打满
+            latency = defaultLatency;
+        }
+        return (member.outstanding.get() + 1) * latency / effectiveWeight(member, now);
+    }
+
+    private static double averageLatency(Member[] members) {
+        double sum = 0;
+        int samples = 0;
+        for (Member member : members) {
+            double latency = member.latencyNanos();
+            if (latency > 0) {
+                sum += latency;
+                samples++;
+            }
+        }
+        return samples == 0 ? 1.0 : sum / samples;
+    }
+
+    /**
+     * 有效权重：慢启动窗口内从10%线性增长到配置权重
+     */
+    double effectiveWeight(Member member, long now) {
+        long readmittedAt = member.ejectedUntil;
+        if (readmittedAt == NOT_EJECTED || slowStartMs <= 0) {
+            return member.weight;
+        }
+        long elapsed = now - readmittedAt;
+        long window = TimeUnit.MILLISECONDS.toNanos(slowStartMs);
+        if (elapsed >= window) {
+            return member.weight;
+        }
+        double ratio = Math.max(0.1, (double) Math.max(elapsed, 0) / window);
+        return member.weight * ratio;
+    }
+
+    private static boolean isEjected(Member member, long now) {
+        long until = member.ejectedUntil;
+        return until != NOT_EJECTED && now < until;
+    }
+
+    /**
+     * 调用成功，记录延迟并清零连续摘除次数
+     */
+    void onSuccess(Member member, long latencyNanos, boolean trial) {
+        member.breaker.record(nanoClock.getAsLong(), latencyNanos, false, trial);
+        if (latencyNanos > 0) {
+            member.recordLatency(latencyNanos, latencyEwmaAlpha);
+        }
+        if (member.consecutiveEjections.get() > 0 && !isEjected(member, nanoClock.getAsLong())) {
+            member.consecutiveEjections.set(0);
+        }
+    }
+
+    /**
+     * 调用失败，按错误类型决定是否摘除
+     */
+    void onFailure(Integer modelId, Member member, Throwable error, long latencyNanos, boolean trial) {
+        long now = nanoClock.getAsLong();
+        member.breaker.record(now, latencyNanos, EndpointCircuitBreaker.isFailure(error), trial);
+
+        long retryAfterMs = ejectionHint(error);
+        if (retryAfterMs < 0) {
+            return;
+        }
+        if (isEjected(member, now)) {
+            // 摘除期间仍在进行中的请求失败不重复计数
+            return;
+        }
+        int ejections = member.consecutiveEjections.incrementAndGet();
+        long backoffMs = Math.min(ejectionMaxMs, ejectionBaseMs << Math.min(ejections - 1, 20));
+        backoffMs = Math.min(ejectionMaxMs, Math.max(backoffMs, retryAfterMs));
+        member.ejectedUntil = now + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+
+        Counter.builder("ai.chat.endpoint.ejected")
+                .description("端点池成员被摘除的次数")
+                .tag("modelId", String.valueOf(modelId))
+                .tag("endpointId", member.endpoint == null ? "primary" : String.valueOf(member.endpoint.getId()))
+                .register(meterRegistry)
+                .increment();
+        log.warn("模型 {} 的端点 {} 被摘除 {}ms: {}", modelId,
+                member.endpoint == null ? "primary" : member.endpoint.getId(), backoffMs, error.getMessage());
+    }
+
+    /**
+     * 调用被取消，试探调用归还熔断器许可
+     */
+    void onRelease(Member member, boolean trial) {
+        member.breaker.release(trial);
+    }
+
+    /**
+     * 判断错误是否需要摘除端点
+     *
+     * @return 上游要求的最短摘除毫秒数（无要求时为0），不需要摘除时返回-1
+     */
+    static long ejectionHint(Throwable error) {
+        if (error instanceof WebClientResponseException response) {
+            int status = response.getStatusCode().value();
+            if (status == 429) {
+                return parseRetryAfter(response.getHeaders().getFirst("Retry-After"));
+            }
+            if (status >= 500 || status == 401 || status == 403) {
+                return 0;
+            }
+            // 其他4xx是请求本身的问题，与端点无关
+            return -1;
+        }
+        if (error instanceof WebClientRequestException || error instanceof TimeoutException) {
+            return 0;
+        }
+        return -1;
+    }
+
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            // HTTP日期格式不解析，按默认退避处理
+            return 0;
+        }
+    }
+
+    /**
+     * 单个模型的端点池，实例不可变，配置变化时整体替换
+     */
+    static final class Pool {
+
+        final Member primary;
+        final Member[] members;
+
+        Pool(Member primary, Member[] members) {
+            this.primary = primary;
+            this.members = members;
+        }
+
+        Member find(Integer endpointId) {
+            for (Member member : members) {
+                if (member.endpoint != null && member.endpoint.getId().equals(endpointId)) {
+                    return member;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 端点池成员及其运行时状态
+     */
+    static final class Member {
+
+        /**
+         * 端点配置，null 表示模型自身的端点
+         */
+        final AiModelEndpoints endpoint;
+        final int weight;
+        final EndpointCircuitBreaker breaker;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger consecutiveEjections = new AtomicInteger();
+        /**
+         * 首字节延迟EWMA（double的位表示）
+         */
+        private final AtomicLong latencyBits = new AtomicLong(Double.doubleToRawLongBits(0.0));
+        /**
+         * 摘除截止时间，同时作为慢启动的起点
+         */
+        volatile long ejectedUntil = NOT_EJECTED;
+
+        Member(AiModelEndpoints endpoint, int weight, EndpointCircuitBreaker breaker) {
+            this.endpoint = endpoint;
+            this.weight = weight;
+            this.breaker = breaker;
+        }
+
+        double latencyNanos() {
+            return Double.longBitsToDouble(latencyBits.get());
+        }
+
+        void recordLatency(long sampleNanos, double alpha) {
+            while (true) {
+                long bits = latencyBits.get();
+                double current = Double.longBitsToDouble(bits);
+                double next = current <= 0 ? sampleNanos : current + alpha * (sampleNanos - current);
+                if (latencyBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package su.sue.aiproject.service.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.AiModels;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 模型级限流器
+ * 按 AiModels.rateLimitPerMinute 对每个模型独立限流，桶之间互不影响
+ * 采用GCRA（通用信元速率算法）实现令牌桶：每个桶只有一个 AtomicLong（理论到达时间），
+ * 获取许可是一次CAS，没有锁；突发量由 burst-ratio 控制
+ * 超过速率时按配置排队等待（有界等待人数和最长等待时间）或直接拒绝，
+ * 在本地平滑突发流量，而不是把请求打到上游后再收到429
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ModelRateLimiter {
+
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Integer, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * 超出速率时的处理方式：queue（排队等待）/ reject（直接拒绝）
+     */
+    @Value("${app.chat.rate-limit.mode:queue}")
+    private String mode;
+
+    /**
+     * 单个请求最长等待时间
+     */
+    @Value("${app.chat.rate-limit.max-wait-ms:2000}")
+    private long maxWaitMs;
+
+    /**
+     * 每个模型同时排队等待的最大请求数
+     */
+    @Value("${app.chat.rate-limit.max-waiters:20}")
+    private int maxWaiters;
+
+    /**
+     * 允许的突发量占每分钟限额的比例，至少为1个请求
+     */
+    @Value("${app.chat.rate-limit.burst-ratio:0.1}")
+    private double burstRatio;
+
+    /**
+     * 时钟，测试时可替换
+     */
+    LongSupplier nanoClock = System::nanoTime;
+
+    /**
+     * 获取一次调用许可，未配置限额（null 或 <= 0）的模型不限流
+     * 排队模式下可能阻塞调用线程，最长 max-wait-ms
+     *
+     * @param model 模型配置
+     * @throws RuntimeException 超出限额且无法在等待时间内获得许可时抛出
+     */
+    public void acquire(AiModels model) {
+        acquire(model, 1);
+    }
+
+    /**
+     * 获取一次调用许可，限额按端点池大小放大：每组端点+密钥各自拥有 rateLimitPerMinute 的上游额度
+     *
+     * @param model    模型配置
+     * @param poolSize 模型端点池的成员数量
+     * @throws RuntimeException 超出限额且无法在等待时间内获得许可时抛出
+     */
+    public void acquire(AiModels model, int poolSize) {
+        Integer configured = model.getRateLimitPerMinute();
+        if (configured == null || configured <= 0) {
+            return;
+        }
+        int limit = configured * Math.max(1, poolSize);
+
+        Bucket bucket = bucketFor(model.getId(), limit);
+        boolean queue = "queue".equalsIgnoreCase(mode);
+        long maxWaitNanos = queue ? TimeUnit.MILLISECONDS.toNanos(maxWaitMs) : 0L;
+
+        long waitNanos = bucket.reserve(nanoClock.getAsLong(), maxWaitNanos);
+        if (waitNanos < 0) {
+            throw reject(model, "超出每分钟 " + limit + " 次的调用限额");
+        }
+        if (waitNanos == 0) {
+            return;
+        }
+
+        // 排队等待：等待人数有界，超过时直接拒绝并归还已预留的许可
+        if (bucket.waiters.incrementAndGet() > maxWaiters) {
+            bucket.waiters.decrementAndGet();
+            bucket.cancel();
+            throw reject(model, "排队请求过多");
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+            Timer.builder("ai.chat.ratelimit.wait")
+                    .description("本地限流排队等待时间")
+                    .tag("modelId", String.valueOf(model.getId()))
+                    .register(meterRegistry)
+                    .record(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            bucket.cancel();
+            throw new RuntimeException("等待模型调用许可被中断");
+        } finally {
+            bucket.waiters.decrementAndGet();
+        }
+    }
+
+    private Bucket bucketFor(Integer modelId, int limit) {
+        Bucket bucket = buckets.get(modelId);
+        if (bucket != null && bucket.limit == limit) {
+            return bucket;
+        }
+        // 限额被修改时重建桶
+        return buckets.compute(modelId, (id, existing) ->
+                existing != null && existing.limit == limit ? existing : new Bucket(limit, burstRatio));
+    }
+
+    private RuntimeException reject(AiModels model, String reason) {
+        Counter.builder("ai.chat.ratelimit.rejected")
+                .description("本地限流拒绝的请求数")
+                .tag("modelId", String.valueOf(model.getId()))
+                .register(meterRegistry)
+                .increment();
+        log.warn("模型 {} 请求被限流: {}", model.getId(), reason);
+        return new RuntimeException("模型请求过于频繁，请稍后重试");
+    }
+
+    /**
+     * 单个模型的令牌桶（GCRA）
+     */
+    static final class Bucket {
+
+        final int limit;
+        /**
+         * 每个许可的发放间隔
+         */
+        final long intervalNanos;
+        /**
+         * 允许提前的时间（突发容量）
+         */
+        final long toleranceNanos;
+        /**
+         * 理论到达时间：下一个许可在不突发的情况下可发放的时间点
+         */
+        final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+        final AtomicInteger waiters = new AtomicInteger();
+
+        Bucket(int limit, double burstRatio) {
+            this.limit = limit;
+            this.intervalNanos = NANOS_PER_MINUTE / limit;
+            int burst = Math.max(1, (int) Math.ceil(limit * burstRatio));
+            this.toleranceNanos = intervalNanos * (burst - 1);
+        }
+
+        /**
+         * 预留一个许可
+         *
+         * @return 需要等待的纳秒数，0 表示立即可用，-1 表示在最长等待时间内无法获得
+         */
+        long reserve(long now, long maxWaitNanos) {
+            while (true) {
+                long tat = theoreticalArrival.get();
+                long start = Math.max(tat, now);
+                long wait = start - toleranceNanos - now;
+                if (wait < 0) {
+                    wait = 0;
+                }
+                if (wait > maxWaitNanos) {
+                    return -1;
+                }
+                if (theoreticalArrival.compareAndSet(tat, start + intervalNanos)) {
+                    return wait;
+                }
+            }
+        }
+
+        /**
+         * 归还一个已预留但未使用的许可
+         */
+        void cancel() {
+            theoreticalArrival.addAndGet(-intervalNanos);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package su.sue.aiproject.service.ai;
+
+import io.netty.channel.ChannelOption;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按上游主机划分的WebClient注册表
+ * 每个主机（scheme://host:port）独享一个连接池，慢的服务商不会占满其他服务商的连接，
+ * 长连接复用避免在热路径上重复TLS握手；https 上游优先协商HTTP/2
+ * 连接池指标（reactor.netty.connection.provider.*）通过Micrometer全局注册表暴露到 /actuator/metrics
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProviderWebClientRegistry implements DisposableBean {
+
+    private final WebClient.Builder webClientBuilder;
+
+    private final Map<String, ProviderClient> clients = new ConcurrentHashMap<>();
+
+    @Value("${app.http.client.max-connections:200}")
+    private int maxConnections;
+
+    @Value("${app.http.client.pending-acquire-max-count:500}")
+    private int pendingAcquireMaxCount;
+
+    @Value("${app.http.client.pending-acquire-timeout-ms:10000}")
+    private long pendingAcquireTimeoutMs;
+
+    @Value("${app.http.client.connect-timeout-ms:10000}")
+    private int connectTimeoutMs;
+
+    @Value("${app.http.client.max-idle-time-ms:60000}")
+    private long maxIdleTimeMs;
+
+    @Value("${app.http.client.max-life-time-ms:600000}")
+    private long maxLifeTimeMs;
+
+    @Value("${app.http.client.evict-interval-ms:30000}")
+    private long evictIntervalMs;
+
+    @Value("${app.http.client.http2-enabled:true}")
+    private boolean http2Enabled;
+
+    /**
+     * 获取上游地址对应的WebClient，同一主机复用同一个连接池
+     *
+     * @param endpoint 上游API地址，如 AiModels.apiEndpoint
+     * @return 绑定该主机连接池的WebClient
+     */
+    public WebClient forEndpoint(String endpoint) {
+        if (endpoint == null || endpoint.trim().isEmpty()) {
+            throw new RuntimeException("API端点不能为空");
+        }
+        URI uri = URI.create(endpoint.trim());
+        String key = hostKey(uri);
+        return clients.computeIfAbsent(key, k -> createClient(k, uri)).webClient();
+    }
+
+    /**
+     * 连接池的键：scheme://host:port，端口缺省时按scheme补全
+     */
+    static String hostKey(URI uri) {
+        if (uri.getHost() == null) {
+            throw new RuntimeException("无效的API端点: " + uri);
+        }
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase();
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equals(scheme) ? 443 : 80;
+        }
+        return scheme + "://" + uri.getHost().toLowerCase() + ":" + port;
+    }
+
+    private ProviderClient createClient(String key, URI uri) {
+        boolean https = key.startsWith("https://");
+
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("ai-" + uri.getHost().toLowerCase())
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMs))
+                .evictInBackground(Duration.ofMillis(evictIntervalMs))
+                .metrics(true)
+                .build();
+
+        // 配置HTTP客户端 - 与原全局配置保持一致，超时时间支持长时间的流式响应
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .responseTimeout(Duration.ofSeconds(120))
+                .followRedirect(true)
+                .keepAlive(true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .option(ChannelOption.SO_KEEPALIVE, true);
+
+        if (https && http2Enabled) {
+            // 通过ALPN协商，上游不支持HTTP/2时自动回退HTTP/1.1
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11).secure();
+        }
+
+        WebClient webClient = webClientBuilder.clone()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+
+        log.info("创建上游连接池: host={}, maxConnections={}, http2={}", key, maxConnections, https && http2Enabled);
+        return new ProviderClient(connectionProvider, webClient);
+    }
+
+    @Override
+    public void destroy() {
+        clients.values().forEach(client -> client.connectionProvider().dispose());
+        clients.clear();
+    }
+
+    private record ProviderClient(ConnectionProvider connectionProvider, WebClient webClient) {
+    }
+}
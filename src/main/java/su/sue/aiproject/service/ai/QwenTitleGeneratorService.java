@@ -8,7 +8,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
 import su.sue.aiproject.domain.dto.ChatMessage;
 import su.sue.aiproject.domain.dto.GenerateTitleRequest;
 import su.sue.aiproject.domain.dto.GenerateTitleResponse;
@@ -67,7 +66,7 @@ public class QwenTitleGeneratorService {
         return defaultValue;
     }
     
-    private final WebClient.Builder webClientBuilder;
+    private final ProviderWebClientRegistry webClientRegistry;
     private final ObjectMapper objectMapper;
     
     /**
@@ -87,16 +86,11 @@ public class QwenTitleGeneratorService {
             // 构建请求体
             Map<String, Object> requestBody = buildRequestBody(prompt);
             
-            // 创建WebClient
-            WebClient webClient = webClientBuilder
-                    .baseUrl(BASE_URL)
-                    .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + API_KEY)
-                    .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                    .build();
-            
-            // 调用API
-            String response = webClient.post()
-                    .uri("/chat/completions")
+            // 调用API，复用该主机的连接池，不再每次修改共享的 WebClient.Builder
+            String response = webClientRegistry.forEndpoint(BASE_URL).post()
+                    .uri(BASE_URL + "/chat/completions")
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + API_KEY)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                     .bodyValue(requestBody)
                     .retrieve()
                     .bodyToMono(String.class)
@@ -134,16 +128,11 @@ public class QwenTitleGeneratorService {
             // 构建请求体
             Map<String, Object> requestBody = buildRequestBody(prompt);
             
-            // 创建WebClient
-            WebClient webClient = webClientBuilder
-                    .baseUrl(BASE_URL)
-                    .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + API_KEY)
-                    .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                    .build();
-            
-            // 调用API
-            String response = webClient.post()
-                    .uri("/chat/completions")
+            // 调用API，复用该主机的连接池，不再每次修改共享的 WebClient.Builder
+            String response = webClientRegistry.forEndpoint(BASE_URL).post()
+                    .uri(BASE_URL + "/chat/completions")
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + API_KEY)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                     .bodyValue(requestBody)
                     .retrieve()
                     .bodyToMono(String.class)
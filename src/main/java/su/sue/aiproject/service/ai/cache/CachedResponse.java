@@ -0,0 +1,27 @@
+package su.sue.aiproject.service.ai.cache;
+
+/**
+ * 缓存的一次完整回复
+ * usage 保留首次调用时上游返回（或估算）的token数，命中时按折扣计费
+ *
+ * @param model            上游返回的模型名称
+ * @param content          完整回复内容
+ * @param finishReason     结束原因
+ * @param promptTokens     提示词token数
+ * @param completionTokens 回复token数
+ * @param createdAt        写入缓存的时间（毫秒）
+ */
+public record CachedResponse(String model, String content, String finishReason,
+                             int promptTokens, int completionTokens, long createdAt) {
+
+    public int totalTokens() {
+        return promptTokens + completionTokens;
+    }
+
+    /**
+     * 内存占用的估算值，用于内存层的容量限制
+     */
+    long weight() {
+        return 128L + 2L * content.length() + (model != null ? 2L * model.length() : 0);
+    }
+}
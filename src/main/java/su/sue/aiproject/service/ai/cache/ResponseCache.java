@@ -0,0 +1,205 @@
+package su.sue.aiproject.service.ai.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.ChatCompletionChoice;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatCompletionResponse;
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 确定性对话请求的精确匹配响应缓存
+ * 只缓存请求中 cache=true 且 temperature=0 的对话，键为模型 + 消息 + 采样参数的规范化哈希（见 {@link ResponseCacheKey}）
+ * 内存层按估算字节数做LRU淘汰；配置了 disk-dir 时另有磁盘层，内存未命中时读取磁盘并提升到内存
+ * 只有正常结束的回复才写入缓存，被取消或出错的流不会写入
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ResponseCache {
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.chat.response-cache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 是否跨用户共享缓存；关闭时键中包含用户ID，只有同一用户的相同请求才会命中
+     */
+    @Value("${app.chat.response-cache.shared:false}")
+    private boolean shared;
+
+    @Value("${app.chat.response-cache.ttl-ms:86400000}")
+    private long ttlMs;
+
+    /**
+     * 内存层的容量（估算字节数）
+     */
+    @Value("${app.chat.response-cache.memory-max-bytes:67108864}")
+    private long memoryMaxBytes;
+
+    /**
+     * 单条回复超过该字符数时不缓存
+     */
+    @Value("${app.chat.response-cache.max-content-chars:200000}")
+    private int maxContentChars;
+
+    /**
+     * 磁盘层目录，为空时只使用内存层
+     */
+    @Value("${app.chat.response-cache.disk-dir:}")
+    private String diskDir;
+
+    @Value("${app.chat.response-cache.disk-max-bytes:1073741824}")
+    private long diskMaxBytes;
+
+    private final LinkedHashMap<String, CachedResponse> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+    private ResponseDiskStore disk;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled || diskDir == null || diskDir.isBlank()) {
+            return;
+        }
+        try {
+            disk = new ResponseDiskStore(Path.of(diskDir), objectMapper);
+            log.info("响应缓存磁盘层已启用: dir={}, maxBytes={}", diskDir, diskMaxBytes);
+        } catch (IOException e) {
+            log.warn("创建响应缓存磁盘目录失败，只使用内存层: dir={}, error={}", diskDir, e.getMessage());
+        }
+    }
+
+    /**
+     * 请求是否可以使用缓存：客户端显式开启且 temperature 为 0
+     */
+    public boolean isCacheable(ChatCompletionRequest request) {
+        return enabled
+                && Boolean.TRUE.equals(request.getCache())
+                && request.getTemperature() != null
+                && request.getTemperature() == 0.0;
+    }
+
+    /**
+     * 查找缓存的回复
+     *
+     * @return 命中的回复，请求不可缓存或未命中时返回 null
+     */
+    public CachedResponse lookup(AiModels model, Long userId, ChatCompletionRequest request) {
+        if (!isCacheable(request)) {
+            return null;
+        }
+        String key = key(model, userId, request);
+        long expireBefore = System.currentTimeMillis() - ttlMs;
+        synchronized (memory) {
+            CachedResponse cached = memory.get(key);
+            if (cached != null) {
+                if (cached.createdAt() >= expireBefore) {
+                    return cached;
+                }
+                remove(key);
+            }
+        }
+        if (disk == null) {
+            return null;
+        }
+        CachedResponse cached = disk.read(key, expireBefore);
+        if (cached != null) {
+            putMemory(key, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * 写入一次正常结束的回复，内容为空或过长时跳过；写入失败只记录日志，不影响对话
+     */
+    public void store(AiModels model, Long userId, ChatCompletionRequest request, ChatCompletionResponse response) {
+        if (!isCacheable(request) || response.getChoices() == null || response.getChoices().isEmpty()) {
+            return;
+        }
+        ChatCompletionChoice choice = response.getChoices().get(0);
+        if (choice.getMessage() == null || choice.getMessage().getContent() == null
+                || choice.getMessage().getContent().isEmpty()
+                || choice.getMessage().getContent().length() > maxContentChars) {
+            return;
+        }
+        try {
+            ChatCompletionUsage usage = response.getUsage();
+            int promptTokens = usage != null && usage.getPromptTokens() != null ? usage.getPromptTokens() : 0;
+            int completionTokens = usage != null && usage.getCompletionTokens() != null ? usage.getCompletionTokens() : 0;
+            String finishReason = choice.getFinishReason();
+            if (finishReason == null) {
+                // 流式回复不记录结束原因，按是否用满 max_tokens 推断
+                finishReason = request.getMaxTokens() != null && completionTokens >= request.getMaxTokens()
+                        ? "length" : "stop";
+            }
+            CachedResponse cached = new CachedResponse(
+                    response.getModel() != null ? response.getModel() : model.getModelName(),
+                    choice.getMessage().getContent(), finishReason, promptTokens, completionTokens,
+                    System.currentTimeMillis());
+
+            String key = key(model, userId, request);
+            putMemory(key, cached);
+            if (disk != null) {
+                disk.write(key, cached);
+            }
+            log.debug("写入响应缓存: modelId={}, key={}, tokens={}", model.getId(), key, cached.totalTokens());
+        } catch (Exception e) {
+            log.warn("写入响应缓存失败: modelId={}, error={}", model.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 定期清理磁盘层的过期条目，并把总大小控制在 disk-max-bytes 以内
+     */
+    @Scheduled(fixedDelayString = "${app.chat.response-cache.disk-sweep-interval-ms:600000}")
+    public void sweepDisk() {
+        if (disk == null) {
+            return;
+        }
+        try {
+            int deleted = disk.sweep(System.currentTimeMillis() - ttlMs, diskMaxBytes);
+            if (deleted > 0) {
+                log.info("清理磁盘响应缓存: 删除条目={}", deleted);
+            }
+        } catch (IOException e) {
+            log.warn("清理磁盘响应缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private String key(AiModels model, Long userId, ChatCompletionRequest request) {
+        return ResponseCacheKey.of(model, shared ? null : userId, request);
+    }
+
+    private void putMemory(String key, CachedResponse cached) {
+        synchronized (memory) {
+            remove(key);
+            memory.put(key, cached);
+            memoryBytes += cached.weight();
+            Iterator<Map.Entry<String, CachedResponse>> eldest = memory.entrySet().iterator();
+            while (memoryBytes > memoryMaxBytes && eldest.hasNext()) {
+                memoryBytes -= eldest.next().getValue().weight();
+                eldest.remove();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        CachedResponse removed = memory.remove(key);
+        if (removed != null) {
+            memoryBytes -= removed.weight();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package su.sue.aiproject.service.ai.cache;
+
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * 对话请求的规范化哈希：模型 + 消息 + 采样参数的 SHA-256，用作响应缓存的键，也用于识别重复的进行中请求
+ * 只包含会写入上游请求体的字段（与 ModelCallPlan#buildRequestBody 一致），会话ID、stream 等字段不影响键
+ * 每个字段按 类型标记 + 长度 + 内容 写入，不同字段的拼接不会互相混淆
+ */
+public final class ResponseCacheKey {
+
+    /**
+     * 键格式版本，规范化规则变化时递增，旧的磁盘缓存自然失效
+     */
+    private static final String VERSION = "v1";
+
+    private static final byte NULL = 0;
+    private static final byte VALUE = 1;
+
+    private final MessageDigest digest;
+
+    private ResponseCacheKey() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    /**
+     * 计算请求的缓存键
+     *
+     * @param model   本次使用的模型
+     * @param scope   缓存隔离范围（用户ID），跨用户共享时为 null
+     * @param request 已完成上下文组装的请求
+     * @return 64位十六进制字符串
+     */
+    public static String of(AiModels model, Long scope, ChatCompletionRequest request) {
+        ResponseCacheKey key = new ResponseCacheKey();
+        key.string(VERSION);
+        key.number(scope);
+        key.number(model.getId());
+        key.string(model.getModelName());
+
+        if (request.getMessages() == null) {
+            key.number(null);
+        } else {
+            key.number(request.getMessages().size());
+            for (ChatMessage message : request.getMessages()) {
+                key.string(message.getRole());
+                key.string(message.getName());
+                key.string(message.getContent());
+            }
+        }
+
+        key.number(request.getTemperature());
+        key.number(request.getMaxTokens());
+        key.number(request.getTopP());
+        key.number(request.getFrequencyPenalty());
+        key.number(request.getPresencePenalty());
+        if (request.getStop() == null) {
+            key.number(null);
+        } else {
+            key.number(request.getStop().size());
+            for (String stop : request.getStop()) {
+                key.string(stop);
+            }
+        }
+        return HexFormat.of().formatHex(key.digest.digest());
+    }
+
+    private void string(String value) {
+        if (value == null) {
+            digest.update(NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(VALUE);
+        int32(bytes.length);
+        digest.update(bytes);
+    }
+
+    private void number(Number value) {
+        if (value == null) {
+            digest.update(NULL);
+            return;
+        }
+        digest.update(VALUE);
+        long bits;
+        if (value instanceof Double d) {
+            // 0.0 与 -0.0 对上游含义相同
+            bits = Double.doubleToLongBits(d == 0.0 ? 0.0 : d);
+            digest.update((byte) 'd');
+        } else {
+            bits = value.longValue();
+            digest.update((byte) 'l');
+        }
+        int32((int) (bits >>> 32));
+        int32((int) bits);
+    }
+
+    private void int32(int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+    }
+}
@@ -0,0 +1,117 @@
+package su.sue.aiproject.service.ai.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 响应缓存的磁盘层
+ * 每个条目一个JSON文件，按键的前两位分目录；先写临时文件再原子改名，读取时不会读到写了一半的文件
+ * 过期条目在读取时删除，总大小由定期清理按最早修改时间淘汰
+ */
+@Slf4j
+final class ResponseDiskStore {
+
+    private static final String SUFFIX = ".json";
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+
+    ResponseDiskStore(Path directory, ObjectMapper objectMapper) throws IOException {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * 读取条目，不存在、已过期或损坏时返回 null
+     */
+    CachedResponse read(String key, long expireBefore) {
+        Path file = path(key);
+        try {
+            CachedResponse response = objectMapper.readValue(Files.readAllBytes(file), CachedResponse.class);
+            if (response.createdAt() < expireBefore) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+            return response;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("读取磁盘响应缓存失败，删除条目: key={}, error={}", key, e.getMessage());
+            delete(file);
+            return null;
+        }
+    }
+
+    void write(String key, CachedResponse response) throws IOException {
+        Path file = path(key);
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+        Files.write(temp, objectMapper.writeValueAsBytes(response));
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 删除过期条目，总大小超出上限时从最早写入的条目开始删除
+     *
+     * @return 删除的条目数
+     */
+    int sweep(long expireBefore, long maxBytes) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().endsWith(SUFFIX)) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    entries.add(new Entry(file, attributes.lastModifiedTime().toMillis(), attributes.size()));
+                } catch (NoSuchFileException e) {
+                    // 并发删除
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(Entry::modifiedAt));
+
+        long totalBytes = 0;
+        for (Entry entry : entries) {
+            totalBytes += entry.size();
+        }
+        int deleted = 0;
+        for (Entry entry : entries) {
+            if (entry.modifiedAt() >= expireBefore && totalBytes <= maxBytes) {
+                break;
+            }
+            delete(entry.file());
+            totalBytes -= entry.size();
+            deleted++;
+        }
+        return deleted;
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除磁盘响应缓存失败: file={}, error={}", file, e.getMessage());
+        }
+    }
+
+    private record Entry(Path file, long modifiedAt, long size) {
+    }
+}
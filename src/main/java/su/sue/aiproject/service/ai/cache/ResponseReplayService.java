@@ -0,0 +1,237 @@
+package su.sue.aiproject.service.ai.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.domain.dto.ChatCompletionChoice;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatCompletionResponse;
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+import su.sue.aiproject.domain.dto.ChatMessage;
+import su.sue.aiproject.service.CreditService;
+import su.sue.aiproject.service.message.MessageExchange;
+import su.sue.aiproject.service.message.MessagePersistencePipeline;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 响应缓存命中后的回放
+ * 按折扣计费、保存对话记录，再以请求的模式返回：同步响应，或把缓存内容切成 chat.completion.chunk 事件回放，
+ * 客户端看到的流与上游直连时格式一致（最后一块带 finish_reason 和 usage，以 [DONE] 结束）
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ResponseReplayService {
+
+    private static final long EMITTER_TIMEOUT_MS = 300000L;
+
+    private final CreditService creditService;
+    private final MessagePersistencePipeline messagePersistencePipeline;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 命中缓存时按正常价格的该比例计费，0 表示免费
+     */
+    @Value("${app.chat.response-cache.billing-rate:0.1}")
+    private BigDecimal billingRate;
+
+    /**
+     * 流式回放时每个事件包含的字符数
+     */
+    @Value("${app.chat.response-cache.replay-chunk-chars:32}")
+    private int replayChunkChars;
+
+    public ChatCompletionResponse chat(AiModels model, Long userId, ChatCompletionRequest request, CachedResponse cached) {
+        settle(model, userId, request, cached);
+
+        ChatMessage message = new ChatMessage();
+        message.setRole("assistant");
+        message.setContent(cached.content());
+        ChatCompletionChoice choice = new ChatCompletionChoice();
+        choice.setIndex(0);
+        choice.setMessage(message);
+        choice.setFinishReason(cached.finishReason());
+
+        ChatCompletionResponse response = new ChatCompletionResponse();
+        response.setId(responseId());
+        response.setObject("chat.completion");
+        response.setCreated(System.currentTimeMillis() / 1000);
+        response.setModel(cached.model());
+        response.setChoices(List.of(choice));
+        response.setUsage(usage(cached));
+        return response;
+    }
+
+    public SseEmitter chatStream(AiModels model, Long userId, ChatCompletionRequest request, CachedResponse cached) {
+        List<String> frames = frames(model, userId, request, cached);
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        try {
+            // 处理器返回前发送的事件由 Spring MVC 缓冲，连接建立后依次写出
+            for (String frame : frames) {
+                emitter.send(SseEmitter.event().data(frame).reconnectTime(0L));
+            }
+            emitter.complete();
+        } catch (IOException e) {
+            log.warn("回放缓存响应失败: {}", e.getMessage());
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    public Flux<ServerSentEvent<String>> chatStreamReactive(AiModels model, Long userId, ChatCompletionRequest request,
+                                                            CachedResponse cached) {
+        List<String> frames = frames(model, userId, request, cached);
+        return Flux.fromIterable(frames)
+                .map(frame -> ServerSentEvent.builder(frame).retry(Duration.ZERO).build());
+    }
+
+    public ResponseBodyEmitter chatStreamRelay(AiModels model, Long userId, ChatCompletionRequest request,
+                                               CachedResponse cached) {
+        List<String> frames = frames(model, userId, request, cached);
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(EMITTER_TIMEOUT_MS);
+        try {
+            for (String frame : frames) {
+                emitter.send(("data: " + frame + "\n\n").getBytes(StandardCharsets.UTF_8), MediaType.TEXT_EVENT_STREAM);
+            }
+            emitter.complete();
+        } catch (IOException e) {
+            log.warn("回放缓存响应失败: {}", e.getMessage());
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    /**
+     * 计费落库后生成流式回放的各帧数据（不含 data: 前缀）
+     */
+    private List<String> frames(AiModels model, Long userId, ChatCompletionRequest request, CachedResponse cached) {
+        settle(model, userId, request, cached);
+        try {
+            return chunks(cached, responseId(), System.currentTimeMillis() / 1000, replayChunkChars, objectMapper);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("构建缓存回放失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 把缓存内容切成 OpenAI 格式的 chunk：第一块带 role，最后一块带 finish_reason 和 usage，之后是 [DONE]
+     * 切分不会拆开代理对
+     */
+    static List<String> chunks(CachedResponse cached, String id, long created, int chunkChars,
+                               ObjectMapper objectMapper) throws JsonProcessingException {
+        String content = cached.content();
+        List<String> frames = new ArrayList<>(content.length() / chunkChars + 3);
+        int from = 0;
+        while (from < content.length()) {
+            int to = Math.min(from + chunkChars, content.length());
+            if (to < content.length() && Character.isHighSurrogate(content.charAt(to - 1))) {
+                to++;
+            }
+            ObjectNode delta = objectMapper.createObjectNode();
+            if (from == 0) {
+                delta.put("role", "assistant");
+            }
+            delta.put("content", content.substring(from, to));
+            frames.add(objectMapper.writeValueAsString(chunk(objectMapper, id, created, cached.model(), delta, null)));
+            from = to;
+        }
+
+        ObjectNode last = chunk(objectMapper, id, created, cached.model(), objectMapper.createObjectNode(),
+                cached.finishReason());
+        ObjectNode usage = last.putObject("usage");
+        usage.put("prompt_tokens", cached.promptTokens());
+        usage.put("completion_tokens", cached.completionTokens());
+        usage.put("total_tokens", cached.totalTokens());
+        frames.add(objectMapper.writeValueAsString(last));
+        frames.add("[DONE]");
+        return frames;
+    }
+
+    private static ObjectNode chunk(ObjectMapper objectMapper, String id, long created, String model,
+                                    ObjectNode delta, String finishReason) {
+        ObjectNode chunk = objectMapper.createObjectNode();
+        chunk.put("id", id);
+        chunk.put("object", "chat.completion.chunk");
+        chunk.put("created", created);
+        chunk.put("model", model);
+        ArrayNode choices = chunk.putArray("choices");
+        ObjectNode choice = choices.addObject();
+        choice.put("index", 0);
+        choice.set("delta", delta);
+        choice.put("finish_reason", finishReason);
+        return chunk;
+    }
+
+    /**
+     * 按折扣扣除积分并提交对话记录；余额不足时抛出异常，与正常请求预留积分失败的表现一致
+     */
+    private void settle(AiModels model, Long userId, ChatCompletionRequest request, CachedResponse cached) {
+        BigDecimal cost = model.getCostPer1kTokens()
+                .multiply(new BigDecimal(cached.totalTokens()))
+                .multiply(billingRate)
+                .divide(new BigDecimal(1000), 6, RoundingMode.UP);
+        if (cost.signum() > 0) {
+            creditService.deductCredit(userId, cost, "AI对话消费（缓存命中） - " + model.getModelName());
+        }
+
+        List<Messages> messages = new ArrayList<>(2);
+        ChatMessage latestUserMessage = null;
+        for (ChatMessage message : request.getMessages()) {
+            if ("user".equals(message.getRole())) {
+                latestUserMessage = message;
+            }
+        }
+        if (latestUserMessage != null) {
+            messages.add(message(request.getConversationId(), model, "user", latestUserMessage.getContent(), 0));
+        }
+        messages.add(message(request.getConversationId(), model, "assistant", cached.content(), cached.totalTokens()));
+        messagePersistencePipeline.submit(new MessageExchange(userId, request.getConversationId(), model.getId(), messages));
+
+        log.info("响应缓存命中: userId={}, conversationId={}, model={}, cost={}, tokens={}",
+                userId, request.getConversationId(), model.getModelName(), cost, cached.totalTokens());
+    }
+
+    private Messages message(Long conversationId, AiModels model, String role, String content, int tokens) {
+        Messages message = new Messages();
+        message.setConversationId(conversationId);
+        message.setRole(role);
+        message.setContent(content);
+        message.setModelId(model.getId());
+        message.setTokensConsumed(tokens);
+        message.setCreatedAt(new Date());
+        return message;
+    }
+
+    private ChatCompletionUsage usage(CachedResponse cached) {
+        ChatCompletionUsage usage = new ChatCompletionUsage();
+        usage.setPromptTokens(cached.promptTokens());
+        usage.setCompletionTokens(cached.completionTokens());
+        usage.setTotalTokens(cached.totalTokens());
+        return usage;
+    }
+
+    private String responseId() {
+        return "chatcmpl-cache-" + UUID.randomUUID().toString().replace("-", "");
+    }
+}
@@ -0,0 +1,788 @@
+package su.sue.aiproject.service.ai.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.*;
+import su.sue.aiproject.service.ai.AiChatService;
+import su.sue.aiproject.service.ai.AiModelRegistry;
+import su.sue.aiproject.service.ai.EndpointLease;
+import su.sue.aiproject.service.ai.HedgedRequestExecutor;
+import su.sue.aiproject.service.ai.ModelCallPlan;
+import su.sue.aiproject.service.ai.ModelCallPlanCache;
+import su.sue.aiproject.service.ai.ModelEndpointBalancer;
+import su.sue.aiproject.service.CreditHold;
+import su.sue.aiproject.service.CreditService;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.service.ai.cache.ResponseCache;
+import su.sue.aiproject.service.ai.provider.ProviderCodec;
+import su.sue.aiproject.service.ai.provider.ProviderCodecRegistry;
+import su.sue.aiproject.service.ai.stream.ChatStreamMetrics;
+import su.sue.aiproject.service.ai.stream.SseDeltaScanner;
+import su.sue.aiproject.service.ai.stream.SseRelayService;
+import su.sue.aiproject.service.ai.stream.SseStreamSession;
+import su.sue.aiproject.service.ai.tokenizer.TokenizerRegistry;
+import su.sue.aiproject.service.message.MessageExchange;
+import su.sue.aiproject.service.message.MessagePersistencePipeline;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 统一聊天引擎
+ * 所有提供商共用端点选择、积分预留与结算、四种流式模式的转发和对话落库，
+ * 提供商之间在线协议上的差异（请求编码、响应与数据块解码、usage 提取）由 {@link ProviderCodec} 负责，
+ * 按模型的 provider 字段从 {@link ProviderCodecRegistry} 取得；新增提供商只需实现一个编解码器
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChatCompletionEngine implements AiChatService {
+    
+    private final AiModelRegistry aiModelRegistry;
+    private final ModelCallPlanCache modelCallPlanCache;
+    private final ModelEndpointBalancer modelEndpointBalancer;
+    private final HedgedRequestExecutor hedgedRequestExecutor;
+    private final CreditService creditService;
+    private final ProviderCodecRegistry providerCodecRegistry;
+    private final MessagePersistencePipeline messagePersistencePipeline;
+    private final Scheduler chatStreamScheduler;
+    private final SseRelayService sseRelayService;
+    private final ChatStreamMetrics chatStreamMetrics;
+    private final TokenizerRegistry tokenizerRegistry;
+    private final ResponseCache responseCache;
+    
+    /**
+     * 每次向上游请求的数据块数量（背压）
+     */
+    @Value("${app.chat.stream.prefetch:32}")
+    private int streamPrefetch;
+    
+    /**
+     * 请求未指定 max_tokens 时，预留积分按该输出token数预估
+     */
+    @Value("${app.credit.hold.default-completion-tokens:1024}")
+    private int holdCompletionTokens;
+    
+    @Override
+    public ChatCompletionResponse chat(ChatCompletionRequest request, Long userId) {
+        // 获取模型信息
+        AiModels model = getModelById(request.getId());
+        ProviderCodec codec = providerCodecRegistry.forModel(model);
+        
+        // 预留本次对话的积分，结束时按实际费用结算
+        CreditHold hold = reserveCredit(userId, model, request);
+        
+        try {
+            // 从端点池选择端点发出请求；模型启用对冲时，慢请求会再发往池中另一个端点，只采用先返回的响应
+            String response = hedgedRequestExecutor.execute(model, lease -> {
+                // 取该端点预编译的调用计划：URI、请求头和请求体静态部分
+                ModelCallPlan plan = planFor(model, lease);
+                String requestBody = codec.encodeRequest(plan, request, false);
+                
+                log.info("调用聊天API: provider={}, endpoint={}, model={}", 
+                        codec.provider(), plan.getUri(), model.getModelName());
+                
+                return plan.getWebClient().post()
+                        .uri(plan.getUri())
+                        .headers(plan::applyHeaders)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                        .bodyValue(requestBody)
+                        .retrieve()
+                        .bodyToMono(String.class)
+                        .timeout(Duration.ofSeconds(30));
+            }).block();
+            
+            // 解析响应
+            ChatCompletionResponse chatResponse = codec.decodeResponse(response);
+            
+            // 调试日志：检查 usage 信息
+            log.debug("聊天API响应: provider={}, body={}", codec.provider(), response);
+            if (chatResponse.getUsage() == null) {
+                log.warn("聊天API响应中 usage 为 null，provider={}, 响应内容: {}", codec.provider(), response);
+                // 创建估算的 usage 信息
+                ChatCompletionUsage estimatedUsage = createEstimatedUsage(model, request, chatResponse);
+                chatResponse.setUsage(estimatedUsage);
+                log.info("使用估算的 usage 信息: {}", estimatedUsage);
+            } else {
+                log.info("聊天API usage 信息: {}", chatResponse.getUsage());
+            }
+            
+            // 计费和保存记录（现在总是会执行）
+            chargeCreditAndSaveRecord(userId, model, hold, chatResponse.getUsage(), request, chatResponse);
+            responseCache.store(model, userId, request, chatResponse);
+            
+            return chatResponse;
+            
+        } catch (Exception e) {
+            // 调用失败不计费，退还预留的积分
+            creditService.releaseCredit(hold);
+            log.error("聊天API调用失败: provider={}", codec.provider(), e);
+            throw new RuntimeException("AI服务调用失败: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public SseEmitter chatStream(ChatCompletionRequest request, Long userId) {
+        // 获取模型信息
+        AiModels model = getModelById(request.getId());
+        ProviderCodec codec = providerCodecRegistry.forModel(model);
+        
+        // 从端点池选择端点，取该端点预编译的调用计划：URI、请求头和请求体静态部分
+        EndpointLease lease = modelEndpointBalancer.acquire(model);
+        ModelCallPlan plan = planFor(model, lease);
+        
+        // 预留本次对话的积分，结束时按实际费用结算
+        CreditHold hold = reserveCredit(userId, model, request, lease);
+        
+        SseEmitter emitter = new SseEmitter(300000L); // 5分钟超时
+        
+        // 内容由上游线程拼接、可能由容器线程在取消时读取，使用线程安全的 StringBuffer
+        StringBuffer fullContent = new StringBuffer();
+        final AtomicReference<ChatCompletionUsage> finalUsageRef = new AtomicReference<>();
+        final AtomicBoolean isComplete = new AtomicBoolean(false);
+        final Disposable.Swap upstream = Disposables.swap();
+        
+        // 客户端断开、超时或出错时取消上游请求，只为已收到的token计费
+        Runnable cancelUpstream = () -> {
+            if (!isComplete.getAndSet(true)) {
+                upstream.dispose();
+                onStreamCancelled(codec.provider(), "emitter", userId, model, hold, request, fullContent.toString(), finalUsageRef.get());
+            }
+        };
+        
+        // SseEmitter 每种回调只能注册一个，统一在这里注册，控制器不再覆盖
+        emitter.onCompletion(() -> {
+            log.debug("SSE emitter 完成");
+            cancelUpstream.run();
+        });
+        emitter.onTimeout(() -> {
+            log.warn("SSE emitter 超时");
+            cancelUpstream.run();
+            emitter.complete();
+        });
+        emitter.onError(e -> {
+            log.error("SSE emitter 错误: {}", e.getMessage());
+            cancelUpstream.run();
+        });
+        
+        try {
+            // 构建请求
+            String requestBody = codec.encodeRequest(plan, request, true);
+            
+            log.info("调用流式聊天API: provider={}, endpoint={}, model={}", 
+                    codec.provider(), plan.getUri(), model.getModelName());
+            
+            // 异步处理流式响应
+            CompletableFuture.runAsync(() -> {
+                try {
+                    // 修正 SSE 流式响应处理
+                    Disposable subscription = plan.getWebClient().post()
+                            .uri(plan.getUri())
+                            .headers(plan::applyHeaders)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+                            .header(HttpHeaders.ACCEPT, "text/event-stream;charset=UTF-8")
+                            .header("Accept-Charset", "UTF-8")
+                            .header("Cache-Control", "no-cache")
+                            .bodyValue(requestBody)
+                            .retrieve()
+                            .bodyToFlux(String.class)
+                            .timeout(Duration.ofSeconds(120)) // 增加超时时间
+                            .transform(lease::track)
+                            .doOnNext(data -> {
+                                try {
+                                    log.debug("收到 SSE 数据: {}", data);
+                                    // 直接转发原始SSE数据，同时提取内容用于本地记录
+                                    handleAndForwardSseData(codec, data, emitter, finalUsageRef, fullContent);
+                                } catch (IOException e) {
+                                    // 写出失败说明客户端已断开，取消上游请求
+                                    log.warn("客户端连接已断开，取消上游请求: {}", e.getMessage());
+                                    cancelUpstream.run();
+                                } catch (Exception e) {
+                                    log.error("处理 SSE 数据失败", e);
+                                    // 不立即调用 completeWithError，而是记录错误并继续
+                                    log.warn("SSE数据处理出错，但继续处理后续数据: {}", e.getMessage());
+                                }
+                            })
+                            .doOnError(error -> {
+                                log.error("流式请求失败", error);
+                                if (!isComplete.getAndSet(true)) {
+                                    emitter.completeWithError(error);
+                                    // 尝试保存已有的内容，不阻塞连接关闭
+                                    String content = fullContent.toString();
+                                    ChatCompletionUsage usage = finalUsageRef.get();
+                                    chatStreamScheduler.schedule(
+                                            () -> saveStreamDataOnError(userId, model, hold, request, content, usage));
+                                }
+                            })
+                            .doOnComplete(() -> {
+                                if (isComplete.getAndSet(true)) {
+                                    return;
+                                }
+                                long tailStart = System.nanoTime();
+                                
+                                // 最后一个事件在 send 时已写出并刷新，直接关闭连接，客户端无需等待计费和落库
+                                try {
+                                    emitter.complete();
+                                    log.debug("SSE连接已正常关闭");
+                                } catch (Exception e) {
+                                    log.error("关闭SSE连接失败", e);
+                                }
+                                chatStreamMetrics.recordTail(codec.provider(), "emitter", tailStart);
+                                
+                                // 计费和保存记录在有界调度器上异步执行
+                                String content = fullContent.toString();
+                                ChatCompletionUsage usage = finalUsageRef.get();
+                                chatStreamScheduler.schedule(
+                                        () -> finishStream(userId, model, hold, request, content, usage, true));
+                            })
+                            .subscribe();
+                    // 取消发生在订阅之前时，Swap 会立即释放新的订阅
+                    upstream.update(subscription);
+                    
+                } catch (Exception e) {
+                    log.error("启动流式请求失败", e);
+                    lease.onCancel();
+                    creditService.releaseCredit(hold);
+                    if (!isComplete.get()) {
+                        emitter.completeWithError(e);
+                    }
+                }
+            });
+            
+        } catch (Exception e) {
+            log.error("创建流式响应失败", e);
+            lease.onCancel();
+            creditService.releaseCredit(hold);
+            emitter.completeWithError(e);
+        }
+        
+        return emitter;
+    }
+    
+    /**
+     * 响应式流式聊天
+     * 端点占用和积分预留在订阅时才获取：返回的Flux若从未被订阅（异步请求未能启动、客户端在订阅前断开），
+     * 不会占用端点或锁定积分；订阅后在上游返回任何数据前被取消时，退还预留的积分而不计费
+     */
+    @Override
+    public Flux<ServerSentEvent<String>> chatStreamReactive(ChatCompletionRequest request, Long userId) {
+        // 获取模型信息，模型不存在等请求错误仍在调用线程上直接抛出
+        AiModels model = getModelById(request.getId());
+        ProviderCodec codec = providerCodecRegistry.forModel(model);
+        return Flux.defer(() -> startStreamReactive(request, userId, model, codec));
+    }
+    
+    private Flux<ServerSentEvent<String>> startStreamReactive(ChatCompletionRequest request, Long userId,
+                                                              AiModels model, ProviderCodec codec) {
+        // 从端点池选择端点，取该端点预编译的调用计划：URI、请求头和请求体静态部分
+        EndpointLease lease = modelEndpointBalancer.acquire(model);
+        ModelCallPlan plan = planFor(model, lease);
+        
+        // 预留本次对话的积分，结束时按实际费用结算
+        CreditHold hold = reserveCredit(userId, model, request, lease);
+        
+        String requestBody;
+        try {
+            requestBody = codec.encodeRequest(plan, request, true);
+        } catch (JsonProcessingException e) {
+            lease.onCancel();
+            creditService.releaseCredit(hold);
+            throw new RuntimeException("构建请求失败: " + e.getMessage());
+        }
+        
+        log.info("调用响应式流式聊天API: provider={}, endpoint={}, model={}", 
+                codec.provider(), plan.getUri(), model.getModelName());
+        
+        SseStreamSession session = new SseStreamSession(codec::decodeChunk);
+        AtomicLong tailStart = new AtomicLong();
+        AtomicBoolean upstreamStarted = new AtomicBoolean(false);
+        
+        // 上游Flux直接映射为下游事件，不经过额外线程池中转
+        return plan.getWebClient().post()
+                .uri(plan.getUri())
+                .headers(plan::applyHeaders)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+                .header(HttpHeaders.ACCEPT, "text/event-stream;charset=UTF-8")
+                .header("Accept-Charset", "UTF-8")
+                .header("Cache-Control", "no-cache")
+                .bodyValue(requestBody)
+                .retrieve()
+                .bodyToFlux(String.class)
+                .doOnNext(data -> upstreamStarted.set(true))
+                .timeout(Duration.ofSeconds(120))
+                .transform(lease::track)
+                .limitRate(streamPrefetch)
+                .concatMapIterable(session::translate)
+                .doOnError(error -> {
+                    log.error("响应式流式请求失败", error);
+                    if (session.markCompleted()) {
+                        String content = session.getFullContent();
+                        ChatCompletionUsage usage = session.getUsage();
+                        chatStreamScheduler.schedule(
+                                () -> saveStreamDataOnError(userId, model, hold, request, content, usage));
+                    }
+                })
+                .doOnComplete(() -> {
+                    // 计费和落库不再拼接在流尾，客户端收到最后一个事件后连接立即关闭
+                    if (session.markCompleted()) {
+                        tailStart.set(System.nanoTime());
+                        String content = session.getFullContent();
+                        ChatCompletionUsage usage = session.getUsage();
+                        chatStreamScheduler.schedule(
+                                () -> finishStream(userId, model, hold, request, content, usage, true));
+                    }
+                })
+                .doOnCancel(() -> {
+                    // 客户端断开或异步请求超时时由Spring MVC取消订阅，取消会一直传递到上游HTTP连接
+                    if (!session.markCompleted()) {
+                        return;
+                    }
+                    if (!upstreamStarted.get()) {
+                        // 上游尚未返回任何数据，端点占用随取消归还，预留积分直接退还
+                        log.info("响应式流在上游返回数据前被取消，退还预留积分: userId={}", userId);
+                        creditService.releaseCredit(hold);
+                        return;
+                    }
+                    onStreamCancelled(codec.provider(), "reactive", userId, model, hold, request, session.getFullContent(), session.getUsage());
+                })
+                .doFinally(signal -> {
+                    long start = tailStart.get();
+                    if (start > 0) {
+                        chatStreamMetrics.recordTail(codec.provider(), "reactive", start);
+                    }
+                });
+    }
+    
+    @Override
+    public ResponseBodyEmitter chatStreamRelay(ChatCompletionRequest request, Long userId) {
+        // 获取模型信息
+        AiModels model = getModelById(request.getId());
+        ProviderCodec codec = providerCodecRegistry.forModel(model);
+        
+        // 从端点池选择端点，取该端点预编译的调用计划：URI、请求头和请求体静态部分
+        EndpointLease lease = modelEndpointBalancer.acquire(model);
+        ModelCallPlan plan = planFor(model, lease);
+        
+        // 预留本次对话的积分，结束时按实际费用结算
+        CreditHold hold = reserveCredit(userId, model, request, lease);
+        
+        String requestBody;
+        try {
+            requestBody = codec.encodeRequest(plan, request, true);
+        } catch (JsonProcessingException e) {
+            lease.onCancel();
+            creditService.releaseCredit(hold);
+            throw new RuntimeException("构建请求失败: " + e.getMessage());
+        }
+        
+        log.info("调用透传流式聊天API: provider={}, endpoint={}, model={}", 
+                codec.provider(), plan.getUri(), model.getModelName());
+        
+        SseDeltaScanner scanner = new SseDeltaScanner();
+        
+        WebClient.RequestHeadersSpec<?> upstream = plan.getWebClient().post()
+                .uri(plan.getUri())
+                .headers(plan::applyHeaders)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+                .header(HttpHeaders.ACCEPT, "text/event-stream;charset=UTF-8")
+                .header("Accept-Charset", "UTF-8")
+                .header("Cache-Control", "no-cache")
+                .bodyValue(requestBody);
+        
+        return sseRelayService.relay(codec.provider(), upstream, scanner, lease,
+                () -> {
+                    if (scanner.markCompleted()) {
+                        finishStream(userId, model, hold, request, scanner.getFullContent(), scanner.getUsage(), true);
+                    }
+                },
+                error -> {
+                    if (scanner.markCompleted()) {
+                        saveStreamDataOnError(userId, model, hold, request, scanner.getFullContent(), scanner.getUsage());
+                    }
+                },
+                () -> {
+                    if (scanner.markCompleted()) {
+                        onStreamCancelled(codec.provider(), "relay", userId, model, hold, request, scanner.getFullContent(), scanner.getUsage());
+                    }
+                });
+    }
+    
+    /**
+     * 上游流被取消后按已收到的内容计费并保存记录
+     * 未收到 usage 时按已收到的内容估算，不会为未生成的token付费
+     */
+    private void onStreamCancelled(String provider, String mode, Long userId, AiModels model, CreditHold hold, ChatCompletionRequest request,
+                                   String content, ChatCompletionUsage usage) {
+        int receivedTokens = usage != null && usage.getCompletionTokens() != null
+                ? usage.getCompletionTokens()
+                : tokenizerRegistry.countText(model, content);
+        log.info("上游流已取消: provider={}, mode={}, 已收到token={}", provider, mode, receivedTokens);
+        chatStreamMetrics.recordCancellation(provider, mode, receivedTokens, request.getMaxTokens());
+        
+        chatStreamScheduler.schedule(() -> finishStream(userId, model, hold, request, content, usage, false));
+    }
+    
+    /**
+     * 流结束后计费并保存记录，所有流式模式共用
+     * 在有界调度器上执行，客户端连接关闭不等待此处完成
+     * 只有正常结束（completed）的回复写入响应缓存，被取消的部分内容不缓存
+     */
+    private void finishStream(Long userId, AiModels model, CreditHold hold, ChatCompletionRequest request,
+                              String content, ChatCompletionUsage usage, boolean completed) {
+        try {
+            // 构建完整的响应对象，包含收集到的内容
+            ChatCompletionResponse finalResponse = new ChatCompletionResponse();
+            ChatCompletionChoice choice = new ChatCompletionChoice();
+            ChatMessage message = new ChatMessage();
+            message.setRole("assistant");
+            message.setContent(content);
+            choice.setMessage(message);
+            finalResponse.setChoices(java.util.Arrays.asList(choice));
+            
+            ChatCompletionUsage finalUsage = usage;
+            if (finalUsage == null) {
+                // 如果没有获取到 usage，创建估算的 usage
+                finalUsage = createEstimatedUsage(model, request, finalResponse);
+                log.info("流式响应创建估算 usage: {}", finalUsage);
+            }
+            finalResponse.setUsage(finalUsage);
+            
+            chargeCreditAndSaveRecord(userId, model, hold, finalUsage, request, finalResponse);
+            if (completed) {
+                responseCache.store(model, userId, request, finalResponse);
+            }
+            log.info("流式响应数据保存完成: tokens={}", finalUsage.getTotalTokens());
+        } catch (Exception e) {
+            log.error("完成流式响应失败", e);
+        }
+    }
+    
+    /**
+     * 取得所选端点的调用计划，编译失败（如端点地址无效）时归还端点占用
+     */
+    private ModelCallPlan planFor(AiModels model, EndpointLease lease) {
+        try {
+            return modelCallPlanCache.get(model, lease.getEndpoint());
+        } catch (RuntimeException e) {
+            lease.onCancel();
+            throw e;
+        }
+    }
+    
+    private AiModels getModelById(Integer modelId) {
+        if (modelId == null) {
+            throw new RuntimeException("模型ID不能为空");
+        }
+        
+        AiModels model = aiModelRegistry.get(modelId);
+        if (model == null || !model.getIsEnabled()) {
+            throw new RuntimeException("模型 ID:" + modelId + " 不可用");
+        }
+        
+        log.info("使用模型: id={}, name={}, provider={}, endpoint={}", 
+                model.getId(), model.getModelName(), model.getProvider(), model.getApiEndpoint());
+        
+        return model;
+    }
+    
+    /**
+     * 预留本次对话的积分
+     * 按输入估算token数加最大输出token数预估费用，余额不足预估值时只预留最低费用（100个token），结束时多退少补
+     */
+    private CreditHold reserveCredit(Long userId, AiModels model, ChatCompletionRequest request) {
+        int promptTokens = tokenizerRegistry.countPrompt(model, request.getMessages());
+        int completionTokens = request.getMaxTokens() != null ? request.getMaxTokens() : holdCompletionTokens;
+        
+        BigDecimal estimated = model.getCostPer1kTokens()
+                .multiply(new BigDecimal(promptTokens + completionTokens))
+                .divide(new BigDecimal(1000), 6, java.math.RoundingMode.UP);
+        BigDecimal minRequired = model.getCostPer1kTokens().multiply(new BigDecimal("0.1")); // 至少需要100个token的费用
+        
+        return creditService.reserveCredit(userId, estimated, minRequired, "AI对话消费 - " + model.getModelName());
+    }
+    
+    /**
+     * 预留积分失败（余额不足）时归还已占用的端点
+     */
+    private CreditHold reserveCredit(Long userId, AiModels model, ChatCompletionRequest request, EndpointLease lease) {
+        try {
+            return reserveCredit(userId, model, request);
+        } catch (RuntimeException e) {
+            lease.onCancel();
+            throw e;
+        }
+    }
+    
+    /**
+     * 创建估算的 usage 信息（当 API 不返回 usage 时使用），按模型的分词器计算
+     */
+    private ChatCompletionUsage createEstimatedUsage(AiModels model, ChatCompletionRequest request,
+                                                     ChatCompletionResponse response) {
+        ChatCompletionUsage usage = new ChatCompletionUsage();
+        
+        int promptTokens = tokenizerRegistry.countPrompt(model, request.getMessages());
+        
+        // 估算输出 token 数量
+        int completionTokens = 0;
+        if (response.getChoices() != null && !response.getChoices().isEmpty()) {
+            ChatCompletionChoice choice = response.getChoices().get(0);
+            if (choice.getMessage() != null && choice.getMessage().getContent() != null) {
+                completionTokens = tokenizerRegistry.countText(model, choice.getMessage().getContent());
+            }
+        }
+        
+        usage.setPromptTokens(promptTokens);
+        usage.setCompletionTokens(completionTokens);
+        usage.setTotalTokens(promptTokens + completionTokens);
+        
+        log.info("估算 token 使用情况: tokenizer={}, prompt={}, completion={}, total={}", 
+                tokenizerRegistry.forModel(model).name(), promptTokens, completionTokens, usage.getTotalTokens());
+        
+        return usage;
+    }
+    
+    /**
+     * 安全的计费和保存记录，处理 usage 为 null 的情况
+     */
+    private void chargeCreditAndSaveRecord(Long userId, AiModels model, CreditHold hold, ChatCompletionUsage usage, 
+                                         ChatCompletionRequest request, ChatCompletionResponse response) {
+        try {
+            // 确保 usage 不为 null
+            if (usage == null) {
+                log.warn("usage 信息为 null，创建估算信息");
+                usage = createEstimatedUsage(model, request, response);
+            }
+            
+            // 计算费用，添加安全检查
+            int totalTokens = usage.getTotalTokens() != null ? usage.getTotalTokens() : 0;
+            if (totalTokens <= 0) {
+                // 如果 token 数量无效，使用最小费用
+                totalTokens = 1;
+                log.warn("token 数量无效，使用最小计费: {}", totalTokens);
+            }
+            
+            BigDecimal cost = model.getCostPer1kTokens()
+                    .multiply(new BigDecimal(totalTokens))
+                    .divide(new BigDecimal(1000), 6, java.math.RoundingMode.UP);
+            
+            // 按实际费用结算预留的积分，多退少补
+            creditService.settleCredit(hold, cost);
+            
+            // 保存对话记录（无论计费是否成功都要保存）
+            saveConversationRecord(userId, model, request, response, usage, cost);
+            
+            log.info("用户 {} 使用模型 {} 消费积分 {}, 消耗token {}", 
+                    userId, model.getModelName(), cost, totalTokens);
+            
+        } catch (Exception e) {
+            log.error("计费失败，但仍尝试保存对话记录", e);
+            // 即使计费失败，也要尝试保存对话记录（不计费）
+            try {
+                saveConversationRecord(userId, model, request, response, usage, BigDecimal.ZERO);
+            } catch (Exception saveError) {
+                log.error("保存对话记录也失败", saveError);
+            }
+        }
+    }
+    
+    private void saveConversationRecord(Long userId, AiModels model, ChatCompletionRequest request, 
+                                      ChatCompletionResponse response, ChatCompletionUsage usage, BigDecimal cost) {
+        try {
+            // 1. 使用必填的会话ID，会话归属在持久化批次中统一校验
+            Long conversationId = request.getConversationId();
+            List<Messages> messages = new ArrayList<>(2);
+            
+            // 2. 保存用户消息（只保存最新的用户消息，避免重复保存历史记录）
+            ChatMessage latestUserMessage = null;
+            for (ChatMessage message : request.getMessages()) {
+                if ("user".equals(message.getRole())) {
+                    latestUserMessage = message; // 保留最后一条用户消息
+                }
+            }
+            
+            // 只保存最新的用户消息
+            if (latestUserMessage != null) {
+                Messages userMessage = new Messages();
+                userMessage.setConversationId(conversationId);
+                userMessage.setRole(latestUserMessage.getRole());
+                userMessage.setContent(latestUserMessage.getContent());
+                userMessage.setModelId(model.getId().intValue());
+                userMessage.setTokensConsumed(0); // 用户消息不消耗 token
+                userMessage.setCreatedAt(new Date());
+                messages.add(userMessage);
+            }
+            
+            // 3. 保存AI响应
+            if (response.getChoices() != null && !response.getChoices().isEmpty()) {
+                ChatCompletionChoice choice = response.getChoices().get(0);
+                if (choice.getMessage() != null) {
+                    Messages assistantMessage = new Messages();
+                    assistantMessage.setConversationId(conversationId);
+                    assistantMessage.setRole("assistant");
+                    assistantMessage.setContent(choice.getMessage().getContent());
+                    assistantMessage.setModelId(model.getId().intValue());
+                    assistantMessage.setTokensConsumed(usage != null && usage.getTotalTokens() != null ? usage.getTotalTokens() : 0);
+                    assistantMessage.setCreatedAt(new Date());
+                    messages.add(assistantMessage);
+                }
+            }
+            
+            // 4. 交给持久化管道异步批量写库，同时更新会话的模型ID
+            messagePersistencePipeline.submit(new MessageExchange(userId, conversationId, model.getId(), messages));
+            
+            log.info("已提交对话记录: userId={}, conversationId={}, model={}, cost={}, tokens={}", 
+                    userId, conversationId, model.getModelName(), cost, 
+                    usage != null && usage.getTotalTokens() != null ? usage.getTotalTokens() : 0);
+            
+        } catch (Exception e) {
+            log.error("保存对话记录失败", e);
+            // 不抛出异常，避免影响主流程
+        }
+    }
+    
+    /**
+     * 处理并转发 SSE 流式数据
+     * 既要原样转发给前端，又要本地拼接内容用于数据库保存
+     */
+    private void handleAndForwardSseData(ProviderCodec codec, String data, SseEmitter emitter, 
+                                       AtomicReference<ChatCompletionUsage> finalUsageRef, 
+                                       StringBuffer fullContent) throws Exception {
+        // SSE 数据可能包含多行，逐行处理
+        String[] lines = data.split("\\r?\\n");
+        
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                // 空行也要转发，保持原始格式
+                emitter.send(SseEmitter.event().data(""));
+                continue;
+            }
+            
+            log.debug("处理 SSE 行: {}", line);
+            
+            String jsonData = null;
+            
+            if (line.startsWith("data: ")) {
+                // 已有 data: 前缀，提取 JSON 部分用于解析
+                jsonData = line.substring(6).trim();
+                
+                // 转发时去掉 data: 前缀，让 SseEmitter 自动添加
+                emitter.send(SseEmitter.event()
+                    .data(jsonData)
+                    .reconnectTime(0L));
+                    
+            } else if (line.startsWith("event:") || line.startsWith("id:") || line.startsWith("retry:")) {
+                // 其他 SSE 字段原样转发
+                emitter.send(SseEmitter.event().data(line));
+                log.debug("转发 SSE 元数据: {}", line);
+                continue;
+                
+            } else {
+                // 纯 JSON 数据（没有 data: 前缀），直接转发
+                jsonData = line;
+                
+                // 直接转发数据，让 SseEmitter 自动添加 data: 前缀
+                emitter.send(SseEmitter.event()
+                    .data(jsonData)
+                    .reconnectTime(0L));
+            }
+            
+            // 处理 JSON 数据用于本地解析和积累
+            if (jsonData != null) {
+                if ("[DONE]".equals(jsonData)) {
+                    log.debug("收到流结束标记，已转发，等待流正常结束");
+                    continue;
+                }
+                
+                // 解析 JSON chunk 用于本地处理
+                ChatCompletionChunk chunk = codec.decodeChunk(jsonData);
+                if (chunk != null) {
+                    // 积累内容用于数据库保存
+                    if (chunk.getChoices() != null && !chunk.getChoices().isEmpty()) {
+                        ChatCompletionChoice choice = chunk.getChoices().get(0);
+                        
+                        // 处理 delta 内容，各提供商的数据块已由编解码器转换为 OpenAI 格式
+                        if (choice.getDelta() != null && choice.getDelta().getContent() != null) {
+                            String content = choice.getDelta().getContent();
+                            fullContent.append(content);
+                            log.debug("拼接流式内容: '{}'", content);
+                        }
+                        
+                        // 检查是否是流结束标记
+                        if ("stop".equals(choice.getFinishReason())) {
+                            log.debug("收到流结束标记 (finishReason=stop)");
+                        }
+                    }
+                    
+                    // 保存最终的usage信息
+                    if (chunk.getUsage() != null) {
+                        finalUsageRef.set(chunk.getUsage());
+                        log.debug("收到 usage 信息: {}", chunk.getUsage());
+                    }
+                } else {
+                    log.warn("无法解析的 chunk 数据: {}", jsonData);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 在流式响应出错时保存已收到的数据
+     */
+    private void saveStreamDataOnError(Long userId, AiModels model, CreditHold hold, ChatCompletionRequest request, 
+                                     String content, ChatCompletionUsage usage) {
+        // 出错的流不计费，退还预留的积分
+        creditService.releaseCredit(hold);
+        
+        try {
+            if (content != null && !content.trim().isEmpty()) {
+                log.info("尝试保存部分流式响应内容到数据库");
+                
+                // 创建模拟响应对象
+                ChatCompletionResponse mockResponse = new ChatCompletionResponse();
+                ChatCompletionChoice choice = new ChatCompletionChoice();
+                ChatMessage message = new ChatMessage();
+                message.setRole("assistant");
+                message.setContent(content);
+                choice.setMessage(message);
+                mockResponse.setChoices(java.util.Arrays.asList(choice));
+                
+                // 如果没有usage，创建估算的
+                if (usage == null) {
+                    usage = createEstimatedUsage(model, request, mockResponse);
+                }
+                mockResponse.setUsage(usage);
+                
+                // 保存记录，但不计费（避免重复扣费）
+                saveConversationRecord(userId, model, request, mockResponse, usage, BigDecimal.ZERO);
+                log.info("成功保存部分流式响应内容");
+            }
+        } catch (Exception e) {
+            log.error("保存部分流式响应内容失败", e);
+        }
+    }
+    
+}
@@ -0,0 +1,108 @@
+package su.sue.aiproject.service.ai.provider;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.dto.ChatCompletionChoice;
+import su.sue.aiproject.domain.dto.ChatCompletionChunk;
+import su.sue.aiproject.domain.dto.ChatCompletionResponse;
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+import su.sue.aiproject.domain.dto.ChatMessage;
+
+import java.util.List;
+
+/**
+ * 阿里云通义千问（DashScope）编解码器
+ * 兼容模式端点（compatible-mode）返回 OpenAI 格式，按基类解码；
+ * 原生端点的响应包在 output 中：{"output":{"choices":[{"message":{...},"finish_reason":"stop"}]},
+ * "usage":{"input_tokens":..,"output_tokens":..},"request_id":".."}，旧版本为 output.text
+ * 请求体沿用调用计划的 OpenAI 格式，Qwen 模型应配置兼容模式端点
+ */
+@Component
+public class DashScopeCodec extends OpenAiCodec {
+
+    public DashScopeCodec(ObjectMapper objectMapper) {
+        super(objectMapper);
+    }
+
+    @Override
+    public String provider() {
+        return "qwen";
+    }
+
+    @Override
+    protected ChatCompletionResponse decodeResponse(JsonNode root) {
+        if (!root.has("output")) {
+            return super.decodeResponse(root);
+        }
+        ChatCompletionResponse response = new ChatCompletionResponse();
+        response.setId(text(root, "request_id"));
+        response.setObject("chat.completion");
+        response.setCreated(System.currentTimeMillis() / 1000);
+        response.setChoices(outputChoices(root.get("output"), false));
+        response.setUsage(extractUsage(root.get("usage")));
+        return response;
+    }
+
+    /**
+     * 原生端点的流式响应需开启增量输出（incremental_output），每个数据块的 message.content 为增量内容
+     */
+    @Override
+    protected ChatCompletionChunk decodeChunk(JsonNode root) {
+        if (!root.has("output")) {
+            return super.decodeChunk(root);
+        }
+        ChatCompletionChunk chunk = new ChatCompletionChunk();
+        chunk.setId(text(root, "request_id"));
+        chunk.setObject("chat.completion.chunk");
+        chunk.setCreated(System.currentTimeMillis() / 1000);
+        chunk.setChoices(outputChoices(root.get("output"), true));
+        chunk.setUsage(extractUsage(root.get("usage")));
+        return chunk;
+    }
+
+    /**
+     * 在 OpenAI 字段之外识别原生端点的 input_tokens / output_tokens
+     */
+    @Override
+    public ChatCompletionUsage extractUsage(JsonNode usage) {
+        if (usage == null || !usage.isObject()
+                || (!usage.has("input_tokens") && !usage.has("output_tokens"))) {
+            return super.extractUsage(usage);
+        }
+        ChatCompletionUsage result = new ChatCompletionUsage();
+        result.setPromptTokens(integer(usage, "input_tokens"));
+        result.setCompletionTokens(integer(usage, "output_tokens"));
+        result.setTotalTokens(integer(usage, "total_tokens"));
+        return completeTotal(result);
+    }
+
+    private List<ChatCompletionChoice> outputChoices(JsonNode output, boolean delta) {
+        if (output.has("choices")) {
+            List<ChatCompletionChoice> choices = choices(output.get("choices"), delta ? "delta" : "message", "message");
+            if (choices != null) {
+                choices.forEach(choice -> choice.setFinishReason(finishReason(choice.getFinishReason())));
+            }
+            return choices;
+        }
+        ChatMessage message = new ChatMessage();
+        message.setRole("assistant");
+        message.setContent(text(output, "text"));
+        ChatCompletionChoice choice = new ChatCompletionChoice();
+        choice.setIndex(0);
+        if (delta) {
+            choice.setDelta(message);
+        } else {
+            choice.setMessage(message);
+        }
+        choice.setFinishReason(finishReason(text(output, "finish_reason")));
+        return List.of(choice);
+    }
+
+    /**
+     * 原生端点在生成过程中返回 finish_reason="null"
+     */
+    private static String finishReason(String reason) {
+        return reason == null || "null".equals(reason) ? null : reason;
+    }
+}
@@ -0,0 +1,21 @@
+package su.sue.aiproject.service.ai.provider;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+/**
+ * DeepSeek 编解码器
+ * DeepSeek 使用 OpenAI 格式，usage 中额外的上下文缓存命中统计由基类一并提取
+ */
+@Component
+public class DeepSeekCodec extends OpenAiCodec {
+
+    public DeepSeekCodec(ObjectMapper objectMapper) {
+        super(objectMapper);
+    }
+
+    @Override
+    public String provider() {
+        return "deepseek";
+    }
+}
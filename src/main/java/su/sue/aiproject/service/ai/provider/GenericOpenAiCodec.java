@@ -0,0 +1,96 @@
+package su.sue.aiproject.service.ai.provider;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.dto.ChatCompletionChoice;
+import su.sue.aiproject.domain.dto.ChatCompletionChunk;
+import su.sue.aiproject.domain.dto.ChatCompletionResponse;
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+
+import java.util.List;
+
+/**
+ * 通用 OpenAI 兼容编解码器，也是未知提供商的默认编解码器
+ * 除标准 OpenAI 格式外，还兼容 Ollama 原生接口的 NDJSON 格式：
+ * {"model":"qwen3:latest","created_at":"...","message":{"role":"assistant","content":"询问"},"done":false}
+ * Ollama 每行的 content 是增量内容，done=true 的最后一行带 prompt_eval_count / eval_count
+ */
+@Component
+public class GenericOpenAiCodec extends OpenAiCodec {
+
+    public static final String PROVIDER = "other";
+
+    public GenericOpenAiCodec(ObjectMapper objectMapper) {
+        super(objectMapper);
+    }
+
+    @Override
+    public String provider() {
+        return PROVIDER;
+    }
+
+    @Override
+    protected ChatCompletionResponse decodeResponse(JsonNode root) {
+        if (!isOllama(root)) {
+            return super.decodeResponse(root);
+        }
+        ChatCompletionResponse response = new ChatCompletionResponse();
+        response.setId("ollama-" + System.currentTimeMillis());
+        response.setObject("chat.completion");
+        response.setCreated(System.currentTimeMillis() / 1000);
+        response.setModel(text(root, "model"));
+        response.setChoices(List.of(ollamaChoice(root, false)));
+        response.setUsage(extractUsage(root.has("usage") ? root.get("usage") : root));
+        return response;
+    }
+
+    @Override
+    protected ChatCompletionChunk decodeChunk(JsonNode root) {
+        if (!isOllama(root)) {
+            return super.decodeChunk(root);
+        }
+        ChatCompletionChunk chunk = new ChatCompletionChunk();
+        chunk.setId("ollama-" + System.currentTimeMillis());
+        chunk.setObject("chat.completion.chunk");
+        chunk.setCreated(System.currentTimeMillis() / 1000);
+        chunk.setModel(text(root, "model"));
+        chunk.setChoices(List.of(ollamaChoice(root, true)));
+        chunk.setUsage(extractUsage(root.has("usage") ? root.get("usage") : root));
+        return chunk;
+    }
+
+    /**
+     * 在 OpenAI 字段之外识别 Ollama 的 prompt_eval_count（输入）和 eval_count（输出）
+     */
+    @Override
+    public ChatCompletionUsage extractUsage(JsonNode usage) {
+        ChatCompletionUsage result = super.extractUsage(usage);
+        if (result != null || usage == null || !usage.has("eval_count")) {
+            return result;
+        }
+        result = new ChatCompletionUsage();
+        result.setPromptTokens(integer(usage, "prompt_eval_count"));
+        result.setCompletionTokens(integer(usage, "eval_count"));
+        return completeTotal(result);
+    }
+
+    private ChatCompletionChoice ollamaChoice(JsonNode root, boolean delta) {
+        ChatCompletionChoice choice = new ChatCompletionChoice();
+        choice.setIndex(0);
+        if (delta) {
+            choice.setDelta(message(root.get("message")));
+        } else {
+            choice.setMessage(message(root.get("message")));
+        }
+        if (root.path("done").asBoolean(false)) {
+            String reason = text(root, "done_reason");
+            choice.setFinishReason(reason != null ? reason : "stop");
+        }
+        return choice;
+    }
+
+    private static boolean isOllama(JsonNode root) {
+        return !root.has("choices") && (root.has("message") || root.has("done"));
+    }
+}
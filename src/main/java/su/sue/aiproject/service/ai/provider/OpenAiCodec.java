@@ -0,0 +1,163 @@
+package su.sue.aiproject.service.ai.provider;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import su.sue.aiproject.domain.dto.ChatCompletionChoice;
+import su.sue.aiproject.domain.dto.ChatCompletionChunk;
+import su.sue.aiproject.domain.dto.ChatCompletionResponse;
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+import su.sue.aiproject.domain.dto.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OpenAI ChatCompletion 格式的编解码器基类
+ * 按上游的 snake_case 字段逐个读取（finish_reason、prompt_tokens 等），
+ * 不依赖DTO的字段命名；子类只需覆盖与 OpenAI 格式不同的部分
+ */
+@Slf4j
+public abstract class OpenAiCodec implements ProviderCodec {
+
+    protected final ObjectMapper objectMapper;
+
+    protected OpenAiCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public ChatCompletionResponse decodeResponse(String body) throws JsonProcessingException {
+        return decodeResponse(objectMapper.readTree(body));
+    }
+
+    @Override
+    public ChatCompletionChunk decodeChunk(String data) {
+        try {
+            return decodeChunk(objectMapper.readTree(data));
+        } catch (Exception e) {
+            log.warn("解析chunk失败: provider={}, data={}", provider(), data, e);
+            return null;
+        }
+    }
+
+    /**
+     * 解码 OpenAI 格式的同步响应
+     */
+    protected ChatCompletionResponse decodeResponse(JsonNode root) {
+        ChatCompletionResponse response = new ChatCompletionResponse();
+        response.setId(text(root, "id"));
+        response.setObject(text(root, "object"));
+        response.setCreated(root.hasNonNull("created") ? root.get("created").asLong() : null);
+        response.setModel(text(root, "model"));
+        response.setSystemFingerprint(text(root, "system_fingerprint"));
+        response.setChoices(choices(root.get("choices"), "message"));
+        response.setUsage(extractUsage(root.get("usage")));
+        return response;
+    }
+
+    /**
+     * 解码 OpenAI 格式的流式数据块
+     */
+    protected ChatCompletionChunk decodeChunk(JsonNode root) {
+        ChatCompletionChunk chunk = new ChatCompletionChunk();
+        chunk.setId(text(root, "id"));
+        chunk.setObject(text(root, "object"));
+        chunk.setCreated(root.hasNonNull("created") ? root.get("created").asLong() : null);
+        chunk.setModel(text(root, "model"));
+        chunk.setSystemFingerprint(text(root, "system_fingerprint"));
+        chunk.setChoices(choices(root.get("choices"), "delta"));
+        chunk.setUsage(extractUsage(root.get("usage")));
+        return chunk;
+    }
+
+    @Override
+    public ChatCompletionUsage extractUsage(JsonNode usage) {
+        if (usage == null || !usage.isObject()) {
+            return null;
+        }
+        ChatCompletionUsage result = new ChatCompletionUsage();
+        result.setPromptTokens(integer(usage, "prompt_tokens"));
+        result.setCompletionTokens(integer(usage, "completion_tokens"));
+        result.setTotalTokens(integer(usage, "total_tokens"));
+        if (result.getPromptTokens() == null && result.getCompletionTokens() == null && result.getTotalTokens() == null) {
+            // 没有任何token数的 usage 按未返回处理，由调用方估算
+            return null;
+        }
+        // DeepSeek 的上下文缓存统计
+        result.setPromptCacheHitTokens(integer(usage, "prompt_cache_hit_tokens"));
+        result.setPromptCacheMissTokens(integer(usage, "prompt_cache_miss_tokens"));
+        JsonNode details = usage.get("prompt_tokens_details");
+        if (details != null && details.isObject()) {
+            ChatCompletionUsage.TokenDetails tokenDetails = new ChatCompletionUsage.TokenDetails();
+            tokenDetails.setCachedTokens(integer(details, "cached_tokens"));
+            result.setPromptTokensDetails(tokenDetails);
+        }
+        return completeTotal(result);
+    }
+
+    /**
+     * 解码 choices 数组
+     *
+     * @param messageField 消息所在字段：同步响应为 message，流式数据块为 delta
+     */
+    protected List<ChatCompletionChoice> choices(JsonNode choices, String messageField) {
+        return choices(choices, messageField, messageField);
+    }
+
+    /**
+     * 解码 choices 数组，消息从 sourceField 读取、按 messageField 写入
+     * 用于流式数据块中增量内容仍放在 message 字段的上游
+     */
+    protected List<ChatCompletionChoice> choices(JsonNode choices, String messageField, String sourceField) {
+        if (choices == null || !choices.isArray()) {
+            return null;
+        }
+        List<ChatCompletionChoice> result = new ArrayList<>(choices.size());
+        for (JsonNode node : choices) {
+            ChatCompletionChoice choice = new ChatCompletionChoice();
+            choice.setIndex(node.hasNonNull("index") ? node.get("index").asInt() : result.size());
+            ChatMessage message = message(node.get(sourceField));
+            if ("delta".equals(messageField)) {
+                choice.setDelta(message);
+            } else {
+                choice.setMessage(message);
+            }
+            choice.setFinishReason(text(node, "finish_reason"));
+            result.add(choice);
+        }
+        return result;
+    }
+
+    protected ChatMessage message(JsonNode node) {
+        if (node == null || !node.isObject()) {
+            return null;
+        }
+        ChatMessage message = new ChatMessage();
+        message.setRole(text(node, "role"));
+        message.setContent(text(node, "content"));
+        message.setName(text(node, "name"));
+        return message;
+    }
+
+    /**
+     * 上游未返回 total_tokens 时由输入和输出token数相加
+     */
+    protected static ChatCompletionUsage completeTotal(ChatCompletionUsage usage) {
+        if (usage.getTotalTokens() == null && usage.getPromptTokens() != null && usage.getCompletionTokens() != null) {
+            usage.setTotalTokens(usage.getPromptTokens() + usage.getCompletionTokens());
+        }
+        return usage;
+    }
+
+    protected static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value != null && !value.isNull() ? value.asText() : null;
+    }
+
+    protected static Integer integer(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value != null && value.canConvertToInt() ? value.asInt() : null;
+    }
+}
@@ -0,0 +1,60 @@
+package su.sue.aiproject.service.ai.provider;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import su.sue.aiproject.domain.dto.ChatCompletionChunk;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatCompletionResponse;
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+import su.sue.aiproject.service.ai.ModelCallPlan;
+
+/**
+ * 模型提供商的编解码器
+ * 统一聊天引擎只负责端点选择、计费、流式转发和落库，各提供商在线协议上的差异集中在这里：
+ * 请求编码、同步响应和流式数据块的解码、usage 提取
+ * 实现类注册为Spring Bean后由 {@link ProviderCodecRegistry} 按 {@link #provider()} 自动收集
+ */
+public interface ProviderCodec {
+
+    /**
+     * 提供商标识，对应 ai_models.provider（小写）
+     */
+    String provider();
+
+    /**
+     * 编码上游请求体，默认使用调用计划预编译的 OpenAI 格式请求体
+     *
+     * @param plan    所选端点的调用计划
+     * @param request 聊天请求
+     * @param stream  是否流式
+     * @return JSON请求体
+     */
+    default String encodeRequest(ModelCallPlan plan, ChatCompletionRequest request, boolean stream)
+            throws JsonProcessingException {
+        return plan.buildRequestBody(request, stream);
+    }
+
+    /**
+     * 解码同步响应
+     *
+     * @param body 上游响应体
+     * @return OpenAI 格式的响应
+     */
+    ChatCompletionResponse decodeResponse(String body) throws JsonProcessingException;
+
+    /**
+     * 解码一个流式数据块（已去掉 data: 前缀）
+     *
+     * @param data 数据块JSON
+     * @return OpenAI 格式的数据块，无法解析时返回 null
+     */
+    ChatCompletionChunk decodeChunk(String data);
+
+    /**
+     * 从响应或数据块的 usage 节点提取token用量
+     *
+     * @param usage usage 节点
+     * @return token用量，节点为空或不含任何token数时返回 null
+     */
+    ChatCompletionUsage extractUsage(JsonNode usage);
+}
@@ -0,0 +1,76 @@
+package su.sue.aiproject.service.ai.provider;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.AiModels;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 提供商编解码器注册表
+ * 收集所有 {@link ProviderCodec} Bean，按 ai_models.provider 查找；未知提供商使用通用OpenAI兼容编解码器
+ */
+@Component
+@Slf4j
+public class ProviderCodecRegistry {
+
+    private final Map<String, ProviderCodec> codecs = new HashMap<>();
+    private final ProviderCodec defaultCodec;
+
+    public ProviderCodecRegistry(List<ProviderCodec> codecs) {
+        for (ProviderCodec codec : codecs) {
+            ProviderCodec previous = this.codecs.put(codec.provider().toLowerCase(), codec);
+            if (previous != null) {
+                throw new IllegalStateException("提供商编解码器重复: " + codec.provider());
+            }
+        }
+        this.defaultCodec = this.codecs.get(GenericOpenAiCodec.PROVIDER);
+        if (defaultCodec == null) {
+            throw new IllegalStateException("缺少通用OpenAI兼容编解码器");
+        }
+        log.info("已注册提供商编解码器: {}", this.codecs.keySet());
+    }
+
+    /**
+     * 按提供商标识取得编解码器
+     */
+    public ProviderCodec forProvider(String provider) {
+        if (provider == null) {
+            throw new RuntimeException("模型提供商不能为空");
+        }
+        ProviderCodec codec = codecs.get(provider.toLowerCase());
+        if (codec == null) {
+            log.warn("未知提供商 '{}', 使用通用OpenAI兼容编解码器", provider);
+            return defaultCodec;
+        }
+        return codec;
+    }
+
+    /**
+     * 按模型取得编解码器，优先使用 provider 字段，为空时从模型名称推断
+     */
+    public ProviderCodec forModel(AiModels model) {
+        if (model.getProvider() != null && !model.getProvider().trim().isEmpty()) {
+            return forProvider(model.getProvider().trim());
+        }
+        log.warn("模型 {} 的provider字段为空，使用modelName推断: {}", model.getId(), model.getModelName());
+        return forModelName(model.getModelName());
+    }
+
+    /**
+     * 从模型名称推断提供商（兼容旧接口），名称中包含提供商标识时命中，如 deepseek-chat、qwen-plus
+     */
+    public ProviderCodec forModelName(String modelName) {
+        if (modelName != null) {
+            String name = modelName.toLowerCase();
+            for (Map.Entry<String, ProviderCodec> entry : codecs.entrySet()) {
+                if (!GenericOpenAiCodec.PROVIDER.equals(entry.getKey()) && name.contains(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+        }
+        throw new RuntimeException("无法从模型名称推断提供商: " + modelName);
+    }
+}
@@ -0,0 +1,88 @@
+package su.sue.aiproject.service.ai.stream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式对话监控指标
+ * 通过 /actuator/metrics 查看
+ */
+@Component
+public class ChatStreamMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public ChatStreamMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 记录流尾延迟：从上游流结束到客户端连接关闭的耗时
+     *
+     * @param provider     模型提供商
+     * @param mode         流式响应模式（emitter / reactive / relay）
+     * @param startNanos   上游流结束时的 System.nanoTime()
+     */
+    public void recordTail(String provider, String mode, long startNanos) {
+        Timer.builder("ai.chat.stream.tail")
+                .description("上游流结束到客户端连接关闭的耗时")
+                .tag("provider", provider)
+                .tag("mode", mode)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次因客户端断开、超时或出错而取消的上游流
+     *
+     * @param provider       模型提供商
+     * @param mode           流式响应模式
+     * @param receivedTokens 取消前已收到的输出token数
+     * @param maxTokens      请求的 max_tokens，未指定时无法估算节省量，只记录取消次数
+     */
+    public void recordCancellation(String provider, String mode, int receivedTokens, Integer maxTokens) {
+        Counter.builder("ai.chat.stream.cancelled")
+                .description("被取消的上游流数量")
+                .tag("provider", provider)
+                .tag("mode", mode)
+                .register(meterRegistry)
+                .increment();
+
+        DistributionSummary.builder("ai.chat.stream.cancelled.tokens.received")
+                .description("取消前已收到并计费的输出token数")
+                .baseUnit("tokens")
+                .tag("provider", provider)
+                .tag("mode", mode)
+                .register(meterRegistry)
+                .record(receivedTokens);
+
+        if (maxTokens != null && maxTokens > receivedTokens) {
+            DistributionSummary.builder("ai.chat.stream.cancelled.tokens.saved")
+                    .description("取消上游请求后估算节省的输出token数（max_tokens - 已收到）")
+                    .baseUnit("tokens")
+                    .tag("provider", provider)
+                    .tag("mode", mode)
+                    .register(meterRegistry)
+                    .record(maxTokens - receivedTokens);
+        }
+    }
+
+    /**
+     * 记录一次合并到进行中上游调用的重复请求
+     *
+     * @param mode 流式响应模式
+     */
+    public void recordCoalesced(String mode) {
+        Counter.builder("ai.chat.stream.coalesced")
+                .description("合并到进行中上游调用的重复请求数量")
+                .tag("mode", mode)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,106 @@
+package su.sue.aiproject.service.ai.stream;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 进行中的流式请求登记表（single-flight）
+ * 同一个键的请求在第一个请求的上游流结束前再次到达时（客户端重试、界面重复提交），不再发起新的上游调用，
+ * 而是作为额外的订阅者挂到同一个上游Flux上：已发出的事件重放给新订阅者，之后的事件同时推送
+ * 上游只有一次计费和落库；所有订阅者都断开后才取消上游，流结束或取消后从登记表移除
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class InFlightStreamRegistry {
+
+    private final ChatStreamMetrics chatStreamMetrics;
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * 加入键对应的进行中请求，没有时由 starter 发起上游调用
+     * starter 在调用线程上执行，限流等失败直接抛出，与未合并时的表现一致；端点占用和积分预留在上游流被订阅时才发生
+     *
+     * @param key     请求键（用户、会话、规范化请求哈希）
+     * @param starter 发起上游调用，返回尚未订阅的上游事件流
+     * @return 共享的事件流
+     */
+    public Flux<ServerSentEvent<String>> join(String key, Supplier<Flux<ServerSentEvent<String>>> starter) {
+        Flight flight = new Flight();
+        Flight existing = flights.putIfAbsent(key, flight);
+        Flux<ServerSentEvent<String>> stream;
+        if (existing != null) {
+            log.info("合并重复的进行中请求: key={}", key);
+            chatStreamMetrics.recordCoalesced("reactive");
+            stream = existing.stream();
+        } else {
+            Flux<ServerSentEvent<String>> upstream;
+            try {
+                upstream = starter.get();
+            } catch (RuntimeException e) {
+                flights.remove(key, flight);
+                flight.fail(e);
+                throw e;
+            }
+            stream = flight.start(upstream.doFinally(signal -> flights.remove(key, flight)));
+        }
+        // 订阅前上游已被取消（其他订阅者全部断开），这时作为新请求重新发起
+        return stream.onErrorResume(FlightEndedException.class, e -> Flux.defer(() -> join(key, starter)));
+    }
+
+    /**
+     * 当前进行中的请求数
+     */
+    public int size() {
+        return flights.size();
+    }
+
+    /**
+     * 一次进行中的上游调用
+     * 第一个请求发起上游前就已登记，期间到达的重复请求等待上游流就绪后再订阅
+     */
+    private static final class Flight {
+
+        private final Sinks.One<Flux<ServerSentEvent<String>>> ready = Sinks.one();
+
+        Flux<ServerSentEvent<String>> start(Flux<ServerSentEvent<String>> upstream) {
+            // 上游是冷流，重新订阅会再次发起调用并重复结算同一笔预留积分，因此只允许订阅一次
+            AtomicBoolean subscribed = new AtomicBoolean(false);
+            Flux<ServerSentEvent<String>> shared = Flux.defer(() -> subscribed.compareAndSet(false, true)
+                            ? upstream
+                            : Flux.<ServerSentEvent<String>>error(new FlightEndedException()))
+                    .replay()
+                    .refCount();
+            ready.tryEmitValue(shared);
+            return shared;
+        }
+
+        void fail(Throwable error) {
+            ready.tryEmitError(error);
+        }
+
+        Flux<ServerSentEvent<String>> stream() {
+            return ready.asMono().flatMapMany(Function.identity());
+        }
+    }
+
+    /**
+     * 共享的上游流已经结束，无法再订阅
+     */
+    private static final class FlightEndedException extends RuntimeException {
+
+        FlightEndedException() {
+            super("进行中的请求已结束", null, false, false);
+        }
+    }
+}
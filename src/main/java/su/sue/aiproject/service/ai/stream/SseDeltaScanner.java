@@ -0,0 +1,306 @@
+package su.sue.aiproject.service.ai.stream;
+
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * SSE增量扫描器
+ * 直接在帧的字节上查找 delta.content 和 usage，不构建字符串也不做完整的JSON反序列化
+ * 只用于本地拼接内容和计费，转发给客户端的字节不经过这里的任何改写
+ * 同一个实例只能被一个线程串行调用
+ */
+public class SseDeltaScanner implements StreamAccumulator {
+
+    private static final byte[] DATA = bytes("data:");
+    private static final byte[] DONE = bytes("[DONE]");
+    private static final byte[] KEY_DELTA = bytes("\"delta\"");
+    private static final byte[] KEY_MESSAGE = bytes("\"message\"");
+    private static final byte[] KEY_CONTENT = bytes("\"content\"");
+    private static final byte[] KEY_USAGE = bytes("\"usage\"");
+    private static final byte[] KEY_PROMPT_TOKENS = bytes("\"prompt_tokens\"");
+    private static final byte[] KEY_COMPLETION_TOKENS = bytes("\"completion_tokens\"");
+    private static final byte[] KEY_TOTAL_TOKENS = bytes("\"total_tokens\"");
+
+    private final StringBuilder fullContent = new StringBuilder();
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private volatile ChatCompletionUsage usage;
+    private long framesScanned = 0;
+
+    /**
+     * 扫描一个完整的SSE帧
+     */
+    public void scan(byte[] frame) {
+        scan(frame, 0, frame.length);
+    }
+
+    /**
+     * 扫描帧的指定区间，帧内可能包含多行
+     */
+    public void scan(byte[] buf, int from, int to) {
+        framesScanned++;
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = indexOf(buf, (byte) '\n', lineStart, to);
+            if (lineEnd < 0) {
+                lineEnd = to;
+            }
+            scanLine(buf, lineStart, trimEnd(buf, lineStart, lineEnd));
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private void scanLine(byte[] buf, int from, int to) {
+        int pos = skipWhitespace(buf, from, to);
+        if (startsWith(buf, pos, to, DATA)) {
+            pos = skipWhitespace(buf, pos + DATA.length, to);
+        }
+        if (pos >= to || startsWith(buf, pos, to, DONE) || buf[pos] != '{') {
+            // 空行、结束标记或 event:/id:/retry: 等字段不参与累积
+            return;
+        }
+
+        int deltaObject = findObjectValue(buf, pos, to, KEY_DELTA);
+        if (deltaObject < 0) {
+            // 非流式格式或Ollama原生格式使用 message 字段
+            deltaObject = findObjectValue(buf, pos, to, KEY_MESSAGE);
+        }
+        if (deltaObject >= 0) {
+            int deltaEnd = matchBrace(buf, deltaObject, to);
+            int content = findValue(buf, deltaObject, deltaEnd, KEY_CONTENT);
+            if (content >= 0 && buf[content] == '"') {
+                decodeString(buf, content, deltaEnd, fullContent);
+            }
+        }
+
+        int usageObject = findObjectValue(buf, pos, to, KEY_USAGE);
+        if (usageObject >= 0) {
+            int usageEnd = matchBrace(buf, usageObject, to);
+            ChatCompletionUsage parsed = new ChatCompletionUsage();
+            parsed.setPromptTokens(readInt(buf, usageObject, usageEnd, KEY_PROMPT_TOKENS));
+            parsed.setCompletionTokens(readInt(buf, usageObject, usageEnd, KEY_COMPLETION_TOKENS));
+            parsed.setTotalTokens(readInt(buf, usageObject, usageEnd, KEY_TOTAL_TOKENS));
+            if (parsed.getTotalTokens() != null || parsed.getCompletionTokens() != null) {
+                usage = parsed;
+            }
+        }
+    }
+
+    /**
+     * 查找键对应的值的起始位置（已跳过冒号和空白），找不到返回-1
+     */
+    static int findValue(byte[] buf, int from, int to, byte[] key) {
+        int pos = from;
+        while (true) {
+            int hit = indexOf(buf, key, pos, to);
+            if (hit < 0) {
+                return -1;
+            }
+            int after = skipWhitespace(buf, hit + key.length, to);
+            // 被转义的引号说明命中的是字符串内容而不是键
+            boolean escaped = hit > from && buf[hit - 1] == '\\';
+            if (!escaped && after < to && buf[after] == ':') {
+                int value = skipWhitespace(buf, after + 1, to);
+                return value < to ? value : -1;
+            }
+            pos = hit + 1;
+        }
+    }
+
+    /**
+     * 查找值为对象的键，返回左花括号的位置，值为null或其他类型时返回-1
+     */
+    private static int findObjectValue(byte[] buf, int from, int to, byte[] key) {
+        int value = findValue(buf, from, to, key);
+        return value >= 0 && buf[value] == '{' ? value : -1;
+    }
+
+    /**
+     * 找到与左花括号匹配的右花括号之后的位置，跳过字符串内的括号
+     */
+    static int matchBrace(byte[] buf, int open, int to) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = open; i < to; i++) {
+            byte b = buf[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{') {
+                depth++;
+            } else if (b == '}') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        return to;
+    }
+
+    /**
+     * 解码JSON字符串并追加到目标，quote指向左引号
+     */
+    static void decodeString(byte[] buf, int quote, int to, StringBuilder out) {
+        int i = quote + 1;
+        while (i < to) {
+            int b = buf[i] & 0xFF;
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                if (i + 1 >= to) {
+                    return;
+                }
+                byte esc = buf[i + 1];
+                switch (esc) {
+                    case 'n' -> out.append('\n');
+                    case 'r' -> out.append('\r');
+                    case 't' -> out.append('\t');
+                    case 'b' -> out.append('\b');
+                    case 'f' -> out.append('\f');
+                    case 'u' -> {
+                        if (i + 5 >= to) {
+                            return;
+                        }
+                        out.append((char) parseHex(buf, i + 2));
+                        i += 4;
+                    }
+                    default -> out.append((char) esc);
+                }
+                i += 2;
+            } else if (b < 0x80) {
+                out.append((char) b);
+                i++;
+            } else {
+                // 手工解码UTF-8多字节序列，避免为每个片段创建临时String
+                int length;
+                int codePoint;
+                if (b >= 0xF0) {
+                    length = 4;
+                    codePoint = b & 0x07;
+                } else if (b >= 0xE0) {
+                    length = 3;
+                    codePoint = b & 0x0F;
+                } else if (b >= 0xC0) {
+                    length = 2;
+                    codePoint = b & 0x1F;
+                } else {
+                    out.append('\uFFFD');
+                    i++;
+                    continue;
+                }
+                if (i + length > to) {
+                    return;
+                }
+                for (int k = 1; k < length; k++) {
+                    codePoint = (codePoint << 6) | (buf[i + k] & 0x3F);
+                }
+                out.appendCodePoint(codePoint);
+                i += length;
+            }
+        }
+    }
+
+    private static Integer readInt(byte[] buf, int from, int to, byte[] key) {
+        int pos = findValue(buf, from, to, key);
+        if (pos < 0 || buf[pos] < '0' || buf[pos] > '9') {
+            return null;
+        }
+        int value = 0;
+        while (pos < to && buf[pos] >= '0' && buf[pos] <= '9') {
+            value = value * 10 + (buf[pos] - '0');
+            pos++;
+        }
+        return value;
+    }
+
+    private static int parseHex(byte[] buf, int from) {
+        int value = 0;
+        for (int i = from; i < from + 4; i++) {
+            value = (value << 4) | Character.digit(buf[i], 16);
+        }
+        return value;
+    }
+
+    private static int indexOf(byte[] buf, byte target, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] buf, byte[] target, int from, int to) {
+        int last = to - target.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int k = 0; k < target.length; k++) {
+                if (buf[i + k] != target[k]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] buf, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length; k++) {
+            if (buf[from + k] != prefix[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(byte[] buf, int from, int to) {
+        while (from < to && (buf[from] == ' ' || buf[from] == '\t' || buf[from] == '\r' || buf[from] == '\n')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] buf, int from, int to) {
+        while (to > from && (buf[to - 1] == '\r' || buf[to - 1] == ' ')) {
+            to--;
+        }
+        return to;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 已扫描的帧数量
+     */
+    public long getFramesScanned() {
+        return framesScanned;
+    }
+
+    @Override
+    public boolean markCompleted() {
+        return completed.compareAndSet(false, true);
+    }
+
+    @Override
+    public String getFullContent() {
+        return fullContent.toString();
+    }
+
+    @Override
+    public ChatCompletionUsage getUsage() {
+        return usage;
+    }
+}
@@ -0,0 +1,153 @@
+package su.sue.aiproject.service.ai.stream;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SSE帧切分器
+ * 把上游任意切分的DataBuffer重新拼接成完整的SSE帧（以空行结尾），帧内字节原样保留
+ * 上游为NDJSON（如Ollama原生接口）时按行切分，并包装为 data: 帧
+ */
+public class SseFrameSplitter {
+
+    private static final byte[] DATA_PREFIX = "data: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FRAME_END = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final boolean ndjson;
+    private byte[] pending = new byte[4096];
+    private int pendingLength = 0;
+    private int scanFrom = 0;
+
+    public SseFrameSplitter(boolean ndjson) {
+        this.ndjson = ndjson;
+    }
+
+    /**
+     * 追加一个上游数据块，返回其中已完整的帧
+     * 数据块在拷贝后立即释放
+     */
+    public List<byte[]> append(DataBuffer buffer) {
+        try {
+            int readable = buffer.readableByteCount();
+            ensureCapacity(pendingLength + readable);
+            buffer.read(pending, pendingLength, readable);
+            pendingLength += readable;
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+        return extractFrames();
+    }
+
+    /**
+     * 追加一段字节，返回其中已完整的帧
+     */
+    public List<byte[]> append(byte[] bytes, int offset, int length) {
+        ensureCapacity(pendingLength + length);
+        System.arraycopy(bytes, offset, pending, pendingLength, length);
+        pendingLength += length;
+        return extractFrames();
+    }
+
+    /**
+     * 上游结束时取出剩余未以空行结尾的数据
+     */
+    public List<byte[]> drain() {
+        if (pendingLength == 0) {
+            return Collections.emptyList();
+        }
+        byte[] rest = ndjson ? wrapLine(0, pendingLength) : Arrays.copyOf(pending, pendingLength);
+        pendingLength = 0;
+        scanFrom = 0;
+        return isBlank(rest) ? Collections.emptyList() : Collections.singletonList(rest);
+    }
+
+    private List<byte[]> extractFrames() {
+        List<byte[]> frames = null;
+        int frameStart = 0;
+        int i = Math.max(scanFrom, 0);
+
+        while (i < pendingLength) {
+            if (pending[i] != '\n') {
+                i++;
+                continue;
+            }
+
+            int frameEnd = -1;
+            if (ndjson) {
+                frameEnd = i + 1;
+            } else if (i + 1 < pendingLength && pending[i + 1] == '\n') {
+                frameEnd = i + 2;
+            } else if (i + 2 < pendingLength && pending[i + 1] == '\r' && pending[i + 2] == '\n') {
+                frameEnd = i + 3;
+            } else if (i + 2 >= pendingLength) {
+                // 可能是被切断的帧结束符，等待更多数据
+                break;
+            }
+
+            if (frameEnd > 0) {
+                if (frames == null) {
+                    frames = new ArrayList<>(2);
+                }
+                byte[] frame = ndjson
+                        ? wrapLine(frameStart, frameEnd)
+                        : Arrays.copyOfRange(pending, frameStart, frameEnd);
+                if (!isBlank(frame)) {
+                    frames.add(frame);
+                }
+                frameStart = frameEnd;
+                i = frameEnd;
+            } else {
+                i++;
+            }
+        }
+
+        // 压缩缓冲区，只保留不完整的帧
+        if (frameStart > 0) {
+            System.arraycopy(pending, frameStart, pending, 0, pendingLength - frameStart);
+            pendingLength -= frameStart;
+            i -= frameStart;
+        }
+        scanFrom = i;
+
+        return frames == null ? Collections.emptyList() : frames;
+    }
+
+    /**
+     * 把一行NDJSON包装为SSE帧
+     */
+    private byte[] wrapLine(int start, int end) {
+        int length = end - start;
+        while (length > 0 && (pending[start + length - 1] == '\n' || pending[start + length - 1] == '\r')) {
+            length--;
+        }
+        if (length == 0) {
+            return new byte[0];
+        }
+        byte[] frame = new byte[DATA_PREFIX.length + length + FRAME_END.length];
+        System.arraycopy(DATA_PREFIX, 0, frame, 0, DATA_PREFIX.length);
+        System.arraycopy(pending, start, frame, DATA_PREFIX.length, length);
+        System.arraycopy(FRAME_END, 0, frame, DATA_PREFIX.length + length, FRAME_END.length);
+        return frame;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(required, pending.length * 2));
+        }
+    }
+
+    private static boolean isBlank(byte[] frame) {
+        for (byte b : frame) {
+            if (b != '\n' && b != '\r' && b != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+package su.sue.aiproject.service.ai.stream;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import su.sue.aiproject.service.ai.EndpointLease;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * SSE字节透传服务
+ * 上游SSE帧按原始字节直接写给客户端，不经过String解码、正则切分和JSON反序列化
+ * 内容拼接和usage统计由 {@link SseDeltaScanner} 在同一份字节上增量完成
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SseRelayService {
+
+    private static final long EMITTER_TIMEOUT_MS = 300000L;
+
+    private final Scheduler chatStreamScheduler;
+    private final ChatStreamMetrics chatStreamMetrics;
+
+    /**
+     * 每次向上游请求的数据块数量（背压）
+     */
+    @Value("${app.chat.stream.prefetch:32}")
+    private int streamPrefetch;
+
+    /**
+     * 透传上游流式响应
+     *
+     * @param provider   模型提供商，用于监控指标
+     * @param upstream   已配置好URI、请求头和请求体的上游请求
+     * @param scanner    增量扫描器，用于本地拼接内容和usage
+     * @param lease      上游端点的占用，随上游结束、失败或取消归还
+     * @param onComplete 上游正常结束后的回调（计费、落库），在客户端连接关闭后于调度器线程执行
+     * @param onError    上游出错时的回调（保存部分数据），在客户端连接关闭后执行
+     * @param onCancel   客户端断开、超时或写出失败导致上游被取消时的回调（按已收到的内容计费）
+     * @return 写出原始SSE字节的响应体发射器
+     */
+    public ResponseBodyEmitter relay(String provider,
+                                     WebClient.RequestHeadersSpec<?> upstream,
+                                     SseDeltaScanner scanner,
+                                     EndpointLease lease,
+                                     Runnable onComplete,
+                                     Consumer<Throwable> onError,
+                                     Runnable onCancel) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(EMITTER_TIMEOUT_MS);
+        Disposable.Swap subscription = Disposables.swap();
+        AtomicBoolean terminated = new AtomicBoolean(false);
+
+        // 客户端断开、超时或写出失败时取消上游HTTP请求，不再为无人接收的token付费
+        Runnable cancelUpstream = () -> {
+            if (terminated.compareAndSet(false, true)) {
+                subscription.dispose();
+                onCancel.run();
+            }
+        };
+        emitter.onCompletion(cancelUpstream);
+        emitter.onTimeout(() -> {
+            log.warn("SSE透传超时");
+            cancelUpstream.run();
+            emitter.complete();
+        });
+        emitter.onError(error -> {
+            log.warn("SSE透传连接错误: {}", error.getMessage());
+            cancelUpstream.run();
+        });
+
+        Disposable disposable = lease.track(frames(upstream))
+                .publishOn(chatStreamScheduler, streamPrefetch)
+                .subscribe(
+                        frame -> {
+                            if (terminated.get()) {
+                                return;
+                            }
+                            try {
+                                emitter.send(frame, MediaType.TEXT_EVENT_STREAM);
+                            } catch (IOException e) {
+                                log.warn("客户端连接已断开，取消上游请求: {}", e.getMessage());
+                                cancelUpstream.run();
+                                return;
+                            }
+                            scanner.scan(frame);
+                        },
+                        error -> {
+                            if (!terminated.compareAndSet(false, true)) {
+                                return;
+                            }
+                            log.error("SSE透传失败", error);
+                            emitter.completeWithError(error);
+                            onError.accept(error);
+                        },
+                        () -> {
+                            if (!terminated.compareAndSet(false, true)) {
+                                return;
+                            }
+                            // 最后一帧在 send 时已刷新，先关闭连接再计费落库
+                            long tailStart = System.nanoTime();
+                            emitter.complete();
+                            chatStreamMetrics.recordTail(provider, "relay", tailStart);
+                            onComplete.run();
+                        });
+        // 取消发生在订阅之前时，Swap 会立即释放新的订阅
+        subscription.update(disposable);
+
+        return emitter;
+    }
+
+    /**
+     * 将上游响应体切分为完整的SSE帧
+     * 非 text/event-stream 的响应（如Ollama原生NDJSON）按行包装为 data: 帧
+     */
+    Flux<byte[]> frames(WebClient.RequestHeadersSpec<?> upstream) {
+        return upstream
+                .exchangeToFlux(response -> {
+                    if (response.statusCode().isError()) {
+                        return response.createException().flatMapMany(e -> Flux.<byte[]>error(e));
+                    }
+                    boolean ndjson = response.headers().contentType()
+                            .map(type -> !MediaType.TEXT_EVENT_STREAM.isCompatibleWith(type))
+                            .orElse(false);
+                    SseFrameSplitter splitter = new SseFrameSplitter(ndjson);
+                    return response.bodyToFlux(DataBuffer.class)
+                            .concatMapIterable(splitter::append)
+                            .concatWith(Flux.defer(() -> Flux.fromIterable(splitter.drain())));
+                })
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                .timeout(Duration.ofSeconds(120));
+    }
+}
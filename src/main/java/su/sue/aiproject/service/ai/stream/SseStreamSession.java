@@ -0,0 +1,117 @@
+package su.sue.aiproject.service.ai.stream;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.codec.ServerSentEvent;
+import su.sue.aiproject.domain.dto.ChatCompletionChoice;
+import su.sue.aiproject.domain.dto.ChatCompletionChunk;
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * 单次响应式流式对话的会话状态
+ * 负责把上游SSE数据转换为下游事件，同时本地拼接内容、记录usage用于计费和落库
+ * Reactor保证onNext串行调用，因此内容拼接无需额外同步
+ */
+@Slf4j
+public class SseStreamSession implements StreamAccumulator {
+
+    private final StringBuilder fullContent = new StringBuilder();
+    private final AtomicReference<ChatCompletionUsage> usageRef = new AtomicReference<>();
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private final Function<String, ChatCompletionChunk> chunkParser;
+
+    public SseStreamSession(Function<String, ChatCompletionChunk> chunkParser) {
+        this.chunkParser = chunkParser;
+    }
+
+    /**
+     * 将一段上游SSE数据转换为下游事件
+     * 与 handleAndForwardSseData 的转发规则保持一致，客户端无需任何改动
+     */
+    public List<ServerSentEvent<String>> translate(String data) {
+        if (data == null || data.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        String[] lines = data.split("\\r?\\n");
+        List<ServerSentEvent<String>> events = new ArrayList<>(lines.length);
+
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            String jsonData;
+            if (line.startsWith("data: ")) {
+                // 去掉 data: 前缀，由下游重新添加
+                jsonData = line.substring(6).trim();
+            } else if (line.startsWith("event:") || line.startsWith("id:") || line.startsWith("retry:")) {
+                // 其他 SSE 字段原样转发
+                events.add(ServerSentEvent.builder(line).build());
+                continue;
+            } else {
+                // 纯 JSON 数据（没有 data: 前缀）
+                jsonData = line;
+            }
+
+            events.add(ServerSentEvent.builder(jsonData)
+                    .retry(Duration.ZERO)
+                    .build());
+
+            if ("[DONE]".equals(jsonData)) {
+                log.debug("收到流结束标记，已转发，等待流正常结束");
+                continue;
+            }
+
+            accumulate(jsonData);
+        }
+
+        return events;
+    }
+
+    /**
+     * 解析 chunk 并积累内容和 usage
+     */
+    private void accumulate(String jsonData) {
+        ChatCompletionChunk chunk = chunkParser.apply(jsonData);
+        if (chunk == null) {
+            log.warn("无法解析的 chunk 数据: {}", jsonData);
+            return;
+        }
+
+        if (chunk.getChoices() != null && !chunk.getChoices().isEmpty()) {
+            ChatCompletionChoice choice = chunk.getChoices().get(0);
+            if (choice.getDelta() != null && choice.getDelta().getContent() != null) {
+                fullContent.append(choice.getDelta().getContent());
+            }
+        }
+
+        if (chunk.getUsage() != null) {
+            usageRef.set(chunk.getUsage());
+            log.debug("收到 usage 信息: {}", chunk.getUsage());
+        }
+    }
+
+    @Override
+    public boolean markCompleted() {
+        return completed.compareAndSet(false, true);
+    }
+
+    @Override
+    public String getFullContent() {
+        return fullContent.toString();
+    }
+
+    @Override
+    public ChatCompletionUsage getUsage() {
+        return usageRef.get();
+    }
+}
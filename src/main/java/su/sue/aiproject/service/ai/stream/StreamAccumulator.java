@@ -0,0 +1,25 @@
+package su.sue.aiproject.service.ai.stream;
+
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+
+/**
+ * 流式响应累积器
+ * 记录一次流式对话中已收到的内容和usage，供流结束后计费和落库使用
+ */
+public interface StreamAccumulator {
+
+    /**
+     * 已拼接的完整回复内容
+     */
+    String getFullContent();
+
+    /**
+     * 上游返回的usage信息，未返回时为null
+     */
+    ChatCompletionUsage getUsage();
+
+    /**
+     * 标记流已结束，只有第一次调用返回true，用于保证计费和落库只执行一次
+     */
+    boolean markCompleted();
+}
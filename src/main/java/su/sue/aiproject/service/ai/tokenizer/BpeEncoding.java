@@ -0,0 +1,72 @@
+package su.sue.aiproject.service.ai.tokenizer;
+
+import java.util.regex.Pattern;
+
+/**
+ * 支持的BPE编码
+ * 每种编码由预分词正则和词表文件（{name}.tiktoken）组成，正则与各家官方实现一致
+ */
+public enum BpeEncoding {
+
+    /**
+     * GPT-4、GPT-3.5 及大多数兼容OpenAI的开源模型的近似
+     */
+    CL100K_BASE("cl100k_base",
+            "'(?i:[sdmt]|ll|ve|re)|[^\\r\\n\\p{L}\\p{N}]?+\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]++[\\r\\n]*"
+                    + "|\\s*[\\r\\n]|\\s+(?!\\S)|\\s+"),
+
+    /**
+     * GPT-4o、o1 等新模型
+     */
+    O200K_BASE("o200k_base",
+            "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+"
+                    + "(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+                    + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*"
+                    + "(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+                    + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+"),
+
+    /**
+     * 通义千问，数字逐位切分
+     */
+    QWEN("qwen",
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*"
+                    + "|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+    private final String encodingName;
+    private final Pattern pattern;
+
+    BpeEncoding(String encodingName, String regex) {
+        this.encodingName = encodingName;
+        // \s 与官方实现一样匹配Unicode空白
+        this.pattern = Pattern.compile(regex, Pattern.UNICODE_CHARACTER_CLASS);
+    }
+
+    public String encodingName() {
+        return encodingName;
+    }
+
+    public Pattern pattern() {
+        return pattern;
+    }
+
+    /**
+     * 词表文件名
+     */
+    public String vocabFile() {
+        return encodingName + ".tiktoken";
+    }
+
+    /**
+     * 按名称查找编码
+     *
+     * @return 编码，不支持时返回 null
+     */
+    public static BpeEncoding of(String name) {
+        for (BpeEncoding encoding : values()) {
+            if (encoding.encodingName.equalsIgnoreCase(name)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+}
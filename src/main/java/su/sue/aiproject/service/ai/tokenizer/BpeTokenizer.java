@@ -0,0 +1,147 @@
+package su.sue.aiproject.service.ai.tokenizer;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 字节级BPE分词器的计数实现
+ * 先按编码的正则预分词，每个片段转为UTF-8字节；整个片段在词表中时直接计1个token，
+ * 否则从单字节开始，反复合并rank最小的相邻片段，直到没有可合并的片段（与 tiktoken 的合并顺序一致）
+ * 每个线程复用一份匹配器和缓冲区，计数过程中除超长片段扩容外不分配内存
+ */
+public final class BpeTokenizer implements TokenCounter {
+
+    private final String name;
+    private final Pattern pattern;
+    private final BpeVocabulary vocabulary;
+    private final ThreadLocal<Workspace> workspaces;
+
+    public BpeTokenizer(BpeEncoding encoding, BpeVocabulary vocabulary) {
+        this(encoding.encodingName(), encoding.pattern(), vocabulary);
+    }
+
+    public BpeTokenizer(String name, Pattern pattern, BpeVocabulary vocabulary) {
+        this.name = name;
+        this.pattern = pattern;
+        this.vocabulary = vocabulary;
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(pattern));
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        Workspace workspace = workspaces.get();
+        Matcher matcher = workspace.matcher.reset(text);
+        int tokens = 0;
+        while (matcher.find()) {
+            int length = workspace.encode(text, matcher.start(), matcher.end());
+            tokens += countPiece(workspace, length);
+        }
+        // 不持有调用方的字符串
+        matcher.reset("");
+        return tokens;
+    }
+
+    private int countPiece(Workspace workspace, int length) {
+        byte[] bytes = workspace.bytes;
+        if (length <= 1 || vocabulary.rank(bytes, 0, length) != BpeVocabulary.NO_RANK) {
+            return 1;
+        }
+        workspace.ensurePartsCapacity(length + 1);
+        int[] starts = workspace.starts;
+        int[] ranks = workspace.ranks;
+        int parts = length + 1;
+        for (int i = 0; i < parts; i++) {
+            starts[i] = i;
+            ranks[i] = i + 2 < parts ? vocabulary.rank(bytes, i, i + 2) : BpeVocabulary.NO_RANK;
+        }
+
+        while (parts > 2) {
+            int min = BpeVocabulary.NO_RANK;
+            int index = -1;
+            for (int i = 0; i < parts - 1; i++) {
+                if (ranks[i] < min) {
+                    min = ranks[i];
+                    index = i;
+                }
+            }
+            if (index < 0) {
+                break;
+            }
+            // 合并 index 和 index+1，更新受影响的两个相邻对
+            ranks[index] = index + 3 < parts ? vocabulary.rank(bytes, starts[index], starts[index + 3])
+                    : BpeVocabulary.NO_RANK;
+            if (index > 0) {
+                ranks[index - 1] = vocabulary.rank(bytes, starts[index - 1], starts[index + 2]);
+            }
+            System.arraycopy(starts, index + 2, starts, index + 1, parts - index - 2);
+            System.arraycopy(ranks, index + 2, ranks, index + 1, parts - index - 2);
+            parts--;
+        }
+        return parts - 1;
+    }
+
+    /**
+     * 单个线程的匹配器和缓冲区
+     */
+    private static final class Workspace {
+
+        final Matcher matcher;
+        byte[] bytes = new byte[256];
+        int[] starts = new int[257];
+        int[] ranks = new int[257];
+
+        Workspace(Pattern pattern) {
+            this.matcher = pattern.matcher("");
+        }
+
+        /**
+         * 把 text[from, to) 编码为UTF-8写入缓冲区，返回字节数
+         * 孤立的代理字符按 '?' 处理，与 String.getBytes 的替换行为一致
+         */
+        int encode(String text, int from, int to) {
+            if (bytes.length < (to - from) * 3) {
+                bytes = new byte[(to - from) * 3];
+            }
+            byte[] out = bytes;
+            int n = 0;
+            for (int i = from; i < to; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    out[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    out[n++] = (byte) (0xC0 | (c >> 6));
+                    out[n++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, text.charAt(++i));
+                    out[n++] = (byte) (0xF0 | (cp >> 18));
+                    out[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    out[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    out[n++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    out[n++] = '?';
+                } else {
+                    out[n++] = (byte) (0xE0 | (c >> 12));
+                    out[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    out[n++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return n;
+        }
+
+        void ensurePartsCapacity(int size) {
+            if (starts.length < size) {
+                starts = Arrays.copyOf(starts, size);
+                ranks = Arrays.copyOf(ranks, size);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package su.sue.aiproject.service.ai.tokenizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * BPE词表（合并表）
+ * 文件格式与 tiktoken 相同：每行一个 "base64编码的token字节 rank"，rank越小越先合并
+ * 所有token字节连续存放在一个数组中，按字节片段哈希查找（开放寻址），查询时不创建任何对象
+ */
+public final class BpeVocabulary {
+
+    /**
+     * 不在词表中的字节片段的rank
+     */
+    public static final int NO_RANK = Integer.MAX_VALUE;
+
+    private final byte[] data;
+    private final int[] offsets;
+    private final int[] ranks;
+    private final int[] slots;
+    private final int mask;
+
+    private BpeVocabulary(byte[] data, int[] offsets, int[] ranks, int size) {
+        this.data = data;
+        this.offsets = offsets;
+        this.ranks = ranks;
+        int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(data, offsets[i], offsets[i + 1]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * 读取 tiktoken 格式的词表文件
+     */
+    public static BpeVocabulary load(InputStream in) throws IOException {
+        Base64.Decoder decoder = Base64.getDecoder();
+        byte[] data = new byte[1 << 20];
+        int[] offsets = new int[1 << 16];
+        int[] ranks = new int[1 << 16];
+        int size = 0;
+        int length = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    throw new IOException("词表格式错误: " + line);
+                }
+                byte[] token = decoder.decode(line.substring(0, space));
+                int rank = Integer.parseInt(line.substring(space + 1).trim());
+                if (size + 2 > offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    ranks = Arrays.copyOf(ranks, ranks.length * 2);
+                }
+                if (length + token.length > data.length) {
+                    data = Arrays.copyOf(data, Math.max(data.length * 2, length + token.length));
+                }
+                System.arraycopy(token, 0, data, length, token.length);
+                offsets[size] = length;
+                ranks[size] = rank;
+                length += token.length;
+                size++;
+                offsets[size] = length;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("词表格式错误: " + e.getMessage(), e);
+        }
+        return new BpeVocabulary(Arrays.copyOf(data, length), Arrays.copyOf(offsets, size + 1),
+                Arrays.copyOf(ranks, size), size);
+    }
+
+    /**
+     * 由按rank排好序的token构建词表，rank即下标
+     */
+    public static BpeVocabulary of(List<byte[]> tokens) {
+        int total = 0;
+        for (byte[] token : tokens) {
+            total += token.length;
+        }
+        byte[] data = new byte[total];
+        int[] offsets = new int[tokens.size() + 1];
+        int[] ranks = new int[tokens.size()];
+        int length = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            byte[] token = tokens.get(i);
+            System.arraycopy(token, 0, data, length, token.length);
+            offsets[i] = length;
+            ranks[i] = i;
+            length += token.length;
+        }
+        offsets[tokens.size()] = length;
+        return new BpeVocabulary(data, offsets, ranks, tokens.size());
+    }
+
+    /**
+     * 词表大小
+     */
+    public int size() {
+        return ranks.length;
+    }
+
+    /**
+     * 查找字节片段 [from, to) 的rank
+     *
+     * @return rank，不在词表中时返回 {@link #NO_RANK}
+     */
+    public int rank(byte[] bytes, int from, int to) {
+        int slot = hash(bytes, from, to) & mask;
+        int length = to - from;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            int index = entry - 1;
+            int start = offsets[index];
+            if (offsets[index + 1] - start == length
+                    && Arrays.equals(data, start, start + length, bytes, from, to)) {
+                return ranks[index];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_RANK;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            h = (h ^ bytes[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,56 @@
+package su.sue.aiproject.service.ai.tokenizer;
+
+/**
+ * 没有词表时使用的估算计数器
+ * 按字符类别加权：中日韩字符约1个token，拉丁字母和数字约4个一个token，标点符号约2个一个token，空白不计
+ * 比按长度乘系数更接近BPE的结果，但误差仍可能达到20%，只作为缺少词表时的兜底
+ */
+public final class HeuristicTokenCounter implements TokenCounter {
+
+    public static final String NAME = "heuristic";
+
+    public static final HeuristicTokenCounter INSTANCE = new HeuristicTokenCounter();
+
+    private HeuristicTokenCounter() {
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        // 以四分之一个token为单位累计，避免浮点运算
+        int quarters = 0;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (cp < 0x80) {
+                if (Character.isLetterOrDigit(cp)) {
+                    quarters += 1;
+                } else if (!Character.isWhitespace(cp)) {
+                    quarters += 2;
+                }
+            } else if (isCjk(cp)) {
+                quarters += 4;
+            } else if (Character.isLetterOrDigit(cp)) {
+                quarters += 2;
+            } else if (!Character.isWhitespace(cp)) {
+                quarters += 3;
+            }
+        }
+        return (quarters + 3) / 4;
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
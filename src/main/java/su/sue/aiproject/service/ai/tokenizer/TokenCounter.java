@@ -0,0 +1,18 @@
+package su.sue.aiproject.service.ai.tokenizer;
+
+/**
+ * token计数器
+ * 只计算token数量，不输出token序列；实现必须是线程安全的
+ */
+public interface TokenCounter {
+
+    /**
+     * 分词器名称，对应 ai_models.tokenizer
+     */
+    String name();
+
+    /**
+     * 计算文本的token数
+     */
+    int count(String text);
+}
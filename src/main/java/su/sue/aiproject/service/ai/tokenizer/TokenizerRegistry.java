@@ -0,0 +1,208 @@
+package su.sue.aiproject.service.ai.tokenizer;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.ChatMessage;
+
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分词器注册表
+ * 按模型的 ai_models.tokenizer 选择分词器，未配置时按模型名推断；词表文件从 app.tokenizer.vocab-location 加载，
+ * 每种编码只加载一次。词表缺失或加载失败时退回 {@link HeuristicTokenCounter}
+ * 系统提示词通常在大量请求间重复，其token数按（编码, 内容）缓存
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class TokenizerRegistry {
+
+    /**
+     * 每条消息的格式开销（角色和分隔符），与OpenAI的计算方式一致
+     */
+    public static final int TOKENS_PER_MESSAGE = 4;
+
+    /**
+     * 回复前缀的开销
+     */
+    public static final int TOKENS_PER_REPLY = 3;
+
+    private final ResourceLoader resourceLoader;
+
+    private final Map<String, TokenCounter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * 词表文件所在位置，支持 classpath: 和 file: 前缀
+     */
+    @Value("${app.tokenizer.vocab-location:classpath:tokenizer/}")
+    private String vocabLocation;
+
+    /**
+     * 模型未配置分词器且无法按名称推断时使用的编码
+     */
+    @Value("${app.tokenizer.default-encoding:cl100k_base}")
+    private String defaultEncoding;
+
+    /**
+     * 系统提示词token数缓存的条目数
+     */
+    @Value("${app.tokenizer.system-prompt-cache-size:1024}")
+    private int systemPromptCacheSize;
+
+    private Map<PromptKey, Integer> systemPromptCache;
+
+    @PostConstruct
+    public void init() {
+        int maxSize = systemPromptCacheSize;
+        systemPromptCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PromptKey, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * 启动完成后预先加载所有编码的词表，避免第一个请求承担加载耗时
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        for (BpeEncoding encoding : BpeEncoding.values()) {
+            counter(encoding.encodingName());
+        }
+    }
+
+    /**
+     * 获取模型使用的分词器
+     */
+    public TokenCounter forModel(AiModels model) {
+        return counter(resolveEncoding(model));
+    }
+
+    /**
+     * 计算文本的token数
+     */
+    public int countText(AiModels model, String text) {
+        return forModel(model).count(text);
+    }
+
+    /**
+     * 计算请求消息的输入token数，包含每条消息和回复前缀的格式开销
+     */
+    public int countPrompt(AiModels model, List<ChatMessage> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return 0;
+        }
+        TokenCounter counter = forModel(model);
+        int tokens = TOKENS_PER_REPLY;
+        for (ChatMessage message : messages) {
+            tokens += countMessage(counter, message);
+        }
+        return tokens;
+    }
+
+    /**
+     * 计算单条消息的token数，包含格式开销
+     */
+    public int countMessage(AiModels model, ChatMessage message) {
+        return countMessage(forModel(model), message);
+    }
+
+    private int countMessage(TokenCounter counter, ChatMessage message) {
+        int tokens = TOKENS_PER_MESSAGE;
+        if (message.getContent() != null) {
+            tokens += "system".equals(message.getRole())
+                    ? countSystemPrompt(counter, message.getContent())
+                    : counter.count(message.getContent());
+        }
+        if (message.getName() != null) {
+            tokens += counter.count(message.getName());
+        }
+        return tokens;
+    }
+
+    /**
+     * 模型使用的编码名称
+     * 优先使用 ai_models.tokenizer；未配置时 GPT-4o/o系列 使用 o200k_base，通义千问使用 qwen，其余使用默认编码
+     */
+    String resolveEncoding(AiModels model) {
+        if (model.getTokenizer() != null && !model.getTokenizer().isBlank()) {
+            return model.getTokenizer().trim().toLowerCase(Locale.ROOT);
+        }
+        String name = model.getModelName() != null ? model.getModelName().toLowerCase(Locale.ROOT) : "";
+        String provider = model.getProvider() != null ? model.getProvider().toLowerCase(Locale.ROOT) : "";
+        if (name.startsWith("gpt-4o") || name.startsWith("gpt-4.1") || name.startsWith("gpt-5")
+                || name.matches("^o[134](-.*)?$")) {
+            return BpeEncoding.O200K_BASE.encodingName();
+        }
+        if (name.contains("qwen") || provider.equals("qwen")) {
+            return BpeEncoding.QWEN.encodingName();
+        }
+        return defaultEncoding;
+    }
+
+    private TokenCounter counter(String encodingName) {
+        return counters.computeIfAbsent(encodingName, this::load);
+    }
+
+    private TokenCounter load(String encodingName) {
+        if (HeuristicTokenCounter.NAME.equals(encodingName)) {
+            return HeuristicTokenCounter.INSTANCE;
+        }
+        BpeEncoding encoding = BpeEncoding.of(encodingName);
+        if (encoding == null) {
+            log.warn("不支持的分词器 {}，使用估算计数", encodingName);
+            return HeuristicTokenCounter.INSTANCE;
+        }
+        Resource resource = resourceLoader.getResource(vocabLocation + encoding.vocabFile());
+        if (!resource.exists()) {
+            log.warn("分词器 {} 的词表文件 {} 不存在，使用估算计数", encodingName, resource.getDescription());
+            return HeuristicTokenCounter.INSTANCE;
+        }
+        long start = System.nanoTime();
+        try (InputStream in = resource.getInputStream()) {
+            BpeVocabulary vocabulary = BpeVocabulary.load(in);
+            log.info("已加载分词器 {}：{} 个token，耗时 {}ms", encodingName, vocabulary.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+            return new BpeTokenizer(encoding, vocabulary);
+        } catch (Exception e) {
+            log.error("加载分词器 {} 失败，使用估算计数: {}", encodingName, e.getMessage(), e);
+            return HeuristicTokenCounter.INSTANCE;
+        }
+    }
+
+    private int countSystemPrompt(TokenCounter counter, String content) {
+        Map<PromptKey, Integer> cache = systemPromptCache;
+        PromptKey key = new PromptKey(counter.name(), content);
+        synchronized (cache) {
+            Integer cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        int tokens = counter.count(content);
+        synchronized (cache) {
+            cache.put(key, tokens);
+        }
+        return tokens;
+    }
+
+    /**
+     * 系统提示词缓存的键，String 自身缓存哈希值，命中时不需要重新扫描内容
+     */
+    private record PromptKey(String encoding, String content) {
+    }
+}
@@ -0,0 +1,103 @@
+package su.sue.aiproject.service.credit;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import su.sue.aiproject.domain.CreditLedger;
+import su.sue.aiproject.mapper.CreditLedgerMapper;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 超时预留的清理任务
+ * 预留在请求开始时已从余额扣除，结算或退还只记录在内存中的 CreditHold 上；
+ * 进程重启、崩溃或结算任务被丢弃后这笔预留不会再关闭，清理任务在启动时和定期退还超过 expire-ms 仍未关闭的预留
+ * 退还流水与正常结算使用同一个 event_id，迟到的结算和多个实例同时清理都只有一次生效
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CreditHoldSweeper {
+
+    private final CreditLedgerMapper creditLedgerMapper;
+    private final CreditLedgerWriter creditLedgerWriter;
+    private final TransactionTemplate transactionTemplate;
+    private final UserCreditCache userCreditCache;
+
+    /**
+     * 预留超过该时长仍未关闭时全额退还，应大于流式响应的最长时间（5分钟）
+     */
+    @Value("${app.credit.hold.expire-ms:600000}")
+    private long expireMs;
+
+    /**
+     * 每次查询的预留数
+     */
+    @Value("${app.credit.hold.sweep-batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 启动完成后立即清理上次退出前遗留的预留，日志中的结算流水已在 CreditLedgerWriter 初始化时重放
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        sweep();
+    }
+
+    @Scheduled(fixedDelayString = "${app.credit.hold.sweep-interval-ms:60000}")
+    public void sweep() {
+        try {
+            // 先写入本实例缓存的结算流水，已结算的预留不会被当作超时
+            creditLedgerWriter.flush();
+            Date before = new Date(System.currentTimeMillis() - expireMs);
+            int released = 0;
+            List<CreditLedger> holds;
+            do {
+                holds = creditLedgerMapper.findOpenHolds(before, batchSize);
+                for (CreditLedger hold : holds) {
+                    if (release(hold)) {
+                        released++;
+                    }
+                }
+            } while (holds.size() >= batchSize);
+            if (released > 0) {
+                log.warn("退还超时未关闭的预留积分 {} 笔", released);
+            }
+        } catch (Exception e) {
+            log.error("清理超时预留积分失败", e);
+        }
+    }
+
+    /**
+     * 写入退还流水并关闭预留，在同一个事务中完成
+     *
+     * @return 是否由本次清理退还；预留已被结算（关闭流水已存在）时返回 false
+     */
+    boolean release(CreditLedger hold) {
+        BigDecimal refund = hold.getAmount().negate();
+        String description = "预留超时退还" + (hold.getDescription() != null ? " - " + hold.getDescription() : "");
+        CreditLedger entry = CreditLedgerWriter.entry(CreditLedgerWriter.closeEventId(hold.getHoldId()),
+                hold.getUserId(), refund, "release", description, false);
+        entry.setHoldId(hold.getHoldId());
+
+        Boolean inserted = transactionTemplate.execute(status -> {
+            int rows = creditLedgerMapper.insertIgnoreBatch(List.of(entry));
+            creditLedgerMapper.closeHolds(List.of(hold.getHoldId()));
+            return rows > 0;
+        });
+        if (!Boolean.TRUE.equals(inserted)) {
+            return false;
+        }
+        userCreditCache.apply(hold.getUserId(), refund);
+        log.warn("用户 {} 的预留积分 {} 超时未结算，已全额退还: holdId={}, createdAt={}",
+                hold.getUserId(), refund, hold.getHoldId(), hold.getCreatedAt());
+        return true;
+    }
+}
@@ -0,0 +1,114 @@
+package su.sue.aiproject.service.credit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import su.sue.aiproject.domain.CreditLedger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 积分流水的本地预写日志
+ * 流水先追加到当前日志段（每行一条JSON），写入数据库成功后删除对应的日志段；
+ * 进程崩溃后，启动时重放剩余日志段即可找回未写入数据库的流水
+ * 日志段在轮换时才强制刷盘，相当于按写库周期批量提交
+ */
+@Slf4j
+final class CreditLedgerJournal {
+
+    private static final String PREFIX = "ledger-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+
+    private FileChannel current;
+    private Path currentPath;
+    private long sequence;
+
+    CreditLedgerJournal(Path directory, ObjectMapper objectMapper) throws IOException {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * 追加一条流水到当前日志段
+     */
+    synchronized void append(CreditLedger entry) throws IOException {
+        if (current == null) {
+            currentPath = directory.resolve(String.format("%s%d-%06d%s", PREFIX, System.currentTimeMillis(),
+                    sequence++, SUFFIX));
+            current = FileChannel.open(currentPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        ByteBuffer line = ByteBuffer.wrap((objectMapper.writeValueAsString(entry) + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            current.write(line);
+        }
+    }
+
+    /**
+     * 刷盘并关闭当前日志段，之后的流水写入新的日志段
+     *
+     * @return 被关闭的日志段，当前没有日志段时返回null
+     */
+    synchronized Path rotate() throws IOException {
+        if (current == null) {
+            return null;
+        }
+        Path rotated = currentPath;
+        try {
+            current.force(false);
+        } finally {
+            current.close();
+            current = null;
+            currentPath = null;
+        }
+        return rotated;
+    }
+
+    /**
+     * 目录中已有的日志段，按写入顺序排列
+     */
+    List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    /**
+     * 读取日志段中的流水，崩溃时写了一半的最后一行会被跳过
+     */
+    List<CreditLedger> read(Path segment) throws IOException {
+        List<CreditLedger> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(segment, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                entries.add(objectMapper.readValue(line, CreditLedger.class));
+            } catch (JsonProcessingException e) {
+                log.warn("跳过损坏的积分流水日志行: segment={}, line={}", segment.getFileName(), line);
+            }
+        }
+        return entries;
+    }
+
+    void delete(Path segment) throws IOException {
+        Files.deleteIfExists(segment);
+    }
+}
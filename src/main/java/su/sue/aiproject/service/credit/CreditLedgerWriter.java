@@ -0,0 +1,319 @@
+package su.sue.aiproject.service.credit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import su.sue.aiproject.domain.CreditLedger;
+import su.sue.aiproject.mapper.CreditLedgerMapper;
+import su.sue.aiproject.mapper.UsersMapper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 积分流水的异步写入和合并
+ * 对话计费产生的流水先写本地日志并缓存在内存中，按批写入 credit_ledger（写库不在请求路径上）；
+ * 合并任务定期把待合并的流水按用户汇总，一次UPDATE计入 users.credit_balance，
+ * 同一用户的大量并发对话不再逐条争抢 users 表的行锁
+ * 用户的实际余额 = credit_balance + 数据库中待合并的流水 + 尚未写入数据库的流水
+ * 预留流水带预留ID和关闭状态，结算/退还流水的 event_id 固定为 close:{hold_id}，
+ * 与 {@link CreditHoldSweeper} 的超时退还互斥，每笔预留只会被关闭一次
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CreditLedgerWriter {
+
+    private final CreditLedgerMapper creditLedgerMapper;
+    private final UsersMapper usersMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 本地日志目录
+     */
+    @Value("${app.credit.ledger.journal-dir:./data/credit-ledger}")
+    private String journalDir;
+
+    /**
+     * 每条INSERT语句写入的流水数
+     */
+    @Value("${app.credit.ledger.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 每次合并认领的流水数
+     */
+    @Value("${app.credit.ledger.fold-batch-size:5000}")
+    private int foldBatchSize;
+
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private List<CreditLedger> buffer = new ArrayList<>();
+    /**
+     * 尚未写入数据库的待合并变化量，按用户汇总
+     */
+    private final Map<Long, BigDecimal> unflushed = new ConcurrentHashMap<>();
+    /**
+     * 写库失败等待重试的流水及其日志段，只在 flushLock 内访问
+     */
+    private final List<CreditLedger> retry = new ArrayList<>();
+    private final List<Path> pendingSegments = new ArrayList<>();
+
+    private CreditLedgerJournal journal;
+
+    /**
+     * 启动时重放上次退出前未写入数据库的日志段，event_id 去重保证重复写入无害
+     */
+    @PostConstruct
+    public void recover() throws IOException {
+        journal = new CreditLedgerJournal(Paths.get(journalDir), objectMapper);
+        synchronized (flushLock) {
+            for (Path segment : journal.segments()) {
+                for (CreditLedger entry : journal.read(segment)) {
+                    retry.add(entry);
+                    if (entry.getStatus() == CreditLedger.STATUS_PENDING) {
+                        unflushed.merge(entry.getUserId(), entry.getAmount(), BigDecimal::add);
+                    }
+                }
+                pendingSegments.add(segment);
+            }
+        }
+        if (!pendingSegments.isEmpty()) {
+            log.info("从本地日志恢复 {} 条未写入数据库的积分流水", retry.size());
+            flush();
+        }
+    }
+
+    /**
+     * 追加一条积分流水
+     *
+     * @param userId      用户ID
+     * @param amount      积分变化量，负数为扣除
+     * @param type        变更类型
+     * @param description 变更描述
+     * @param applied     变更是否已直接写入用户余额；未写入的由合并任务计入余额
+     */
+    public void append(Long userId, BigDecimal amount, String type, String description, boolean applied) {
+        append(entry(UUID.randomUUID().toString(), userId, amount, type, description, applied), applied);
+    }
+
+    /**
+     * 追加一条预留流水，预留金额已直接从用户余额中扣除
+     *
+     * @param holdId 预留ID
+     * @param amount 积分变化量（负数）
+     */
+    public void appendReserve(String holdId, Long userId, BigDecimal amount, String description) {
+        CreditLedger entry = entry(UUID.randomUUID().toString(), userId, amount, "reserve", description, true);
+        entry.setHoldId(holdId);
+        entry.setHoldState(CreditLedger.HOLD_OPEN);
+        append(entry, true);
+    }
+
+    /**
+     * 追加一条关闭预留的流水（结算或退还），由合并任务计入余额
+     * event_id 固定为 {@link #closeEventId(String)}，与超时退还重复时写库会被忽略
+     *
+     * @param holdId 预留ID
+     * @param amount 积分变化量，正数为退还
+     * @param type   settle 或 release
+     */
+    public void appendClose(String holdId, Long userId, BigDecimal amount, String type, String description) {
+        CreditLedger entry = entry(closeEventId(holdId), userId, amount, type, description, false);
+        entry.setHoldId(holdId);
+        append(entry, false);
+    }
+
+    /**
+     * 关闭预留的流水的事件ID
+     */
+    public static String closeEventId(String holdId) {
+        return "close:" + holdId;
+    }
+
+    static CreditLedger entry(String eventId, Long userId, BigDecimal amount, String type, String description,
+                              boolean applied) {
+        CreditLedger entry = new CreditLedger();
+        entry.setEventId(eventId);
+        entry.setUserId(userId);
+        entry.setAmount(amount);
+        entry.setType(type);
+        entry.setDescription(description);
+        entry.setStatus(applied ? CreditLedger.STATUS_FOLDED : CreditLedger.STATUS_PENDING);
+        entry.setCreatedAt(new Date());
+        return entry;
+    }
+
+    private void append(CreditLedger entry, boolean applied) {
+        Long userId = entry.getUserId();
+        BigDecimal amount = entry.getAmount();
+        synchronized (lock) {
+            try {
+                journal.append(entry);
+            } catch (IOException e) {
+                // 日志写入失败时流水仍在内存中，只是进程崩溃时会丢失
+                log.error("写入积分流水日志失败: userId={}, amount={}", userId, amount, e);
+            }
+            buffer.add(entry);
+            if (!applied) {
+                unflushed.merge(userId, amount, BigDecimal::add);
+            }
+        }
+    }
+
+    /**
+     * 用户尚未写入数据库的待合并变化量
+     */
+    public BigDecimal unflushedDelta(Long userId) {
+        return unflushed.getOrDefault(userId, BigDecimal.ZERO);
+    }
+
+    /**
+     * 把缓存的流水批量写入数据库，成功后删除对应的日志段
+     */
+    @Scheduled(fixedDelayString = "${app.credit.ledger.flush-interval-ms:200}")
+    public void flush() {
+        synchronized (flushLock) {
+            synchronized (lock) {
+                try {
+                    Path segment = journal.rotate();
+                    if (segment != null) {
+                        pendingSegments.add(segment);
+                    }
+                } catch (IOException e) {
+                    log.error("轮换积分流水日志失败", e);
+                }
+                retry.addAll(buffer);
+                buffer = new ArrayList<>();
+            }
+
+            if (!retry.isEmpty()) {
+                try {
+                    for (int i = 0; i < retry.size(); i += batchSize) {
+                        creditLedgerMapper.insertIgnoreBatch(retry.subList(i, Math.min(i + batchSize, retry.size())));
+                    }
+                } catch (Exception e) {
+                    log.error("写入积分流水失败，{} 条流水稍后重试", retry.size(), e);
+                    return;
+                }
+                closeHolds(retry);
+                for (CreditLedger entry : retry) {
+                    if (entry.getStatus() == CreditLedger.STATUS_PENDING) {
+                        unflushed.computeIfPresent(entry.getUserId(), (userId, delta) -> {
+                            BigDecimal rest = delta.subtract(entry.getAmount());
+                            return rest.signum() == 0 ? null : rest;
+                        });
+                    }
+                }
+                retry.clear();
+            }
+
+            for (Path segment : pendingSegments) {
+                try {
+                    journal.delete(segment);
+                } catch (IOException e) {
+                    log.warn("删除积分流水日志失败: {}", segment, e);
+                }
+            }
+            pendingSegments.clear();
+        }
+    }
+
+    /**
+     * 把本批已写库的结算/退还流水对应的预留标记为已关闭，清理任务只需检查真正未关闭的预留
+     * 失败时只记录日志，清理任务写入关闭流水时会被去重忽略
+     */
+    private void closeHolds(List<CreditLedger> entries) {
+        List<String> holdIds = new ArrayList<>();
+        for (CreditLedger entry : entries) {
+            if (entry.getHoldId() != null && entry.getHoldState() == null) {
+                holdIds.add(entry.getHoldId());
+            }
+        }
+        try {
+            for (int i = 0; i < holdIds.size(); i += batchSize) {
+                creditLedgerMapper.closeHolds(holdIds.subList(i, Math.min(i + batchSize, holdIds.size())));
+            }
+        } catch (Exception e) {
+            log.warn("标记预留已关闭失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 把待合并的流水按用户汇总计入余额，认领流水和更新余额在同一个事务中
+     */
+    @Scheduled(fixedDelayString = "${app.credit.ledger.fold-interval-ms:5000}")
+    public void fold() {
+        try {
+            int claimed;
+            do {
+                String foldId = UUID.randomUUID().toString();
+                Integer result = transactionTemplate.execute(status -> {
+                    int rows = creditLedgerMapper.claimPending(foldId, foldBatchSize);
+                    if (rows > 0) {
+                        for (CreditLedger sum : creditLedgerMapper.sumByFoldId(foldId)) {
+                            if (sum.getAmount().signum() != 0) {
+                                usersMapper.addCredit(sum.getUserId(), sum.getAmount());
+                            }
+                        }
+                    }
+                    return rows;
+                });
+                claimed = result != null ? result : 0;
+                if (claimed > 0) {
+                    log.debug("合并积分流水 {} 条", claimed);
+                }
+            } while (claimed >= foldBatchSize);
+        } catch (Exception e) {
+            log.error("合并积分流水失败", e);
+        }
+    }
+
+    /**
+     * 立即把某个用户已写库的待合并流水计入余额，认领和更新余额在同一个事务中，加锁顺序与 {@link #fold()} 一致
+     * 预留因 credit_balance 不足失败时调用，待合并的退还计入后再重试
+     *
+     * @return 是否合并了非零的变化量
+     */
+    public boolean foldUser(Long userId) {
+        String foldId = UUID.randomUUID().toString();
+        Boolean changed = transactionTemplate.execute(status -> {
+            if (creditLedgerMapper.claimPendingByUserId(foldId, userId) == 0) {
+                return false;
+            }
+            boolean applied = false;
+            for (CreditLedger sum : creditLedgerMapper.sumByFoldId(foldId)) {
+                if (sum.getAmount().signum() != 0) {
+                    usersMapper.addCredit(sum.getUserId(), sum.getAmount());
+                    applied = true;
+                }
+            }
+            return applied;
+        });
+        return Boolean.TRUE.equals(changed);
+    }
+
+    /**
+     * 停机前写入剩余流水并合并
+     */
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        fold();
+    }
+}
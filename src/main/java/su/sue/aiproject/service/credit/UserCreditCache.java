@@ -0,0 +1,150 @@
+package su.sue.aiproject.service.credit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * 用户积分余额缓存
+ * 对话前的余额预检和余额查询从这里读取，未命中时才查询数据库；
+ * 本实例内的扣除、充值、预留、结算都会同步更新缓存，管理员修改余额时失效
+ * 两种一致性模式：
+ * eventual（默认）：读取缓存，其他实例的变更在过期时间内不可见，余额不足可直接在预检时拒绝；
+ * strict：余额查询始终读数据库并刷新缓存，预检不以缓存拒绝，以多一次查询换取精确
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class UserCreditCache {
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 一致性模式：strict 或 eventual
+     */
+    @Value("${app.credit.cache.mode:eventual}")
+    private String mode;
+
+    /**
+     * 最多缓存的用户数
+     */
+    @Value("${app.credit.cache.max-size:100000}")
+    private int maxSize;
+
+    /**
+     * 缓存过期时间
+     */
+    @Value("${app.credit.cache.ttl-ms:30000}")
+    private long ttlMs;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    LongSupplier nanoClock = System::nanoTime;
+
+    /**
+     * 是否为严格一致模式
+     */
+    public boolean isStrict() {
+        return "strict".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * 读取用户余额，未命中或已过期时通过 loader 查询数据库并写入缓存
+     */
+    public BigDecimal get(Long userId, Function<Long, BigDecimal> loader) {
+        long now = nanoClock.getAsLong();
+        Entry entry = entries.get(userId);
+        if (entry != null && now - entry.expiresAt < 0) {
+            counter("hit").increment();
+            return entry.balance;
+        }
+        counter("miss").increment();
+        BigDecimal balance = loader.apply(userId);
+        put(userId, balance);
+        return balance;
+    }
+
+    /**
+     * 只读缓存，不查询数据库
+     *
+     * @return 缓存的余额，未命中或已过期时返回null
+     */
+    public BigDecimal getIfPresent(Long userId) {
+        Entry entry = entries.get(userId);
+        return entry != null && nanoClock.getAsLong() - entry.expiresAt < 0 ? entry.balance : null;
+    }
+
+    /**
+     * 写入从数据库读到的余额
+     */
+    public void put(Long userId, BigDecimal balance) {
+        if (balance == null) {
+            return;
+        }
+        entries.put(userId, new Entry(balance, nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(ttlMs)));
+        if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * 本实例内的余额变更同步到缓存，未缓存的用户不处理，过期时间不变
+     *
+     * @param delta 变化量，负数为扣除
+     */
+    public void apply(Long userId, BigDecimal delta) {
+        entries.computeIfPresent(userId, (id, entry) -> new Entry(entry.balance.add(delta), entry.expiresAt));
+    }
+
+    /**
+     * 余额被直接修改（如管理员设置余额）时失效
+     */
+    public void invalidate(Long userId) {
+        entries.remove(userId);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * 超出容量时先清理过期项，仍超出则丢弃一部分缓存项
+     */
+    private void evict() {
+        long now = nanoClock.getAsLong();
+        entries.values().removeIf(entry -> now - entry.expiresAt >= 0);
+        int excess = entries.size() - maxSize;
+        if (excess <= 0) {
+            return;
+        }
+        // 多清理10%，避免每次写入都触发清理
+        int toRemove = excess + maxSize / 10;
+        Iterator<Long> iterator = entries.keySet().iterator();
+        while (toRemove-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        log.debug("积分缓存超出容量，已清理至 {} 项", entries.size());
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("ai.credit.cache.requests")
+                .description("积分余额缓存的命中情况")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record Entry(BigDecimal balance, long expiresAt) {
+    }
+}
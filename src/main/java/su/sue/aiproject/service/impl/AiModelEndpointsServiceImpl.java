@@ -0,0 +1,35 @@
+package su.sue.aiproject.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import su.sue.aiproject.domain.AiModelEndpoints;
+import su.sue.aiproject.service.AiModelEndpointsService;
+import su.sue.aiproject.mapper.AiModelEndpointsMapper;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+* @description 针对表【ai_model_endpoints】的数据库操作Service实现
+*/
+@Service
+public class AiModelEndpointsServiceImpl extends ServiceImpl<AiModelEndpointsMapper, AiModelEndpoints>
+    implements AiModelEndpointsService{
+
+    @Override
+    public List<AiModelEndpoints> listByModelId(Integer modelId) {
+        QueryWrapper<AiModelEndpoints> queryWrapper = new QueryWrapper<>();
+        queryWrapper.eq("model_id", modelId)
+                   .orderByAsc("id");
+        return this.list(queryWrapper);
+    }
+
+    @Override
+    public List<AiModelEndpoints> listEnabled() {
+        QueryWrapper<AiModelEndpoints> queryWrapper = new QueryWrapper<>();
+        queryWrapper.eq("is_enabled", true)
+                   .orderByAsc("id");
+        return this.list(queryWrapper);
+    }
+
+}
@@ -4,17 +4,33 @@ import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import su.sue.aiproject.domain.Conversations;
 import su.sue.aiproject.domain.dto.ConversationDetailResponse;
 import su.sue.aiproject.domain.dto.ConversationListResponse;
 import su.sue.aiproject.domain.dto.ConversationSearchResponse;
+import su.sue.aiproject.domain.dto.CursorPageResponse;
 import su.sue.aiproject.domain.dto.MessageDetailResponse;
+import su.sue.aiproject.domain.dto.MessageSnippetRequest;
+import su.sue.aiproject.domain.dto.PageCursor;
 import su.sue.aiproject.mapper.ConversationsMapper;
 import su.sue.aiproject.mapper.MessagesMapper;
 import su.sue.aiproject.service.ConversationManagementService;
+import su.sue.aiproject.service.message.ConversationContextCache;
+import su.sue.aiproject.service.search.ConversationSearchIndex;
+import su.sue.aiproject.service.search.SearchHit;
+import su.sue.aiproject.service.search.SearchTokenizer;
+import su.sue.aiproject.service.search.SnippetBuilder;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * 对话管理服务实现
@@ -26,6 +42,26 @@ public class ConversationManagementServiceImpl implements ConversationManagement
 
     private final ConversationsMapper conversationsMapper;
     private final MessagesMapper messagesMapper;
+    private final ConversationSearchIndex conversationSearchIndex;
+    private final ConversationContextCache conversationContextCache;
+
+    /**
+     * 搜索结果摘要的字符数
+     */
+    @Value("${app.search.snippet.length:120}")
+    private int snippetLength;
+
+    /**
+     * 摘要中第一个命中之前保留的字符数
+     */
+    @Value("${app.search.snippet.context:30}")
+    private int snippetContext;
+
+    /**
+     * 走全文索引时补充的标题命中会话数上限
+     */
+    @Value("${app.search.title-match-limit:200}")
+    private int titleMatchLimit;
 
     @Override
     public List<ConversationListResponse> getUserConversations(Long userId) {
@@ -55,6 +91,28 @@ public class ConversationManagementServiceImpl implements ConversationManagement
         }
     }
 
+    @Override
+    public CursorPageResponse<ConversationListResponse> getUserConversationsByCursor(Long userId, String cursor,
+                                                                                   int size, boolean withTotal) {
+        log.info("游标分页获取用户对话列表, userId: {}, cursor: {}, size: {}", userId, cursor, size);
+        PageCursor position = PageCursor.decode(cursor);
+        try {
+            // 多取一条判断是否还有下一页
+            List<ConversationListResponse> records = conversationsMapper.findConversationsByUserIdAfter(userId,
+                    position != null ? position.time() : null, position != null ? position.id() : null, size + 1);
+            CursorPageResponse<ConversationListResponse> result = toCursorPage(records, size,
+                    last -> new PageCursor(last.getLastMessageTime() != null ? last.getLastMessageTime() : last.getCreatedAt(),
+                            last.getId()));
+            if (withTotal) {
+                result.setTotal(conversationsMapper.countConversationsByUserId(userId));
+            }
+            return result;
+        } catch (Exception e) {
+            log.error("游标分页获取用户对话列表失败, userId: {}, cursor: {}, size: {}", userId, cursor, size, e);
+            throw new RuntimeException("获取对话列表失败", e);
+        }
+    }
+
     @Override
     public ConversationDetailResponse getConversationDetail(Long conversationId, Long userId) {
         log.info("获取对话详情, conversationId: {}, userId: {}", conversationId, userId);
@@ -107,6 +165,35 @@ public class ConversationManagementServiceImpl implements ConversationManagement
         }
     }
 
+    @Override
+    public CursorPageResponse<MessageDetailResponse> getConversationMessagesByCursor(Long conversationId, Long userId,
+                                                                                    String cursor, int size,
+                                                                                    boolean withTotal) {
+        log.info("游标分页获取对话消息, conversationId: {}, userId: {}, cursor: {}, size: {}",
+                conversationId, userId, cursor, size);
+        PageCursor position = PageCursor.decode(cursor);
+        try {
+            ConversationDetailResponse detail = conversationsMapper.findConversationDetailById(conversationId, userId);
+            if (detail == null) {
+                log.warn("对话不存在或无权限访问, conversationId: {}, userId: {}", conversationId, userId);
+                throw new RuntimeException("对话不存在或无权限访问");
+            }
+
+            List<MessageDetailResponse> records = messagesMapper.findMessagesByConversationIdAfter(conversationId,
+                    position != null ? position.time() : null, position != null ? position.id() : null, size + 1);
+            CursorPageResponse<MessageDetailResponse> result = toCursorPage(records, size,
+                    last -> new PageCursor(last.getCreatedAt(), last.getId()));
+            if (withTotal) {
+                result.setTotal(detail.getMessageCount() != null ? detail.getMessageCount().longValue() : 0L);
+            }
+            return result;
+        } catch (Exception e) {
+            log.error("游标分页获取对话消息失败, conversationId: {}, userId: {}, cursor: {}, size: {}",
+                    conversationId, userId, cursor, size, e);
+            throw new RuntimeException("获取对话消息失败", e);
+        }
+    }
+
     @Override
     public boolean deleteConversation(Long conversationId, Long userId) {
         log.info("删除对话, conversationId: {}, userId: {}", conversationId, userId);
@@ -120,6 +207,7 @@ public class ConversationManagementServiceImpl implements ConversationManagement
             boolean success = updated > 0;
             
             if (success) {
+                conversationContextCache.evict(conversationId);
                 log.info("删除对话成功, conversationId: {}, userId: {}", conversationId, userId);
             } else {
                 log.warn("删除对话失败，对话不存在或无权限, conversationId: {}, userId: {}", conversationId, userId);
@@ -202,7 +290,8 @@ public class ConversationManagementServiceImpl implements ConversationManagement
     }
 
     @Override
-    public Page<ConversationSearchResponse> searchConversations(Long userId, String keyword, long current, long size) {
+    public Page<ConversationSearchResponse> searchConversations(Long userId, String keyword, long current, long size,
+                                                                boolean includeContent) {
         log.info("搜索用户对话, userId: {}, keyword: {}, current: {}, size: {}", userId, keyword, current, size);
         try {
             if (keyword == null || keyword.trim().isEmpty()) {
@@ -210,7 +299,22 @@ public class ConversationManagementServiceImpl implements ConversationManagement
             }
             
             Page<ConversationSearchResponse> page = new Page<>(current, size);
-            Page<ConversationSearchResponse> result = messagesMapper.searchUserConversations(page, userId, keyword.trim());
+            List<String> terms = SearchTokenizer.queryTerms(keyword.trim());
+            Page<ConversationSearchResponse> result;
+            if (conversationSearchIndex.isReady() && SearchTokenizer.isIndexable(terms)) {
+                result = searchByIndex(page, userId, keyword.trim(), terms, includeContent);
+            } else {
+                // 索引尚未建立完成，或查询只有单个汉字（索引按二元组切分），回退到数据库查询
+                result = messagesMapper.searchUserConversations(page, userId, keyword.trim());
+                for (ConversationSearchResponse row : result.getRecords()) {
+                    SnippetBuilder.Window window = SnippetBuilder.window(
+                            SnippetBuilder.find(row.getMessageContent(), keyword.trim()), snippetLength, snippetContext);
+                    fillSnippet(row, SnippetBuilder.cut(row.getMessageContent(), window), window);
+                    if (!includeContent) {
+                        row.setMessageContent(null);
+                    }
+                }
+            }
             
             log.info("搜索用户对话成功, userId: {}, keyword: {}, current: {}, size: {}, total: {}", 
                     userId, keyword, current, size, result.getTotal());
@@ -220,4 +324,79 @@ public class ConversationManagementServiceImpl implements ConversationManagement
             throw new RuntimeException("搜索对话失败", e);
         }
     }
+
+    /**
+     * 通过全文索引搜索：索引给出按 BM25 排序的消息ID和命中位置，只为当前页的消息回表读取摘要窗口
+     * 删除会话不会从索引中移除消息，分页和计数前先按未删除的会话过滤命中
+     * 索引只覆盖消息内容：标题命中而内容未命中的会话以最新一条消息补在内容命中之后，与数据库查询的结果范围一致
+     */
+    private Page<ConversationSearchResponse> searchByIndex(Page<ConversationSearchResponse> page, Long userId,
+                                                           String keyword, List<String> terms,
+                                                           boolean includeContent) {
+        List<SearchHit> hits = new ArrayList<>(conversationSearchIndex.search(userId, terms));
+        if (!hits.isEmpty()) {
+            Set<Long> activeIds = new HashSet<>(conversationsMapper.findActiveIds(userId,
+                    hits.stream().map(SearchHit::conversationId).collect(Collectors.toSet())));
+            hits.removeIf(hit -> !activeIds.contains(hit.conversationId()));
+        }
+        Set<Long> matchedConversations = hits.stream().map(SearchHit::conversationId).collect(Collectors.toSet());
+        for (ConversationSearchResponse match : conversationsMapper.findTitleMatches(userId, keyword, titleMatchLimit)) {
+            if (match.getMessageId() != null && matchedConversations.add(match.getConversationId())) {
+                hits.add(new SearchHit(match.getMessageId(), match.getConversationId(), 0, new int[0]));
+            }
+        }
+        page.setTotal(hits.size());
+        int from = (int) Math.min(hits.size(), (page.getCurrent() - 1) * page.getSize());
+        int to = (int) Math.min(hits.size(), from + page.getSize());
+        List<SearchHit> pageHits = hits.subList(from, to);
+        if (pageHits.isEmpty()) {
+            page.setRecords(List.of());
+            return page;
+        }
+
+        Map<Long, SnippetBuilder.Window> windows = new HashMap<>();
+        List<MessageSnippetRequest> snippets = new ArrayList<>(pageHits.size());
+        for (SearchHit hit : pageHits) {
+            SnippetBuilder.Window window = SnippetBuilder.window(hit.offsets(), snippetLength, snippetContext);
+            windows.put(hit.messageId(), window);
+            snippets.add(new MessageSnippetRequest(hit.messageId(), window.start(), window.length()));
+        }
+        Map<Long, ConversationSearchResponse> rows = new HashMap<>();
+        for (ConversationSearchResponse row : messagesMapper.findSearchResultsByIds(userId, snippets, includeContent)) {
+            rows.put(row.getMessageId(), row);
+        }
+        List<ConversationSearchResponse> records = new ArrayList<>(pageHits.size());
+        for (SearchHit hit : pageHits) {
+            // 过滤之后才删除的会话中的消息不返回
+            ConversationSearchResponse row = rows.get(hit.messageId());
+            if (row != null) {
+                row.setMatchScore(hit.score());
+                fillSnippet(row, row.getSnippet(), windows.get(hit.messageId()));
+                records.add(row);
+            }
+        }
+        page.setRecords(records);
+        return page;
+    }
+
+    private void fillSnippet(ConversationSearchResponse row, String snippet, SnippetBuilder.Window window) {
+        row.setSnippet(snippet);
+        row.setSnippetStart(window.start());
+        row.setHighlights(SnippetBuilder.highlights(snippet, window.highlights()));
+    }
+
+    /**
+     * 按多取的一条判断是否有下一页，并以本页最后一条记录生成游标
+     */
+    private <T> CursorPageResponse<T> toCursorPage(List<T> records, int size, Function<T, PageCursor> cursorOf) {
+        CursorPageResponse<T> page = new CursorPageResponse<>();
+        boolean hasMore = records.size() > size;
+        List<T> pageRecords = hasMore ? records.subList(0, size) : records;
+        page.setRecords(pageRecords);
+        page.setHasMore(hasMore);
+        if (hasMore) {
+            page.setNextCursor(cursorOf.apply(pageRecords.get(pageRecords.size() - 1)).encode());
+        }
+        return page;
+    }
 }
@@ -1,18 +1,27 @@
 package su.sue.aiproject.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import su.sue.aiproject.domain.Users;
+import su.sue.aiproject.mapper.CreditLedgerMapper;
+import su.sue.aiproject.mapper.UsersMapper;
+import su.sue.aiproject.service.CreditHold;
 import su.sue.aiproject.service.CreditService;
 import su.sue.aiproject.service.UsersService;
+import su.sue.aiproject.service.credit.CreditLedgerWriter;
+import su.sue.aiproject.service.credit.UserCreditCache;
 
 import java.math.BigDecimal;
+import java.util.UUID;
 
 /**
  * 积分服务实现
+ * 预留、充值等需要校验余额的变更直接写入 users.credit_balance，预留的余额条件计入待合并的流水；
+ * 对话结束时的结算和退还只追加流水，由 CreditLedgerWriter 批量写库并合并进余额
+ * 余额查询和预检从 UserCreditCache 读取，本实例内的每次变更同步更新缓存
+ * 预留流水带预留ID，进程重启或结算任务丢失后未关闭的预留由 CreditHoldSweeper 超时退还
  */
 @Service
 @RequiredArgsConstructor
@@ -20,14 +29,34 @@ import java.math.BigDecimal;
 public class CreditServiceImpl implements CreditService {
     
     private final UsersService usersService;
+    private final UsersMapper usersMapper;
+    private final CreditLedgerMapper creditLedgerMapper;
+    private final CreditLedgerWriter creditLedgerWriter;
+    private final UserCreditCache userCreditCache;
     
     @Override
     public BigDecimal getUserCredit(Long userId) {
+        if (userCreditCache.isStrict()) {
+            BigDecimal balance = loadUserCredit(userId);
+            userCreditCache.put(userId, balance);
+            return balance;
+        }
+        return userCreditCache.get(userId, this::loadUserCredit);
+    }
+    
+    private BigDecimal loadUserCredit(Long userId) {
         Users user = usersService.getById(userId);
         if (user == null) {
             throw new RuntimeException("用户不存在");
         }
-        return user.getCreditBalance() != null ? user.getCreditBalance() : BigDecimal.ZERO;
+        BigDecimal balance = user.getCreditBalance() != null ? user.getCreditBalance() : BigDecimal.ZERO;
+        
+        // 实际余额 = 已合并的余额 + 数据库中待合并的流水 + 尚未写入数据库的流水
+        BigDecimal pending = creditLedgerMapper.sumPendingByUserId(userId);
+        if (pending != null) {
+            balance = balance.add(pending);
+        }
+        return balance.add(creditLedgerWriter.unflushedDelta(userId));
     }
     
     @Override
@@ -37,24 +66,13 @@ public class CreditServiceImpl implements CreditService {
             throw new IllegalArgumentException("扣除金额必须大于0");
         }
         
-        // 检查余额
-        if (!hasEnoughCredit(userId, amount)) {
-            throw new RuntimeException("积分余额不足");
-        }
-        
-        // 扣除积分
-        UpdateWrapper<Users> updateWrapper = new UpdateWrapper<>();
-        updateWrapper.eq("id", userId)
-                    .setSql("credit_balance = credit_balance - " + amount);
-        
-        boolean success = usersService.update(updateWrapper);
-        if (!success) {
-            throw new RuntimeException("扣除积分失败");
+        // 余额检查和扣除在同一条条件UPDATE中完成，并发扣费不会透支
+        if (usersMapper.deductCreditIfEnough(userId, amount) == 0) {
+            throw new RuntimeException(usersService.getById(userId) == null ? "用户不存在" : "积分余额不足");
         }
         
+        record(userId, amount.negate(), "deduct", description, true);
         log.info("用户 {} 扣除积分 {}, 描述: {}", userId, amount, description);
-        
-        // TODO: 记录积分变更日志
     }
     
     @Override
@@ -64,18 +82,13 @@ public class CreditServiceImpl implements CreditService {
             throw new IllegalArgumentException("增加金额必须大于0");
         }
         
-        UpdateWrapper<Users> updateWrapper = new UpdateWrapper<>();
-        updateWrapper.eq("id", userId)
-                    .setSql("credit_balance = credit_balance + " + amount);
-        
-        boolean success = usersService.update(updateWrapper);
+        boolean success = usersMapper.addCredit(userId, amount) > 0;
         if (!success) {
             throw new RuntimeException("增加积分失败");
         }
         
+        record(userId, amount, "add", description, true);
         log.info("用户 {} 增加积分 {}, 描述: {}", userId, amount, description);
-        
-        // TODO: 记录积分变更日志
     }
     
     @Override
@@ -83,4 +96,118 @@ public class CreditServiceImpl implements CreditService {
         BigDecimal userCredit = getUserCredit(userId);
         return userCredit.compareTo(amount) >= 0;
     }
+    
+    @Override
+    public BigDecimal adjustCreditTo(Long userId, BigDecimal balance, String description) {
+        // 按数据库中的实际余额计算差额，不使用可能过期的缓存；之前的待合并流水照常合并，结果仍是指定的余额
+        BigDecimal delta = balance.subtract(loadUserCredit(userId));
+        if (delta.signum() != 0) {
+            creditLedgerWriter.append(userId, delta, "adjust", description, false);
+        }
+        userCreditCache.put(userId, balance);
+        log.info("用户 {} 积分调整为 {}（差额 {}）, 描述: {}", userId, balance, delta, description);
+        return delta;
+    }
+    
+    @Override
+    public CreditHold reserveCredit(Long userId, BigDecimal amount, BigDecimal minimum, String description) {
+        if (amount.signum() < 0 || minimum.signum() < 0) {
+            throw new IllegalArgumentException("预留金额不能小于0");
+        }
+        
+        // 预检：最终一致模式下按缓存的余额判断，连最低费用都不够时直接拒绝，不够预估费用时直接预留最低费用
+        BigDecimal held = amount.max(minimum);
+        BigDecimal cached = userCreditCache.isStrict() ? null : userCreditCache.getIfPresent(userId);
+        if (cached != null) {
+            if (cached.compareTo(minimum) < 0) {
+                throw new RuntimeException("积分余额不足，请充值");
+            }
+            if (cached.compareTo(held) < 0) {
+                held = minimum;
+            }
+        }
+        
+        // 不先查询余额，直接用条件UPDATE预留；credit_balance 不含待合并的流水，
+        // 不足时先把该用户已写库的待合并流水（结算退还等）计入余额再重试一次，避免误拒
+        BigDecimal reserved = tryReserve(userId, held, minimum);
+        if (reserved == null && creditLedgerWriter.foldUser(userId)) {
+            reserved = tryReserve(userId, held, minimum);
+        }
+        if (reserved == null) {
+            throw new RuntimeException("积分余额不足，请充值");
+        }
+        held = reserved;
+        
+        String holdId = UUID.randomUUID().toString();
+        creditLedgerWriter.appendReserve(holdId, userId, held.negate(), description);
+        userCreditCache.apply(userId, held.negate());
+        log.debug("用户 {} 预留积分 {}, holdId={}, 描述: {}", userId, held, holdId, description);
+        return new CreditHold(holdId, userId, held, description);
+    }
+    
+    /**
+     * 用条件UPDATE预留，先按预估金额，不够时按最低费用
+     * 余额条件计入本实例尚未写库的流水；数据库中待合并的补扣只会让条件偏宽松，与结算允许余额短暂为负一致
+     *
+     * @return 实际预留的金额，余额不足时返回 null
+     */
+    private BigDecimal tryReserve(Long userId, BigDecimal amount, BigDecimal minimum) {
+        BigDecimal pending = creditLedgerWriter.unflushedDelta(userId);
+        if (usersMapper.reserveCreditIfEnough(userId, amount, pending) > 0) {
+            return amount;
+        }
+        if (amount.compareTo(minimum) > 0 && usersMapper.reserveCreditIfEnough(userId, minimum, pending) > 0) {
+            return minimum;
+        }
+        return null;
+    }
+    
+    @Override
+    public void settleCredit(CreditHold hold, BigDecimal actualCost) {
+        if (!hold.close()) {
+            log.warn("用户 {} 的预留积分已结算或退还，忽略本次结算", hold.getUserId());
+            return;
+        }
+        
+        // 退还多预留的部分；实际费用超过预留时差额为负，即补扣（内容已交付，允许余额短暂为负）
+        // 只追加流水，不在请求路径上更新 users 行
+        BigDecimal refund = hold.getAmount().subtract(actualCost);
+        close(hold, refund, "settle");
+        if (refund.signum() < 0) {
+            log.warn("用户 {} 实际费用 {} 超过预留 {}，补扣差额", hold.getUserId(), actualCost, hold.getAmount());
+        }
+        
+        log.info("用户 {} 扣除积分 {}（预留 {}）, 描述: {}", hold.getUserId(), actualCost, hold.getAmount(),
+                hold.getDescription());
+    }
+    
+    @Override
+    public void releaseCredit(CreditHold hold) {
+        if (hold == null || !hold.close()) {
+            return;
+        }
+        
+        try {
+            close(hold, hold.getAmount(), "release");
+            log.info("用户 {} 退还预留积分 {}, 描述: {}", hold.getUserId(), hold.getAmount(), hold.getDescription());
+        } catch (Exception e) {
+            log.error("用户 {} 退还预留积分 {} 失败", hold.getUserId(), hold.getAmount(), e);
+        }
+    }
+    
+    /**
+     * 追加关闭预留的流水并同步更新余额缓存
+     */
+    private void close(CreditHold hold, BigDecimal delta, String type) {
+        creditLedgerWriter.appendClose(hold.getHoldId(), hold.getUserId(), delta, type, hold.getDescription());
+        userCreditCache.apply(hold.getUserId(), delta);
+    }
+    
+    /**
+     * 追加积分流水并同步更新余额缓存
+     */
+    private void record(Long userId, BigDecimal delta, String type, String description, boolean applied) {
+        creditLedgerWriter.append(userId, delta, type, description, applied);
+        userCreditCache.apply(userId, delta);
+    }
 }
@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -12,7 +13,9 @@ import su.sue.aiproject.domain.RegisterRequest;
 import su.sue.aiproject.domain.Users;
 import su.sue.aiproject.domain.UsersSummaryResponse;
 import su.sue.aiproject.mapper.UsersMapper;
+import su.sue.aiproject.service.CreditService;
 import su.sue.aiproject.service.UsersService;
+import su.sue.aiproject.service.credit.UserCreditCache;
 import su.sue.aiproject.security.UserPrincipal;
 
 import java.math.BigDecimal;
@@ -39,6 +42,16 @@ public class UsersServiceImpl extends ServiceImpl<UsersMapper, Users>
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private UserCreditCache userCreditCache;
+
+    /**
+     * CreditServiceImpl 依赖 UsersService，延迟注入以避免循环依赖
+     */
+    @Autowired
+    @Lazy
+    private CreditService creditService;
+
     @Override
     public UserDetails loadUserByUsername(String emailOrUsername) throws UsernameNotFoundException {
         logger.info("尝试加载用户: {}", emailOrUsername);
@@ -118,9 +131,9 @@ public class UsersServiceImpl extends ServiceImpl<UsersMapper, Users>
         try {
             Users user = getBaseMapper().selectById(userId);
             if (user != null) {
-                user.setCreditBalance(creditBalance);
-                user.setUpdatedAt(new Date());
-                return getBaseMapper().updateById(user) > 0;
+                // 不直接覆盖 credit_balance：待合并的积分流水之后仍会计入余额，改为按差额追加调整流水
+                creditService.adjustCreditTo(userId, creditBalance, "管理员调整积分");
+                return true;
             }
             return false;
         } catch (Exception e) {
@@ -132,6 +145,7 @@ public class UsersServiceImpl extends ServiceImpl<UsersMapper, Users>
     @Override
     public boolean deleteUser(Long userId) {
         try {
+            userCreditCache.invalidate(userId);
             return getBaseMapper().deleteById(userId) > 0;
         } catch (Exception e) {
             logger.error("删除用户失败: {}", e.getMessage(), e);
@@ -0,0 +1,198 @@
+package su.sue.aiproject.service.message;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.ConversationSummaries;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.mapper.ConversationSummariesMapper;
+import su.sue.aiproject.mapper.MessagesMapper;
+import su.sue.aiproject.service.ai.AiModelRegistry;
+import su.sue.aiproject.service.ai.ConversationSummarizer;
+import su.sue.aiproject.service.ai.tokenizer.TokenizerRegistry;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 长会话的滚动摘要压缩
+ * 会话中未被摘要覆盖的历史超过 trigger-tokens 时，在后台把较早的消息合并进摘要，
+ * 写入 conversation_summaries 作为新的检查点；之后组装上下文时发送 摘要 + 检查点之后的消息
+ * 每次只把上一个检查点之后新增的消息合并进已有摘要，最近的 keep-recent-messages 条保持原文
+ * 待合并的消息按摘要模型的上下文窗口分批，每批生成摘要后立即写入检查点，后面的批次失败时已完成的进度不丢失
+ * 同一会话同时只有一个压缩任务，任务队列满时丢弃，下一轮对话会再次触发
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ConversationCompactor {
+
+    private final ConversationSummariesMapper conversationSummariesMapper;
+    private final MessagesMapper messagesMapper;
+    private final ConversationSummarizer conversationSummarizer;
+    private final AiModelRegistry aiModelRegistry;
+    private final ConversationContextCache conversationContextCache;
+    private final TokenizerRegistry tokenizerRegistry;
+
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    @Value("${app.chat.compaction.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 未被摘要覆盖的历史token数超过该值时触发压缩
+     */
+    @Value("${app.chat.compaction.trigger-tokens:4000}")
+    private int triggerTokens;
+
+    /**
+     * 压缩时保持原文的最近消息数
+     */
+    @Value("${app.chat.compaction.keep-recent-messages:6}")
+    private int keepRecentMessages;
+
+    /**
+     * 单次压缩最多合并的消息数，更多的消息留给下一次压缩
+     */
+    @Value("${app.chat.compaction.max-delta-messages:200}")
+    private int maxDeltaMessages;
+
+    /**
+     * 生成摘要使用的模型ID（选择便宜的模型），0 表示使用会话当前的模型
+     */
+    @Value("${app.chat.compaction.model-id:0}")
+    private int summaryModelId;
+
+    @Value("${app.chat.compaction.threads:2}")
+    private int threads;
+
+    @Value("${app.chat.compaction.queue-capacity:100}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger sequence = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "conversation-compaction-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 未覆盖的历史超过阈值时提交后台压缩，不阻塞当前请求
+     *
+     * @param conversationId   会话ID
+     * @param uncoveredTokens  未被摘要覆盖的历史token数
+     * @param conversationModel 本次对话使用的模型，未配置摘要模型时使用
+     */
+    public void maybeCompact(Long conversationId, int uncoveredTokens, AiModels conversationModel) {
+        if (!enabled || uncoveredTokens < triggerTokens || !inFlight.add(conversationId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    compact(conversationId, conversationModel);
+                } catch (Exception e) {
+                    log.warn("压缩会话摘要失败: conversationId={}, error={}", conversationId, e.getMessage());
+                } finally {
+                    inFlight.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(conversationId);
+            log.debug("会话摘要压缩队列已满，跳过: conversationId={}", conversationId);
+        }
+    }
+
+    /**
+     * 把上一个检查点之后、最近 keep-recent-messages 条之前的消息合并进摘要
+     * 每批消息连同已有摘要不超过摘要模型的上下文窗口减去摘要的最大输出
+     *
+     * @return 最后一个新检查点，没有需要压缩的消息时返回 null
+     */
+    ConversationSummaries compact(Long conversationId, AiModels conversationModel) throws Exception {
+        ConversationSummaries previous = conversationSummariesMapper.findLatest(conversationId);
+        long afterId = previous != null ? previous.getCoveredMessageId() : 0L;
+        List<Messages> delta = messagesMapper.findMessagesAfter(conversationId, afterId,
+                maxDeltaMessages + keepRecentMessages);
+        if (delta.size() <= keepRecentMessages) {
+            return null;
+        }
+        List<Messages> covered = delta.subList(0, delta.size() - keepRecentMessages);
+
+        AiModels model = summaryModelId > 0 ? aiModelRegistry.get(summaryModelId) : null;
+        if (model == null) {
+            model = conversationModel;
+        }
+        long start = System.nanoTime();
+        String summary = previous != null ? previous.getSummary() : null;
+        ConversationSummaries checkpoint = null;
+        int batches = 0;
+        try {
+            int from = 0;
+            while (from < covered.size()) {
+                int budget = conversationSummarizer.maxInputTokens(model)
+                        - conversationSummarizer.baseTokens(model, summary);
+                int to = from;
+                int used = 0;
+                while (to < covered.size()) {
+                    int tokens = conversationSummarizer.messageTokens(model, covered.get(to));
+                    // 每批至少一条消息，单条超出预算时由摘要服务截短
+                    if (to > from && used + tokens > budget) {
+                        break;
+                    }
+                    used += tokens;
+                    to++;
+                }
+                List<Messages> batch = covered.subList(from, to);
+                summary = conversationSummarizer.summarize(model, summary, batch);
+                checkpoint = saveCheckpoint(conversationId, model, summary, batch.get(batch.size() - 1).getId());
+                batches++;
+                from = to;
+            }
+        } finally {
+            if (checkpoint != null) {
+                // 缓存中尚未写库的消息没有ID，重新加载后才能按检查点过滤
+                conversationContextCache.evict(conversationId);
+            }
+        }
+        log.info("压缩会话摘要: conversationId={}, 合并消息={}, 批次={}, 覆盖到消息ID={}, 摘要token={}, 耗时={}ms",
+                conversationId, covered.size(), batches, checkpoint.getCoveredMessageId(),
+                checkpoint.getSummaryTokens(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return checkpoint;
+    }
+
+    private ConversationSummaries saveCheckpoint(Long conversationId, AiModels model, String summary,
+                                                 Long coveredMessageId) {
+        ConversationSummaries checkpoint = new ConversationSummaries();
+        checkpoint.setConversationId(conversationId);
+        checkpoint.setSummary(summary);
+        checkpoint.setCoveredMessageId(coveredMessageId);
+        checkpoint.setSummaryTokens(tokenizerRegistry.countText(model, summary));
+        checkpoint.setModelId(model.getId());
+        checkpoint.setCreatedAt(new Date());
+        conversationSummariesMapper.insert(checkpoint);
+        return checkpoint;
+    }
+}
@@ -0,0 +1,133 @@
+package su.sue.aiproject.service.message;
+
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.service.ai.tokenizer.TokenCounter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 一个会话在内存中的上下文：归属用户、固定的系统提示词、最新的摘要检查点和最近的若干条消息
+ * 消息按从旧到新保存，超过上限时丢弃最旧的；每条消息的token数按分词器缓存，组装上下文时不必重复计算
+ */
+public final class ConversationContext {
+
+    private final Long userId;
+    private final String systemMessage;
+    private final String summary;
+    private final long summaryCoveredMessageId;
+    private final long loadedAt;
+    private final int maxMessages;
+    private final Deque<ContextMessage> messages = new ArrayDeque<>();
+
+    ConversationContext(Long userId, String systemMessage, String summary, long summaryCoveredMessageId,
+                        long loadedAt, int maxMessages) {
+        this.userId = userId;
+        this.systemMessage = systemMessage;
+        this.summary = summary;
+        this.summaryCoveredMessageId = summaryCoveredMessageId;
+        this.loadedAt = loadedAt;
+        this.maxMessages = maxMessages;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    /**
+     * 会话设置中的系统提示词，未设置时为 null
+     */
+    public String getSystemMessage() {
+        return systemMessage;
+    }
+
+    /**
+     * 最新的对话摘要，没有时为 null
+     */
+    public String getSummary() {
+        return summary;
+    }
+
+    /**
+     * 摘要覆盖到的最后一条消息ID，这之前的消息不再以原文发送
+     */
+    public long getSummaryCoveredMessageId() {
+        return summaryCoveredMessageId;
+    }
+
+    long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * 追加新保存的消息
+     */
+    synchronized void append(List<Messages> added) {
+        for (Messages message : added) {
+            if (message.getContent() == null) {
+                continue;
+            }
+            messages.addLast(new ContextMessage(message.getId(), message.getRole(), message.getContent()));
+            if (messages.size() > maxMessages) {
+                messages.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * 当前消息的快照，从旧到新
+     */
+    public synchronized List<ContextMessage> snapshot() {
+        return new ArrayList<>(messages);
+    }
+
+    /**
+     * 上下文中的一条历史消息
+     */
+    public static final class ContextMessage {
+
+        private final Long id;
+        private final String role;
+        private final String content;
+        private volatile TokenCount tokenCount;
+
+        ContextMessage(Long id, String role, String content) {
+            this.id = id;
+            this.role = role;
+            this.content = content;
+        }
+
+        /**
+         * 消息ID，刚提交、尚未写库的消息为 null
+         */
+        public Long getId() {
+            return id;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        /**
+         * 内容的token数，同一分词器只计算一次
+         */
+        public int tokens(TokenCounter counter) {
+            TokenCount cached = tokenCount;
+            if (cached != null && cached.tokenizer().equals(counter.name())) {
+                return cached.tokens();
+            }
+            int tokens = counter.count(content);
+            tokenCount = new TokenCount(counter.name(), tokens);
+            return tokens;
+        }
+
+        private record TokenCount(String tokenizer, int tokens) {
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package su.sue.aiproject.service.message;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.ConversationSettings;
+import su.sue.aiproject.domain.ConversationSummaries;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.mapper.ConversationSettingsMapper;
+import su.sue.aiproject.mapper.ConversationSummariesMapper;
+import su.sue.aiproject.mapper.ConversationsMapper;
+import su.sue.aiproject.mapper.MessagesMapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 会话上下文的热缓存
+ * 按会话缓存最近的消息、系统提示词和最新的摘要检查点，未命中或超过 ttl 时从数据库加载；
+ * 新消息在提交到持久化管道时同步追加，下一轮对话不必等待写库，也不必查询历史
+ * 提交后尚未写库的消息（攒批等待中、数据库故障时在溢出文件中）单独登记，重新加载时合并到从数据库读到的消息之后，
+ * 加载期间追加的消息同样会合并，过期或被淘汰后重新加载不会丢掉最近的对话
+ * 缓存按最近访问淘汰。多节点部署时其他节点产生的消息要等缓存过期后才可见，
+ * 同一会话的请求应尽量路由到同一节点
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ConversationContextCache {
+
+    private final MessagesMapper messagesMapper;
+    private final ConversationsMapper conversationsMapper;
+    private final ConversationSettingsMapper conversationSettingsMapper;
+    private final ConversationSummariesMapper conversationSummariesMapper;
+
+    /**
+     * 缓存的会话数
+     */
+    @Value("${app.chat.context.cache-size:10000}")
+    private int cacheSize;
+
+    /**
+     * 每个会话缓存的最近消息数
+     */
+    @Value("${app.chat.context.max-messages:200}")
+    private int maxMessages;
+
+    /**
+     * 缓存加载后的有效期，过期后重新从数据库加载
+     */
+    @Value("${app.chat.context.cache-ttl-ms:600000}")
+    private long cacheTtlMs;
+
+    private Map<Long, ConversationContext> contexts;
+
+    /**
+     * 已提交但尚未写库的对话交换，按会话登记，与 contexts 使用同一把锁
+     */
+    private final Map<Long, List<MessageExchange>> pending = new HashMap<>();
+
+    /**
+     * 正在加载的会话，加载期间追加的对话交换记录到每次加载各自的列表中
+     */
+    private final Map<Long, List<List<MessageExchange>>> loading = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        int maxSize = cacheSize;
+        contexts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ConversationContext> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * 获取会话上下文
+     *
+     * @throws RuntimeException 会话不存在、已删除或不属于该用户
+     */
+    public ConversationContext get(Long conversationId, Long userId) {
+        ConversationContext context;
+        synchronized (contexts) {
+            context = contexts.get(conversationId);
+        }
+        if (context == null || System.currentTimeMillis() - context.getLoadedAt() > cacheTtlMs) {
+            context = load(conversationId);
+        }
+        if (!context.getUserId().equals(userId)) {
+            throw new RuntimeException("会话不存在或无权限访问");
+        }
+        return context;
+    }
+
+    /**
+     * 追加一次对话交换的消息，只更新已缓存且归属一致的会话
+     */
+    public void append(MessageExchange exchange) {
+        ConversationContext context;
+        synchronized (contexts) {
+            List<MessageExchange> waiting = pending.computeIfAbsent(exchange.conversationId(), id -> new ArrayList<>());
+            waiting.add(exchange);
+            if (waiting.size() > maxMessages) {
+                waiting.remove(0);
+            }
+            List<List<MessageExchange>> loads = loading.get(exchange.conversationId());
+            if (loads != null) {
+                loads.forEach(appended -> appended.add(exchange));
+            }
+            context = contexts.get(exchange.conversationId());
+        }
+        if (context != null && context.getUserId().equals(exchange.userId())) {
+            context.append(exchange.messages());
+        }
+    }
+
+    /**
+     * 对话交换已写库（或已隔离，不会再写库），不再需要在重新加载时合并
+     * 溢出重放的交换是反序列化得到的副本，按内容相等移除
+     */
+    public void removePending(List<MessageExchange> exchanges) {
+        synchronized (contexts) {
+            for (MessageExchange exchange : exchanges) {
+                List<MessageExchange> waiting = pending.get(exchange.conversationId());
+                if (waiting != null && waiting.remove(exchange) && waiting.isEmpty()) {
+                    pending.remove(exchange.conversationId());
+                }
+            }
+        }
+    }
+
+    /**
+     * 移除会话的缓存，会话删除时调用
+     */
+    public void evict(Long conversationId) {
+        synchronized (contexts) {
+            contexts.remove(conversationId);
+        }
+    }
+
+    private ConversationContext load(Long conversationId) {
+        // 先登记，之后追加的交换都会记录下来；登记前已提交的交换要么仍未写库，要么已在下面的查询中可见
+        List<MessageExchange> unpersisted;
+        synchronized (contexts) {
+            unpersisted = new ArrayList<>(pending.getOrDefault(conversationId, List.of()));
+            loading.computeIfAbsent(conversationId, id -> new ArrayList<>()).add(unpersisted);
+        }
+        try {
+            return load(conversationId, unpersisted);
+        } finally {
+            synchronized (contexts) {
+                List<List<MessageExchange>> loads = loading.get(conversationId);
+                loads.removeIf(appended -> appended == unpersisted);
+                if (loads.isEmpty()) {
+                    loading.remove(conversationId);
+                }
+            }
+        }
+    }
+
+    private ConversationContext load(Long conversationId, List<MessageExchange> unpersisted) {
+        Long owner = conversationsMapper.findActiveOwner(conversationId);
+        if (owner == null) {
+            throw new RuntimeException("会话不存在或无权限访问");
+        }
+        ConversationSettings settings = conversationSettingsMapper.selectOne(new QueryWrapper<ConversationSettings>()
+                .select("system_message")
+                .eq("conversation_id", conversationId)
+                .last("LIMIT 1"));
+        String systemMessage = settings != null && settings.getSystemMessage() != null
+                && !settings.getSystemMessage().isBlank() ? settings.getSystemMessage() : null;
+
+        ConversationSummaries summary = conversationSummariesMapper.findLatest(conversationId);
+
+        ConversationContext context = new ConversationContext(owner, systemMessage,
+                summary != null ? summary.getSummary() : null,
+                summary != null ? summary.getCoveredMessageId() : 0L,
+                System.currentTimeMillis(), maxMessages);
+        List<Messages> recent = new ArrayList<>(messagesMapper.findRecentMessages(conversationId, maxMessages));
+        Collections.reverse(recent);
+        context.append(recent);
+        synchronized (contexts) {
+            int merged = mergeUnpersisted(context, owner, recent, unpersisted);
+            contexts.put(conversationId, context);
+            log.debug("加载会话上下文: conversationId={}, messages={}, unpersisted={}",
+                    conversationId, recent.size(), merged);
+        }
+        return context;
+    }
+
+    /**
+     * 把尚未写库的交换追加到上下文末尾
+     * 登记之后才写库的交换可能已经出现在查询结果中，按角色、内容和创建时间去重；
+     * created_at 列只保存到秒（并可能四舍五入），创建时间相差不超过一秒即视为同一条
+     */
+    private int mergeUnpersisted(ConversationContext context, Long owner, List<Messages> loaded,
+                                 List<MessageExchange> unpersisted) {
+        Map<String, List<Long>> visible = new HashMap<>();
+        for (Messages message : loaded) {
+            visible.computeIfAbsent(dedupeKey(message), key -> new ArrayList<>()).add(seconds(message));
+        }
+        int merged = 0;
+        for (MessageExchange exchange : unpersisted) {
+            if (!exchange.userId().equals(owner)) {
+                continue;
+            }
+            boolean persisted = true;
+            for (Messages message : exchange.messages()) {
+                if (!consume(visible.get(dedupeKey(message)), seconds(message))) {
+                    persisted = false;
+                }
+            }
+            if (!persisted) {
+                context.append(exchange.messages());
+                merged++;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 从查询结果中取走一条创建时间相差不超过一秒的同内容消息
+     */
+    private static boolean consume(List<Long> candidates, long seconds) {
+        if (candidates == null) {
+            return false;
+        }
+        for (Iterator<Long> it = candidates.iterator(); it.hasNext(); ) {
+            if (Math.abs(it.next() - seconds) <= 1) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String dedupeKey(Messages message) {
+        return message.getRole() + '\n' + message.getContent();
+    }
+
+    private static long seconds(Messages message) {
+        return message.getCreatedAt() != null ? message.getCreatedAt().getTime() / 1000 : 0;
+    }
+}
@@ -0,0 +1,152 @@
+package su.sue.aiproject.service.message;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatMessage;
+import su.sue.aiproject.service.ai.tokenizer.TokenCounter;
+import su.sue.aiproject.service.ai.tokenizer.TokenizerRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 服务端组装对话上下文
+ * 客户端只发送本轮消息和会话ID，历史消息从 {@link ConversationContextCache} 读取，
+ * 按模型上下文窗口的token预算从最新往前保留，超出预算的早期消息不再发送给上游
+ * 会话设置中的系统提示词始终固定在最前面；会话未设置时使用客户端本轮发送的系统消息
+ * 会话有摘要检查点时，检查点之前的消息以摘要代替，未覆盖的历史过长时由 {@link ConversationCompactor} 在后台继续压缩
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ConversationContextService {
+
+    private final ConversationContextCache conversationContextCache;
+    private final TokenizerRegistry tokenizerRegistry;
+    private final ConversationCompactor conversationCompactor;
+
+    /**
+     * 模型未配置 context_window 时使用的上下文窗口
+     */
+    @Value("${app.chat.context.default-window-tokens:8192}")
+    private int defaultWindowTokens;
+
+    /**
+     * 请求未指定 max_tokens 时为输出预留的token数
+     */
+    @Value("${app.credit.hold.default-completion-tokens:1024}")
+    private int defaultCompletionTokens;
+
+    /**
+     * 组装发送给上游的消息：系统提示词 + 摘要 + 预算内的历史消息 + 本轮消息
+     *
+     * @param model   本次使用的模型
+     * @param userId  用户ID，用于校验会话归属
+     * @param request 只包含本轮消息的请求
+     * @return 完整的消息列表
+     * @throws IllegalArgumentException 本轮消息本身超出上下文窗口
+     */
+    public List<ChatMessage> assemble(AiModels model, Long userId, ChatCompletionRequest request) {
+        ConversationContext context = conversationContextCache.get(request.getConversationId(), userId);
+
+        ChatMessage system = null;
+        List<ChatMessage> turn = new ArrayList<>();
+        for (ChatMessage message : request.getMessages()) {
+            if ("system".equals(message.getRole())) {
+                system = message;
+            } else {
+                turn.add(message);
+            }
+        }
+        if (context.getSystemMessage() != null) {
+            system = new ChatMessage();
+            system.setRole("system");
+            system.setContent(context.getSystemMessage());
+        }
+        ChatMessage summary = null;
+        if (context.getSummary() != null) {
+            summary = new ChatMessage();
+            summary.setRole("system");
+            summary.setContent("以下是此前对话的摘要：\n" + context.getSummary());
+        }
+
+        int window = model.getContextWindow() != null ? model.getContextWindow() : defaultWindowTokens;
+        int reserved = request.getMaxTokens() != null ? request.getMaxTokens() : defaultCompletionTokens;
+        int budget = window - reserved - TokenizerRegistry.TOKENS_PER_REPLY;
+        if (system != null) {
+            budget -= tokenizerRegistry.countMessage(model, system);
+        }
+        if (summary != null) {
+            budget -= tokenizerRegistry.countMessage(model, summary);
+        }
+        for (ChatMessage message : turn) {
+            budget -= tokenizerRegistry.countMessage(model, message);
+        }
+        if (budget < 0) {
+            throw new IllegalArgumentException("消息超出模型上下文长度");
+        }
+
+        // 从最新的历史消息往前取，直到预算用完
+        TokenCounter counter = tokenizerRegistry.forModel(model);
+        List<ConversationContext.ContextMessage> history = uncovered(context);
+        int uncoveredTokens = 0;
+        for (ConversationContext.ContextMessage message : history) {
+            uncoveredTokens += message.tokens(counter) + TokenizerRegistry.TOKENS_PER_MESSAGE;
+        }
+        conversationCompactor.maybeCompact(request.getConversationId(), uncoveredTokens, model);
+
+        int from = history.size();
+        while (from > 0) {
+            int cost = history.get(from - 1).tokens(counter) + TokenizerRegistry.TOKENS_PER_MESSAGE;
+            if (cost > budget) {
+                break;
+            }
+            budget -= cost;
+            from--;
+        }
+        // 截断后不以AI回复开头，避免上游看到没有提问的回答
+        while (from > 0 && from < history.size() && "assistant".equals(history.get(from).getRole())) {
+            from++;
+        }
+
+        List<ChatMessage> messages = new ArrayList<>(history.size() - from + turn.size() + 2);
+        if (system != null) {
+            messages.add(system);
+        }
+        if (summary != null) {
+            messages.add(summary);
+        }
+        for (ConversationContext.ContextMessage message : history.subList(from, history.size())) {
+            ChatMessage chatMessage = new ChatMessage();
+            chatMessage.setRole(message.getRole());
+            chatMessage.setContent(message.getContent());
+            messages.add(chatMessage);
+        }
+        messages.addAll(turn);
+        log.debug("组装会话上下文: conversationId={}, 历史消息={}/{}, 剩余预算={}",
+                request.getConversationId(), history.size() - from, history.size(), budget);
+        return messages;
+    }
+
+    /**
+     * 摘要检查点之后的历史消息；尚未写库的消息没有ID，一定在检查点之后
+     */
+    private List<ConversationContext.ContextMessage> uncovered(ConversationContext context) {
+        List<ConversationContext.ContextMessage> history = context.snapshot();
+        if (context.getSummary() == null) {
+            return history;
+        }
+        long coveredId = context.getSummaryCoveredMessageId();
+        List<ConversationContext.ContextMessage> uncovered = new ArrayList<>(history.size());
+        for (ConversationContext.ContextMessage message : history) {
+            if (message.getId() == null || message.getId() > coveredId) {
+                uncovered.add(message);
+            }
+        }
+        return uncovered;
+    }
+}
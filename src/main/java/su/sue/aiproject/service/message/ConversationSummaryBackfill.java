@@ -0,0 +1,88 @@
+package su.sue.aiproject.service.message;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.mapper.ConversationsMapper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话摘要列的分批回填
+ * 按会话ID分段，每段用一条UPDATE从messages重新计算消息数、token数和最后一条消息，
+ * 每段是独立的短事务，不会长时间锁住整张表；重新计算结果与增量更新一致，可以重复执行
+ * 新消息由 MessagePersistencePipeline 增量维护，回填只在上线摘要列或修正数据时运行一次
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ConversationSummaryBackfill {
+
+    private final ConversationsMapper conversationsMapper;
+
+    /**
+     * 启动后是否在后台执行回填
+     */
+    @Value("${app.conversations.summary.backfill-on-startup:false}")
+    private boolean backfillOnStartup;
+
+    /**
+     * 每段回填的会话数
+     */
+    @Value("${app.conversations.summary.backfill-batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * 两段之间的间隔，降低回填对线上请求的影响
+     */
+    @Value("${app.conversations.summary.backfill-pause-ms:50}")
+    private long pauseMs;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!backfillOnStartup) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                backfill();
+            } catch (Exception e) {
+                log.error("会话摘要回填失败: {}", e.getMessage(), e);
+            }
+        }, "conversation-summary-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 回填所有会话的摘要列
+     *
+     * @return 更新的会话数
+     */
+    public long backfill() throws InterruptedException {
+        Long maxId = conversationsMapper.findMaxId();
+        if (maxId == null) {
+            return 0;
+        }
+        log.info("开始回填会话摘要, maxId: {}, batchSize: {}", maxId, batchSize);
+        long afterId = 0;
+        long updated = 0;
+        while (afterId < maxId) {
+            Long toId = conversationsMapper.findIdAfter(afterId, batchSize - 1);
+            if (toId == null) {
+                // 剩余不足一段
+                toId = maxId;
+            }
+            updated += conversationsMapper.recomputeSummaries(afterId, toId);
+            afterId = toId;
+            if (pauseMs > 0) {
+                TimeUnit.MILLISECONDS.sleep(pauseMs);
+            }
+        }
+        log.info("会话摘要回填完成, 更新会话数: {}", updated);
+        return updated;
+    }
+}
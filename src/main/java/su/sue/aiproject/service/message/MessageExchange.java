@@ -0,0 +1,16 @@
+package su.sue.aiproject.service.message;
+
+import su.sue.aiproject.domain.Messages;
+
+import java.util.List;
+
+/**
+ * 一次对话交换需要保存的消息
+ *
+ * @param userId         发起对话的用户，写库前校验会话归属
+ * @param conversationId 会话ID
+ * @param modelId        本次使用的模型，同一批次内同一会话只更新最后一次，为null时不更新
+ * @param messages       按顺序保存的消息（用户消息、AI回复）
+ */
+public record MessageExchange(Long userId, Long conversationId, Integer modelId, List<Messages> messages) {
+}
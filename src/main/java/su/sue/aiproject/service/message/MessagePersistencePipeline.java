@@ -0,0 +1,413 @@
+package su.sue.aiproject.service.message;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import su.sue.aiproject.domain.Conversations;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.mapper.ConversationsMapper;
+import su.sue.aiproject.mapper.MessagesMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 对话消息的异步批量持久化
+ * 流结束线程只把消息放入有界队列；写入线程攒够一批（消息数达到 batch-size 或等待超过 linger-ms）后：
+ * 一次查询校验本批所有会话的归属，一条多行INSERT写入消息，同一会话的 model_id 和摘要列（消息数、token数、
+ * 最后一条消息）合并为一次UPDATE
+ * 数据库不可用或队列已满时，消息写入本地溢出文件，定期重放，不会丢失；始终无法写库的消息隔离到 .bad 文件
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MessagePersistencePipeline {
+
+    private final MessagesMapper messagesMapper;
+    private final ConversationsMapper conversationsMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final ConversationContextCache conversationContextCache;
+
+    /**
+     * 会话最后一条消息预览的长度，与 conversations.last_message_preview 一致
+     */
+    static final int PREVIEW_LENGTH = 200;
+
+    /**
+     * 队列容量（按对话交换计）
+     */
+    @Value("${app.messages.persist.queue-capacity:10000}")
+    private int queueCapacity;
+
+    /**
+     * 每条INSERT最多写入的消息数
+     */
+    @Value("${app.messages.persist.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 攒批的最长等待时间
+     */
+    @Value("${app.messages.persist.linger-ms:50}")
+    private long lingerMs;
+
+    /**
+     * 溢出文件目录
+     */
+    @Value("${app.messages.persist.spill-dir:./data/message-spill}")
+    private String spillDir;
+
+    /**
+     * 溢出文件连续读取失败该次数后隔离
+     */
+    @Value("${app.messages.persist.spill-max-attempts:3}")
+    private int spillMaxAttempts;
+
+    private BlockingQueue<MessageExchange> queue;
+    private MessageSpillFile spillFile;
+    private Thread writer;
+    private volatile boolean running;
+    /**
+     * 溢出文件的读取失败次数，只在重放任务中访问
+     */
+    private final Map<Path, Integer> spillReadFailures = new HashMap<>();
+
+    @PostConstruct
+    public void start() throws IOException {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        spillFile = new MessageSpillFile(Paths.get(spillDir), objectMapper);
+        Gauge.builder("ai.messages.persist.queue", queue, BlockingQueue::size)
+                .description("等待持久化的对话交换数")
+                .register(meterRegistry);
+
+        running = true;
+        writer = new Thread(this::run, "message-persist");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 提交一次对话交换的消息，不等待写库
+     */
+    public void submit(MessageExchange exchange) {
+        if (exchange.messages().isEmpty()) {
+            return;
+        }
+        // 先更新上下文缓存，下一轮对话不必等待写库
+        conversationContextCache.append(exchange);
+        if (!running || !queue.offer(exchange)) {
+            // 数据库持续变慢导致队列已满，或已在停机：直接写入溢出文件，稍后重放
+            log.warn("消息持久化队列不可用，写入溢出文件: conversationId={}", exchange.conversationId());
+            spill(List.of(exchange));
+        }
+    }
+
+    private void run() {
+        List<MessageExchange> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                MessageExchange first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int messages = first.messages().size();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (messages < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    MessageExchange next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    messages += next.messages().size();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    private void write(List<MessageExchange> batch) {
+        try {
+            persist(batch);
+        } catch (Exception e) {
+            log.error("批量保存消息失败，{} 组消息写入溢出文件", batch.size(), e);
+            spill(batch);
+        }
+    }
+
+    /**
+     * 在一个事务中写入一批消息
+     * 写入线程、溢出重放和停机写库串行执行，消息ID按提交顺序递增，全文索引据此按ID增量追踪新消息
+     */
+    synchronized void persist(List<MessageExchange> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // 一次查询校验本批所有会话的归属
+        Set<Long> conversationIds = batch.stream().map(MessageExchange::conversationId).collect(Collectors.toSet());
+        Map<Long, Long> owners = new HashMap<>();
+        for (Conversations conversation : conversationsMapper.selectList(new QueryWrapper<Conversations>()
+                .select("id", "user_id")
+                .in("id", conversationIds))) {
+            owners.put(conversation.getId(), conversation.getUserId());
+        }
+
+        List<Messages> messages = new ArrayList<>();
+        // 同一会话在本批次内的多次对话合并成一次摘要更新，模型取最后使用的
+        Map<Long, ConversationDelta> deltas = new LinkedHashMap<>();
+        for (MessageExchange exchange : batch) {
+            if (!exchange.userId().equals(owners.get(exchange.conversationId()))) {
+                log.warn("会话不存在或无权限访问，丢弃消息: conversationId={}, userId={}",
+                        exchange.conversationId(), exchange.userId());
+                continue;
+            }
+            messages.addAll(exchange.messages());
+            deltas.computeIfAbsent(exchange.conversationId(), id -> new ConversationDelta()).add(exchange);
+        }
+        if (messages.isEmpty()) {
+            conversationContextCache.removePending(batch);
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < messages.size(); i += batchSize) {
+                messagesMapper.insertBatch(messages.subList(i, Math.min(i + batchSize, messages.size())));
+            }
+            deltas.forEach((conversationId, delta) -> conversationsMapper.applyMessageSummary(conversationId,
+                    delta.modelId, delta.messageCount, delta.tokens, delta.lastMessageAt, delta.lastMessagePreview));
+        });
+        // 已提交，重新加载上下文时能从数据库读到
+        conversationContextCache.removePending(batch);
+        log.debug("批量保存消息 {} 条，涉及会话 {} 个", messages.size(), deltas.size());
+    }
+
+    private void spill(List<MessageExchange> exchanges) {
+        try {
+            spillFile.write(exchanges);
+            Counter.builder("ai.messages.persist.spilled")
+                    .description("写入溢出文件的对话交换数")
+                    .register(meterRegistry)
+                    .increment(exchanges.size());
+        } catch (IOException e) {
+            log.error("写入消息溢出文件失败，{} 组消息丢失", exchanges.size(), e);
+        }
+    }
+
+    /**
+     * 按文件逐个重放溢出文件
+     * 只有数据库连接层面的失败会停止本轮重放；单个文件的失败（数据错误、文件损坏）不会阻塞后面的文件
+     */
+    @Scheduled(fixedDelayString = "${app.messages.persist.spill-retry-ms:10000}")
+    public void replaySpill() {
+        List<Path> segments;
+        try {
+            segments = spillFile.segments();
+        } catch (IOException e) {
+            log.warn("列出消息溢出文件失败: {}", e.getMessage());
+            return;
+        }
+        for (Path segment : segments) {
+            if (!replaySegment(segment)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 重放一个溢出文件
+     * 整批写库失败且不是连接问题时逐组重试，单独写入仍失败的组隔离到 .bad 文件；
+     * 文件连续读取失败 spill-max-attempts 次后整体隔离
+     *
+     * @return 数据库连接不可用时返回 false，停止本轮重放
+     */
+    boolean replaySegment(Path segment) {
+        List<MessageExchange> exchanges;
+        try {
+            exchanges = spillFile.read(segment);
+        } catch (IOException e) {
+            int attempts = spillReadFailures.merge(segment, 1, Integer::sum);
+            if (attempts < spillMaxAttempts) {
+                log.warn("读取消息溢出文件 {} 失败（第 {} 次）: {}", segment.getFileName(), attempts, e.getMessage());
+            } else {
+                spillReadFailures.remove(segment);
+                quarantineSegment(segment);
+            }
+            return true;
+        }
+        spillReadFailures.remove(segment);
+
+        try {
+            persist(exchanges);
+            deleteSegment(segment);
+            log.info("已重放消息溢出文件 {}，{} 组消息", segment.getFileName(), exchanges.size());
+            return true;
+        } catch (Exception e) {
+            if (isConnectionFailure(e)) {
+                log.warn("数据库不可用，停止重放消息溢出文件，稍后重试: {}", e.getMessage());
+                return false;
+            }
+            log.warn("重放消息溢出文件 {} 失败，逐组重试: {}", segment.getFileName(), e.getMessage());
+        }
+
+        List<MessageExchange> failed = new ArrayList<>();
+        for (int i = 0; i < exchanges.size(); i++) {
+            MessageExchange exchange = exchanges.get(i);
+            try {
+                persist(List.of(exchange));
+            } catch (Exception e) {
+                if (isConnectionFailure(e)) {
+                    // 已写入的组不能随原文件再次重放，未处理的部分写回新的溢出文件
+                    List<MessageExchange> rest = new ArrayList<>(failed);
+                    rest.addAll(exchanges.subList(i, exchanges.size()));
+                    try {
+                        spillFile.write(rest);
+                        deleteSegment(segment);
+                    } catch (IOException writeError) {
+                        log.error("改写消息溢出文件 {} 失败，已写入的消息可能重复", segment.getFileName(), writeError);
+                    }
+                    log.warn("数据库不可用，停止重放消息溢出文件，稍后重试: {}", e.getMessage());
+                    return false;
+                }
+                log.error("消息写库失败，隔离该组消息: conversationId={}, error={}",
+                        exchange.conversationId(), e.getMessage());
+                failed.add(exchange);
+            }
+        }
+        if (!failed.isEmpty()) {
+            try {
+                Path quarantined = spillFile.quarantine(failed);
+                conversationContextCache.removePending(failed);
+                log.error("{} 组消息无法写库，已隔离到 {}", failed.size(), quarantined.getFileName());
+            } catch (IOException e) {
+                // 隔离失败时保留原文件，下次重放再试
+                log.error("隔离无法写库的消息失败: segment={}", segment.getFileName(), e);
+                return true;
+            }
+        }
+        deleteSegment(segment);
+        return true;
+    }
+
+    private void quarantineSegment(Path segment) {
+        try {
+            Path quarantined = spillFile.quarantine(segment);
+            log.error("消息溢出文件 {} 连续 {} 次无法读取，已隔离为 {}", segment.getFileName(), spillMaxAttempts,
+                    quarantined.getFileName());
+        } catch (IOException e) {
+            log.error("隔离消息溢出文件 {} 失败", segment.getFileName(), e);
+        }
+    }
+
+    private void deleteSegment(Path segment) {
+        try {
+            spillFile.delete(segment);
+        } catch (IOException e) {
+            log.warn("删除消息溢出文件 {} 失败: {}", segment.getFileName(), e.getMessage());
+        }
+    }
+
+    /**
+     * 是否为数据库连接层面的失败（连接不可用、超时、死锁等暂时性错误），这类失败与具体数据无关，重试整个文件即可
+     */
+    static boolean isConnectionFailure(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof DataAccessResourceFailureException
+                    || t instanceof TransientDataAccessException
+                    || t instanceof CannotCreateTransactionException
+                    || t instanceof SQLTransientException
+                    || t instanceof SQLRecoverableException
+                    || t instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 停机时写完队列中剩余的消息，写库失败的进入溢出文件
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        List<MessageExchange> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            write(rest);
+        }
+    }
+
+    /**
+     * 一个会话在本批次内新增消息的汇总
+     */
+    static final class ConversationDelta {
+
+        Integer modelId;
+        int messageCount;
+        long tokens;
+        Date lastMessageAt;
+        String lastMessagePreview;
+
+        void add(MessageExchange exchange) {
+            if (exchange.modelId() != null) {
+                modelId = exchange.modelId();
+            }
+            for (Messages message : exchange.messages()) {
+                messageCount++;
+                tokens += message.getTokensConsumed() != null ? message.getTokensConsumed() : 0;
+                Date createdAt = message.getCreatedAt() != null ? message.getCreatedAt() : new Date();
+                if (lastMessageAt == null || !createdAt.before(lastMessageAt)) {
+                    lastMessageAt = createdAt;
+                    lastMessagePreview = preview(message.getContent());
+                }
+            }
+        }
+
+        static String preview(String content) {
+            if (content == null || content.length() <= PREVIEW_LENGTH) {
+                return content;
+            }
+            // 不在代理对中间截断
+            int end = Character.isHighSurrogate(content.charAt(PREVIEW_LENGTH - 1)) ? PREVIEW_LENGTH - 1 : PREVIEW_LENGTH;
+            return content.substring(0, end);
+        }
+    }
+}
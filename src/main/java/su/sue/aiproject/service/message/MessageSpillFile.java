@@ -0,0 +1,107 @@
+package su.sue.aiproject.service.message;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 消息写库失败时的本地溢出文件
+ * 每个失败批次写成一个文件（每行一组消息的JSON），刷盘后原子改名，重放时不会读到写了一半的文件
+ * 始终无法重放的文件或消息组改名为 .bad 隔离，不再参与重放，等待人工处理
+ */
+@Slf4j
+final class MessageSpillFile {
+
+    private static final String PREFIX = "spill-";
+    private static final String SUFFIX = ".log";
+    private static final String QUARANTINE_SUFFIX = ".bad";
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private long sequence;
+
+    MessageSpillFile(Path directory, ObjectMapper objectMapper) throws IOException {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * 写入一批消息并刷盘
+     */
+    synchronized Path write(List<MessageExchange> exchanges) throws IOException {
+        String name = String.format("%s%d-%06d%s", PREFIX, System.currentTimeMillis(), sequence++, SUFFIX);
+        Path target = directory.resolve(name);
+        Path temp = directory.resolve(name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (MessageExchange exchange : exchanges) {
+                ByteBuffer line = ByteBuffer.wrap((objectMapper.writeValueAsString(exchange) + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+            }
+            channel.force(true);
+        }
+        return Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 待重放的溢出文件，按写入顺序排列
+     */
+    List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    List<MessageExchange> read(Path segment) throws IOException {
+        List<MessageExchange> exchanges = new ArrayList<>();
+        for (String line : Files.readAllLines(segment, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                exchanges.add(objectMapper.readValue(line, MessageExchange.class));
+            } catch (JsonProcessingException e) {
+                log.warn("跳过损坏的消息溢出记录: segment={}", segment.getFileName(), e);
+            }
+        }
+        return exchanges;
+    }
+
+    void delete(Path segment) throws IOException {
+        Files.deleteIfExists(segment);
+    }
+
+    /**
+     * 把无法重放的文件改名为 .bad 隔离
+     */
+    Path quarantine(Path segment) throws IOException {
+        return Files.move(segment, segment.resolveSibling(segment.getFileName() + QUARANTINE_SUFFIX),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 把无法写库的消息组写入新的隔离文件
+     */
+    synchronized Path quarantine(List<MessageExchange> exchanges) throws IOException {
+        return quarantine(write(exchanges));
+    }
+}
@@ -0,0 +1,361 @@
+package su.sue.aiproject.service.search;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import su.sue.aiproject.domain.dto.MessageSearchDocument;
+import su.sue.aiproject.mapper.MessagesMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * 对话消息的全文索引
+ * 按用户ID分片存放在本地磁盘，中日韩文字按二元组切分，按 BM25 排序，取代对消息内容的 LIKE '%kw%' 全表扫描
+ * 索引线程按消息ID顺序增量读取新写入的消息。多个节点并发写库时，ID较小的消息可能晚于较大的ID提交，
+ * 因此每次从已索引的最大ID往回 rescan-lag 个ID开始重扫，已索引的消息按ID去重。
+ * 内存中的新文档定期写成段，并记录检查点；重启后从检查点继续，索引目录为空或损坏时从数据库完整重建
+ * 读库、写段和合并都在独立的 search-index 线程上执行，不占用共享的定时任务线程；
+ * 每轮最多读取 max-batches-per-refresh 批，未追上时立即提交下一轮，期间 {@link #rebuild()} 和停机可以插入
+ * 首次建立完成前 {@link #isReady()} 返回 false，调用方回退到数据库查询
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ConversationSearchIndex {
+
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final MessagesMapper messagesMapper;
+
+    /**
+     * 是否启用全文索引
+     */
+    @Value("${app.search.index.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 索引目录
+     */
+    @Value("${app.search.index.dir:./data/search-index}")
+    private String indexDir;
+
+    /**
+     * 分片数，修改后需要重建索引
+     */
+    @Value("${app.search.index.shards:16}")
+    private int shardCount;
+
+    /**
+     * 每次从数据库读取的消息数
+     */
+    @Value("${app.search.index.refresh-batch-size:1000}")
+    private int refreshBatchSize;
+
+    /**
+     * 每轮增量更新最多读取的批数，首次建立索引时分多轮完成
+     */
+    @Value("${app.search.index.max-batches-per-refresh:10}")
+    private int maxBatchesPerRefresh;
+
+    /**
+     * 每次增量更新从已索引的最大消息ID往回重扫的ID数，覆盖提交晚于更大ID的消息
+     */
+    @Value("${app.search.index.rescan-lag:500}")
+    private long rescanLag;
+
+    /**
+     * 内存中累计多少条新文档后写成段
+     */
+    @Value("${app.search.index.flush-docs:20000}")
+    private int flushDocs;
+
+    /**
+     * 内存中的新文档最长多久写成段
+     */
+    @Value("${app.search.index.flush-interval-ms:60000}")
+    private long flushIntervalMs;
+
+    /**
+     * 每个分片的段数上限，超过后合并
+     */
+    @Value("${app.search.index.max-segments:8}")
+    private int maxSegments;
+
+    /**
+     * 段数超过上限时每次合并的最小段数
+     */
+    @Value("${app.search.index.merge-factor:4}")
+    private int mergeFactor;
+
+    private volatile IndexShard[] shards;
+    private volatile boolean ready;
+    private long highWater;
+    /**
+     * 重扫窗口内（以及检查点之后已写入段）的已索引消息ID，用于去重
+     */
+    private final NavigableSet<Long> indexedIds = new TreeSet<>();
+    private long lastFlushNanos = System.nanoTime();
+    /**
+     * 上一轮未追上时停下的位置，下一轮从这里继续而不是重扫，-1 表示上一轮已追上
+     */
+    private long resumeFrom = -1;
+
+    private ThreadPoolExecutor executor;
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+
+    @PostConstruct
+    public void start() {
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), runnable -> {
+            Thread thread = new Thread(runnable, "search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void onApplicationReady() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            open();
+        } catch (Exception e) {
+            log.error("全文索引加载失败，清空后从数据库重建: {}", e.getMessage(), e);
+            try {
+                wipe();
+                open();
+            } catch (IOException ex) {
+                log.error("全文索引初始化失败，搜索将回退到数据库查询", ex);
+            }
+        }
+    }
+
+    /**
+     * 索引是否已追上数据库，可以用来回答查询
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 查询用户包含全部查询词的消息，按得分从高到低排列
+     *
+     * @param userId 用户ID
+     * @param terms  {@link SearchTokenizer#queryTerms(String)} 得到的查询词
+     * @return 命中的消息
+     */
+    public List<SearchHit> search(long userId, List<String> terms) {
+        IndexShard[] current = shards;
+        if (current == null || terms.isEmpty()) {
+            return List.of();
+        }
+        List<SearchHit> hits = new ArrayList<>(current[shardOf(userId, current.length)].search(userId, terms));
+        hits.sort(Comparator.comparingDouble(SearchHit::score).reversed()
+                .thenComparing(Comparator.comparingLong(SearchHit::messageId).reversed()));
+        return hits;
+    }
+
+    /**
+     * 定时把增量更新提交到索引线程，上一轮尚未结束时跳过
+     */
+    @Scheduled(fixedDelayString = "${app.search.index.refresh-interval-ms:1000}")
+    public void scheduleRefresh() {
+        if (shards == null || !refreshQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::runRefresh);
+        } catch (RejectedExecutionException e) {
+            refreshQueued.set(false);
+        }
+    }
+
+    private void runRefresh() {
+        boolean caughtUp = true;
+        try {
+            caughtUp = refresh();
+        } finally {
+            refreshQueued.set(false);
+        }
+        if (!caughtUp) {
+            scheduleRefresh();
+        }
+    }
+
+    /**
+     * 增量读取新消息写入索引，最多读取 max-batches-per-refresh 批
+     *
+     * @return 是否已追上数据库；失败时返回 true，等下一次定时任务重试
+     */
+    public synchronized boolean refresh() {
+        if (shards == null) {
+            return true;
+        }
+        try {
+            long cursor = resumeFrom >= 0 ? resumeFrom : Math.max(0, highWater - rescanLag);
+            boolean caughtUp = false;
+            for (int batch = 0; batch < maxBatchesPerRefresh && !caughtUp; batch++) {
+                List<MessageSearchDocument> documents = messagesMapper.findMessagesForIndex(cursor, refreshBatchSize);
+                for (MessageSearchDocument document : documents) {
+                    index(document);
+                    cursor = document.getMessageId();
+                    highWater = Math.max(highWater, cursor);
+                }
+                flushIfNeeded();
+                caughtUp = documents.size() < refreshBatchSize;
+            }
+            indexedIds.headSet(highWater - rescanLag, true).clear();
+            resumeFrom = caughtUp ? -1 : cursor;
+            if (caughtUp && !ready) {
+                ready = true;
+                log.info("全文索引已就绪, 已索引到消息ID: {}", highWater);
+            }
+            return caughtUp;
+        } catch (Exception e) {
+            log.warn("全文索引增量更新失败，稍后重试: {}", e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * 清空索引并从数据库重建，重建完成前查询回退到数据库
+     */
+    public synchronized void rebuild() throws IOException {
+        ready = false;
+        wipe();
+        open();
+        log.info("全文索引已清空，开始从数据库重建");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushOnShutdown();
+    }
+
+    private synchronized void flushOnShutdown() {
+        if (shards == null) {
+            return;
+        }
+        try {
+            flushAll();
+        } catch (IOException e) {
+            log.warn("停机时写入全文索引失败，重启后从检查点补建: {}", e.getMessage());
+        }
+    }
+
+    private void index(MessageSearchDocument document) {
+        long messageId = document.getMessageId();
+        if (!indexedIds.add(messageId)) {
+            // 重扫窗口内已索引，或崩溃前已写入段但检查点尚未记录
+            return;
+        }
+        List<SearchTokenizer.Token> tokens = SearchTokenizer.tokenize(document.getContent());
+        if (tokens.isEmpty()) {
+            return;
+        }
+        long userId = document.getUserId();
+        shards[shardOf(userId, shards.length)].add(
+                new IndexedDocument(messageId, document.getConversationId(), userId, tokens.size()), tokens);
+    }
+
+    private void flushIfNeeded() throws IOException {
+        int memoryDocs = 0;
+        for (IndexShard shard : shards) {
+            memoryDocs += shard.memoryDocs();
+        }
+        boolean due = System.nanoTime() - lastFlushNanos >= TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        if (memoryDocs >= flushDocs || (due && memoryDocs > 0)) {
+            flushAll();
+        }
+    }
+
+    /**
+     * 所有分片写段后再写检查点：检查点之前的消息都已持久化
+     */
+    private void flushAll() throws IOException {
+        for (IndexShard shard : shards) {
+            shard.flush(highWater);
+            shard.mergeIfNeeded(maxSegments, mergeFactor);
+        }
+        Path checkpoint = Paths.get(indexDir, CHECKPOINT);
+        Path temp = Paths.get(indexDir, CHECKPOINT + ".tmp");
+        Files.writeString(temp, Long.toString(highWater), StandardCharsets.UTF_8);
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastFlushNanos = System.nanoTime();
+    }
+
+    private void open() throws IOException {
+        Path root = Paths.get(indexDir);
+        Files.createDirectories(root);
+        Path checkpoint = root.resolve(CHECKPOINT);
+        long checkpointId = Files.exists(checkpoint)
+                ? Long.parseLong(Files.readString(checkpoint, StandardCharsets.UTF_8).trim()) : 0;
+
+        try (Stream<Path> children = Files.list(root)) {
+            long existing = children.filter(path -> path.getFileName().toString().startsWith("shard-")).count();
+            if (existing > 0 && existing != shardCount) {
+                throw new IOException("索引分片数与配置不一致: " + existing + " != " + shardCount);
+            }
+        }
+
+        IndexShard[] opened = new IndexShard[shardCount];
+        indexedIds.clear();
+        for (int i = 0; i < shardCount; i++) {
+            opened[i] = IndexShard.open(root.resolve(String.format("shard-%03d", i)));
+            // 重启后从检查点往回重扫，窗口内已写入段的消息不能重复索引
+            opened[i].collectDurableIds(checkpointId - rescanLag, indexedIds);
+        }
+        highWater = checkpointId;
+        resumeFrom = -1;
+        lastFlushNanos = System.nanoTime();
+        shards = opened;
+        log.info("全文索引已加载, 分片数: {}, 检查点: {}", shardCount, checkpointId);
+    }
+
+    private void wipe() throws IOException {
+        shards = null;
+        Path root = Paths.get(indexDir);
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    static int shardOf(long userId, int shardCount) {
+        return (int) Math.floorMod(userId, (long) shardCount);
+    }
+}
@@ -0,0 +1,229 @@
+package su.sue.aiproject.service.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 磁盘上不可变的索引段，通过内存映射读取
+ * 文件布局：
+ * <pre>
+ * 文档表    docCount × (messageId long, conversationId long, userId long, length int)，按 (userId, messageId) 排序
+ * 倒排列表  按词典顺序，每个词 df × (doc int, freq int, 位置偏移 int)，按 doc 升序，同一用户的文档连续
+ * 位置表    每个倒排项的 freq × (start int, end int)
+ * 词典      termCount × (UTF-8长度 short, UTF-8字节, df int, 倒排列表偏移 long)
+ * 尾部      docCount int, termCount int, 词典偏移 long, 词元总数 long, highWater long, version int, magic int
+ * </pre>
+ * 打开时只把词典读入内存（二分查找），文档表和倒排列表按需从映射区读取；
+ * 查询某个用户时先在文档表中二分出该用户的文档范围，再在定长的倒排项中二分出对应区间，不扫描其他用户的倒排项
+ * 版本2起偏移为码点偏移，版本3起文档按用户排序；旧版本的段打开失败后整个索引会从数据库重建
+ */
+final class IndexSegment implements IndexSource {
+
+    static final int MAGIC = 0x41494858;
+    static final int VERSION = 3;
+    static final int DOC_BYTES = 28;
+    static final int POSTING_BYTES = 12;
+    private static final int TRAILER_BYTES = 40;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final int docCount;
+    private final long totalLength;
+    private final long highWater;
+    private final String[] terms;
+    private final int[] docFreqs;
+    private final long[] postingsOffsets;
+
+    private IndexSegment(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        int size = buffer.capacity();
+        if (size < TRAILER_BYTES) {
+            throw new IOException("索引段文件不完整: " + path);
+        }
+        int trailer = size - TRAILER_BYTES;
+        if (buffer.getInt(trailer + 36) != MAGIC || buffer.getInt(trailer + 32) != VERSION) {
+            throw new IOException("索引段文件格式不正确: " + path);
+        }
+        this.docCount = buffer.getInt(trailer);
+        int termCount = buffer.getInt(trailer + 4);
+        long dictionaryOffset = buffer.getLong(trailer + 8);
+        this.totalLength = buffer.getLong(trailer + 16);
+        this.highWater = buffer.getLong(trailer + 24);
+
+        this.terms = new String[termCount];
+        this.docFreqs = new int[termCount];
+        this.postingsOffsets = new long[termCount];
+        ByteBuffer dictionary = buffer.duplicate();
+        dictionary.position(Math.toIntExact(dictionaryOffset));
+        for (int t = 0; t < termCount; t++) {
+            byte[] bytes = new byte[dictionary.getShort() & 0xFFFF];
+            dictionary.get(bytes);
+            terms[t] = new String(bytes, StandardCharsets.UTF_8);
+            docFreqs[t] = dictionary.getInt();
+            postingsOffsets[t] = dictionary.getLong();
+        }
+    }
+
+    /**
+     * 打开段文件
+     */
+    static IndexSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // 映射在通道关闭后仍然有效
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new IndexSegment(path, buffer);
+        }
+    }
+
+    /**
+     * 把内存中的文档写成新段：先写临时文件并刷盘，再原子改名，中途崩溃不会留下半个段
+     */
+    static IndexSegment write(Path path, MemoryIndex memory, long highWater) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), 1 << 16));
+            memory.writeTo(out, highWater);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        return open(path);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    /**
+     * 写入本段时索引已处理到的消息ID
+     */
+    long highWater() {
+        return highWater;
+    }
+
+    @Override
+    public int docCount() {
+        return docCount;
+    }
+
+    @Override
+    public long totalLength() {
+        return totalLength;
+    }
+
+    @Override
+    public IndexedDocument doc(int doc) {
+        int offset = doc * DOC_BYTES;
+        return new IndexedDocument(buffer.getLong(offset), buffer.getLong(offset + 8), buffer.getLong(offset + 16),
+                buffer.getInt(offset + 24));
+    }
+
+    /**
+     * 只读取文档所属用户，查询时过滤其他用户的文档
+     */
+    long userId(int doc) {
+        return buffer.getLong(doc * DOC_BYTES + 16);
+    }
+
+    long messageId(int doc) {
+        return buffer.getLong(doc * DOC_BYTES);
+    }
+
+    @Override
+    public int docFreq(String term) {
+        int t = Arrays.binarySearch(terms, term);
+        return t < 0 ? 0 : docFreqs[t];
+    }
+
+    @Override
+    public List<Posting> postings(String term) {
+        int t = Arrays.binarySearch(terms, term);
+        return t < 0 ? Collections.emptyList() : read(t, 0, docFreqs[t]);
+    }
+
+    @Override
+    public List<Posting> postings(String term, long userId) {
+        int t = Arrays.binarySearch(terms, term);
+        if (t < 0) {
+            return Collections.emptyList();
+        }
+        int from = userBound(userId, false);
+        int to = userBound(userId, true);
+        if (from == to) {
+            return Collections.emptyList();
+        }
+        return read(t, postingBound(t, from), postingBound(t, to));
+    }
+
+    /**
+     * 文档表中第一个 userId 不小于（upper 为 true 时大于）给定用户的文档序号
+     */
+    private int userBound(long userId, boolean upper) {
+        int low = 0;
+        int high = docCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long current = userId(mid);
+            if (current < userId || (upper && current == userId)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 词 t 的倒排项中第一个文档序号不小于 doc 的位置
+     */
+    private int postingBound(int t, int doc) {
+        int base = Math.toIntExact(postingsOffsets[t]);
+        int low = 0;
+        int high = docFreqs[t];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getInt(base + mid * POSTING_BYTES) < doc) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private List<Posting> read(int t, int from, int to) {
+        List<Posting> result = new ArrayList<>(to - from);
+        int base = Math.toIntExact(postingsOffsets[t]);
+        for (int i = from; i < to; i++) {
+            int entry = base + i * POSTING_BYTES;
+            int[] offsets = new int[buffer.getInt(entry + 4) * 2];
+            int position = buffer.getInt(entry + 8);
+            for (int j = 0; j < offsets.length; j++) {
+                offsets[j] = buffer.getInt(position + j * 4);
+            }
+            result.add(new Posting(buffer.getInt(entry), offsets));
+        }
+        return result;
+    }
+
+    @Override
+    public Iterable<String> terms() {
+        return Arrays.asList(terms);
+    }
+}
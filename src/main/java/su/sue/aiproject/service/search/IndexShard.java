@@ -0,0 +1,303 @@
+package su.sue.aiproject.service.search;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * 一个索引分片：若干磁盘段加上内存中的新文档
+ * 用户按ID取模分配到分片，查询只访问当前用户所在的分片；BM25 的文档数和平均长度按分片统计
+ * 新文档先进内存，定期写成新段；段数超过上限时按大小分层合并：每次只合并最小的几个段，
+ * 大段不会随每次新写入的小段被反复重写
+ */
+@Slf4j
+final class IndexShard {
+
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".idx";
+
+    /**
+     * BM25 参数
+     */
+    static final double K1 = 1.2;
+    static final double B = 0.75;
+
+    private final Path directory;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile List<IndexSegment> segments;
+    private MemoryIndex memory = new MemoryIndex();
+    private long generation;
+
+    private IndexShard(Path directory, List<IndexSegment> segments, long generation) {
+        this.directory = directory;
+        this.segments = segments;
+        this.generation = generation;
+    }
+
+    /**
+     * 打开分片目录，加载已有的段
+     */
+    static IndexShard open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        List<IndexSegment> segments = new ArrayList<>();
+        long generation = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.sorted().toList()) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    // 写了一半的段
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                segments.add(IndexSegment.open(path));
+                generation = Math.max(generation, Long.parseLong(
+                        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        return new IndexShard(directory, segments, generation);
+    }
+
+    /**
+     * 已写入段的消息ID，用于重启后补建索引时跳过已经写入段、但检查点尚未记录的消息
+     *
+     * @param floor 只收集大于该ID的消息
+     */
+    void collectDurableIds(long floor, Set<Long> target) {
+        for (IndexSegment segment : segments) {
+            if (segment.highWater() <= floor) {
+                continue;
+            }
+            for (int doc = 0; doc < segment.docCount(); doc++) {
+                long messageId = segment.messageId(doc);
+                if (messageId > floor) {
+                    target.add(messageId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 添加一条消息
+     */
+    void add(IndexedDocument doc, List<SearchTokenizer.Token> tokens) {
+        lock.writeLock().lock();
+        try {
+            memory.add(doc, tokens);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int memoryDocs() {
+        lock.readLock().lock();
+        try {
+            return memory.docCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 把内存中的文档写成新段
+     *
+     * @param highWater 索引已处理到的消息ID，记录在段尾部
+     */
+    void flush(long highWater) throws IOException {
+        MemoryIndex flushing;
+        lock.readLock().lock();
+        try {
+            if (memory.isEmpty()) {
+                return;
+            }
+            flushing = memory;
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 只有索引线程会修改内存索引，写段期间查询仍可读取
+        IndexSegment segment = IndexSegment.write(nextSegmentPath(), flushing, highWater);
+        lock.writeLock().lock();
+        try {
+            List<IndexSegment> next = new ArrayList<>(segments);
+            next.add(segment);
+            segments = next;
+            memory = new MemoryIndex();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 段数超过上限时，反复把文档数最少的 mergeFactor 个段合并为一个，直到不超过上限
+     * 新写入的段都很小，合并后的段大小按 mergeFactor 的倍数逐层增长
+     */
+    void mergeIfNeeded(int maxSegments, int mergeFactor) throws IOException {
+        while (segments.size() > Math.max(1, maxSegments)) {
+            List<IndexSegment> smallest = new ArrayList<>(segments);
+            smallest.sort(Comparator.comparingInt(IndexSegment::docCount));
+            merge(smallest.subList(0, Math.min(Math.max(2, mergeFactor), smallest.size())));
+        }
+    }
+
+    private void merge(List<IndexSegment> selected) throws IOException {
+        MemoryIndex merged = new MemoryIndex();
+        long highWater = 0;
+        for (IndexSegment segment : selected) {
+            merged.addAll(segment);
+            highWater = Math.max(highWater, segment.highWater());
+        }
+        IndexSegment segment = IndexSegment.write(nextSegmentPath(), merged, highWater);
+        lock.writeLock().lock();
+        try {
+            List<IndexSegment> next = new ArrayList<>(segments);
+            next.removeAll(selected);
+            next.add(segment);
+            segments = next;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (IndexSegment old : selected) {
+            try {
+                Files.deleteIfExists(old.path());
+            } catch (IOException e) {
+                log.warn("删除已合并的索引段失败: {}", old.path(), e);
+            }
+        }
+        log.info("索引分片 {} 合并了 {} 个段, 文档数: {}", directory.getFileName(), selected.size(), segment.docCount());
+    }
+
+    /**
+     * 查询当前用户包含全部查询词的消息，按 BM25 打分
+     */
+    List<SearchHit> search(long userId, List<String> terms) {
+        lock.readLock().lock();
+        try {
+            List<IndexSource> sources = new ArrayList<>(segments);
+            sources.add(memory);
+
+            long docCount = 0;
+            long totalLength = 0;
+            for (IndexSource source : sources) {
+                docCount += source.docCount();
+                totalLength += source.totalLength();
+            }
+            double[] idf = new double[terms.size()];
+            for (int t = 0; t < terms.size(); t++) {
+                long docFreq = 0;
+                for (IndexSource source : sources) {
+                    docFreq += source.docFreq(terms.get(t));
+                }
+                if (docFreq == 0) {
+                    return List.of();
+                }
+                idf[t] = Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+            }
+            double averageLength = docCount == 0 ? 1 : Math.max(1.0, (double) totalLength / docCount);
+
+            List<SearchHit> hits = new ArrayList<>();
+            for (IndexSource source : sources) {
+                collect(source, userId, terms, idf, averageLength, hits);
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void collect(IndexSource source, long userId, List<String> terms, double[] idf, double averageLength,
+                         List<SearchHit> hits) {
+        // 只读取当前用户的倒排项，从该用户文档数最少的词开始求交集
+        List<List<Posting>> lists = new ArrayList<>(terms.size());
+        List<Integer> order = new ArrayList<>();
+        for (int t = 0; t < terms.size(); t++) {
+            List<Posting> list = source.docFreq(terms.get(t)) == 0 ? List.of() : source.postings(terms.get(t), userId);
+            if (list.isEmpty()) {
+                return;
+            }
+            lists.add(list);
+            order.add(t);
+        }
+        order.sort(Comparator.comparingInt(t -> lists.get(t).size()));
+
+        Map<Integer, Match> candidates = null;
+        for (int t : order) {
+            Map<Integer, Match> next = new HashMap<>();
+            for (Posting posting : lists.get(t)) {
+                Match match;
+                if (candidates == null) {
+                    match = new Match();
+                } else {
+                    match = candidates.get(posting.doc());
+                    if (match == null) {
+                        continue;
+                    }
+                }
+                int length = source.doc(posting.doc()).length();
+                double tf = posting.frequency();
+                match.score += idf[t] * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+                match.offsets.add(posting.offsets());
+                next.put(posting.doc(), match);
+            }
+            if (next.isEmpty()) {
+                return;
+            }
+            candidates = next;
+        }
+        candidates.forEach((doc, match) -> {
+            IndexedDocument document = source.doc(doc);
+            hits.add(new SearchHit(document.messageId(), document.conversationId(), match.score, match.sortedOffsets()));
+        });
+    }
+
+    /**
+     * 一条候选消息的累计得分和命中位置
+     */
+    private static final class Match {
+
+        double score;
+        final List<int[]> offsets = new ArrayList<>();
+
+        int[] sortedOffsets() {
+            int count = 0;
+            for (int[] termOffsets : offsets) {
+                count += termOffsets.length / 2;
+            }
+            long[] packed = new long[count];
+            int i = 0;
+            for (int[] termOffsets : offsets) {
+                for (int j = 0; j < termOffsets.length; j += 2) {
+                    packed[i++] = ((long) termOffsets[j] << 32) | (termOffsets[j + 1] & 0xFFFFFFFFL);
+                }
+            }
+            Arrays.sort(packed);
+            int[] result = new int[count * 2];
+            for (i = 0; i < count; i++) {
+                result[2 * i] = (int) (packed[i] >>> 32);
+                result[2 * i + 1] = (int) packed[i];
+            }
+            return result;
+        }
+    }
+
+    private Path nextSegmentPath() {
+        return directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, ++generation, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,38 @@
+package su.sue.aiproject.service.search;
+
+import java.util.List;
+
+/**
+ * 可查询的索引数据：内存中的新文档或磁盘上的段
+ */
+interface IndexSource {
+
+    int docCount();
+
+    /**
+     * 所有文档的词元总数，用于计算平均文档长度
+     */
+    long totalLength();
+
+    IndexedDocument doc(int doc);
+
+    /**
+     * 包含该词的文档数
+     */
+    int docFreq(String term);
+
+    /**
+     * 该词的倒排列表，按文档序号升序；不存在时返回空列表
+     */
+    List<Posting> postings(String term);
+
+    /**
+     * 该词在某个用户的文档中的倒排列表，按文档序号升序；不存在时返回空列表
+     */
+    List<Posting> postings(String term, long userId);
+
+    /**
+     * 所有索引词，按字典序
+     */
+    Iterable<String> terms();
+}
@@ -0,0 +1,12 @@
+package su.sue.aiproject.service.search;
+
+/**
+ * 索引中的一条消息
+ *
+ * @param messageId      消息ID
+ * @param conversationId 所属会话ID
+ * @param userId         会话所属用户ID，查询时只返回当前用户的消息
+ * @param length         词元数，BM25 的文档长度
+ */
+record IndexedDocument(long messageId, long conversationId, long userId, int length) {
+}
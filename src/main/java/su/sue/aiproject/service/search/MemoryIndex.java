@@ -0,0 +1,190 @@
+package su.sue.aiproject.service.search;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存中尚未写成段的新文档
+ * 只由索引线程在写锁内修改，查询在读锁内进行
+ */
+final class MemoryIndex implements IndexSource {
+
+    private final List<IndexedDocument> docs = new ArrayList<>();
+    private final Map<String, List<Posting>> postings = new HashMap<>();
+    private long totalLength;
+
+    /**
+     * 添加一条消息
+     */
+    void add(IndexedDocument doc, List<SearchTokenizer.Token> tokens) {
+        int docIndex = docs.size();
+        docs.add(doc);
+        totalLength += doc.length();
+
+        Map<String, List<Integer>> occurrences = new HashMap<>();
+        for (SearchTokenizer.Token token : tokens) {
+            List<Integer> offsets = occurrences.computeIfAbsent(token.term(), term -> new ArrayList<>());
+            offsets.add(token.start());
+            offsets.add(token.end());
+        }
+        occurrences.forEach((term, offsets) -> {
+            int[] array = new int[offsets.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = offsets.get(i);
+            }
+            postings.computeIfAbsent(term, key -> new ArrayList<>()).add(new Posting(docIndex, array));
+        });
+    }
+
+    /**
+     * 追加另一个数据源的全部文档，用于合并段
+     */
+    void addAll(IndexSource source) {
+        int docBase = docs.size();
+        for (int i = 0; i < source.docCount(); i++) {
+            IndexedDocument doc = source.doc(i);
+            docs.add(doc);
+            totalLength += doc.length();
+        }
+        for (String term : source.terms()) {
+            List<Posting> target = postings.computeIfAbsent(term, key -> new ArrayList<>());
+            for (Posting posting : source.postings(term)) {
+                target.add(new Posting(docBase + posting.doc(), posting.offsets()));
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return docs.isEmpty();
+    }
+
+    @Override
+    public int docCount() {
+        return docs.size();
+    }
+
+    @Override
+    public long totalLength() {
+        return totalLength;
+    }
+
+    @Override
+    public IndexedDocument doc(int doc) {
+        return docs.get(doc);
+    }
+
+    @Override
+    public int docFreq(String term) {
+        List<Posting> list = postings.get(term);
+        return list == null ? 0 : list.size();
+    }
+
+    @Override
+    public List<Posting> postings(String term) {
+        List<Posting> list = postings.get(term);
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    @Override
+    public List<Posting> postings(String term, long userId) {
+        List<Posting> result = new ArrayList<>();
+        for (Posting posting : postings(term)) {
+            if (docs.get(posting.doc()).userId() == userId) {
+                result.add(posting);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Iterable<String> terms() {
+        List<String> terms = new ArrayList<>(postings.keySet());
+        Collections.sort(terms);
+        return terms;
+    }
+
+    /**
+     * 写成段文件，格式见 {@link IndexSegment}
+     * 文档按 (userId, messageId) 重新编号，每个词的倒排列表中同一用户的文档连续，查询时二分定位
+     */
+    void writeTo(DataOutputStream out, long highWater) throws IOException {
+        Integer[] order = new Integer[docs.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> docs.get(i).userId())
+                .thenComparingLong(i -> docs.get(i).messageId()));
+        int[] renumber = new int[order.length];
+        long position = 0;
+        for (int i = 0; i < order.length; i++) {
+            renumber[order[i]] = i;
+            IndexedDocument doc = docs.get(order[i]);
+            out.writeLong(doc.messageId());
+            out.writeLong(doc.conversationId());
+            out.writeLong(doc.userId());
+            out.writeInt(doc.length());
+            position += IndexSegment.DOC_BYTES;
+        }
+
+        List<String> terms = new ArrayList<>(postings.keySet());
+        Collections.sort(terms);
+        List<List<Posting>> lists = new ArrayList<>(terms.size());
+        long entryCount = 0;
+        for (String term : terms) {
+            List<Posting> list = new ArrayList<>(postings.get(term).size());
+            for (Posting posting : postings.get(term)) {
+                list.add(new Posting(renumber[posting.doc()], posting.offsets()));
+            }
+            list.sort(Comparator.comparingInt(Posting::doc));
+            lists.add(list);
+            entryCount += list.size();
+        }
+
+        // 倒排项定长，出现位置统一放在倒排列表之后
+        long[] postingsOffsets = new long[terms.size()];
+        long positions = position + entryCount * IndexSegment.POSTING_BYTES;
+        for (int t = 0; t < terms.size(); t++) {
+            postingsOffsets[t] = position;
+            for (Posting posting : lists.get(t)) {
+                out.writeInt(posting.doc());
+                out.writeInt(posting.frequency());
+                out.writeInt(Math.toIntExact(positions));
+                position += IndexSegment.POSTING_BYTES;
+                positions += posting.offsets().length * 4L;
+            }
+        }
+        for (List<Posting> list : lists) {
+            for (Posting posting : list) {
+                for (int offset : posting.offsets()) {
+                    out.writeInt(offset);
+                    position += 4;
+                }
+            }
+        }
+
+        long dictionaryOffset = position;
+        for (int t = 0; t < terms.size(); t++) {
+            byte[] bytes = terms.get(t).getBytes(StandardCharsets.UTF_8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+            out.writeInt(lists.get(t).size());
+            out.writeLong(postingsOffsets[t]);
+        }
+
+        out.writeInt(docs.size());
+        out.writeInt(terms.size());
+        out.writeLong(dictionaryOffset);
+        out.writeLong(totalLength);
+        out.writeLong(highWater);
+        out.writeInt(IndexSegment.VERSION);
+        out.writeInt(IndexSegment.MAGIC);
+    }
+}
@@ -0,0 +1,14 @@
+package su.sue.aiproject.service.search;
+
+/**
+ * 一个词在一条消息中的出现位置
+ *
+ * @param doc     文档在所属段内的序号
+ * @param offsets 每次出现的起止码点偏移，依次为 start0, end0, start1, end1...
+ */
+record Posting(int doc, int[] offsets) {
+
+    int frequency() {
+        return offsets.length / 2;
+    }
+}
@@ -0,0 +1,12 @@
+package su.sue.aiproject.service.search;
+
+/**
+ * 一条命中的消息
+ *
+ * @param messageId      消息ID
+ * @param conversationId 所属会话ID
+ * @param score          BM25 得分
+ * @param offsets        查询词在消息中每次出现的起止码点偏移（start0, end0, start1, end1...），按起点排序
+ */
+public record SearchHit(long messageId, long conversationId, double score, int[] offsets) {
+}
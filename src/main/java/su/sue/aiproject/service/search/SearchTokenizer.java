@@ -0,0 +1,121 @@
+package su.sue.aiproject.service.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 全文索引分词
+ * 中日韩文字按二元组（bigram）切分：“介绍你自己” -> 介绍、绍你、你自、自己，不依赖词典，任意子串都能命中；
+ * 只有一个字的中日韩片段保留单字；其他字母数字按单词切分并转小写
+ * 每个词元记录在原文中的码点偏移（与 MySQL SUBSTRING 的字符计数一致），用于生成摘要和高亮
+ */
+public final class SearchTokenizer {
+
+    /**
+     * 超长单词（base64、哈希等）不进入索引
+     */
+    static final int MAX_WORD_LENGTH = 64;
+
+    private SearchTokenizer() {
+    }
+
+    /**
+     * 词元
+     *
+     * @param term  索引词
+     * @param start 在原文中的起始码点偏移
+     * @param end   在原文中的结束码点偏移（不含）
+     */
+    public record Token(String term, int start, int end) {
+    }
+
+    /**
+     * 切分文本
+     */
+    public static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        int length = text.length();
+        // i 为 UTF-16 下标，cp 为对应的码点偏移
+        int i = 0;
+        int cp = 0;
+        while (i < length) {
+            int codePoint = text.codePointAt(i);
+            if (isCjk(codePoint)) {
+                int runStart = i;
+                int runStartCp = cp;
+                int previous = -1;
+                while (i < length && isCjk(codePoint = text.codePointAt(i))) {
+                    int next = i + Character.charCount(codePoint);
+                    if (previous >= 0) {
+                        tokens.add(new Token(text.substring(previous, next), cp - 1, cp + 1));
+                    }
+                    previous = i;
+                    i = next;
+                    cp++;
+                }
+                if (previous == runStart) {
+                    // 单字片段
+                    tokens.add(new Token(text.substring(runStart, i), runStartCp, cp));
+                }
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                int wordStart = i;
+                int wordStartCp = cp;
+                while (i < length) {
+                    codePoint = text.codePointAt(i);
+                    if (!Character.isLetterOrDigit(codePoint) || isCjk(codePoint)) {
+                        break;
+                    }
+                    i += Character.charCount(codePoint);
+                    cp++;
+                }
+                if (cp - wordStartCp <= MAX_WORD_LENGTH) {
+                    tokens.add(new Token(text.substring(wordStart, i).toLowerCase(Locale.ROOT), wordStartCp, cp));
+                }
+            } else {
+                i += Character.charCount(codePoint);
+                cp++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 查询词：去重后的索引词，保持出现顺序
+     */
+    public static List<String> queryTerms(String keyword) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (Token token : tokenize(keyword)) {
+            terms.add(token.term());
+        }
+        return new ArrayList<>(terms);
+    }
+
+    /**
+     * 查询能否由索引回答：单个汉字只索引在二元组里，按单字查询时由调用方回退到数据库
+     */
+    public static boolean isIndexable(List<String> terms) {
+        if (terms.isEmpty()) {
+            return false;
+        }
+        for (String term : terms) {
+            if (term.codePointCount(0, term.length()) == 1 && isCjk(term.codePointAt(0))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,149 @@
+package su.sue.aiproject.service.search;
+
+import su.sue.aiproject.domain.dto.HighlightRange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 搜索结果的摘要和高亮
+ * 根据索引中记录的命中位置选出命中最密集的窗口，数据库只截取这一段返回，不需要读取和扫描整条消息
+ * 位置均为码点偏移，最终返回给前端的高亮区间转换为摘要字符串内的 UTF-16 下标
+ */
+public final class SnippetBuilder {
+
+    /**
+     * 参与选择窗口的命中次数上限，避免超长消息中的高频词导致计算量过大
+     */
+    private static final int MAX_ANCHORS = 64;
+
+    private SnippetBuilder() {
+    }
+
+    /**
+     * 摘要窗口
+     *
+     * @param start      在消息中的起始码点偏移
+     * @param length     码点数
+     * @param highlights 窗口内的高亮区间（相对窗口起点，已合并重叠），依次为 start0, end0, start1, end1...
+     */
+    public record Window(int start, int length, int[] highlights) {
+    }
+
+    /**
+     * 选择包含命中次数最多的窗口
+     *
+     * @param offsets 命中位置，按起点排序
+     * @param length  窗口长度
+     * @param before  第一个命中之前保留的上下文长度
+     */
+    public static Window window(int[] offsets, int length, int before) {
+        if (offsets.length == 0) {
+            return new Window(0, length, new int[0]);
+        }
+        int best = 0;
+        int bestCount = 0;
+        for (int i = 0; i < offsets.length && i < MAX_ANCHORS * 2; i += 2) {
+            int end = Math.max(0, offsets[i] - before) + length;
+            int count = 0;
+            for (int k = i; k < offsets.length && offsets[k] < end; k += 2) {
+                if (offsets[k + 1] <= end) {
+                    count++;
+                }
+            }
+            if (count > bestCount) {
+                bestCount = count;
+                best = i;
+            }
+        }
+
+        int start = Math.max(0, offsets[best] - before);
+        int end = start + length;
+        List<Integer> merged = new ArrayList<>();
+        int currentStart = -1;
+        int currentEnd = -1;
+        for (int k = 0; k < offsets.length; k += 2) {
+            int s = offsets[k];
+            if (s < start || s >= end) {
+                continue;
+            }
+            int e = Math.min(offsets[k + 1], end);
+            if (currentStart >= 0 && s <= currentEnd) {
+                // 相邻二元组重叠（如“介绍”“绍你”），合并为一段
+                currentEnd = Math.max(currentEnd, e);
+            } else {
+                if (currentStart >= 0) {
+                    merged.add(currentStart - start);
+                    merged.add(currentEnd - start);
+                }
+                currentStart = s;
+                currentEnd = e;
+            }
+        }
+        if (currentStart >= 0) {
+            merged.add(currentStart - start);
+            merged.add(currentEnd - start);
+        }
+        return new Window(start, length, merged.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * 把窗口内的高亮区间转换为摘要字符串中的 UTF-16 下标，超出摘要实际长度的部分被裁掉
+     */
+    public static List<HighlightRange> highlights(String snippet, int[] highlights) {
+        List<HighlightRange> ranges = new ArrayList<>();
+        if (snippet == null) {
+            return ranges;
+        }
+        int codePoints = snippet.codePointCount(0, snippet.length());
+        for (int k = 0; k < highlights.length; k += 2) {
+            int s = Math.min(highlights[k], codePoints);
+            int e = Math.min(highlights[k + 1], codePoints);
+            if (s < e) {
+                ranges.add(new HighlightRange(snippet.offsetByCodePoints(0, s), snippet.offsetByCodePoints(0, e)));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * 从完整内容中截取窗口，用于没有索引位置的数据库查询结果
+     */
+    public static String cut(String content, Window window) {
+        if (content == null) {
+            return null;
+        }
+        int codePoints = content.codePointCount(0, content.length());
+        int s = Math.min(window.start(), codePoints);
+        int e = Math.min(window.start() + window.length(), codePoints);
+        return content.substring(content.offsetByCodePoints(0, s), content.offsetByCodePoints(0, e));
+    }
+
+    /**
+     * 查找关键词在内容中的出现位置（忽略大小写），用于没有索引位置的数据库查询结果
+     */
+    public static int[] find(String content, String keyword) {
+        if (content == null || keyword == null || keyword.isEmpty()) {
+            return new int[0];
+        }
+        String haystack = content.toLowerCase(Locale.ROOT);
+        String needle = keyword.toLowerCase(Locale.ROOT);
+        if (haystack.length() != content.length()) {
+            // 转小写改变了长度，按原文匹配
+            haystack = content;
+            needle = keyword;
+        }
+        List<Integer> offsets = new ArrayList<>();
+        int keywordCodePoints = needle.codePointCount(0, needle.length());
+        int from = 0;
+        int index;
+        while ((index = haystack.indexOf(needle, from)) >= 0) {
+            int start = content.codePointCount(0, index);
+            offsets.add(start);
+            offsets.add(start + keywordCodePoints);
+            from = index + needle.length();
+        }
+        return offsets.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
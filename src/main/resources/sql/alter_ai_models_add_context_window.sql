@@ -0,0 +1,4 @@
+-- 为ai_models表添加上下文窗口，服务端组装会话上下文时按此裁剪历史消息
+
+ALTER TABLE ai_models
+ADD COLUMN context_window INT NULL COMMENT '上下文窗口token数，为空时使用 app.chat.context.default-window-tokens';
@@ -0,0 +1,4 @@
+-- 为ai_models表添加同步请求对冲开关
+
+ALTER TABLE ai_models
+ADD COLUMN hedge_enabled TINYINT(1) NOT NULL DEFAULT 0 COMMENT '同步请求是否启用对冲（需要配置端点池）';
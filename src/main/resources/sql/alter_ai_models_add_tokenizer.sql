@@ -0,0 +1,4 @@
+-- 为ai_models表添加分词器配置，上游未返回usage时按该分词器估算token数
+
+ALTER TABLE ai_models
+ADD COLUMN tokenizer VARCHAR(32) NULL COMMENT '估算token数使用的分词器（cl100k_base/o200k_base/qwen/heuristic），为空时按模型名推断';
@@ -0,0 +1,31 @@
+-- 为conversations表添加会话摘要列：对话列表直接读取，不再对messages做全表GROUP BY
+-- message_count、total_tokens 已在 OpenAI 兼容性迁移中添加，这里只补充最后一条消息的信息
+
+ALTER TABLE conversations
+ADD COLUMN last_message_at DATETIME NULL COMMENT '最后一条消息时间',
+ADD COLUMN last_message_preview VARCHAR(255) NULL COMMENT '最后一条消息预览（截取前200个字符）',
+ADD COLUMN last_activity_at DATETIME GENERATED ALWAYS AS (COALESCE(last_message_at, created_at)) STORED COMMENT '列表排序时间：最后一条消息时间，没有消息时为创建时间';
+
+-- 对话列表按用户过滤、按最后活动时间倒序
+CREATE INDEX idx_conversations_user_activity ON conversations(user_id, last_activity_at DESC);
+
+-- 回填已有会话的摘要（数据量大时可改用应用的分批回填：app.conversations.summary.backfill-on-startup=true）
+UPDATE conversations c
+LEFT JOIN (
+    SELECT conversation_id,
+           COUNT(*) AS message_count,
+           COALESCE(SUM(COALESCE(total_tokens, tokens_consumed, 0)), 0) AS total_tokens,
+           MAX(created_at) AS last_message_at
+    FROM messages
+    GROUP BY conversation_id
+) s ON s.conversation_id = c.id
+SET c.message_count = COALESCE(s.message_count, 0),
+    c.total_tokens = COALESCE(s.total_tokens, 0),
+    c.last_message_at = s.last_message_at,
+    c.last_message_preview = (
+        SELECT LEFT(m.content, 200)
+        FROM messages m
+        WHERE m.conversation_id = c.id
+        ORDER BY m.created_at DESC, m.id DESC
+        LIMIT 1
+    );
@@ -0,0 +1,8 @@
+-- 对话列表游标分页按 (last_activity_at DESC, id DESC) 排序
+-- InnoDB 二级索引隐含主键列，升序索引 (user_id, last_activity_at, id) 反向扫描即可满足该排序，不需要filesort
+-- 替换 alter_conversations_add_summary_columns.sql 中的降序索引（降序索引隐含的 id 为升序，无法覆盖 id DESC）
+
+DROP INDEX idx_conversations_user_activity ON conversations;
+CREATE INDEX idx_conversations_user_activity ON conversations(user_id, last_activity_at);
+
+-- 消息历史游标分页按 (created_at, id) 升序，直接使用已有的 idx_messages_conversation_created (conversation_id, created_at)
@@ -0,0 +1,11 @@
+-- 积分预留持久化：预留流水记录预留ID和关闭状态，进程重启或结算任务丢失后由清理任务退还超时未关闭的预留
+-- 结算/退还流水的 event_id 固定为 close:{hold_id}，INSERT IGNORE 保证每笔预留只关闭一次
+
+ALTER TABLE credit_ledger
+    MODIFY event_id VARCHAR(64) NOT NULL COMMENT '事件ID，重放日志时用于去重；预留的结算/退还流水为 close:{hold_id}',
+    ADD COLUMN hold_id VARCHAR(36) NULL COMMENT '预留ID，预留流水及其结算/退还流水共用' AFTER event_id,
+    ADD COLUMN hold_state TINYINT NULL COMMENT '仅预留流水：0 未关闭, 1 已结算或已退还' AFTER hold_id;
+
+-- 按预留ID关闭预留流水；清理任务按创建时间查找未关闭的预留
+CREATE INDEX idx_credit_ledger_hold ON credit_ledger(hold_id);
+CREATE INDEX idx_credit_ledger_hold_state ON credit_ledger(hold_state, created_at);
@@ -0,0 +1,15 @@
+-- 创建AI模型端点池表：同一个逻辑模型可配置多组API端点和密钥，按负载分发请求
+
+CREATE TABLE IF NOT EXISTS ai_model_endpoints (
+    id INT AUTO_INCREMENT PRIMARY KEY COMMENT '端点唯一标识',
+    model_id INT NOT NULL COMMENT '所属模型ID',
+    api_endpoint VARCHAR(500) NOT NULL COMMENT 'API端点',
+    api_key VARCHAR(500) NOT NULL COMMENT 'API密钥',
+    weight INT NOT NULL DEFAULT 1 COMMENT '权重，按比例分配请求',
+    is_enabled TINYINT(1) NOT NULL DEFAULT 1 COMMENT '是否启用',
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    updated_at DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间'
+) COMMENT 'AI模型端点池';
+
+-- 为字段添加索引
+CREATE INDEX idx_ai_model_endpoints_model ON ai_model_endpoints(model_id, is_enabled);
@@ -0,0 +1,14 @@
+-- 创建会话摘要检查点表：长会话的早期消息被压缩为摘要，每次压缩追加一行，最新一行生效
+
+CREATE TABLE IF NOT EXISTS conversation_summaries (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '摘要唯一标识',
+    conversation_id BIGINT NOT NULL COMMENT '会话ID',
+    summary TEXT NOT NULL COMMENT '截至 covered_message_id（含）的对话摘要',
+    covered_message_id BIGINT NOT NULL COMMENT '摘要覆盖到的最后一条消息ID',
+    summary_tokens INT NOT NULL DEFAULT 0 COMMENT '摘要的token数',
+    model_id INT NULL COMMENT '生成摘要使用的模型ID',
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间'
+) COMMENT '会话摘要检查点';
+
+-- 按会话取最新的摘要
+CREATE INDEX idx_conversation_summaries_conversation ON conversation_summaries(conversation_id, id);
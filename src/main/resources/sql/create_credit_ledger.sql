@@ -0,0 +1,20 @@
+-- 创建积分流水表：只追加的积分变更记录
+-- status=0 的流水尚未合并进 users.credit_balance，用户的实际余额 = credit_balance + 未合并流水之和
+
+CREATE TABLE IF NOT EXISTS credit_ledger (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '流水唯一标识',
+    event_id VARCHAR(36) NOT NULL COMMENT '事件ID，重放日志时用于去重',
+    user_id BIGINT NOT NULL COMMENT '用户ID',
+    amount DECIMAL(18,6) NOT NULL COMMENT '积分变化量，负数为扣除',
+    type VARCHAR(20) NOT NULL COMMENT '变更类型：reserve/settle/release/deduct/add',
+    description VARCHAR(255) COMMENT '变更描述',
+    status TINYINT NOT NULL DEFAULT 0 COMMENT '0: 待合并到余额, 1: 已合并或已直接生效',
+    fold_id VARCHAR(36) COMMENT '合并批次ID',
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    UNIQUE KEY uk_credit_ledger_event (event_id)
+) COMMENT '积分流水';
+
+-- 为字段添加索引
+CREATE INDEX idx_credit_ledger_user_status ON credit_ledger(user_id, status);
+CREATE INDEX idx_credit_ledger_status ON credit_ledger(status, id);
+CREATE INDEX idx_credit_ledger_fold ON credit_ledger(fold_id);
@@ -7,8 +7,8 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.web.reactive.function.client.WebClient;
 import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.service.ai.ProviderWebClientRegistry;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -19,7 +19,7 @@ public class AiApiTestServiceTest {
     private ObjectMapper objectMapper;
 
     @Mock
-    private WebClient.Builder webClientBuilder;
+    private ProviderWebClientRegistry webClientRegistry;
 
     @InjectMocks
     private AiApiTestService aiApiTestService;
@@ -0,0 +1,62 @@
+package su.sue.aiproject.service.ai;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.service.AiModelsService;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * AiModelRegistry 测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class AiModelRegistryTest {
+
+    @Mock
+    private AiModelsService aiModelsService;
+
+    @InjectMocks
+    private AiModelRegistry registry;
+
+    private final AtomicLong now = new AtomicLong();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(registry, "negativeTtlMs", 5000L);
+        registry.nanoClock = now::get;
+    }
+
+    @Test
+    void testMissingIdIsCachedUntilTtlExpires() {
+        assertNull(registry.get(99));
+        assertNull(registry.get(99));
+        verify(aiModelsService, times(1)).getById(99);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(6));
+        assertNull(registry.get(99));
+        verify(aiModelsService, times(2)).getById(99);
+    }
+
+    @Test
+    void testRefreshClearsMissingEntry() {
+        assertNull(registry.get(7));
+        AiModels model = new AiModels();
+        model.setId(7);
+        when(aiModelsService.getById(7)).thenReturn(model);
+
+        // 管理端新增模型后主动刷新
+        registry.refresh(7);
+
+        assertSame(model, registry.get(7));
+    }
+}
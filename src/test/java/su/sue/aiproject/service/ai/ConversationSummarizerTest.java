@@ -0,0 +1,180 @@
+package su.sue.aiproject.service.ai;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.service.ai.provider.DashScopeCodec;
+import su.sue.aiproject.service.ai.provider.GenericOpenAiCodec;
+import su.sue.aiproject.service.ai.provider.ProviderCodecRegistry;
+import su.sue.aiproject.service.ai.tokenizer.TokenizerRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ConversationSummarizer 测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class ConversationSummarizerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Mock
+    private ModelCallPlanCache modelCallPlanCache;
+
+    @Mock
+    private ModelEndpointBalancer modelEndpointBalancer;
+
+    @Mock
+    private HedgedRequestExecutor hedgedRequestExecutor;
+
+    @Mock
+    private ModelRateLimiter modelRateLimiter;
+
+    @Mock
+    private EndpointLease lease;
+
+    private ConversationSummarizer summarizer;
+
+    /**
+     * 发往上游的请求地址
+     */
+    private final List<String> requestedUris = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        ProviderCodecRegistry registry = new ProviderCodecRegistry(List.of(
+                new DashScopeCodec(objectMapper), new GenericOpenAiCodec(objectMapper)));
+        TokenizerRegistry tokenizerRegistry = new TokenizerRegistry(new DefaultResourceLoader());
+        ReflectionTestUtils.setField(tokenizerRegistry, "systemPromptCacheSize", 16);
+        tokenizerRegistry.init();
+        summarizer = new ConversationSummarizer(modelCallPlanCache, modelEndpointBalancer, hedgedRequestExecutor,
+                modelRateLimiter, registry, tokenizerRegistry);
+        ReflectionTestUtils.setField(summarizer, "summaryMaxTokens", 800);
+        ReflectionTestUtils.setField(summarizer, "maxMessageChars", 4000);
+        ReflectionTestUtils.setField(summarizer, "defaultWindowTokens", 8192);
+    }
+
+    @Test
+    void testOllamaResponseIsDecodedByCodec() throws Exception {
+        AiModels model = model(1, "other", "http://localhost:11434/api/chat");
+        respond(model, """
+                {"model":"qwen3:latest","created_at":"2025-07-07T14:00:00Z",
+                 "message":{"role":"assistant","content":" 用户偏好简洁的回答 "},"done":true,
+                 "prompt_eval_count":120,"eval_count":12}""");
+
+        String summary = summarizer.summarize(model, null, List.of(message("user", "请简短回答")));
+
+        assertEquals("用户偏好简洁的回答", summary);
+        assertEquals(List.of("http://localhost:11434/api/chat"), requestedUris);
+        verify(modelRateLimiter).acquire(model, 2);
+    }
+
+    @Test
+    void testDashScopeNativeResponseIsDecodedByCodec() throws Exception {
+        AiModels model = model(2, "qwen", "https://dashscope.example.com/api/v1/services/aigc/generation");
+        respond(model, """
+                {"output":{"choices":[{"message":{"role":"assistant","content":"- 讨论了数据库索引"},
+                 "finish_reason":"stop"}]},"usage":{"input_tokens":90,"output_tokens":8},"request_id":"r1"}""");
+
+        String summary = summarizer.summarize(model, "旧摘要", List.of(message("assistant", "索引就是目录")));
+
+        assertEquals("- 讨论了数据库索引", summary);
+        assertEquals(1, requestedUris.size());
+    }
+
+    @Test
+    void testEmptyContentIsRejected() {
+        AiModels model = model(2, "qwen", "https://dashscope.example.com/api/v1/services/aigc/generation");
+        respond(model, """
+                {"output":{"text":"","finish_reason":"stop"},"request_id":"r2"}""");
+
+        assertThrows(RuntimeException.class,
+                () -> summarizer.summarize(model, null, List.of(message("user", "你好"))));
+    }
+
+    @Test
+    void testRateLimitRejectionSkipsUpstreamCall() {
+        AiModels model = model(1, "other", "http://localhost:11434/api/chat");
+        when(modelEndpointBalancer.poolSize(1)).thenReturn(1);
+        doThrow(new RuntimeException("请求过于频繁")).when(modelRateLimiter).acquire(model, 1);
+
+        assertThrows(RuntimeException.class,
+                () -> summarizer.summarize(model, null, List.of(message("user", "你好"))));
+        verifyNoInteractions(hedgedRequestExecutor);
+    }
+
+    @Test
+    void testWindowTooSmallForPreviousSummaryIsRejected() {
+        AiModels model = model(1, "other", "http://localhost:11434/api/chat");
+        model.setContextWindow(900);
+
+        assertThrows(RuntimeException.class,
+                () -> summarizer.summarize(model, "摘要".repeat(200), List.of(message("user", "你好"))));
+        verifyNoInteractions(modelRateLimiter, hedgedRequestExecutor);
+    }
+
+    @Test
+    void testBudgetIsWindowMinusSummaryOutput() {
+        AiModels model = model(1, "other", "http://localhost:11434/api/chat");
+        model.setContextWindow(4096);
+
+        assertEquals(4096 - 800, summarizer.maxInputTokens(model));
+        assertTrue(summarizer.messageTokens(model, message("user", "长".repeat(10000)))
+                <= summarizer.messageTokens(model, message("user", "长".repeat(4000))));
+    }
+
+    /**
+     * 执行器把调用交给租约选中的端点，上游返回给定的响应体
+     */
+    @SuppressWarnings("unchecked")
+    private void respond(AiModels model, String body) {
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    requestedUris.add(request.url().toString());
+                    return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body(body)
+                            .build());
+                })
+                .build();
+        when(modelEndpointBalancer.poolSize(model.getId())).thenReturn(2);
+        when(modelCallPlanCache.get(model, null)).thenReturn(ModelCallPlan.compile(model, webClient, objectMapper));
+        when(hedgedRequestExecutor.execute(same(model), any())).thenAnswer(invocation ->
+                ((HedgedRequestExecutor.Attempt<String>) invocation.getArgument(1)).call(lease));
+    }
+
+    private AiModels model(int id, String provider, String endpoint) {
+        AiModels model = new AiModels();
+        model.setId(id);
+        model.setModelName("summary-model");
+        model.setProvider(provider);
+        model.setApiEndpoint(endpoint);
+        model.setApiKey("sk-test");
+        return model;
+    }
+
+    private Messages message(String role, String content) {
+        Messages message = new Messages();
+        message.setRole(role);
+        message.setContent(content);
+        return message;
+    }
+}
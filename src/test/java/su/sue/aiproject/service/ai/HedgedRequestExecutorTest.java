@@ -0,0 +1,159 @@
+package su.sue.aiproject.service.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import su.sue.aiproject.domain.AiModelEndpoints;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.service.AiModelEndpointsService;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * HedgedRequestExecutor 测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class HedgedRequestExecutorTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Mock
+    private AiModelEndpointsService aiModelEndpointsService;
+
+    private ModelEndpointBalancer balancer;
+    private HedgedRequestExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        balancer = new ModelEndpointBalancer(aiModelEndpointsService, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(balancer, "includePrimary", false);
+        ReflectionTestUtils.setField(balancer, "ejectionBaseMs", 5000L);
+        ReflectionTestUtils.setField(balancer, "ejectionMaxMs", 300000L);
+        ReflectionTestUtils.setField(balancer, "slowStartMs", 30000L);
+        ReflectionTestUtils.setField(balancer, "latencyEwmaAlpha", 0.3);
+        ReflectionTestUtils.setField(balancer, "breakerWindowMs", 30000L);
+        ReflectionTestUtils.setField(balancer, "breakerWindowBuckets", 10);
+        ReflectionTestUtils.setField(balancer, "breakerMinimumCalls", 4);
+        ReflectionTestUtils.setField(balancer, "breakerFailureRateThreshold", 50);
+        ReflectionTestUtils.setField(balancer, "breakerSlowCallThresholdMs", 20000L);
+        ReflectionTestUtils.setField(balancer, "breakerSlowCallRateThreshold", 80);
+        ReflectionTestUtils.setField(balancer, "breakerOpenDurationMs", 30000L);
+        ReflectionTestUtils.setField(balancer, "breakerHalfOpenPermittedCalls", 1);
+        when(aiModelEndpointsService.listEnabled()).thenReturn(Arrays.asList(createEndpoint(10), createEndpoint(11)));
+        balancer.reload();
+
+        executor = new HedgedRequestExecutor(balancer, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(executor, "enabled", true);
+        ReflectionTestUtils.setField(executor, "quantile", 0.95);
+        // 样本数永远不足，对冲延迟固定为默认值
+        ReflectionTestUtils.setField(executor, "minSamples", Integer.MAX_VALUE);
+        ReflectionTestUtils.setField(executor, "defaultDelayMs", 20L);
+        ReflectionTestUtils.setField(executor, "minDelayMs", 1L);
+        ReflectionTestUtils.setField(executor, "maxRatio", 1.0);
+        ReflectionTestUtils.setField(executor, "burst", 1);
+        ReflectionTestUtils.setField(executor, "histogramWindowMs", 60000L);
+    }
+
+    @Test
+    void testSlowPrimaryIsCancelledWhenHedgeWins() {
+        AtomicBoolean primaryCancelled = new AtomicBoolean(false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = executor.execute(createModel(), lease -> attempts.incrementAndGet() == 1
+                        ? Mono.<String>never().doOnCancel(() -> primaryCancelled.set(true))
+                        : Mono.just("hedge"))
+                .block(TIMEOUT);
+
+        assertEquals("hedge", result);
+        assertEquals(2, attempts.get());
+        assertTrue(primaryCancelled.get());
+        assertEquals(0, outstanding());
+    }
+
+    @Test
+    void testPrimaryFailureBeforeHedgeSkipsHedge() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        RuntimeException error = assertThrows(RuntimeException.class, () -> executor.execute(createModel(),
+                lease -> {
+                    attempts.incrementAndGet();
+                    return Mono.<String>error(new IllegalStateException("上游错误"));
+                }).block(TIMEOUT));
+
+        assertEquals("上游错误", error.getMessage());
+        // 等过对冲延迟，确认对冲没有在失败之后补发
+        Mono.delay(Duration.ofMillis(60)).block(TIMEOUT);
+        assertEquals(1, attempts.get());
+        assertEquals(0, outstanding());
+    }
+
+    @Test
+    void testHedgeBudgetIsCappedByBurst() {
+        ReflectionTestUtils.setField(executor, "maxRatio", 0.5);
+
+        // 大量不需要对冲的快速请求只能积累 burst 个令牌
+        for (int i = 0; i < 20; i++) {
+            assertEquals("primary", executor.execute(createModel(), lease -> Mono.just("primary")).block(TIMEOUT));
+        }
+
+        // 上游变慢后只有第一个请求可以对冲，第二个请求积累的半个令牌不足以对冲
+        assertEquals("hedge", slowPrimary());
+        assertEquals("primary", slowPrimary());
+        // 再积累半个令牌后又可以对冲一次
+        assertEquals("hedge", slowPrimary());
+        assertEquals(0, outstanding());
+    }
+
+    /**
+     * 首个请求100ms后返回，对冲请求立即返回
+     */
+    private String slowPrimary() {
+        AtomicInteger attempts = new AtomicInteger();
+        return executor.execute(createModel(), lease -> attempts.incrementAndGet() == 1
+                        ? Mono.delay(Duration.ofMillis(100)).thenReturn("primary")
+                        : Mono.just("hedge"))
+                .block(TIMEOUT);
+    }
+
+    private int outstanding() {
+        ModelEndpointBalancer.Pool pool = (ModelEndpointBalancer.Pool)
+                ((Map<?, ?>) ReflectionTestUtils.getField(balancer, "pools")).get(1);
+        int total = 0;
+        for (ModelEndpointBalancer.Member member : pool.members) {
+            total += member.outstanding.get();
+        }
+        return total;
+    }
+
+    private static AiModels createModel() {
+        AiModels model = new AiModels();
+        model.setId(1);
+        model.setApiEndpoint("https://api.example.com/v1/chat/completions");
+        model.setApiKey("sk-primary");
+        model.setHedgeEnabled(true);
+        return model;
+    }
+
+    private static AiModelEndpoints createEndpoint(int id) {
+        AiModelEndpoints endpoint = new AiModelEndpoints();
+        endpoint.setId(id);
+        endpoint.setModelId(1);
+        endpoint.setApiEndpoint("https://api" + id + ".example.com/v1/chat/completions");
+        endpoint.setApiKey("sk-" + id);
+        endpoint.setWeight(1);
+        endpoint.setIsEnabled(true);
+        return endpoint;
+    }
+}
@@ -0,0 +1,64 @@
+package su.sue.aiproject.service.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LatencyHistogram 测试类
+ */
+class LatencyHistogramTest {
+
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(60);
+
+    @Test
+    void testEmptyHistogramHasNoPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW, 0);
+
+        assertEquals(0, histogram.count(0));
+        assertEquals(-1, histogram.percentile(0.95, 0));
+    }
+
+    @Test
+    void testPercentileWithinOneBucket() {
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW, 0);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i * 10L), 0);
+        }
+
+        long p95 = histogram.percentile(0.95, 0);
+        long expected = TimeUnit.MILLISECONDS.toNanos(950);
+        assertTrue(p95 >= expected, "分位数取桶上界，不应低于真实值");
+        assertTrue(p95 <= expected * 1.2 + 1, "误差不超过一个桶宽");
+        assertEquals(100, histogram.count(0));
+    }
+
+    @Test
+    void testOldSamplesExpireAfterTwoWindows() {
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW, 0);
+        histogram.record(TimeUnit.SECONDS.toNanos(10), 0);
+
+        // 进入下一个窗口，上一窗口的样本仍然有效
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(100), WINDOW + 1);
+        assertEquals(2, histogram.count(WINDOW + 1));
+
+        // 再过一个窗口，最早的样本被淘汰
+        assertEquals(1, histogram.count(2 * WINDOW + 2));
+        assertEquals(0, histogram.count(5 * WINDOW));
+    }
+
+    @Test
+    void testBucketsAreMonotonic() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(TimeUnit.MILLISECONDS.toNanos(1)));
+        int previous = 0;
+        for (long ms = 1; ms < 600_000; ms *= 3) {
+            int bucket = LatencyHistogram.bucketOf(TimeUnit.MILLISECONDS.toNanos(ms));
+            assertTrue(bucket >= previous);
+            assertTrue(LatencyHistogram.upperBound(bucket) >= TimeUnit.MILLISECONDS.toNanos(ms));
+            previous = bucket;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package su.sue.aiproject.service.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatMessage;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ModelCallPlan 测试类
+ */
+class ModelCallPlanTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testCompileHeadersAndUri() {
+        AiModels model = createModel();
+        model.setOrganizationId("org-test");
+        model.setExtraHeaders("{\"X-Custom\":\"abc\"}");
+
+        ModelCallPlan plan = ModelCallPlan.compile(model, null, objectMapper);
+        HttpHeaders headers = new HttpHeaders();
+        plan.applyHeaders(headers);
+
+        assertEquals("https://api.example.com/v1/chat/completions", plan.getUri().toString());
+        assertEquals("Bearer sk-test", headers.getFirst(HttpHeaders.AUTHORIZATION));
+        assertEquals("org-test", headers.getFirst("OpenAI-Organization"));
+        assertNull(headers.getFirst("OpenAI-Project"));
+        assertEquals("abc", headers.getFirst("X-Custom"));
+    }
+
+    @Test
+    void testInvalidExtraHeadersAreIgnored() {
+        AiModels model = createModel();
+        model.setExtraHeaders("not-json");
+
+        ModelCallPlan plan = ModelCallPlan.compile(model, null, objectMapper);
+        HttpHeaders headers = new HttpHeaders();
+        plan.applyHeaders(headers);
+
+        assertEquals(1, headers.size());
+    }
+
+    @Test
+    void testBuildRequestBody() throws Exception {
+        ModelCallPlan plan = ModelCallPlan.compile(createModel(), null, objectMapper);
+
+        ChatMessage message = new ChatMessage();
+        message.setRole("user");
+        message.setContent("你好 \"世界\"");
+
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(Collections.singletonList(message));
+        request.setTemperature(0.7);
+        request.setMaxTokens(100);
+        request.setStop(Arrays.asList("\n", "END"));
+
+        JsonNode stream = objectMapper.readTree(plan.buildRequestBody(request, true));
+        assertEquals("qwen-plus", stream.get("model").asText());
+        assertTrue(stream.get("stream").asBoolean());
+        assertEquals("你好 \"世界\"", stream.get("messages").get(0).get("content").asText());
+        assertEquals(0.7, stream.get("temperature").asDouble());
+        assertEquals(100, stream.get("max_tokens").asInt());
+        assertEquals("END", stream.get("stop").get(1).asText());
+        assertFalse(stream.has("top_p"));
+
+        JsonNode sync = objectMapper.readTree(plan.buildRequestBody(request, false));
+        assertFalse(sync.get("stream").asBoolean());
+    }
+
+    private AiModels createModel() {
+        AiModels model = new AiModels();
+        model.setId(1);
+        model.setModelName("qwen-plus");
+        model.setProvider("qwen");
+        model.setApiEndpoint("https://api.example.com/v1/chat/completions");
+        model.setApiKey("sk-test");
+        return model;
+    }
+}
@@ -0,0 +1,220 @@
+package su.sue.aiproject.service.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import su.sue.aiproject.domain.AiModelEndpoints;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.service.AiModelEndpointsService;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * ModelEndpointBalancer 测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class ModelEndpointBalancerTest {
+
+    @Mock
+    private AiModelEndpointsService aiModelEndpointsService;
+
+    private ModelEndpointBalancer balancer;
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(1000));
+
+    @BeforeEach
+    void setUp() {
+        balancer = new ModelEndpointBalancer(aiModelEndpointsService, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(balancer, "includePrimary", false);
+        ReflectionTestUtils.setField(balancer, "ejectionBaseMs", 5000L);
+        ReflectionTestUtils.setField(balancer, "ejectionMaxMs", 300000L);
+        ReflectionTestUtils.setField(balancer, "slowStartMs", 30000L);
+        ReflectionTestUtils.setField(balancer, "latencyEwmaAlpha", 0.3);
+        ReflectionTestUtils.setField(balancer, "breakerWindowMs", 30000L);
+        ReflectionTestUtils.setField(balancer, "breakerWindowBuckets", 10);
+        ReflectionTestUtils.setField(balancer, "breakerMinimumCalls", 4);
+        ReflectionTestUtils.setField(balancer, "breakerFailureRateThreshold", 50);
+        ReflectionTestUtils.setField(balancer, "breakerSlowCallThresholdMs", 20000L);
+        ReflectionTestUtils.setField(balancer, "breakerSlowCallRateThreshold", 80);
+        ReflectionTestUtils.setField(balancer, "breakerOpenDurationMs", 30000L);
+        ReflectionTestUtils.setField(balancer, "breakerHalfOpenPermittedCalls", 1);
+        balancer.nanoClock = now::get;
+    }
+
+    @Test
+    void testModelWithoutEndpointsUsesOwnEndpoint() {
+        when(aiModelEndpointsService.listByModelId(1)).thenReturn(Collections.emptyList());
+        balancer.refresh(1);
+
+        EndpointLease lease = balancer.acquire(createModel());
+
+        assertNull(lease.getEndpoint());
+        assertEquals(1, balancer.poolSize(1));
+    }
+
+    @Test
+    void testPrefersMemberWithFewerOutstandingRequests() {
+        loadEndpoints(createEndpoint(10), createEndpoint(11));
+
+        // 占住端点10，之后的请求都应选择空闲的端点11
+        EndpointLease busy = acquireUntil(10);
+        for (int i = 0; i < 20; i++) {
+            EndpointLease lease = balancer.acquire(createModel());
+            assertEquals(11, lease.getEndpoint().getId().intValue());
+            lease.onComplete();
+        }
+        busy.onComplete();
+    }
+
+    @Test
+    void testRateLimitedMemberIsEjectedForRetryAfter() {
+        loadEndpoints(createEndpoint(10), createEndpoint(11));
+
+        EndpointLease lease = acquireUntil(10);
+        lease.onError(tooManyRequests("60"));
+
+        for (int i = 0; i < 20; i++) {
+            EndpointLease next = balancer.acquire(createModel());
+            assertEquals(11, next.getEndpoint().getId().intValue());
+            next.onComplete();
+        }
+
+        // Retry-After 到期后重新参与分发，慢启动期间权重降低
+        now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        ModelEndpointBalancer.Member member = memberOf(10);
+        double weight = balancer.effectiveWeight(member, now.get());
+        assertTrue(weight < 1.0 && weight >= 0.1);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertEquals(1.0, balancer.effectiveWeight(member, now.get()));
+    }
+
+    @Test
+    void testClientErrorDoesNotEject() {
+        loadEndpoints(createEndpoint(10), createEndpoint(11));
+
+        EndpointLease lease = acquireUntil(10);
+        lease.onError(WebClientResponseException.create(HttpStatus.BAD_REQUEST, "Bad Request",
+                new HttpHeaders(), new byte[0], null, null));
+
+        assertEquals(false, balancer.snapshot(1).get(0).get("ejected"));
+    }
+
+    @Test
+    void testAllMembersEjectedStillReturnsMember() {
+        loadEndpoints(createEndpoint(10));
+
+        EndpointLease lease = balancer.acquire(createModel());
+        lease.onError(tooManyRequests(null));
+
+        EndpointLease next = balancer.acquire(createModel());
+        assertEquals(10, next.getEndpoint().getId().intValue());
+    }
+
+    @Test
+    void testLeaseReleaseIsIdempotent() {
+        loadEndpoints(createEndpoint(10));
+
+        EndpointLease lease = balancer.acquire(createModel());
+        assertEquals(1, memberOf(10).outstanding.get());
+
+        lease.onComplete();
+        lease.onCancel();
+        lease.onError(tooManyRequests(null));
+
+        assertEquals(0, memberOf(10).outstanding.get());
+        assertEquals(false, balancer.snapshot(1).get(0).get("ejected"));
+    }
+
+    @Test
+    void testOpenCircuitFailsFastAndRecoversAfterTrial() {
+        loadEndpoints(createEndpoint(10));
+
+        // 窗口内失败率达到阈值后熔断，不再发出请求
+        balancer.acquire(createModel()).onError(serverError());
+        balancer.acquire(createModel()).onError(serverError());
+        balancer.acquire(createModel()).onError(new TimeoutException());
+        balancer.acquire(createModel()).onComplete();
+        assertThrows(RuntimeException.class, () -> balancer.acquire(createModel()));
+
+        // 打开时间结束后放行一个试探请求，成功则关闭
+        now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        EndpointLease trial = balancer.acquire(createModel());
+        assertThrows(RuntimeException.class, () -> balancer.acquire(createModel()));
+        trial.onComplete();
+
+        assertDoesNotThrow(() -> balancer.acquire(createModel()).onComplete());
+    }
+
+    private void loadEndpoints(AiModelEndpoints... endpoints) {
+        when(aiModelEndpointsService.listEnabled()).thenReturn(Arrays.asList(endpoints));
+        balancer.reload();
+    }
+
+    /**
+     * 反复获取直到选中指定端点，其余租约立即归还
+     */
+    private EndpointLease acquireUntil(int endpointId) {
+        for (int i = 0; i < 100; i++) {
+            EndpointLease lease = balancer.acquire(createModel());
+            if (lease.getEndpoint().getId() == endpointId) {
+                return lease;
+            }
+            lease.onCancel();
+        }
+        throw new AssertionError("未能选中端点 " + endpointId);
+    }
+
+    private ModelEndpointBalancer.Member memberOf(int endpointId) {
+        ModelEndpointBalancer.Pool pool = (ModelEndpointBalancer.Pool)
+                ((Map<?, ?>) ReflectionTestUtils.getField(balancer, "pools")).get(1);
+        return pool.find(endpointId);
+    }
+
+    private static WebClientResponseException tooManyRequests(String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        if (retryAfter != null) {
+            headers.set("Retry-After", retryAfter);
+        }
+        return WebClientResponseException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests",
+                headers, new byte[0], null, null);
+    }
+
+    private static WebClientResponseException serverError() {
+        return WebClientResponseException.create(HttpStatus.BAD_GATEWAY, "Bad Gateway",
+                new HttpHeaders(), new byte[0], null, null);
+    }
+
+    private static AiModels createModel() {
+        AiModels model = new AiModels();
+        model.setId(1);
+        model.setApiEndpoint("https://api.example.com/v1/chat/completions");
+        model.setApiKey("sk-primary");
+        return model;
+    }
+
+    private static AiModelEndpoints createEndpoint(int id) {
+        AiModelEndpoints endpoint = new AiModelEndpoints();
+        endpoint.setId(id);
+        endpoint.setModelId(1);
+        endpoint.setApiEndpoint("https://api" + id + ".example.com/v1/chat/completions");
+        endpoint.setApiKey("sk-" + id);
+        endpoint.setWeight(1);
+        endpoint.setIsEnabled(true);
+        return endpoint;
+    }
+}
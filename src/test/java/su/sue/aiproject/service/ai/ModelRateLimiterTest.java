@@ -0,0 +1,106 @@
+package su.sue.aiproject.service.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import su.sue.aiproject.domain.AiModels;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ModelRateLimiter 测试类
+ */
+class ModelRateLimiterTest {
+
+    private ModelRateLimiter limiter;
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(1000));
+
+    @BeforeEach
+    void setUp() {
+        limiter = new ModelRateLimiter(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(limiter, "mode", "reject");
+        ReflectionTestUtils.setField(limiter, "maxWaitMs", 50L);
+        ReflectionTestUtils.setField(limiter, "maxWaiters", 1);
+        ReflectionTestUtils.setField(limiter, "burstRatio", 0.1);
+        limiter.nanoClock = now::get;
+    }
+
+    @Test
+    void testUnlimitedModelIsNeverRejected() {
+        AiModels model = createModel(null);
+
+        for (int i = 0; i < 1000; i++) {
+            assertDoesNotThrow(() -> limiter.acquire(model));
+        }
+    }
+
+    @Test
+    void testBurstThenReject() {
+        // 每分钟60次，突发量6
+        AiModels model = createModel(60);
+
+        for (int i = 0; i < 6; i++) {
+            assertDoesNotThrow(() -> limiter.acquire(model));
+        }
+        assertThrows(RuntimeException.class, () -> limiter.acquire(model));
+    }
+
+    @Test
+    void testPermitsRefillOverTime() {
+        AiModels model = createModel(60);
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire(model);
+        }
+        assertThrows(RuntimeException.class, () -> limiter.acquire(model));
+
+        // 1秒后补充1个许可
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertDoesNotThrow(() -> limiter.acquire(model));
+        assertThrows(RuntimeException.class, () -> limiter.acquire(model));
+    }
+
+    @Test
+    void testQueueModeWaitsWithinMaxWait() {
+        ReflectionTestUtils.setField(limiter, "mode", "queue");
+        // 每分钟6000次，间隔10毫秒，突发量600
+        AiModels model = createModel(6000);
+        for (int i = 0; i < 600; i++) {
+            limiter.acquire(model);
+        }
+
+        // 下一个许可需要等待约10毫秒，在50毫秒的最长等待内
+        assertDoesNotThrow(() -> limiter.acquire(model));
+        // 再下一个需要约20毫秒，仍在等待上限内
+        assertDoesNotThrow(() -> limiter.acquire(model));
+        // 继续累积直到超过最长等待时间
+        assertThrows(RuntimeException.class, () -> {
+            for (int i = 0; i < 10; i++) {
+                limiter.acquire(model);
+            }
+        });
+    }
+
+    @Test
+    void testLimitChangeRebuildsBucket() {
+        AiModels model = createModel(60);
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire(model);
+        }
+        assertThrows(RuntimeException.class, () -> limiter.acquire(model));
+
+        model.setRateLimitPerMinute(600);
+        assertDoesNotThrow(() -> limiter.acquire(model));
+    }
+
+    private AiModels createModel(Integer rateLimitPerMinute) {
+        AiModels model = new AiModels();
+        model.setId(1);
+        model.setModelName("qwen-plus");
+        model.setRateLimitPerMinute(rateLimitPerMinute);
+        return model;
+    }
+}
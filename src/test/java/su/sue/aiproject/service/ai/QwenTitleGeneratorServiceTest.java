@@ -5,7 +5,6 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.web.reactive.function.client.WebClient;
 import su.sue.aiproject.domain.dto.ChatMessage;
 import su.sue.aiproject.domain.dto.GenerateTitleRequest;
 import su.sue.aiproject.domain.dto.GenerateTitleResponse;
@@ -23,7 +22,7 @@ import static org.junit.jupiter.api.Assertions.*;
 class QwenTitleGeneratorServiceTest {
 
     @Mock
-    private WebClient.Builder webClientBuilder;
+    private ProviderWebClientRegistry webClientRegistry;
 
     @Mock
     private ObjectMapper objectMapper;
@@ -0,0 +1,163 @@
+package su.sue.aiproject.service.ai.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.ChatCompletionChoice;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatCompletionResponse;
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+import su.sue.aiproject.domain.dto.ChatMessage;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ResponseCache 响应缓存测试类
+ */
+class ResponseCacheTest {
+
+    private ResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = cache("", 1 << 20);
+    }
+
+    @Test
+    void testOnlyOptedInZeroTemperatureRequestsAreCacheable() {
+        assertTrue(cache.isCacheable(request(10L, "分类这句话", 0.0)));
+
+        ChatCompletionRequest notOptedIn = request(10L, "分类这句话", 0.0);
+        notOptedIn.setCache(false);
+        assertFalse(cache.isCacheable(notOptedIn));
+        assertFalse(cache.isCacheable(request(10L, "分类这句话", 0.7)));
+        assertFalse(cache.isCacheable(request(10L, "分类这句话", null)));
+    }
+
+    @Test
+    void testHitIgnoresConversationId() {
+        cache.store(model(), 1L, request(10L, "分类这句话", 0.0), response("正面", "stop", 30, 2));
+
+        CachedResponse cached = cache.lookup(model(), 1L, request(20L, "分类这句话", 0.0));
+
+        assertNotNull(cached);
+        assertEquals("正面", cached.content());
+        assertEquals("stop", cached.finishReason());
+        assertEquals(32, cached.totalTokens());
+    }
+
+    @Test
+    void testKeyCoversMessagesSamplingParamsAndUser() {
+        cache.store(model(), 1L, request(10L, "分类这句话", 0.0), response("正面", "stop", 30, 2));
+
+        assertNull(cache.lookup(model(), 1L, request(10L, "分类那句话", 0.0)));
+        ChatCompletionRequest otherMaxTokens = request(10L, "分类这句话", 0.0);
+        otherMaxTokens.setMaxTokens(16);
+        assertNull(cache.lookup(model(), 1L, otherMaxTokens));
+        assertNull(cache.lookup(model(), 2L, request(10L, "分类这句话", 0.0)));
+
+        ReflectionTestUtils.setField(cache, "shared", true);
+        cache.store(model(), 1L, request(10L, "分类这句话", 0.0), response("正面", "stop", 30, 2));
+        assertNotNull(cache.lookup(model(), 2L, request(10L, "分类这句话", 0.0)));
+    }
+
+    @Test
+    void testMemoryTierEvictsLeastRecentlyUsed() {
+        // 每条约 348 字节，容量只够两条
+        cache = cache("", 800);
+        cache.store(model(), 1L, request(10L, "a", 0.0), response("x".repeat(100), "stop", 1, 1));
+        cache.store(model(), 1L, request(10L, "b", 0.0), response("x".repeat(100), "stop", 1, 1));
+        assertNotNull(cache.lookup(model(), 1L, request(10L, "a", 0.0)));
+
+        cache.store(model(), 1L, request(10L, "c", 0.0), response("x".repeat(100), "stop", 1, 1));
+
+        assertNotNull(cache.lookup(model(), 1L, request(10L, "a", 0.0)));
+        assertNull(cache.lookup(model(), 1L, request(10L, "b", 0.0)));
+        assertNotNull(cache.lookup(model(), 1L, request(10L, "c", 0.0)));
+    }
+
+    @Test
+    void testDiskTierServesEntriesEvictedFromMemory(@TempDir Path dir) {
+        cache = cache(dir.toString(), 400);
+        cache.store(model(), 1L, request(10L, "a", 0.0), response("x".repeat(100), "stop", 1, 1));
+        cache.store(model(), 1L, request(10L, "b", 0.0), response("y".repeat(100), "stop", 1, 1));
+
+        CachedResponse cached = cache.lookup(model(), 1L, request(10L, "a", 0.0));
+
+        assertNotNull(cached);
+        assertEquals("x".repeat(100), cached.content());
+        // 重启后仍能从磁盘读取
+        assertNotNull(cache(dir.toString(), 400).lookup(model(), 1L, request(10L, "b", 0.0)));
+    }
+
+    @Test
+    void testStreamFinishReasonIsInferredFromMaxTokens() {
+        ChatCompletionRequest request = request(10L, "分类这句话", 0.0);
+        request.setMaxTokens(2);
+        cache.store(model(), 1L, request, response("正面", null, 30, 2));
+
+        assertEquals("length", cache.lookup(model(), 1L, request).finishReason());
+    }
+
+    @Test
+    void testEmptyContentIsNotCached() {
+        cache.store(model(), 1L, request(10L, "分类这句话", 0.0), response("", "stop", 30, 0));
+
+        assertNull(cache.lookup(model(), 1L, request(10L, "分类这句话", 0.0)));
+    }
+
+    private ResponseCache cache(String diskDir, long memoryMaxBytes) {
+        ResponseCache cache = new ResponseCache(new ObjectMapper());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "ttlMs", 60000L);
+        ReflectionTestUtils.setField(cache, "memoryMaxBytes", memoryMaxBytes);
+        ReflectionTestUtils.setField(cache, "maxContentChars", 1000);
+        ReflectionTestUtils.setField(cache, "diskDir", diskDir);
+        ReflectionTestUtils.setField(cache, "diskMaxBytes", 1L << 20);
+        cache.init();
+        return cache;
+    }
+
+    private AiModels model() {
+        AiModels model = new AiModels();
+        model.setId(3);
+        model.setModelName("test-model");
+        return model;
+    }
+
+    private ChatCompletionRequest request(Long conversationId, String content, Double temperature) {
+        ChatMessage message = new ChatMessage();
+        message.setRole("user");
+        message.setContent(content);
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setId(3);
+        request.setConversationId(conversationId);
+        request.setCache(true);
+        request.setTemperature(temperature);
+        request.setMessages(List.of(message));
+        return request;
+    }
+
+    private ChatCompletionResponse response(String content, String finishReason, int promptTokens, int completionTokens) {
+        ChatMessage message = new ChatMessage();
+        message.setRole("assistant");
+        message.setContent(content);
+        ChatCompletionChoice choice = new ChatCompletionChoice();
+        choice.setMessage(message);
+        choice.setFinishReason(finishReason);
+        ChatCompletionUsage usage = new ChatCompletionUsage();
+        usage.setPromptTokens(promptTokens);
+        usage.setCompletionTokens(completionTokens);
+        usage.setTotalTokens(promptTokens + completionTokens);
+        ChatCompletionResponse response = new ChatCompletionResponse();
+        response.setChoices(List.of(choice));
+        response.setUsage(usage);
+        return response;
+    }
+}
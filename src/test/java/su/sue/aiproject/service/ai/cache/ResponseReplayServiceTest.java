@@ -0,0 +1,121 @@
+package su.sue.aiproject.service.ai.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatCompletionResponse;
+import su.sue.aiproject.domain.dto.ChatMessage;
+import su.sue.aiproject.service.CreditService;
+import su.sue.aiproject.service.message.MessageExchange;
+import su.sue.aiproject.service.message.MessagePersistencePipeline;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ResponseReplayService 缓存回放测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class ResponseReplayServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Mock
+    private CreditService creditService;
+
+    @Mock
+    private MessagePersistencePipeline messagePersistencePipeline;
+
+    private ResponseReplayService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ResponseReplayService(creditService, messagePersistencePipeline, objectMapper);
+        ReflectionTestUtils.setField(service, "billingRate", new BigDecimal("0.1"));
+        ReflectionTestUtils.setField(service, "replayChunkChars", 32);
+    }
+
+    @Test
+    void testChunksReplayContentInOpenAiFormat() throws Exception {
+        CachedResponse cached = new CachedResponse("test-model", "你好世界abc", "stop", 10, 4, 0L);
+
+        List<String> frames = ResponseReplayService.chunks(cached, "chatcmpl-1", 1L, 2, objectMapper);
+
+        assertEquals("[DONE]", frames.get(frames.size() - 1));
+        StringBuilder content = new StringBuilder();
+        for (String frame : frames.subList(0, frames.size() - 2)) {
+            JsonNode chunk = objectMapper.readTree(frame);
+            assertEquals("chat.completion.chunk", chunk.get("object").asText());
+            content.append(chunk.get("choices").get(0).get("delta").get("content").asText());
+        }
+        assertEquals("你好世界abc", content.toString());
+        assertEquals("assistant", objectMapper.readTree(frames.get(0)).get("choices").get(0).get("delta").get("role").asText());
+
+        JsonNode last = objectMapper.readTree(frames.get(frames.size() - 2));
+        assertEquals("stop", last.get("choices").get(0).get("finish_reason").asText());
+        assertEquals(14, last.get("usage").get("total_tokens").asInt());
+    }
+
+    @Test
+    void testChunksDoNotSplitSurrogatePairs() throws Exception {
+        CachedResponse cached = new CachedResponse("test-model", "a😀b", "stop", 1, 1, 0L);
+
+        List<String> frames = ResponseReplayService.chunks(cached, "chatcmpl-1", 1L, 2, objectMapper);
+
+        assertEquals("a😀", objectMapper.readTree(frames.get(0)).get("choices").get(0).get("delta").get("content").asText());
+        assertEquals("b", objectMapper.readTree(frames.get(1)).get("choices").get(0).get("delta").get("content").asText());
+    }
+
+    @Test
+    void testHitIsBilledAtDiscountAndSaved() {
+        CachedResponse cached = new CachedResponse("test-model", "正面", "stop", 900, 100, 0L);
+
+        ChatCompletionResponse response = service.chat(model(), 1L, request(), cached);
+
+        assertEquals("正面", response.getChoices().get(0).getMessage().getContent());
+        assertEquals(1000, response.getUsage().getTotalTokens());
+        // 2.0 / 1k × 1000 × 0.1
+        verify(creditService).deductCredit(eq(1L), argThat(cost -> cost.compareTo(new BigDecimal("0.2")) == 0), anyString());
+        verify(messagePersistencePipeline).submit(argThat((MessageExchange exchange) ->
+                exchange.conversationId().equals(10L) && exchange.messages().size() == 2));
+    }
+
+    @Test
+    void testFreeHitSkipsDeduction() {
+        ReflectionTestUtils.setField(service, "billingRate", BigDecimal.ZERO);
+
+        service.chat(model(), 1L, request(), new CachedResponse("test-model", "正面", "stop", 900, 100, 0L));
+
+        verifyNoInteractions(creditService);
+    }
+
+    private AiModels model() {
+        AiModels model = new AiModels();
+        model.setId(3);
+        model.setModelName("test-model");
+        model.setCostPer1kTokens(new BigDecimal("2.0"));
+        return model;
+    }
+
+    private ChatCompletionRequest request() {
+        ChatMessage message = new ChatMessage();
+        message.setRole("user");
+        message.setContent("分类这句话");
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setId(3);
+        request.setConversationId(10L);
+        request.setMessages(List.of(message));
+        return request;
+    }
+}
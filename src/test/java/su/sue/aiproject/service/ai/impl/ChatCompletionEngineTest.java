@@ -0,0 +1,144 @@
+package su.sue.aiproject.service.ai.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatMessage;
+import su.sue.aiproject.service.CreditHold;
+import su.sue.aiproject.service.CreditService;
+import su.sue.aiproject.service.ai.AiModelRegistry;
+import su.sue.aiproject.service.ai.EndpointLease;
+import su.sue.aiproject.service.ai.HedgedRequestExecutor;
+import su.sue.aiproject.service.ai.ModelCallPlan;
+import su.sue.aiproject.service.ai.ModelCallPlanCache;
+import su.sue.aiproject.service.ai.ModelEndpointBalancer;
+import su.sue.aiproject.service.ai.cache.ResponseCache;
+import su.sue.aiproject.service.ai.provider.GenericOpenAiCodec;
+import su.sue.aiproject.service.ai.provider.ProviderCodecRegistry;
+import su.sue.aiproject.service.ai.stream.ChatStreamMetrics;
+import su.sue.aiproject.service.ai.stream.SseRelayService;
+import su.sue.aiproject.service.ai.tokenizer.TokenizerRegistry;
+import su.sue.aiproject.service.message.MessagePersistencePipeline;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ChatCompletionEngine 响应式流资源获取测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class ChatCompletionEngineTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Mock
+    private AiModelRegistry aiModelRegistry;
+
+    @Mock
+    private ModelCallPlanCache modelCallPlanCache;
+
+    @Mock
+    private ModelEndpointBalancer modelEndpointBalancer;
+
+    @Mock
+    private HedgedRequestExecutor hedgedRequestExecutor;
+
+    @Mock
+    private CreditService creditService;
+
+    @Mock
+    private ProviderCodecRegistry providerCodecRegistry;
+
+    @Mock
+    private MessagePersistencePipeline messagePersistencePipeline;
+
+    @Mock
+    private Scheduler chatStreamScheduler;
+
+    @Mock
+    private SseRelayService sseRelayService;
+
+    @Mock
+    private ChatStreamMetrics chatStreamMetrics;
+
+    @Mock
+    private TokenizerRegistry tokenizerRegistry;
+
+    @Mock
+    private ResponseCache responseCache;
+
+    @Mock
+    private EndpointLease lease;
+
+    @InjectMocks
+    private ChatCompletionEngine engine;
+
+    private AiModels model;
+
+    @BeforeEach
+    void setUp() {
+        model = new AiModels();
+        model.setId(1);
+        model.setModelName("gpt-test");
+        model.setProvider("other");
+        model.setApiEndpoint("https://api.example.com/v1/chat/completions");
+        model.setApiKey("sk-test");
+        model.setIsEnabled(true);
+        model.setCostPer1kTokens(new BigDecimal("0.01"));
+        when(aiModelRegistry.get(1)).thenReturn(model);
+        when(providerCodecRegistry.forModel(model)).thenReturn(new GenericOpenAiCodec(objectMapper));
+    }
+
+    @Test
+    void testUnsubscribedStreamHoldsNothing() {
+        engine.chatStreamReactive(request(), 7L);
+
+        verifyNoInteractions(modelEndpointBalancer, creditService);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCancelBeforeUpstreamDataReleasesHold() {
+        // 上游迟迟不返回响应
+        WebClient webClient = WebClient.builder().exchangeFunction(request -> Mono.never()).build();
+        ModelCallPlan plan = ModelCallPlan.compile(model, webClient, objectMapper);
+        CreditHold hold = new CreditHold("h1", 7L, new BigDecimal("10.24"), "AI对话消费");
+        when(modelEndpointBalancer.acquire(model)).thenReturn(lease);
+        when(modelCallPlanCache.get(model, null)).thenReturn(plan);
+        when(lease.track(any(Flux.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(creditService.reserveCredit(eq(7L), any(), any(), anyString())).thenReturn(hold);
+
+        Flux<ServerSentEvent<String>> stream = engine.chatStreamReactive(request(), 7L);
+        Disposable subscription = stream.subscribe();
+        subscription.dispose();
+
+        verify(creditService).releaseCredit(hold);
+        verify(creditService, never()).settleCredit(any(), any());
+        verifyNoInteractions(chatStreamScheduler);
+    }
+
+    private ChatCompletionRequest request() {
+        ChatMessage message = new ChatMessage();
+        message.setRole("user");
+        message.setContent("你好");
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setId(1);
+        request.setMessages(List.of(message));
+        return request;
+    }
+}
@@ -0,0 +1,60 @@
+package su.sue.aiproject.service.ai.provider;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import su.sue.aiproject.domain.AiModels;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProviderCodecRegistryTest {
+
+    private ProviderCodecRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        registry = new ProviderCodecRegistry(List.of(
+                new DeepSeekCodec(objectMapper), new DashScopeCodec(objectMapper), new GenericOpenAiCodec(objectMapper)));
+    }
+
+    @Test
+    void resolvesByProviderIgnoringCase() {
+        assertInstanceOf(DeepSeekCodec.class, registry.forProvider("DeepSeek"));
+        assertInstanceOf(DashScopeCodec.class, registry.forProvider("qwen"));
+        assertInstanceOf(GenericOpenAiCodec.class, registry.forProvider("other"));
+    }
+
+    @Test
+    void unknownProviderFallsBackToGenericCodec() {
+        assertInstanceOf(GenericOpenAiCodec.class, registry.forProvider("openai"));
+        assertThrows(RuntimeException.class, () -> registry.forProvider(null));
+    }
+
+    @Test
+    void blankProviderIsInferredFromModelName() {
+        assertInstanceOf(DashScopeCodec.class, registry.forModel(model(" ", "qwen-plus")));
+        assertInstanceOf(DeepSeekCodec.class, registry.forModel(model(null, "DeepSeek-Chat")));
+        assertEquals("deepseek", registry.forModel(model("deepseek", "anything")).provider());
+        assertThrows(RuntimeException.class, () -> registry.forModel(model(null, "llama3")));
+    }
+
+    @Test
+    void rejectsDuplicateProviders() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        assertThrows(IllegalStateException.class, () -> new ProviderCodecRegistry(List.of(
+                new DeepSeekCodec(objectMapper), new DeepSeekCodec(objectMapper), new GenericOpenAiCodec(objectMapper))));
+    }
+
+    private static AiModels model(String provider, String modelName) {
+        AiModels model = new AiModels();
+        model.setId(1);
+        model.setProvider(provider);
+        model.setModelName(modelName);
+        return model;
+    }
+}
@@ -0,0 +1,102 @@
+package su.sue.aiproject.service.ai.provider;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import su.sue.aiproject.domain.dto.ChatCompletionChunk;
+import su.sue.aiproject.domain.dto.ChatCompletionResponse;
+import su.sue.aiproject.domain.dto.ChatCompletionUsage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ProviderCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void decodesOpenAiSnakeCaseFields() throws Exception {
+        ChatCompletionResponse response = new DeepSeekCodec(objectMapper).decodeResponse("""
+                {"id":"c1","object":"chat.completion","created":1,"model":"deepseek-chat",
+                 "choices":[{"index":0,"message":{"role":"assistant","content":"你好"},"finish_reason":"stop"}],
+                 "usage":{"prompt_tokens":10,"completion_tokens":5,"total_tokens":15,
+                          "prompt_cache_hit_tokens":8,"prompt_cache_miss_tokens":2}}""");
+
+        assertEquals("你好", response.getChoices().get(0).getMessage().getContent());
+        assertEquals("stop", response.getChoices().get(0).getFinishReason());
+        assertEquals(10, response.getUsage().getPromptTokens());
+        assertEquals(15, response.getUsage().getTotalTokens());
+        assertEquals(8, response.getUsage().getPromptCacheHitTokens());
+    }
+
+    @Test
+    void emptyUsageIsTreatedAsMissing() throws Exception {
+        OpenAiCodec codec = new GenericOpenAiCodec(objectMapper);
+        assertNull(codec.extractUsage(objectMapper.readTree("{}")));
+
+        ChatCompletionChunk chunk = codec.decodeChunk("""
+                {"id":"c1","choices":[{"index":0,"delta":{"content":"a"},"finish_reason":null}],"usage":null}""");
+        assertEquals("a", chunk.getChoices().get(0).getDelta().getContent());
+        assertNull(chunk.getChoices().get(0).getFinishReason());
+        assertNull(chunk.getUsage());
+    }
+
+    @Test
+    void decodesOllamaChunks() {
+        GenericOpenAiCodec codec = new GenericOpenAiCodec(objectMapper);
+
+        ChatCompletionChunk delta = codec.decodeChunk("""
+                {"model":"qwen3:latest","message":{"role":"assistant","content":"询问"},"done":false}""");
+        assertEquals("询问", delta.getChoices().get(0).getDelta().getContent());
+        assertNull(delta.getChoices().get(0).getFinishReason());
+        assertNull(delta.getUsage());
+
+        ChatCompletionChunk last = codec.decodeChunk("""
+                {"model":"qwen3:latest","message":{"role":"assistant","content":""},"done":true,
+                 "prompt_eval_count":12,"eval_count":30}""");
+        assertEquals("stop", last.getChoices().get(0).getFinishReason());
+        ChatCompletionUsage usage = last.getUsage();
+        assertEquals(12, usage.getPromptTokens());
+        assertEquals(30, usage.getCompletionTokens());
+        assertEquals(42, usage.getTotalTokens());
+    }
+
+    @Test
+    void decodesDashScopeNativeFormat() throws Exception {
+        DashScopeCodec codec = new DashScopeCodec(objectMapper);
+
+        ChatCompletionResponse response = codec.decodeResponse("""
+                {"output":{"choices":[{"message":{"role":"assistant","content":"你好"},"finish_reason":"stop"}]},
+                 "usage":{"input_tokens":7,"output_tokens":3,"total_tokens":10},"request_id":"r1"}""");
+        assertEquals("r1", response.getId());
+        assertEquals("你好", response.getChoices().get(0).getMessage().getContent());
+        assertEquals(7, response.getUsage().getPromptTokens());
+        assertEquals(3, response.getUsage().getCompletionTokens());
+
+        // 原生端点生成过程中 finish_reason 为字符串 "null"
+        ChatCompletionChunk chunk = codec.decodeChunk("""
+                {"output":{"text":"部分","finish_reason":"null"},"usage":{"input_tokens":7,"output_tokens":1}}""");
+        assertEquals("部分", chunk.getChoices().get(0).getDelta().getContent());
+        assertNull(chunk.getChoices().get(0).getFinishReason());
+        assertEquals(8, chunk.getUsage().getTotalTokens());
+
+        // 增量内容仍放在 message 字段，解码为 delta
+        ChatCompletionChunk choiceChunk = codec.decodeChunk("""
+                {"output":{"choices":[{"message":{"role":"assistant","content":"好"},"finish_reason":"null"}]}}""");
+        assertEquals("好", choiceChunk.getChoices().get(0).getDelta().getContent());
+        assertNull(choiceChunk.getChoices().get(0).getFinishReason());
+    }
+
+    @Test
+    void compatibleModeFallsBackToOpenAiFormat() {
+        ChatCompletionChunk chunk = new DashScopeCodec(objectMapper).decodeChunk("""
+                {"id":"c1","choices":[{"index":0,"delta":{"content":"x"},"finish_reason":"stop"}],
+                 "usage":{"prompt_tokens":4,"completion_tokens":1,"total_tokens":5}}""");
+        assertEquals("x", chunk.getChoices().get(0).getDelta().getContent());
+        assertEquals(5, chunk.getUsage().getTotalTokens());
+    }
+
+    @Test
+    void unparsableChunkReturnsNull() {
+        assertNull(new GenericOpenAiCodec(objectMapper).decodeChunk("not json"));
+    }
+}
@@ -0,0 +1,119 @@
+package su.sue.aiproject.service.ai.stream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * InFlightStreamRegistry 重复请求合并测试类
+ */
+class InFlightStreamRegistryTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private InFlightStreamRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new InFlightStreamRegistry(new ChatStreamMetrics(meterRegistry));
+    }
+
+    @Test
+    void testDuplicateAttachesToRunningUpstream() {
+        // 单播上游只允许一个订阅者，第二次订阅会报错
+        Sinks.Many<ServerSentEvent<String>> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger starts = new AtomicInteger();
+        Supplier<Flux<ServerSentEvent<String>>> starter = () -> {
+            starts.incrementAndGet();
+            return upstream.asFlux();
+        };
+
+        List<String> first = new CopyOnWriteArrayList<>();
+        registry.join("k", starter).subscribe(event -> first.add(event.data()));
+        upstream.tryEmitNext(event("a"));
+
+        List<String> second = new CopyOnWriteArrayList<>();
+        registry.join("k", starter).subscribe(event -> second.add(event.data()));
+        upstream.tryEmitNext(event("b"));
+        upstream.tryEmitComplete();
+
+        assertEquals(1, starts.get());
+        assertEquals(List.of("a", "b"), first);
+        // 加入前已发出的事件会重放
+        assertEquals(List.of("a", "b"), second);
+        assertEquals(0, registry.size());
+        assertEquals(1.0, meterRegistry.counter("ai.chat.stream.coalesced", "mode", "reactive").count());
+    }
+
+    @Test
+    void testUpstreamIsCancelledOnlyAfterAllSubscribersLeave() {
+        Sinks.Many<ServerSentEvent<String>> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        Supplier<Flux<ServerSentEvent<String>>> starter = () -> upstream.asFlux().doOnCancel(() -> cancelled.set(true));
+
+        Disposable first = registry.join("k", starter).subscribe();
+        Disposable second = registry.join("k", starter).subscribe();
+
+        first.dispose();
+        assertFalse(cancelled.get());
+        assertEquals(1, registry.size());
+
+        second.dispose();
+        assertTrue(cancelled.get());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void testRequestAfterCompletionStartsNewUpstream() {
+        AtomicInteger starts = new AtomicInteger();
+        Supplier<Flux<ServerSentEvent<String>>> starter = () -> {
+            starts.incrementAndGet();
+            return Flux.just(event("a"));
+        };
+
+        assertEquals(1, registry.join("k", starter).collectList().block().size());
+        assertEquals(1, registry.join("k", starter).collectList().block().size());
+
+        assertEquals(2, starts.get());
+    }
+
+    @Test
+    void testDifferentKeysAreNotCoalesced() {
+        AtomicInteger starts = new AtomicInteger();
+        Supplier<Flux<ServerSentEvent<String>>> starter = () -> {
+            starts.incrementAndGet();
+            return Flux.never();
+        };
+
+        registry.join("k1", starter).subscribe();
+        registry.join("k2", starter).subscribe();
+
+        assertEquals(2, starts.get());
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void testStarterFailureIsThrownAndNotRegistered() {
+        assertThrows(RuntimeException.class, () -> registry.join("k", () -> {
+            throw new RuntimeException("积分余额不足，请充值");
+        }));
+
+        assertEquals(0, registry.size());
+    }
+
+    private ServerSentEvent<String> event(String data) {
+        return ServerSentEvent.builder(data).build();
+    }
+}
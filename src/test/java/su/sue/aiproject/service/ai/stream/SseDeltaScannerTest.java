@@ -0,0 +1,109 @@
+package su.sue.aiproject.service.ai.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SseDeltaScanner 与 SseFrameSplitter 测试类
+ */
+class SseDeltaScannerTest {
+
+    @Test
+    void testScanDeltaContentAndUsage() {
+        SseDeltaScanner scanner = new SseDeltaScanner();
+
+        scanner.scan(bytes("data: {\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"你好\"}}]}\n\n"));
+        scanner.scan(bytes("data: {\"choices\":[{\"delta\":{\"content\":\"，\\\"世界\\\"\\n\\u4e2d😀\"}}]}\n\n"));
+        scanner.scan(bytes("data: {\"choices\":[],\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":34,\"total_tokens\":46}}\n\n"));
+        scanner.scan(bytes("data: [DONE]\n\n"));
+
+        assertEquals("你好，\"世界\"\n中😀", scanner.getFullContent());
+        assertNotNull(scanner.getUsage());
+        assertEquals(12, scanner.getUsage().getPromptTokens());
+        assertEquals(34, scanner.getUsage().getCompletionTokens());
+        assertEquals(46, scanner.getUsage().getTotalTokens());
+    }
+
+    @Test
+    void testScanIgnoresNullContentAndNullUsage() {
+        SseDeltaScanner scanner = new SseDeltaScanner();
+
+        scanner.scan(bytes("data: {\"choices\":[{\"delta\":{\"content\":null,\"reasoning_content\":\"思考\"}}],\"usage\":null}\n\n"));
+        scanner.scan(bytes("event: ping\n\n"));
+
+        assertEquals("", scanner.getFullContent());
+        assertNull(scanner.getUsage());
+    }
+
+    @Test
+    void testScanDoesNotMatchKeyInsideString() {
+        SseDeltaScanner scanner = new SseDeltaScanner();
+
+        scanner.scan(bytes("data: {\"choices\":[{\"delta\":{\"tool\":\"\\\"content\\\" here\",\"content\":\"ok\"}}]}\n\n"));
+
+        assertEquals("ok", scanner.getFullContent());
+    }
+
+    @Test
+    void testScanOllamaMessageFormat() {
+        SseDeltaScanner scanner = new SseDeltaScanner();
+
+        scanner.scan(bytes("data: {\"model\":\"llama3\",\"message\":{\"role\":\"assistant\",\"content\":\"Hi\"},\"done\":false}\n\n"));
+
+        assertEquals("Hi", scanner.getFullContent());
+    }
+
+    @Test
+    void testMarkCompletedOnlyOnce() {
+        SseDeltaScanner scanner = new SseDeltaScanner();
+
+        assertTrue(scanner.markCompleted());
+        assertFalse(scanner.markCompleted());
+    }
+
+    @Test
+    void testSplitterReassemblesFramesAcrossChunks() {
+        SseFrameSplitter splitter = new SseFrameSplitter(false);
+        byte[] stream = bytes("data: {\"a\":\"中文\"}\n\ndata: {\"b\":2}\r\n\r\ndata: [DONE]\n\n");
+
+        // 每次只送入3个字节，模拟上游在任意位置（包括多字节字符中间）切分
+        List<byte[]> frames = new ArrayList<>();
+        for (int offset = 0; offset < stream.length; offset += 3) {
+            frames.addAll(splitter.append(stream, offset, Math.min(3, stream.length - offset)));
+        }
+        frames.addAll(splitter.drain());
+
+        assertEquals(3, frames.size());
+        assertEquals("data: {\"a\":\"中文\"}\n\n", string(frames.get(0)));
+        assertEquals("data: {\"b\":2}\r\n\r\n", string(frames.get(1)));
+        assertEquals("data: [DONE]\n\n", string(frames.get(2)));
+    }
+
+    @Test
+    void testSplitterWrapsNdjsonLines() {
+        SseFrameSplitter splitter = new SseFrameSplitter(true);
+
+        byte[] first = bytes("{\"x\":1}\n{\"y\"");
+        byte[] second = bytes(":2}");
+        List<byte[]> frames = new ArrayList<>(splitter.append(first, 0, first.length));
+        frames.addAll(splitter.append(second, 0, second.length));
+        frames.addAll(splitter.drain());
+
+        assertEquals(2, frames.size());
+        assertEquals("data: {\"x\":1}\n\n", string(frames.get(0)));
+        assertEquals("data: {\"y\":2}\n\n", string(frames.get(1)));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,134 @@
+package su.sue.aiproject.service.ai.stream;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import su.sue.aiproject.domain.dto.ChatCompletionChoice;
+import su.sue.aiproject.domain.dto.ChatCompletionChunk;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式转发路径的微基准测试
+ * 对比原有的 String解码 + 正则切分 + Jackson反序列化 路径与字节透传 + 增量扫描路径
+ * 运行方式：在IDE中直接运行 main 方法，或 mvn test-compile 后通过 exec 插件启动
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseRelayBenchmark {
+
+    /**
+     * 单次回复包含的SSE帧数量
+     */
+    @Param({"200", "2000"})
+    private int frameCount;
+
+    /**
+     * 上游每个网络数据块的大小
+     */
+    @Param({"512", "8192"})
+    private int chunkSize;
+
+    private byte[] stream;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < frameCount; i++) {
+            sb.append("data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1700000000,")
+                    .append("\"model\":\"qwen-plus\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"")
+                    .append(i % 2 == 0 ? "你好，世界" : "hello \\\"world\\\"\\n")
+                    .append("\"},\"finish_reason\":null}]}\n\n");
+        }
+        sb.append("data: {\"id\":\"chatcmpl-1\",\"choices\":[],\"usage\":{\"prompt_tokens\":20,")
+                .append("\"completion_tokens\":").append(frameCount).append(",\"total_tokens\":")
+                .append(frameCount + 20).append("}}\n\n");
+        sb.append("data: [DONE]\n\n");
+        stream = sb.toString().getBytes(StandardCharsets.UTF_8);
+        objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * 原有路径：每个数据块解码为String，按行正则切分后逐条反序列化
+     */
+    @Benchmark
+    public void legacyParse(Blackhole blackhole) throws Exception {
+        StringBuilder fullContent = new StringBuilder();
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, stream.length - offset);
+            String data = new String(stream, offset, length, StandardCharsets.UTF_8);
+            for (String line : data.split("\\r?\\n")) {
+                line = line.trim();
+                if (line.isEmpty() || !line.startsWith("data: ")) {
+                    continue;
+                }
+                String jsonData = line.substring(6).trim();
+                if ("[DONE]".equals(jsonData)) {
+                    continue;
+                }
+                try {
+                    ChatCompletionChunk chunk = objectMapper.readValue(jsonData, ChatCompletionChunk.class);
+                    if (chunk.getChoices() != null && !chunk.getChoices().isEmpty()) {
+                        ChatCompletionChoice choice = chunk.getChoices().get(0);
+                        if (choice.getDelta() != null && choice.getDelta().getContent() != null) {
+                            fullContent.append(choice.getDelta().getContent());
+                        }
+                    }
+                    blackhole.consume(chunk.getUsage());
+                } catch (Exception e) {
+                    // 原有路径中被数据块边界截断的行会解析失败，这里与线上行为保持一致
+                    blackhole.consume(e);
+                }
+            }
+            blackhole.consume(data);
+        }
+        blackhole.consume(fullContent.toString());
+    }
+
+    /**
+     * 字节透传路径：按帧切分后原样转发，同一份字节上增量扫描内容和usage
+     */
+    @Benchmark
+    public void relayScan(Blackhole blackhole) {
+        SseFrameSplitter splitter = new SseFrameSplitter(false);
+        SseDeltaScanner scanner = new SseDeltaScanner();
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, stream.length - offset);
+            for (byte[] frame : splitter.append(stream, offset, length)) {
+                blackhole.consume(frame);
+                scanner.scan(frame);
+            }
+        }
+        for (byte[] frame : splitter.drain()) {
+            scanner.scan(frame);
+        }
+        blackhole.consume(scanner.getFullContent());
+        blackhole.consume(scanner.getUsage());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SseRelayBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,107 @@
+package su.sue.aiproject.service.ai.tokenizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BpeTokenizerTest {
+
+    /**
+     * 256个单字节token加上给定的合并结果，rank按参数顺序递增
+     */
+    private static BpeTokenizer tokenizer(String... merges) {
+        byte[][] tokens = new byte[merges.length][];
+        for (int i = 0; i < merges.length; i++) {
+            tokens[i] = merges[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return tokenizerOf(tokens);
+    }
+
+    private static BpeTokenizer tokenizerOf(byte[]... merges) {
+        List<byte[]> tokens = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            tokens.add(new byte[]{(byte) i});
+        }
+        tokens.addAll(List.of(merges));
+        return new BpeTokenizer(BpeEncoding.CL100K_BASE, BpeVocabulary.of(tokens));
+    }
+
+    @Test
+    void countsBytesWhenNothingMerges() {
+        BpeTokenizer tokenizer = tokenizer();
+
+        assertEquals(0, tokenizer.count(""));
+        assertEquals(5, tokenizer.count("abcde"));
+        // 每个汉字3个UTF-8字节
+        assertEquals(6, tokenizer.count("你好"));
+    }
+
+    @Test
+    void mergesLowestRankFirst() {
+        // ab 先于 bc 合并：ab|cd 再合并为 abcd，剩下 e
+        assertEquals(2, tokenizer("ab", "cd", "abcd", "bc").count("abcde"));
+        // bc 先于 ab 合并：a|bc|d|e 之后没有可合并的相邻对
+        assertEquals(4, tokenizer("bc", "ab", "cd", "abcd").count("abcde"));
+    }
+
+    @Test
+    void wholePieceInVocabularyIsOneToken() {
+        assertEquals(1, tokenizer("abcde").count("abcde"));
+    }
+
+    @Test
+    void mergesMultiByteCharacters() {
+        byte[] ni = "你".getBytes(StandardCharsets.UTF_8);
+        byte[] hao = "好".getBytes(StandardCharsets.UTF_8);
+        // 只有前两个字节的合并结果时，第三个字节单独成token
+        assertEquals(4, tokenizerOf(Arrays.copyOf(ni, 2), Arrays.copyOf(hao, 2)).count("你好"));
+
+        assertEquals(2, tokenizerOf(Arrays.copyOf(ni, 2), ni, Arrays.copyOf(hao, 2), hao).count("你好"));
+    }
+
+    @Test
+    void preTokenizesWithEncodingPattern() {
+        BpeTokenizer tokenizer = tokenizer("hello", " world", "123", "45");
+
+        // " world" 带前导空格作为一个片段
+        assertEquals(2, tokenizer.count("hello world"));
+        // 数字最多三位一组
+        assertEquals(2, tokenizer.count("12345"));
+    }
+
+    @Test
+    void loadsTiktokenFormat() throws Exception {
+        StringBuilder file = new StringBuilder();
+        Base64.Encoder encoder = Base64.getEncoder();
+        for (int i = 0; i < 256; i++) {
+            file.append(encoder.encodeToString(new byte[]{(byte) i})).append(' ').append(i).append('\n');
+        }
+        file.append(encoder.encodeToString("ab".getBytes(StandardCharsets.UTF_8))).append(" 256\n");
+
+        BpeVocabulary vocabulary = BpeVocabulary.load(
+                new ByteArrayInputStream(file.toString().getBytes(StandardCharsets.US_ASCII)));
+        byte[] bytes = "xaby".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(257, vocabulary.size());
+        assertEquals(256, vocabulary.rank(bytes, 1, 3));
+        assertEquals('x', vocabulary.rank(bytes, 0, 1));
+        assertEquals(BpeVocabulary.NO_RANK, vocabulary.rank(bytes, 0, 2));
+    }
+
+    @Test
+    void heuristicWeightsCharacterClasses() {
+        HeuristicTokenCounter counter = HeuristicTokenCounter.INSTANCE;
+
+        assertEquals(0, counter.count(""));
+        assertEquals(4, counter.count("你好世界"));
+        assertEquals(2, counter.count("hello"));
+        assertEquals(3, counter.count("hello world"));
+    }
+}
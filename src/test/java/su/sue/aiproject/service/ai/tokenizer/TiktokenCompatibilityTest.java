@@ -0,0 +1,59 @@
+package su.sue.aiproject.service.ai.tokenizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 用构建时下载的真实词表与 tiktoken 的已知输出比对token数
+ * 词表缺失（-Dtokenizer.vocab.skip=true 的离线构建）时跳过
+ */
+class TiktokenCompatibilityTest {
+
+    private static BpeTokenizer tokenizer(BpeEncoding encoding) throws IOException {
+        InputStream in = TiktokenCompatibilityTest.class.getResourceAsStream("/tokenizer/" + encoding.vocabFile());
+        assumeTrue(in != null, "缺少词表 " + encoding.vocabFile());
+        try (in) {
+            return new BpeTokenizer(encoding, BpeVocabulary.load(in));
+        }
+    }
+
+    @Test
+    void cl100kBaseMatchesTiktoken() throws IOException {
+        BpeTokenizer tokenizer = tokenizer(BpeEncoding.CL100K_BASE);
+
+        // [15339, 1917]
+        assertEquals(2, tokenizer.count("hello world"));
+        // [83, 1609, 5963, 374, 2294, 0]
+        assertEquals(6, tokenizer.count("tiktoken is great!"));
+        // [519, 85342, 34500, 479, 8997, 2191]
+        assertEquals(6, tokenizer.count("antidisestablishmentarianism"));
+        // [17, 489, 220, 17, 284, 220, 19]
+        assertEquals(7, tokenizer.count("2 + 2 = 4"));
+        assertEquals(9, tokenizer.count("お誕生日おめでとう"));
+    }
+
+    @Test
+    void o200kBaseMatchesTiktoken() throws IOException {
+        BpeTokenizer tokenizer = tokenizer(BpeEncoding.O200K_BASE);
+
+        // [24912, 2375]
+        assertEquals(2, tokenizer.count("hello world"));
+        // [83, 8251, 2488, 382, 2212, 0]
+        assertEquals(6, tokenizer.count("tiktoken is great!"));
+    }
+
+    @Test
+    void qwenSplitsDigitsOneByOne() throws IOException {
+        BpeTokenizer tokenizer = tokenizer(BpeEncoding.QWEN);
+
+        // [14990, 1879]
+        assertEquals(2, tokenizer.count("hello world"));
+        // 数字逐位切分：1|2|3|4|5
+        assertEquals(5, tokenizer.count("12345"));
+    }
+}
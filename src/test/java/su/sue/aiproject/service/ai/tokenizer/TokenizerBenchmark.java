@@ -0,0 +1,159 @@
+package su.sue.aiproject.service.ai.tokenizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * 单条消息token计数的微基准测试
+ * 对比原有的 length * 0.75、按字符类别估算和BPE计数三种方式的耗时
+ * classpath 中有 tokenizer/cl100k_base.tiktoken 时使用真实词表，否则在样本文本上训练一个小词表代替
+ * 运行方式：在IDE中直接运行 main 方法，或 mvn test-compile 后通过 exec 插件启动
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private static final String CHINESE = "分布式系统中，缓存一致性是一个经典问题。当多个节点同时读写同一份数据时，"
+            + "需要通过失效通知或者版本号来保证读到的数据不会过期太久。常见的做法包括写穿、写回和旁路缓存，"
+            + "各自在延迟、吞吐和实现复杂度之间做出不同的取舍。";
+
+    private static final String ENGLISH = "The quick brown fox jumps over the lazy dog. In distributed systems, "
+            + "cache coherence is a classic problem: when several nodes read and write the same data, "
+            + "invalidation messages or version numbers keep stale reads bounded. Write-through, write-back "
+            + "and cache-aside each trade latency, throughput and complexity differently.";
+
+    private static final String CODE = "public int count(String text) {\n    if (text == null || text.isEmpty()) {\n"
+            + "        return 0;\n    }\n    Matcher matcher = pattern.matcher(text);\n    int tokens = 0;\n"
+            + "    while (matcher.find()) {\n        tokens += countPiece(matcher.start(), matcher.end());\n"
+            + "    }\n    return tokens;\n}\n";
+
+    /**
+     * 消息类型
+     */
+    @Param({"chinese", "english", "code"})
+    private String text;
+
+    private String message;
+    private TokenCounter bpe;
+
+    @Setup
+    public void setup() throws Exception {
+        message = switch (text) {
+            case "chinese" -> CHINESE;
+            case "english" -> ENGLISH;
+            default -> CODE;
+        };
+        BpeVocabulary vocabulary;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("tokenizer/cl100k_base.tiktoken")) {
+            vocabulary = in != null ? BpeVocabulary.load(in) : train(2000);
+        }
+        bpe = new BpeTokenizer(BpeEncoding.CL100K_BASE, vocabulary);
+    }
+
+    /**
+     * 原有估算方式
+     */
+    @Benchmark
+    public int legacyEstimate() {
+        return (int) (message.length() * 0.75);
+    }
+
+    @Benchmark
+    public int heuristic() {
+        return HeuristicTokenCounter.INSTANCE.count(message);
+    }
+
+    @Benchmark
+    public int bpe() {
+        return bpe.count(message);
+    }
+
+    /**
+     * 在样本文本上按字节对频次训练词表，合并次数越多，片段越接近整词
+     */
+    private static BpeVocabulary train(int merges) {
+        List<List<byte[]>> pieces = new ArrayList<>();
+        for (String sample : List.of(CHINESE, ENGLISH, CODE)) {
+            Matcher matcher = BpeEncoding.CL100K_BASE.pattern().matcher(sample);
+            while (matcher.find()) {
+                List<byte[]> piece = new ArrayList<>();
+                for (byte b : matcher.group().getBytes(StandardCharsets.UTF_8)) {
+                    piece.add(new byte[]{b});
+                }
+                pieces.add(piece);
+            }
+        }
+        List<byte[]> tokens = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            tokens.add(new byte[]{(byte) i});
+        }
+        for (int m = 0; m < merges; m++) {
+            Map<String, Integer> counts = new HashMap<>();
+            Map<String, byte[]> merged = new HashMap<>();
+            for (List<byte[]> piece : pieces) {
+                for (int i = 0; i + 1 < piece.size(); i++) {
+                    byte[] pair = concat(piece.get(i), piece.get(i + 1));
+                    String key = Arrays.toString(pair);
+                    counts.merge(key, 1, Integer::sum);
+                    merged.putIfAbsent(key, pair);
+                }
+            }
+            String best = counts.entrySet().stream()
+                    .max(Map.Entry.comparingByValue())
+                    .map(Map.Entry::getKey)
+                    .orElse(null);
+            if (best == null) {
+                break;
+            }
+            byte[] token = merged.get(best);
+            tokens.add(token);
+            for (List<byte[]> piece : pieces) {
+                for (int i = 0; i + 1 < piece.size(); i++) {
+                    if (Arrays.equals(concat(piece.get(i), piece.get(i + 1)), token)) {
+                        piece.set(i, token);
+                        piece.remove(i + 1);
+                    }
+                }
+            }
+        }
+        return BpeVocabulary.of(tokens);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenizerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
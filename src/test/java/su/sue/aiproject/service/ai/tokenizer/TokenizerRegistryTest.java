@@ -0,0 +1,87 @@
+package su.sue.aiproject.service.ai.tokenizer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.dto.ChatMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TokenizerRegistryTest {
+
+    @TempDir
+    Path vocabDir;
+
+    private TokenizerRegistry registry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // 只提供 cl100k_base 的词表：256个单字节token加上 "hello"
+        StringBuilder file = new StringBuilder();
+        Base64.Encoder encoder = Base64.getEncoder();
+        for (int i = 0; i < 256; i++) {
+            file.append(encoder.encodeToString(new byte[]{(byte) i})).append(' ').append(i).append('\n');
+        }
+        file.append(encoder.encodeToString("hello".getBytes(StandardCharsets.UTF_8))).append(" 256\n");
+        Files.writeString(vocabDir.resolve("cl100k_base.tiktoken"), file);
+
+        registry = new TokenizerRegistry(new DefaultResourceLoader());
+        ReflectionTestUtils.setField(registry, "vocabLocation", vocabDir.toUri().toString());
+        ReflectionTestUtils.setField(registry, "defaultEncoding", "cl100k_base");
+        ReflectionTestUtils.setField(registry, "systemPromptCacheSize", 16);
+        registry.init();
+    }
+
+    @Test
+    void resolvesEncodingFromColumnThenModelName() {
+        assertEquals("qwen", registry.resolveEncoding(model("gpt-4o", "openai", "QWEN")));
+        assertEquals("o200k_base", registry.resolveEncoding(model("gpt-4o-mini", "openai", null)));
+        assertEquals("o200k_base", registry.resolveEncoding(model("o1", "openai", null)));
+        assertEquals("qwen", registry.resolveEncoding(model("qwen-plus", "qwen", " ")));
+        assertEquals("cl100k_base", registry.resolveEncoding(model("deepseek-chat", "deepseek", null)));
+    }
+
+    @Test
+    void fallsBackToHeuristicWhenVocabularyIsMissing() {
+        assertEquals("cl100k_base", registry.forModel(model("deepseek-chat", "deepseek", null)).name());
+        assertSame(HeuristicTokenCounter.INSTANCE, registry.forModel(model("qwen-plus", "qwen", null)));
+        assertSame(HeuristicTokenCounter.INSTANCE, registry.forModel(model("llama3", "ollama", "unknown")));
+    }
+
+    @Test
+    void countsPromptWithMessageOverhead() {
+        AiModels model = model("deepseek-chat", "deepseek", null);
+        List<ChatMessage> messages = List.of(message("system", "hello"), message("user", "hello!"));
+
+        int expected = TokenizerRegistry.TOKENS_PER_REPLY + 2 * TokenizerRegistry.TOKENS_PER_MESSAGE + 1 + 2;
+        assertEquals(expected, registry.countPrompt(model, messages));
+        // 第二次命中系统提示词缓存，结果不变
+        assertEquals(expected, registry.countPrompt(model, messages));
+        assertEquals(0, registry.countPrompt(model, List.of()));
+    }
+
+    private static AiModels model(String modelName, String provider, String tokenizer) {
+        AiModels model = new AiModels();
+        model.setModelName(modelName);
+        model.setProvider(provider);
+        model.setTokenizer(tokenizer);
+        return model;
+    }
+
+    private static ChatMessage message(String role, String content) {
+        ChatMessage message = new ChatMessage();
+        message.setRole(role);
+        message.setContent(content);
+        return message;
+    }
+}
@@ -0,0 +1,99 @@
+package su.sue.aiproject.service.credit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import su.sue.aiproject.domain.CreditLedger;
+import su.sue.aiproject.mapper.CreditLedgerMapper;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * CreditHoldSweeper 测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class CreditHoldSweeperTest {
+
+    @Mock
+    private CreditLedgerMapper creditLedgerMapper;
+
+    @Mock
+    private CreditLedgerWriter creditLedgerWriter;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private UserCreditCache userCreditCache;
+
+    @InjectMocks
+    private CreditHoldSweeper sweeper;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(sweeper, "expireMs", 600000L);
+        ReflectionTestUtils.setField(sweeper, "batchSize", 10);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testExpiredHoldIsReleasedWithCloseEventId() {
+        when(creditLedgerMapper.findOpenHolds(any(), anyInt())).thenReturn(List.of(hold("h1", "-0.5")));
+        when(creditLedgerMapper.insertIgnoreBatch(anyList())).thenReturn(1);
+
+        sweeper.sweep();
+
+        ArgumentCaptor<List<CreditLedger>> captor = ArgumentCaptor.forClass(List.class);
+        verify(creditLedgerWriter).flush();
+        verify(creditLedgerMapper).insertIgnoreBatch(captor.capture());
+        CreditLedger release = captor.getValue().get(0);
+        assertEquals("close:h1", release.getEventId());
+        assertEquals("h1", release.getHoldId());
+        assertEquals(new BigDecimal("0.5"), release.getAmount());
+        assertEquals("release", release.getType());
+        assertEquals(CreditLedger.STATUS_PENDING, release.getStatus());
+        verify(creditLedgerMapper).closeHolds(List.of("h1"));
+        verify(userCreditCache).apply(1L, new BigDecimal("0.5"));
+    }
+
+    @Test
+    void testHoldSettledConcurrentlyIsOnlyMarkedClosed() {
+        when(creditLedgerMapper.findOpenHolds(any(), anyInt())).thenReturn(List.of(hold("h1", "-0.5")));
+        // 关闭流水已由迟到的结算写入，退还流水被去重忽略
+        when(creditLedgerMapper.insertIgnoreBatch(anyList())).thenReturn(0);
+
+        sweeper.sweep();
+
+        verify(creditLedgerMapper).closeHolds(List.of("h1"));
+        verifyNoInteractions(userCreditCache);
+    }
+
+    private static CreditLedger hold(String holdId, String amount) {
+        CreditLedger hold = new CreditLedger();
+        hold.setHoldId(holdId);
+        hold.setHoldState(CreditLedger.HOLD_OPEN);
+        hold.setUserId(1L);
+        hold.setAmount(new BigDecimal(amount));
+        hold.setType("reserve");
+        hold.setDescription("test");
+        hold.setCreatedAt(new Date(0));
+        return hold;
+    }
+}
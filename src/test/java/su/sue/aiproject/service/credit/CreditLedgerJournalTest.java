@@ -0,0 +1,84 @@
+package su.sue.aiproject.service.credit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import su.sue.aiproject.domain.CreditLedger;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CreditLedgerJournal 测试类
+ */
+class CreditLedgerJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testRotatedSegmentCanBeReplayed() throws Exception {
+        CreditLedgerJournal journal = new CreditLedgerJournal(directory, objectMapper);
+        journal.append(entry("e1", "-0.5"));
+        journal.append(entry("e2", "0.3"));
+
+        Path segment = journal.rotate();
+
+        assertNotNull(segment);
+        assertEquals(List.of(segment), journal.segments());
+        List<CreditLedger> entries = journal.read(segment);
+        assertEquals(2, entries.size());
+        assertEquals("e1", entries.get(0).getEventId());
+        assertEquals(0, new BigDecimal("0.3").compareTo(entries.get(1).getAmount()));
+    }
+
+    @Test
+    void testAppendAfterRotateStartsNewSegment() throws Exception {
+        CreditLedgerJournal journal = new CreditLedgerJournal(directory, objectMapper);
+        assertNull(journal.rotate());
+
+        journal.append(entry("e1", "1"));
+        Path first = journal.rotate();
+        journal.append(entry("e2", "2"));
+        Path second = journal.rotate();
+
+        assertNotEquals(first, second);
+        assertEquals(List.of(first, second), journal.segments());
+
+        journal.delete(first);
+        assertEquals(List.of(second), journal.segments());
+    }
+
+    @Test
+    void testTruncatedLastLineIsSkipped() throws Exception {
+        CreditLedgerJournal journal = new CreditLedgerJournal(directory, objectMapper);
+        journal.append(entry("e1", "1"));
+        Path segment = journal.rotate();
+
+        // 模拟崩溃时写了一半的最后一行
+        Files.write(segment, "{\"eventId\":\"e2\",\"amo".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        List<CreditLedger> entries = journal.read(segment);
+        assertEquals(1, entries.size());
+        assertEquals("e1", entries.get(0).getEventId());
+    }
+
+    private CreditLedger entry(String eventId, String amount) {
+        CreditLedger entry = new CreditLedger();
+        entry.setEventId(eventId);
+        entry.setUserId(1L);
+        entry.setAmount(new BigDecimal(amount));
+        entry.setType("settle");
+        entry.setStatus(CreditLedger.STATUS_PENDING);
+        return entry;
+    }
+}
@@ -0,0 +1,91 @@
+package su.sue.aiproject.service.credit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * UserCreditCache 测试类
+ */
+class UserCreditCacheTest {
+
+    private UserCreditCache cache;
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(1000));
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        cache = new UserCreditCache(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "mode", "eventual");
+        ReflectionTestUtils.setField(cache, "maxSize", 10);
+        ReflectionTestUtils.setField(cache, "ttlMs", 1000L);
+        cache.nanoClock = now::get;
+    }
+
+    @Test
+    void testMissLoadsOnceThenHits() {
+        assertEquals(new BigDecimal("5"), cache.get(1L, this::load));
+        assertEquals(new BigDecimal("5"), cache.get(1L, this::load));
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testExpiredEntryIsReloaded() {
+        cache.get(1L, this::load);
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+
+        assertNull(cache.getIfPresent(1L));
+        cache.get(1L, this::load);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testLocalChangesUpdateCachedBalance() {
+        cache.get(1L, this::load);
+
+        cache.apply(1L, new BigDecimal("-1.5"));
+        cache.apply(2L, new BigDecimal("-1.5"));
+
+        assertEquals(0, new BigDecimal("3.5").compareTo(cache.getIfPresent(1L)));
+        assertNull(cache.getIfPresent(2L), "未缓存的用户不应被写入");
+    }
+
+    @Test
+    void testInvalidateForcesReload() {
+        cache.get(1L, this::load);
+        cache.invalidate(1L);
+
+        cache.get(1L, this::load);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        for (long userId = 1; userId <= 100; userId++) {
+            cache.put(userId, BigDecimal.ONE);
+        }
+
+        assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    void testStrictMode() {
+        assertFalse(cache.isStrict());
+        ReflectionTestUtils.setField(cache, "mode", "strict");
+        assertTrue(cache.isStrict());
+    }
+
+    private BigDecimal load(Long userId) {
+        loads.incrementAndGet();
+        return new BigDecimal("5");
+    }
+}
@@ -0,0 +1,190 @@
+package su.sue.aiproject.service.impl;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import su.sue.aiproject.domain.dto.ConversationDetailResponse;
+import su.sue.aiproject.domain.dto.ConversationListResponse;
+import su.sue.aiproject.domain.dto.ConversationSearchResponse;
+import su.sue.aiproject.domain.dto.CursorPageResponse;
+import su.sue.aiproject.domain.dto.HighlightRange;
+import su.sue.aiproject.domain.dto.MessageDetailResponse;
+import su.sue.aiproject.domain.dto.PageCursor;
+import su.sue.aiproject.mapper.ConversationsMapper;
+import su.sue.aiproject.mapper.MessagesMapper;
+import su.sue.aiproject.service.message.ConversationContextCache;
+import su.sue.aiproject.service.search.ConversationSearchIndex;
+import su.sue.aiproject.service.search.SearchHit;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * ConversationManagementServiceImpl 游标分页和搜索测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class ConversationManagementServiceImplTest {
+
+    @Mock
+    private ConversationsMapper conversationsMapper;
+
+    @Mock
+    private MessagesMapper messagesMapper;
+
+    @Mock
+    private ConversationSearchIndex conversationSearchIndex;
+
+    @Mock
+    private ConversationContextCache conversationContextCache;
+
+    @InjectMocks
+    private ConversationManagementServiceImpl service;
+
+    @Test
+    void testConversationCursorPointsAtLastRecord() {
+        LocalDateTime time = LocalDateTime.of(2025, 7, 7, 14, 0);
+        List<ConversationListResponse> rows = new ArrayList<>();
+        rows.add(conversation(3L, time.plusMinutes(2), null));
+        rows.add(conversation(2L, null, time.plusMinutes(1)));
+        rows.add(conversation(1L, time, null));
+        when(conversationsMapper.findConversationsByUserIdAfter(1L, null, null, 3)).thenReturn(rows);
+
+        CursorPageResponse<ConversationListResponse> page = service.getUserConversationsByCursor(1L, null, 2, false);
+
+        assertEquals(2, page.getRecords().size());
+        assertTrue(page.getHasMore());
+        assertNull(page.getTotal());
+        // 没有消息的会话按创建时间排序
+        assertEquals(new PageCursor(time.plusMinutes(1), 2L), PageCursor.decode(page.getNextCursor()));
+        verify(conversationsMapper, never()).countConversationsByUserId(anyLong());
+    }
+
+    @Test
+    void testMessageCursorContinuesFromPosition() {
+        LocalDateTime time = LocalDateTime.of(2025, 7, 7, 14, 0);
+        ConversationDetailResponse detail = new ConversationDetailResponse();
+        detail.setMessageCount(12);
+        when(conversationsMapper.findConversationDetailById(5L, 1L)).thenReturn(detail);
+        when(messagesMapper.findMessagesByConversationIdAfter(5L, time, 40L, 11)).thenReturn(List.of(message(41L, time)));
+
+        CursorPageResponse<MessageDetailResponse> page = service.getConversationMessagesByCursor(5L, 1L,
+                new PageCursor(time, 40L).encode(), 10, true);
+
+        assertEquals(1, page.getRecords().size());
+        assertFalse(page.getHasMore());
+        assertNull(page.getNextCursor());
+        assertEquals(12L, page.getTotal());
+    }
+
+    @Test
+    void testInvalidCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> service.getUserConversationsByCursor(1L, "not-a-cursor", 20, false));
+        verifyNoInteractions(conversationsMapper);
+    }
+
+    @Test
+    void testSearchUsesIndexScoresAndSkipsDeletedConversations() {
+        ReflectionTestUtils.setField(service, "snippetLength", 10);
+        ReflectionTestUtils.setField(service, "snippetContext", 2);
+        when(conversationSearchIndex.isReady()).thenReturn(true);
+        when(conversationSearchIndex.search(1L, List.of("介绍", "绍你"))).thenReturn(List.of(
+                new SearchHit(7L, 10L, 2.5, new int[]{40, 42, 41, 43}),
+                new SearchHit(5L, 11L, 1.5, new int[]{0, 2, 1, 3}),
+                new SearchHit(3L, 10L, 0.5, new int[]{0, 2, 1, 3}),
+                new SearchHit(2L, 10L, 0.2, new int[]{0, 2, 1, 3})));
+        // 会话 11 已删除，不计入总数，也不占用分页
+        when(conversationsMapper.findActiveIds(1L, Set.of(10L, 11L))).thenReturn(List.of(10L));
+        // 只为当前页的消息截取摘要窗口
+        when(messagesMapper.findSearchResultsByIds(eq(1L), argThat(snippets -> snippets.size() == 2
+                && snippets.get(0).getMessageId() == 7L && snippets.get(1).getMessageId() == 3L
+                && snippets.get(0).getStart() == 38 && snippets.get(0).getLength() == 10), eq(false)))
+                .thenReturn(List.of(searchRow(7L, "请介绍你自己吧"), searchRow(3L, "介绍你")));
+
+        Page<ConversationSearchResponse> page = service.searchConversations(1L, "介绍你", 1, 2, false);
+
+        assertEquals(3, page.getTotal());
+        assertEquals(List.of(7L, 3L), page.getRecords().stream().map(ConversationSearchResponse::getMessageId).toList());
+        ConversationSearchResponse row = page.getRecords().get(0);
+        assertEquals(2.5, row.getMatchScore());
+        assertEquals(38, row.getSnippetStart());
+        assertEquals(List.of(new HighlightRange(2, 5)), row.getHighlights());
+        assertNull(row.getMessageContent());
+        verify(messagesMapper, never()).searchUserConversations(any(), anyLong(), anyString());
+    }
+
+    @Test
+    void testTitleOnlyMatchesAreAppendedToIndexHits() {
+        ReflectionTestUtils.setField(service, "snippetLength", 10);
+        ReflectionTestUtils.setField(service, "titleMatchLimit", 200);
+        when(conversationSearchIndex.isReady()).thenReturn(true);
+        when(conversationSearchIndex.search(1L, List.of("数据", "据库"))).thenReturn(List.of(
+                new SearchHit(7L, 10L, 2.5, new int[]{0, 2, 1, 3})));
+        when(conversationsMapper.findActiveIds(1L, Set.of(10L))).thenReturn(List.of(10L));
+        // 会话 10 的标题也命中，已有内容命中不重复；会话 12 只有标题命中，以最新一条消息出现
+        when(conversationsMapper.findTitleMatches(1L, "数据库", 200)).thenReturn(List.of(
+                titleMatch(10L, 9L), titleMatch(12L, 30L)));
+        when(messagesMapper.findSearchResultsByIds(eq(1L), argThat(snippets -> snippets.size() == 2
+                && snippets.get(1).getMessageId() == 30L && snippets.get(1).getStart() == 0), eq(false)))
+                .thenReturn(List.of(searchRow(7L, "数据库索引"), searchRow(30L, "今天聊聊")));
+
+        Page<ConversationSearchResponse> page = service.searchConversations(1L, "数据库", 1, 20, false);
+
+        assertEquals(2, page.getTotal());
+        assertEquals(List.of(7L, 30L), page.getRecords().stream().map(ConversationSearchResponse::getMessageId).toList());
+        assertEquals(List.of(), page.getRecords().get(1).getHighlights());
+    }
+
+    @Test
+    void testSingleCharacterSearchFallsBackToDatabase() {
+        when(conversationSearchIndex.isReady()).thenReturn(true);
+        Page<ConversationSearchResponse> result = new Page<>(1, 20);
+        when(messagesMapper.searchUserConversations(any(), eq(1L), eq("猫"))).thenReturn(result);
+
+        assertSame(result, service.searchConversations(1L, "猫", 1, 20, true));
+        verify(conversationSearchIndex, never()).search(anyLong(), any());
+    }
+
+    private ConversationSearchResponse titleMatch(Long conversationId, Long messageId) {
+        ConversationSearchResponse match = new ConversationSearchResponse();
+        match.setConversationId(conversationId);
+        match.setMessageId(messageId);
+        return match;
+    }
+
+    private ConversationSearchResponse searchRow(Long messageId, String snippet) {
+        ConversationSearchResponse row = new ConversationSearchResponse();
+        row.setMessageId(messageId);
+        row.setSnippet(snippet);
+        return row;
+    }
+
+    private ConversationListResponse conversation(Long id, LocalDateTime lastMessageTime, LocalDateTime createdAt) {
+        ConversationListResponse conversation = new ConversationListResponse();
+        conversation.setId(id);
+        conversation.setLastMessageTime(lastMessageTime);
+        conversation.setCreatedAt(createdAt != null ? createdAt : lastMessageTime);
+        return conversation;
+    }
+
+    private MessageDetailResponse message(Long id, LocalDateTime createdAt) {
+        MessageDetailResponse message = new MessageDetailResponse();
+        message.setId(id);
+        message.setCreatedAt(createdAt);
+        return message;
+    }
+}
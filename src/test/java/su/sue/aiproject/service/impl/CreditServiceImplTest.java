@@ -0,0 +1,203 @@
+package su.sue.aiproject.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import su.sue.aiproject.domain.Users;
+import su.sue.aiproject.mapper.CreditLedgerMapper;
+import su.sue.aiproject.mapper.UsersMapper;
+import su.sue.aiproject.service.CreditHold;
+import su.sue.aiproject.service.UsersService;
+import su.sue.aiproject.service.credit.CreditLedgerWriter;
+import su.sue.aiproject.service.credit.UserCreditCache;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * CreditServiceImpl 预留积分测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class CreditServiceImplTest {
+
+    @Mock
+    private UsersService usersService;
+
+    @Mock
+    private UsersMapper usersMapper;
+
+    @Mock
+    private CreditLedgerMapper creditLedgerMapper;
+
+    @Mock
+    private CreditLedgerWriter creditLedgerWriter;
+
+    @Mock
+    private UserCreditCache userCreditCache;
+
+    @InjectMocks
+    private CreditServiceImpl creditService;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(creditLedgerWriter.unflushedDelta(anyLong())).thenReturn(BigDecimal.ZERO);
+    }
+
+    @Test
+    void testReserveHoldsEstimateInSingleUpdate() {
+        when(usersMapper.reserveCreditIfEnough(1L, new BigDecimal("0.5"), BigDecimal.ZERO)).thenReturn(1);
+
+        CreditHold hold = creditService.reserveCredit(1L, new BigDecimal("0.5"), new BigDecimal("0.1"), "test");
+
+        assertEquals(new BigDecimal("0.5"), hold.getAmount());
+        assertNotNull(hold.getHoldId());
+        verify(usersMapper, times(1)).reserveCreditIfEnough(anyLong(), any(), any());
+        verify(creditLedgerWriter).appendReserve(hold.getHoldId(), 1L, new BigDecimal("-0.5"), "test");
+        verifyNoInteractions(usersService);
+    }
+
+    @Test
+    void testReserveFallsBackToMinimum() {
+        when(usersMapper.reserveCreditIfEnough(1L, new BigDecimal("0.5"), BigDecimal.ZERO)).thenReturn(0);
+        when(usersMapper.reserveCreditIfEnough(1L, new BigDecimal("0.1"), BigDecimal.ZERO)).thenReturn(1);
+
+        CreditHold hold = creditService.reserveCredit(1L, new BigDecimal("0.5"), new BigDecimal("0.1"), "test");
+
+        assertEquals(new BigDecimal("0.1"), hold.getAmount());
+    }
+
+    @Test
+    void testReserveRejectsWhenBalanceBelowMinimum() {
+        when(usersMapper.reserveCreditIfEnough(anyLong(), any(), any())).thenReturn(0);
+
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> creditService.reserveCredit(1L, new BigDecimal("0.5"), new BigDecimal("0.1"), "test"));
+        assertEquals("积分余额不足，请充值", e.getMessage());
+    }
+
+    @Test
+    void testReserveRejectedFromCacheWithoutUpdate() {
+        when(userCreditCache.getIfPresent(1L)).thenReturn(new BigDecimal("0.05"));
+
+        assertThrows(RuntimeException.class,
+                () -> creditService.reserveCredit(1L, new BigDecimal("0.5"), new BigDecimal("0.1"), "test"));
+        verifyNoInteractions(usersMapper);
+    }
+
+    @Test
+    void testReserveUsesMinimumWhenCacheBelowEstimate() {
+        when(userCreditCache.getIfPresent(1L)).thenReturn(new BigDecimal("0.2"));
+        when(usersMapper.reserveCreditIfEnough(1L, new BigDecimal("0.1"), BigDecimal.ZERO)).thenReturn(1);
+
+        CreditHold hold = creditService.reserveCredit(1L, new BigDecimal("0.5"), new BigDecimal("0.1"), "test");
+
+        assertEquals(new BigDecimal("0.1"), hold.getAmount());
+        verify(usersMapper, times(1)).reserveCreditIfEnough(anyLong(), any(), any());
+        verify(userCreditCache).apply(1L, new BigDecimal("-0.1"));
+    }
+
+    @Test
+    void testReserveFoldsPendingLedgerBeforeRejecting() {
+        // credit_balance 不够，待合并的退还计入后足够
+        when(usersMapper.reserveCreditIfEnough(1L, new BigDecimal("0.5"), BigDecimal.ZERO)).thenReturn(0, 1);
+        when(usersMapper.reserveCreditIfEnough(1L, new BigDecimal("0.1"), BigDecimal.ZERO)).thenReturn(0);
+        when(creditLedgerWriter.foldUser(1L)).thenReturn(true);
+
+        CreditHold hold = creditService.reserveCredit(1L, new BigDecimal("0.5"), new BigDecimal("0.1"), "test");
+
+        assertEquals(new BigDecimal("0.5"), hold.getAmount());
+        verify(creditLedgerWriter).foldUser(1L);
+    }
+
+    @Test
+    void testReserveSkipsRetryWhenNothingPending() {
+        when(usersMapper.reserveCreditIfEnough(anyLong(), any(), any())).thenReturn(0);
+
+        assertThrows(RuntimeException.class,
+                () -> creditService.reserveCredit(1L, new BigDecimal("0.5"), new BigDecimal("0.1"), "test"));
+        verify(usersMapper, times(2)).reserveCreditIfEnough(anyLong(), any(), any());
+        verify(creditLedgerWriter).foldUser(1L);
+    }
+
+    @Test
+    void testReserveCountsUnflushedLedger() {
+        // 本实例尚未写库的补扣使余额条件更严格
+        when(creditLedgerWriter.unflushedDelta(1L)).thenReturn(new BigDecimal("-0.3"));
+        when(usersMapper.reserveCreditIfEnough(1L, new BigDecimal("0.5"), new BigDecimal("-0.3"))).thenReturn(1);
+
+        CreditHold hold = creditService.reserveCredit(1L, new BigDecimal("0.5"), new BigDecimal("0.1"), "test");
+
+        assertEquals(new BigDecimal("0.5"), hold.getAmount());
+    }
+
+    @Test
+    void testSettleAppendsDifferenceOnce() {
+        CreditHold hold = new CreditHold("h1", 1L, new BigDecimal("0.5"), "test");
+
+        creditService.settleCredit(hold, new BigDecimal("0.2"));
+        creditService.settleCredit(hold, new BigDecimal("0.2"));
+        creditService.releaseCredit(hold);
+
+        // 结算只追加待合并的流水，不在请求路径上更新用户余额
+        verify(creditLedgerWriter, times(1)).appendClose("h1", 1L, new BigDecimal("0.3"), "settle", "test");
+        verifyNoMoreInteractions(creditLedgerWriter);
+        verifyNoInteractions(usersMapper);
+    }
+
+    @Test
+    void testSettleChargesOverage() {
+        CreditHold hold = new CreditHold("h1", 1L, new BigDecimal("0.1"), "test");
+
+        creditService.settleCredit(hold, new BigDecimal("0.3"));
+
+        verify(creditLedgerWriter).appendClose("h1", 1L, new BigDecimal("-0.2"), "settle", "test");
+    }
+
+    @Test
+    void testReleaseRefundsFullHold() {
+        CreditHold hold = new CreditHold("h1", 1L, new BigDecimal("0.5"), "test");
+
+        creditService.releaseCredit(hold);
+        creditService.releaseCredit(hold);
+
+        verify(creditLedgerWriter, times(1)).appendClose("h1", 1L, new BigDecimal("0.5"), "release", "test");
+    }
+
+    @Test
+    void testAdjustAppendsDeltaAgainstActualBalance() {
+        Users user = new Users();
+        user.setId(1L);
+        user.setCreditBalance(new BigDecimal("10"));
+        when(usersService.getById(1L)).thenReturn(user);
+        when(creditLedgerMapper.sumPendingByUserId(1L)).thenReturn(new BigDecimal("-2"));
+        when(creditLedgerWriter.unflushedDelta(1L)).thenReturn(new BigDecimal("0.5"));
+
+        BigDecimal delta = creditService.adjustCreditTo(1L, new BigDecimal("20"), "管理员调整积分");
+
+        // 实际余额 8.5，待合并的流水之后照常合并，追加的差额使最终余额为 20
+        assertEquals(0, new BigDecimal("11.5").compareTo(delta));
+        verify(creditLedgerWriter).append(1L, delta, "adjust", "管理员调整积分", false);
+        verify(userCreditCache).put(1L, new BigDecimal("20"));
+        verifyNoInteractions(usersMapper);
+    }
+
+    @Test
+    void testBalanceIncludesPendingAndUnflushedLedger() {
+        Users user = new Users();
+        user.setId(1L);
+        user.setCreditBalance(new BigDecimal("10"));
+        when(usersService.getById(1L)).thenReturn(user);
+        when(creditLedgerMapper.sumPendingByUserId(1L)).thenReturn(new BigDecimal("-1.5"));
+        when(creditLedgerWriter.unflushedDelta(1L)).thenReturn(new BigDecimal("0.25"));
+        when(userCreditCache.isStrict()).thenReturn(true);
+
+        assertEquals(0, new BigDecimal("8.75").compareTo(creditService.getUserCredit(1L)));
+    }
+}
@@ -0,0 +1,175 @@
+package su.sue.aiproject.service.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.ConversationSummaries;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.mapper.ConversationSummariesMapper;
+import su.sue.aiproject.mapper.MessagesMapper;
+import su.sue.aiproject.service.ai.AiModelRegistry;
+import su.sue.aiproject.service.ai.ConversationSummarizer;
+import su.sue.aiproject.service.ai.tokenizer.TokenizerRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ConversationCompactor 滚动摘要压缩测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class ConversationCompactorTest {
+
+    @Mock
+    private ConversationSummariesMapper conversationSummariesMapper;
+
+    @Mock
+    private MessagesMapper messagesMapper;
+
+    @Mock
+    private ConversationSummarizer conversationSummarizer;
+
+    @Mock
+    private AiModelRegistry aiModelRegistry;
+
+    @Mock
+    private ConversationContextCache conversationContextCache;
+
+    private ConversationCompactor compactor;
+
+    @BeforeEach
+    void setUp() {
+        TokenizerRegistry tokenizerRegistry = new TokenizerRegistry(new DefaultResourceLoader());
+        ReflectionTestUtils.setField(tokenizerRegistry, "systemPromptCacheSize", 16);
+        tokenizerRegistry.init();
+
+        compactor = new ConversationCompactor(conversationSummariesMapper, messagesMapper, conversationSummarizer,
+                aiModelRegistry, conversationContextCache, tokenizerRegistry);
+        ReflectionTestUtils.setField(compactor, "keepRecentMessages", 2);
+        ReflectionTestUtils.setField(compactor, "maxDeltaMessages", 10);
+        // 默认窗口足够大，所有消息一批合并
+        lenient().when(conversationSummarizer.maxInputTokens(any())).thenReturn(100000);
+        lenient().when(conversationSummarizer.messageTokens(any(), any())).thenReturn(1);
+    }
+
+    @Test
+    void testMergesDeltaAfterPreviousCheckpoint() throws Exception {
+        ConversationSummaries previous = new ConversationSummaries();
+        previous.setSummary("旧摘要");
+        previous.setCoveredMessageId(4L);
+        when(conversationSummariesMapper.findLatest(10L)).thenReturn(previous);
+        when(messagesMapper.findMessagesAfter(10L, 4L, 12)).thenReturn(messages(5, 9));
+        when(conversationSummarizer.summarize(any(AiModels.class), eq("旧摘要"), anyList())).thenReturn("新摘要");
+
+        ConversationSummaries checkpoint = compactor.compact(10L, model());
+
+        // 5..9 中保留最近2条原文，合并 5、6、7
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Messages>> covered = ArgumentCaptor.forClass(List.class);
+        verify(conversationSummarizer).summarize(any(AiModels.class), eq("旧摘要"), covered.capture());
+        assertEquals(List.of(5L, 6L, 7L), covered.getValue().stream().map(Messages::getId).toList());
+
+        assertEquals("新摘要", checkpoint.getSummary());
+        assertEquals(7L, checkpoint.getCoveredMessageId());
+        assertEquals(3, checkpoint.getModelId());
+        verify(conversationSummariesMapper).insert(checkpoint);
+        verify(conversationContextCache).evict(10L);
+    }
+
+    @Test
+    void testNothingToCompactWithinRecentMessages() throws Exception {
+        when(messagesMapper.findMessagesAfter(10L, 0L, 12)).thenReturn(messages(1, 2));
+
+        assertNull(compactor.compact(10L, model()));
+
+        verifyNoInteractions(conversationSummarizer);
+        verify(conversationSummariesMapper, never()).insert(any(ConversationSummaries.class));
+        verify(conversationContextCache, never()).evict(anyLong());
+    }
+
+    @Test
+    void testConfiguredSummaryModelIsUsed() throws Exception {
+        ReflectionTestUtils.setField(compactor, "summaryModelId", 8);
+        AiModels cheap = model();
+        cheap.setId(8);
+        when(aiModelRegistry.get(8)).thenReturn(cheap);
+        when(messagesMapper.findMessagesAfter(10L, 0L, 12)).thenReturn(messages(1, 4));
+        when(conversationSummarizer.summarize(same(cheap), isNull(), anyList())).thenReturn("摘要");
+
+        ConversationSummaries checkpoint = compactor.compact(10L, model());
+
+        assertEquals(8, checkpoint.getModelId());
+        assertEquals(2L, checkpoint.getCoveredMessageId());
+    }
+
+    @Test
+    void testBacklogIsSummarizedInBatchesWithinWindow() throws Exception {
+        // 预算 100 - 40 = 60，每条消息30个token，每批2条
+        when(conversationSummarizer.maxInputTokens(any())).thenReturn(100);
+        when(conversationSummarizer.baseTokens(any(), any())).thenReturn(40);
+        when(conversationSummarizer.messageTokens(any(), any())).thenReturn(30);
+        when(messagesMapper.findMessagesAfter(10L, 0L, 12)).thenReturn(messages(1, 7));
+        when(conversationSummarizer.summarize(any(AiModels.class), isNull(), anyList())).thenReturn("摘要一");
+        when(conversationSummarizer.summarize(any(AiModels.class), eq("摘要一"), anyList())).thenReturn("摘要二");
+        when(conversationSummarizer.summarize(any(AiModels.class), eq("摘要二"), anyList())).thenReturn("摘要三");
+
+        ConversationSummaries checkpoint = compactor.compact(10L, model());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Messages>> batches = ArgumentCaptor.forClass(List.class);
+        verify(conversationSummarizer, times(3)).summarize(any(AiModels.class), any(), batches.capture());
+        assertEquals(List.of(List.of(1L, 2L), List.of(3L, 4L), List.of(5L)), batches.getAllValues().stream()
+                .map(batch -> batch.stream().map(Messages::getId).toList()).toList());
+        verify(conversationSummariesMapper, times(3)).insert(any(ConversationSummaries.class));
+        assertEquals("摘要三", checkpoint.getSummary());
+        assertEquals(5L, checkpoint.getCoveredMessageId());
+    }
+
+    @Test
+    void testCompletedBatchesAreKeptWhenLaterBatchFails() throws Exception {
+        when(conversationSummarizer.maxInputTokens(any())).thenReturn(100);
+        when(conversationSummarizer.baseTokens(any(), any())).thenReturn(40);
+        when(conversationSummarizer.messageTokens(any(), any())).thenReturn(30);
+        when(messagesMapper.findMessagesAfter(10L, 0L, 12)).thenReturn(messages(1, 6));
+        when(conversationSummarizer.summarize(any(AiModels.class), isNull(), anyList())).thenReturn("摘要一");
+        when(conversationSummarizer.summarize(any(AiModels.class), eq("摘要一"), anyList()))
+                .thenThrow(new RuntimeException("上游超时"));
+
+        assertThrows(RuntimeException.class, () -> compactor.compact(10L, model()));
+
+        ArgumentCaptor<ConversationSummaries> saved = ArgumentCaptor.forClass(ConversationSummaries.class);
+        verify(conversationSummariesMapper).insert(saved.capture());
+        assertEquals(2L, saved.getValue().getCoveredMessageId());
+        verify(conversationContextCache).evict(10L);
+    }
+
+    private List<Messages> messages(long fromId, long toId) {
+        List<Messages> messages = new ArrayList<>();
+        for (long id = fromId; id <= toId; id++) {
+            Messages message = new Messages();
+            message.setId(id);
+            message.setRole(id % 2 == 1 ? "user" : "assistant");
+            message.setContent("消息" + id);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private AiModels model() {
+        AiModels model = new AiModels();
+        model.setId(3);
+        model.setModelName("test-model");
+        model.setTokenizer("heuristic");
+        return model;
+    }
+}
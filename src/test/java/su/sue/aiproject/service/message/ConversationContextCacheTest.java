@@ -0,0 +1,106 @@
+package su.sue.aiproject.service.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.mapper.ConversationSettingsMapper;
+import su.sue.aiproject.mapper.ConversationSummariesMapper;
+import su.sue.aiproject.mapper.ConversationsMapper;
+import su.sue.aiproject.mapper.MessagesMapper;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ConversationContextCache 重新加载时合并未写库消息的测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class ConversationContextCacheTest {
+
+    @Mock
+    private MessagesMapper messagesMapper;
+
+    @Mock
+    private ConversationsMapper conversationsMapper;
+
+    @Mock
+    private ConversationSettingsMapper conversationSettingsMapper;
+
+    @Mock
+    private ConversationSummariesMapper conversationSummariesMapper;
+
+    @InjectMocks
+    private ConversationContextCache cache;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(cache, "cacheSize", 16);
+        ReflectionTestUtils.setField(cache, "maxMessages", 200);
+        ReflectionTestUtils.setField(cache, "cacheTtlMs", 600000L);
+        cache.init();
+        when(conversationsMapper.findActiveOwner(10L)).thenReturn(1L);
+    }
+
+    @Test
+    void testUnpersistedExchangeSurvivesReload() {
+        // 数据库中只有上一轮，本轮仍在持久化管道中
+        when(messagesMapper.findRecentMessages(10L, 200)).thenReturn(List.of(message("user", "旧问题", 1000)));
+        cache.append(exchange(message("user", "新问题", 5000), message("assistant", "新回答", 6000)));
+
+        cache.evict(10L);
+
+        assertEquals(List.of("旧问题", "新问题", "新回答"), contents(cache.get(10L, 1L)));
+    }
+
+    @Test
+    void testExchangeVisibleInDatabaseIsNotDuplicated() {
+        MessageExchange exchange = exchange(message("user", "问题", 5700), message("assistant", "回答", 6200));
+        cache.append(exchange);
+        // 登记之后写库，created_at 按秒四舍五入，查询已能读到
+        when(messagesMapper.findRecentMessages(10L, 200)).thenReturn(new ArrayList<>(List.of(
+                message("assistant", "回答", 6000), message("user", "问题", 6000))));
+
+        assertEquals(List.of("问题", "回答"), contents(cache.get(10L, 1L)));
+
+        cache.removePending(List.of(exchange));
+        cache.evict(10L);
+        assertEquals(List.of("问题", "回答"), contents(cache.get(10L, 1L)));
+    }
+
+    @Test
+    void testExchangeAppendedDuringLoadIsKept() {
+        when(messagesMapper.findRecentMessages(10L, 200)).thenAnswer(invocation -> {
+            // 加载查询期间提交了新一轮对话，此时会话尚未进入缓存
+            cache.append(exchange(message("user", "并发问题", 5000)));
+            return List.of(message("user", "旧问题", 1000));
+        });
+
+        assertEquals(List.of("旧问题", "并发问题"), contents(cache.get(10L, 1L)));
+    }
+
+    private List<String> contents(ConversationContext context) {
+        return context.snapshot().stream().map(ConversationContext.ContextMessage::getContent).toList();
+    }
+
+    private MessageExchange exchange(Messages... messages) {
+        return new MessageExchange(1L, 10L, 3, List.of(messages));
+    }
+
+    private Messages message(String role, String content, long createdAt) {
+        Messages message = new Messages();
+        message.setConversationId(10L);
+        message.setRole(role);
+        message.setContent(content);
+        message.setCreatedAt(new Date(createdAt));
+        return message;
+    }
+}
@@ -0,0 +1,156 @@
+package su.sue.aiproject.service.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+import su.sue.aiproject.domain.AiModels;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.domain.dto.ChatCompletionRequest;
+import su.sue.aiproject.domain.dto.ChatMessage;
+import su.sue.aiproject.service.ai.tokenizer.TokenizerRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ConversationContextService 上下文组装测试类
+ * 使用 heuristic 分词器："aaaa" 计1个token，每条消息另加 {@link TokenizerRegistry#TOKENS_PER_MESSAGE}
+ */
+@ExtendWith(MockitoExtension.class)
+class ConversationContextServiceTest {
+
+    @Mock
+    private ConversationContextCache conversationContextCache;
+
+    @Mock
+    private ConversationCompactor conversationCompactor;
+
+    private ConversationContextService service;
+
+    @BeforeEach
+    void setUp() {
+        TokenizerRegistry tokenizerRegistry = new TokenizerRegistry(new DefaultResourceLoader());
+        ReflectionTestUtils.setField(tokenizerRegistry, "systemPromptCacheSize", 16);
+        tokenizerRegistry.init();
+
+        service = new ConversationContextService(conversationContextCache, tokenizerRegistry, conversationCompactor);
+        ReflectionTestUtils.setField(service, "defaultWindowTokens", 8192);
+        ReflectionTestUtils.setField(service, "defaultCompletionTokens", 1024);
+    }
+
+    @Test
+    void testSystemMessageFromSettingsIsPinned() {
+        ConversationContext context = context("你是一个助手", 4);
+        when(conversationContextCache.get(10L, 1L)).thenReturn(context);
+
+        List<ChatMessage> messages = service.assemble(model(null), 1L,
+                request(null, message("system", "客户端提示词"), message("user", "新问题")));
+
+        assertEquals(6, messages.size());
+        assertEquals("system", messages.get(0).getRole());
+        assertEquals("你是一个助手", messages.get(0).getContent());
+        assertEquals("m0aa", messages.get(1).getContent());
+        assertEquals("新问题", messages.get(5).getContent());
+    }
+
+    @Test
+    void testClientSystemMessageIsKeptWithoutSettings() {
+        when(conversationContextCache.get(10L, 1L)).thenReturn(context(null, 0));
+
+        List<ChatMessage> messages = service.assemble(model(null), 1L,
+                request(null, message("system", "客户端提示词"), message("user", "新问题")));
+
+        assertEquals(List.of("客户端提示词", "新问题"), messages.stream().map(ChatMessage::getContent).toList());
+    }
+
+    @Test
+    void testOldestHistoryIsTrimmedToBudget() {
+        // 10条历史消息各5个token；窗口95 - 输出50 - 回复前缀3 - 本轮5 = 37，最多保留7条
+        when(conversationContextCache.get(10L, 1L)).thenReturn(context(null, 10));
+
+        List<ChatMessage> messages = service.assemble(model(95), 1L, request(50, message("user", "aaaa")));
+
+        // 第7条往前是AI回复，丢弃后从用户消息开始
+        assertEquals(7, messages.size());
+        assertEquals("user", messages.get(0).getRole());
+        assertEquals("m4aa", messages.get(0).getContent());
+        assertEquals("aaaa", messages.get(6).getContent());
+    }
+
+    @Test
+    void testTurnExceedingWindowIsRejected() {
+        when(conversationContextCache.get(10L, 1L)).thenReturn(context(null, 0));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> service.assemble(model(59), 1L, request(50, message("user", "aaaa aaaa aaaa"))));
+    }
+
+    @Test
+    void testSummaryReplacesCoveredHistory() {
+        // 消息ID从1开始，摘要覆盖到ID 6，只发送ID 7之后的消息
+        when(conversationContextCache.get(10L, 1L)).thenReturn(context(null, "早先讨论了缓存", 6L, 10));
+
+        List<ChatMessage> messages = service.assemble(model(null), 1L, request(null, message("user", "新问题")));
+
+        assertEquals(6, messages.size());
+        assertEquals("system", messages.get(0).getRole());
+        assertTrue(messages.get(0).getContent().endsWith("早先讨论了缓存"));
+        assertEquals("m6aa", messages.get(1).getContent());
+        assertEquals("新问题", messages.get(5).getContent());
+        // 未覆盖的4条历史各5个token
+        verify(conversationCompactor).maybeCompact(eq(10L), eq(20), any(AiModels.class));
+    }
+
+    /**
+     * 历史消息内容依次为 m0aa、m1aa…（各1个token），偶数条为用户消息，奇数条为AI回复
+     */
+    private ConversationContext context(String systemMessage, int messages) {
+        return context(systemMessage, null, 0L, messages);
+    }
+
+    private ConversationContext context(String systemMessage, String summary, long coveredId, int messages) {
+        ConversationContext context = new ConversationContext(1L, systemMessage, summary, coveredId,
+                System.currentTimeMillis(), 200);
+        List<Messages> history = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            Messages message = new Messages();
+            message.setId(i + 1L);
+            message.setRole(i % 2 == 0 ? "user" : "assistant");
+            message.setContent("m" + i + "aa");
+            history.add(message);
+        }
+        context.append(history);
+        return context;
+    }
+
+    private AiModels model(Integer contextWindow) {
+        AiModels model = new AiModels();
+        model.setModelName("test-model");
+        model.setTokenizer("heuristic");
+        model.setContextWindow(contextWindow);
+        return model;
+    }
+
+    private ChatCompletionRequest request(Integer maxTokens, ChatMessage... messages) {
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setConversationId(10L);
+        request.setMaxTokens(maxTokens);
+        request.setServerContext(true);
+        request.setMessages(List.of(messages));
+        return request;
+    }
+
+    private ChatMessage message(String role, String content) {
+        ChatMessage message = new ChatMessage();
+        message.setRole(role);
+        message.setContent(content);
+        return message;
+    }
+}
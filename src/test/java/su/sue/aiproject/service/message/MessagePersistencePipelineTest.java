@@ -0,0 +1,188 @@
+package su.sue.aiproject.service.message;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import su.sue.aiproject.domain.Conversations;
+import su.sue.aiproject.domain.Messages;
+import su.sue.aiproject.mapper.ConversationsMapper;
+import su.sue.aiproject.mapper.MessagesMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * MessagePersistencePipeline 批量写库测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class MessagePersistencePipelineTest {
+
+    @Mock
+    private MessagesMapper messagesMapper;
+
+    @Mock
+    private ConversationsMapper conversationsMapper;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private ConversationContextCache conversationContextCache;
+
+    @InjectMocks
+    private MessagePersistencePipeline pipeline;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSummaryIsCoalescedPerConversation() {
+        ReflectionTestUtils.setField(pipeline, "batchSize", 200);
+        when(conversationsMapper.selectList(any())).thenReturn(List.of(conversation(10L, 1L)));
+        doAnswer(invocation -> {
+            ((Consumer<TransactionStatus>) invocation.getArgument(0)).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+
+        pipeline.persist(List.of(
+                exchange(1L, 10L, 3, message("问题一", 0, 1000), message("回答一", 30, 2000)),
+                exchange(1L, 10L, 5, message("问题二", 0, 3000), message("回答二", 40, 4000))));
+
+        verify(messagesMapper).insertBatch(argThat(messages -> messages.size() == 4));
+        verify(conversationsMapper).applyMessageSummary(10L, 5, 4, 70L, new Date(4000), "回答二");
+    }
+
+    @Test
+    void testForeignConversationIsDropped() {
+        when(conversationsMapper.selectList(any())).thenReturn(List.of(conversation(10L, 2L)));
+
+        pipeline.persist(List.of(exchange(1L, 10L, 3, message("问题", 0, 1000))));
+
+        verifyNoInteractions(messagesMapper, transactionTemplate);
+        verify(conversationsMapper, never()).applyMessageSummary(anyLong(), any(), anyInt(), anyLong(), any(), any());
+    }
+
+    @Test
+    void testPreviewIsTruncated() {
+        String content = "长".repeat(MessagePersistencePipeline.PREVIEW_LENGTH + 50);
+
+        String preview = MessagePersistencePipeline.ConversationDelta.preview(content);
+
+        assertEquals(MessagePersistencePipeline.PREVIEW_LENGTH, preview.length());
+        assertEquals("短", MessagePersistencePipeline.ConversationDelta.preview("短"));
+    }
+
+    @Test
+    void testBadExchangeIsQuarantinedAndLaterSegmentsReplayed(@TempDir Path dir) throws IOException {
+        MessageSpillFile spillFile = spillFile(dir);
+        spillFile.write(List.of(exchange(1L, 10L, 3, message("好", 0, 1000)),
+                exchange(1L, 10L, 3, message("坏", 0, 2000))));
+        spillFile.write(List.of(exchange(1L, 10L, 3, message("后续", 0, 3000))));
+        doThrow(new DataIntegrityViolationException("Data too long"))
+                .when(messagesMapper).insertBatch(argThat(messages -> messages.stream()
+                        .anyMatch(m -> m.getContent().equals("坏"))));
+
+        pipeline.replaySpill();
+
+        verify(messagesMapper).insertBatch(argThat(messages -> messages.size() == 1
+                && messages.get(0).getContent().equals("好")));
+        verify(messagesMapper).insertBatch(argThat(messages -> messages.size() == 1
+                && messages.get(0).getContent().equals("后续")));
+        assertTrue(spillFile.segments().isEmpty());
+        List<Path> quarantined = quarantined(dir);
+        assertEquals(1, quarantined.size());
+        List<MessageExchange> bad = new MessageSpillFile(dir, new ObjectMapper()).read(quarantined.get(0));
+        assertEquals(1, bad.size());
+        assertEquals("坏", bad.get(0).messages().get(0).getContent());
+    }
+
+    @Test
+    void testConnectionFailureStopsReplay(@TempDir Path dir) throws IOException {
+        MessageSpillFile spillFile = spillFile(dir);
+        spillFile.write(List.of(exchange(1L, 10L, 3, message("一", 0, 1000))));
+        spillFile.write(List.of(exchange(1L, 10L, 3, message("二", 0, 2000))));
+        doThrow(new CannotGetJdbcConnectionException("Connection refused"))
+                .when(messagesMapper).insertBatch(any());
+
+        pipeline.replaySpill();
+
+        verify(messagesMapper, times(1)).insertBatch(any());
+        assertEquals(2, spillFile.segments().size());
+        assertTrue(quarantined(dir).isEmpty());
+    }
+
+    @Test
+    void testUnreadableSegmentIsQuarantinedAfterMaxAttempts(@TempDir Path dir) throws IOException {
+        MessageSpillFile spillFile = spillFile(dir);
+        Path segment = spillFile.write(List.of(exchange(1L, 10L, 3, message("一", 0, 1000))));
+        // 把文件换成目录，读取必然失败
+        Files.delete(segment);
+        Files.createDirectory(segment);
+        ReflectionTestUtils.setField(pipeline, "spillMaxAttempts", 2);
+
+        pipeline.replaySpill();
+        assertEquals(List.of(segment), spillFile.segments());
+
+        pipeline.replaySpill();
+        assertTrue(spillFile.segments().isEmpty());
+        assertEquals(1, quarantined(dir).size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private MessageSpillFile spillFile(Path dir) throws IOException {
+        MessageSpillFile spillFile = new MessageSpillFile(dir, new ObjectMapper());
+        ReflectionTestUtils.setField(pipeline, "spillFile", spillFile);
+        ReflectionTestUtils.setField(pipeline, "batchSize", 200);
+        lenient().when(conversationsMapper.selectList(any())).thenReturn(List.of(conversation(10L, 1L)));
+        lenient().doAnswer(invocation -> {
+            ((Consumer<TransactionStatus>) invocation.getArgument(0)).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        return spillFile;
+    }
+
+    private List<Path> quarantined(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".bad")).toList();
+        }
+    }
+
+    private Conversations conversation(Long id, Long userId) {
+        Conversations conversation = new Conversations();
+        conversation.setId(id);
+        conversation.setUserId(userId);
+        return conversation;
+    }
+
+    private MessageExchange exchange(Long userId, Long conversationId, Integer modelId, Messages... messages) {
+        for (Messages message : messages) {
+            message.setConversationId(conversationId);
+        }
+        return new MessageExchange(userId, conversationId, modelId, List.of(messages));
+    }
+
+    private Messages message(String content, int tokens, long createdAt) {
+        Messages message = new Messages();
+        message.setRole("user");
+        message.setContent(content);
+        message.setTokensConsumed(tokens);
+        message.setCreatedAt(new Date(createdAt));
+        return message;
+    }
+}
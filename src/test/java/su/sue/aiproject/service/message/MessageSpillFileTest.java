@@ -0,0 +1,72 @@
+package su.sue.aiproject.service.message;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import su.sue.aiproject.domain.Messages;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MessageSpillFile 测试类
+ */
+class MessageSpillFileTest {
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testSpilledBatchCanBeReplayed() throws Exception {
+        MessageSpillFile spillFile = new MessageSpillFile(directory, objectMapper);
+
+        Path segment = spillFile.write(List.of(exchange(10L, "你好"), exchange(11L, "再见")));
+
+        assertEquals(List.of(segment), spillFile.segments());
+        List<MessageExchange> exchanges = spillFile.read(segment);
+        assertEquals(2, exchanges.size());
+        assertEquals(10L, exchanges.get(0).conversationId());
+        assertEquals("再见", exchanges.get(1).messages().get(0).getContent());
+    }
+
+    @Test
+    void testSegmentsAreOrderedAndTempFilesIgnored() throws Exception {
+        MessageSpillFile spillFile = new MessageSpillFile(directory, objectMapper);
+        Path first = spillFile.write(List.of(exchange(1L, "a")));
+        Path second = spillFile.write(List.of(exchange(2L, "b")));
+        Files.writeString(directory.resolve("spill-0-000000.log.tmp"), "{");
+
+        assertEquals(List.of(first, second), spillFile.segments());
+
+        spillFile.delete(first);
+        assertEquals(List.of(second), spillFile.segments());
+    }
+
+    @Test
+    void testCorruptedLineIsSkipped() throws Exception {
+        MessageSpillFile spillFile = new MessageSpillFile(directory, objectMapper);
+        Path segment = spillFile.write(List.of(exchange(1L, "a")));
+        Files.write(segment, "{\"userId\":1,\"conv".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<MessageExchange> exchanges = spillFile.read(segment);
+        assertEquals(1, exchanges.size());
+        assertEquals(1L, exchanges.get(0).conversationId());
+    }
+
+    private MessageExchange exchange(Long conversationId, String content) {
+        Messages message = new Messages();
+        message.setConversationId(conversationId);
+        message.setRole("user");
+        message.setContent(content);
+        message.setModelId(3);
+        message.setTokensConsumed(0);
+        return new MessageExchange(1L, conversationId, 3, List.of(message));
+    }
+}
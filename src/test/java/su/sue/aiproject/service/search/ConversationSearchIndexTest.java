@@ -0,0 +1,119 @@
+package su.sue.aiproject.service.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import su.sue.aiproject.domain.dto.MessageSearchDocument;
+import su.sue.aiproject.mapper.MessagesMapper;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ConversationSearchIndex 增量更新测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class ConversationSearchIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    private MessagesMapper messagesMapper;
+
+    @InjectMocks
+    private ConversationSearchIndex index;
+
+    /**
+     * 模拟 messages 表中已提交的消息
+     */
+    private final List<MessageSearchDocument> committed = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "indexDir", directory.toString());
+        ReflectionTestUtils.setField(index, "shardCount", 2);
+        ReflectionTestUtils.setField(index, "refreshBatchSize", 2);
+        ReflectionTestUtils.setField(index, "maxBatchesPerRefresh", 100);
+        ReflectionTestUtils.setField(index, "rescanLag", 10L);
+        ReflectionTestUtils.setField(index, "flushDocs", 1000);
+        ReflectionTestUtils.setField(index, "flushIntervalMs", 60000L);
+        ReflectionTestUtils.setField(index, "maxSegments", 8);
+        ReflectionTestUtils.setField(index, "mergeFactor", 4);
+        when(messagesMapper.findMessagesForIndex(anyLong(), anyInt())).thenAnswer(invocation -> {
+            long afterId = invocation.getArgument(0);
+            int limit = invocation.getArgument(1);
+            return committed.stream()
+                    .filter(document -> document.getMessageId() > afterId)
+                    .sorted(Comparator.comparingLong(MessageSearchDocument::getMessageId))
+                    .limit(limit)
+                    .toList();
+        });
+        index.onApplicationReady();
+    }
+
+    @Test
+    void testLateCommittedMessageIsIndexed() {
+        commit(1L, "数据库索引");
+        commit(3L, "数据库连接");
+        index.refresh();
+
+        // ID 2 的事务晚于 ID 3 提交
+        commit(2L, "数据库事务");
+        index.refresh();
+
+        List<SearchHit> hits = index.search(1L, SearchTokenizer.queryTerms("数据库"));
+        assertEquals(List.of(3L, 2L, 1L), hits.stream().map(SearchHit::messageId).toList());
+    }
+
+    @Test
+    void testRescannedMessagesSurviveRestartWithoutDuplicates() {
+        commit(1L, "数据库索引");
+        commit(2L, "数据库事务");
+        index.refresh();
+        index.shutdown();
+
+        index.onApplicationReady();
+        index.refresh();
+
+        List<SearchHit> hits = index.search(1L, SearchTokenizer.queryTerms("数据库"));
+        assertEquals(List.of(2L, 1L), hits.stream().map(SearchHit::messageId).toList());
+    }
+
+    @Test
+    void testRefreshReadsBoundedBatchesUntilCaughtUp() {
+        ReflectionTestUtils.setField(index, "maxBatchesPerRefresh", 1);
+        for (long id = 1; id <= 5; id++) {
+            commit(id, "数据库索引");
+        }
+
+        // 每轮只读一批（2条），追上之前不算就绪
+        assertFalse(index.refresh());
+        assertFalse(index.isReady());
+        assertFalse(index.refresh());
+        assertTrue(index.refresh());
+        assertTrue(index.isReady());
+        assertEquals(5, index.search(1L, SearchTokenizer.queryTerms("数据库")).size());
+    }
+
+    private void commit(long messageId, String content) {
+        MessageSearchDocument document = new MessageSearchDocument();
+        document.setMessageId(messageId);
+        document.setConversationId(10L);
+        document.setUserId(1L);
+        document.setContent(content);
+        committed.add(document);
+    }
+}
@@ -0,0 +1,126 @@
+package su.sue.aiproject.service.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * IndexShard 测试类
+ */
+class IndexShardTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testSearchRequiresAllTermsAndFiltersUser() throws Exception {
+        IndexShard shard = IndexShard.open(directory);
+        add(shard, 1L, 10L, 1L, "请介绍你自己");
+        add(shard, 2L, 10L, 1L, "介绍一下天气");
+        add(shard, 3L, 20L, 2L, "请介绍你自己");
+
+        List<SearchHit> hits = shard.search(1L, SearchTokenizer.queryTerms("介绍你自己"));
+
+        assertEquals(1, hits.size());
+        assertEquals(1L, hits.get(0).messageId());
+        assertTrue(hits.get(0).score() > 0);
+    }
+
+    @Test
+    void testShorterDocumentWithMoreOccurrencesRanksHigher() throws Exception {
+        IndexShard shard = IndexShard.open(directory);
+        add(shard, 1L, 10L, 1L, "数据库索引的原理，以及很多与此无关的其他内容，包括部署、监控、告警和日志");
+        add(shard, 2L, 10L, 1L, "数据库索引：索引就是数据库的目录");
+
+        List<SearchHit> hits = shard.search(1L, SearchTokenizer.queryTerms("索引"));
+
+        assertEquals(2, hits.size());
+        SearchHit first = hits.get(0).score() >= hits.get(1).score() ? hits.get(0) : hits.get(1);
+        assertEquals(2L, first.messageId());
+    }
+
+    @Test
+    void testFlushedAndMergedSegmentsSurviveReopen() throws Exception {
+        IndexShard shard = IndexShard.open(directory);
+        add(shard, 1L, 10L, 1L, "第一段 hello world");
+        shard.flush(1L);
+        add(shard, 2L, 10L, 1L, "第二段 hello");
+        shard.flush(2L);
+        add(shard, 3L, 10L, 1L, "内存中 hello");
+
+        assertEquals(3, shard.search(1L, List.of("hello")).size());
+
+        shard.mergeIfNeeded(1, 4);
+        assertEquals(1, shard.segmentCount());
+        assertEquals(3, shard.search(1L, List.of("hello")).size());
+
+        IndexShard reopened = IndexShard.open(directory);
+        assertEquals(2, reopened.search(1L, List.of("hello")).size());
+        Set<Long> durable = new HashSet<>();
+        reopened.collectDurableIds(1L, durable);
+        assertEquals(Set.of(2L), durable);
+    }
+
+    @Test
+    void testSegmentsAreSearchedPerUser() throws Exception {
+        IndexShard shard = IndexShard.open(directory);
+        // 用户交错写入，写段后按用户重新排列
+        add(shard, 1L, 10L, 3L, "hello 用户三");
+        add(shard, 2L, 20L, 1L, "hello 用户一");
+        add(shard, 3L, 30L, 2L, "hello world");
+        add(shard, 4L, 10L, 3L, "hello world");
+        add(shard, 5L, 20L, 1L, "world");
+        shard.flush(5L);
+
+        assertEquals(Set.of(2L), messageIds(shard.search(1L, List.of("hello"))));
+        assertEquals(Set.of(3L), messageIds(shard.search(2L, List.of("hello", "world"))));
+        assertEquals(Set.of(1L, 4L), messageIds(shard.search(3L, List.of("hello"))));
+        assertEquals(Set.of(4L), messageIds(shard.search(3L, List.of("world", "hello"))));
+        assertTrue(shard.search(4L, List.of("hello")).isEmpty());
+        SearchHit hit = shard.search(1L, List.of("world")).get(0);
+        assertEquals(5L, hit.messageId());
+        assertEquals(20L, hit.conversationId());
+    }
+
+    @Test
+    void testMergeLeavesLargeSegmentUntouched() throws Exception {
+        IndexShard shard = IndexShard.open(directory);
+        for (long id = 1; id <= 5; id++) {
+            add(shard, id, 10L, 1L, "大段 hello");
+        }
+        shard.flush(5L);
+        Path large = directory.resolve("seg-000000000001.idx");
+        for (long id = 6; id <= 9; id++) {
+            add(shard, id, 10L, 1L, "小段 hello");
+            shard.flush(id);
+        }
+
+        // 5个段，上限4：只合并最小的两个
+        shard.mergeIfNeeded(4, 2);
+
+        assertEquals(4, shard.segmentCount());
+        assertTrue(Files.exists(large));
+        assertEquals(9, shard.search(1L, List.of("hello")).size());
+        assertEquals(9, IndexShard.open(directory).search(1L, List.of("hello")).size());
+    }
+
+    private Set<Long> messageIds(List<SearchHit> hits) {
+        Set<Long> ids = new HashSet<>();
+        for (SearchHit hit : hits) {
+            ids.add(hit.messageId());
+        }
+        return ids;
+    }
+
+    private void add(IndexShard shard, long messageId, long conversationId, long userId, String content) {
+        List<SearchTokenizer.Token> tokens = SearchTokenizer.tokenize(content);
+        shard.add(new IndexedDocument(messageId, conversationId, userId, tokens.size()), tokens);
+    }
+}
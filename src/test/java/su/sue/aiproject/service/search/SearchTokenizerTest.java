@@ -0,0 +1,49 @@
+package su.sue.aiproject.service.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SearchTokenizer 测试类
+ */
+class SearchTokenizerTest {
+
+    @Test
+    void testCjkIsSplitIntoBigramsWithOffsets() {
+        List<SearchTokenizer.Token> tokens = SearchTokenizer.tokenize("介绍你自己");
+
+        assertEquals(List.of("介绍", "绍你", "你自", "自己"), tokens.stream().map(SearchTokenizer.Token::term).toList());
+        assertEquals(3, tokens.get(3).start());
+        assertEquals(5, tokens.get(3).end());
+    }
+
+    @Test
+    void testMixedTextKeepsWordsAndSingleCharacters() {
+        List<SearchTokenizer.Token> tokens = SearchTokenizer.tokenize("用Java写 HTTP-Client，好");
+
+        assertEquals(List.of("用", "java", "写", "http", "client", "好"),
+                tokens.stream().map(SearchTokenizer.Token::term).toList());
+        assertEquals(1, tokens.get(1).start());
+        assertEquals(5, tokens.get(1).end());
+    }
+
+    @Test
+    void testOffsetsCountCodePoints() {
+        // 表情符号占两个UTF-16单元，但只算一个字符
+        List<SearchTokenizer.Token> tokens = SearchTokenizer.tokenize("\uD83D\uDE00你好");
+
+        assertEquals("你好", tokens.get(0).term());
+        assertEquals(1, tokens.get(0).start());
+        assertEquals(3, tokens.get(0).end());
+    }
+
+    @Test
+    void testSingleCjkQueryIsNotIndexable() {
+        assertFalse(SearchTokenizer.isIndexable(SearchTokenizer.queryTerms("猫")));
+        assertFalse(SearchTokenizer.isIndexable(SearchTokenizer.queryTerms("，。")));
+        assertTrue(SearchTokenizer.isIndexable(SearchTokenizer.queryTerms("猫咪 java")));
+    }
+}
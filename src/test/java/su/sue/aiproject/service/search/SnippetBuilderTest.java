@@ -0,0 +1,45 @@
+package su.sue.aiproject.service.search;
+
+import org.junit.jupiter.api.Test;
+import su.sue.aiproject.domain.dto.HighlightRange;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SnippetBuilder 测试类
+ */
+class SnippetBuilderTest {
+
+    @Test
+    void testWindowCoversDensestMatchesAndMergesBigrams() {
+        // 位置5有一次命中，位置100附近有两次命中（每次由两个重叠的二元组组成）
+        int[] offsets = {5, 7, 100, 102, 101, 103, 110, 112, 111, 113};
+
+        SnippetBuilder.Window window = SnippetBuilder.window(offsets, 30, 10);
+
+        assertEquals(90, window.start());
+        assertArrayEquals(new int[]{10, 13, 20, 23}, window.highlights());
+    }
+
+    @Test
+    void testHighlightsAreClippedAndConvertedToUtf16() {
+        String snippet = "😀介绍你";
+
+        List<HighlightRange> ranges = SnippetBuilder.highlights(snippet, new int[]{1, 4, 5, 8});
+
+        assertEquals(List.of(new HighlightRange(2, 5)), ranges);
+    }
+
+    @Test
+    void testFindAndCutForDatabaseResults() {
+        String content = "Java 与 JAVA 都能命中";
+
+        int[] offsets = SnippetBuilder.find(content, "java");
+        SnippetBuilder.Window window = SnippetBuilder.window(offsets, 8, 0);
+
+        assertArrayEquals(new int[]{0, 4, 7, 11}, offsets);
+        assertEquals("Java 与 J", SnippetBuilder.cut(content, window));
+    }
+}